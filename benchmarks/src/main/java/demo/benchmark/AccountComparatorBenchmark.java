@@ -0,0 +1,61 @@
+package demo.benchmark;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.processor.AccountComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of AccountComparator on its own and when ordering the per account
+ * version queue.
+ * @author skarmali
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AccountComparatorBenchmark {
+    private static final int VERSIONS = 64;
+
+    private final AccountComparator comparator = new AccountComparator();
+    private Account[] accounts;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        accounts = new Account[VERSIONS];
+        for (int i = 0; i < VERSIONS; i++) {
+            // Shuffle the versions so the queue does real work
+            accounts[i] = BenchmarkAccounts.createAccount("id", AccountType.MINT, i, (i * 37) % VERSIONS);
+        }
+    }
+
+    @Benchmark
+    public int compare() {
+        final int i = index++ & (VERSIONS - 1);
+        return comparator.compare(accounts[i], accounts[(i + 1) & (VERSIONS - 1)]);
+    }
+
+    @Benchmark
+    public Account versionQueue() {
+        final PriorityQueue<Account> versions = new PriorityQueue<>(2, comparator);
+        for (Account account : accounts) {
+            versions.add(account);
+        }
+        return versions.peek();
+    }
+}
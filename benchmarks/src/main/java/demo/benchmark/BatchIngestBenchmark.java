@@ -0,0 +1,95 @@
+package demo.benchmark;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.processor.AccountIndexerProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accounts per second of AccountIndexerProcessor for micro-batches of accounts, handed over
+ * one by one (handleAccountProcessing) or as a batch (handleAccountBatch).
+ * CHURN batches hold several versions of a handful of hot ids, so batching saves the
+ * callbacks that would be scheduled then cancelled.  FANOUT batches hold distinct ids.
+ * @author skarmali
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class BatchIngestBenchmark {
+    private static final int BATCH_SIZE = 256;
+    private static final int HOT_ACCOUNTS = 16;
+    private static final int WIDE_ACCOUNTS = 1 << 20;
+
+    @Param({"CHURN", "FANOUT"})
+    public String pattern;
+
+    private String[] ids;
+    private AccountIndexerProcessor processor;
+    private int sequence;
+
+    @Setup(Level.Trial)
+    public void setUpIds() {
+        BenchmarkAccounts.quietLogging();
+        ids = BenchmarkAccounts.createIds("CHURN".equals(pattern) ? HOT_ACCOUNTS : WIDE_ACCOUNTS, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpProcessor() {
+        processor = new AccountIndexerProcessor();
+        sequence = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownProcessor() {
+        processor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Account> oneByOne() {
+        final List<Account> batch = nextBatch();
+        batch.forEach(processor::handleAccountProcessing);
+        return batch;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Account> batch() {
+        final List<Account> batch = nextBatch();
+        processor.handleAccountBatch(batch);
+        return batch;
+    }
+
+    private List<Account> nextBatch() {
+        final List<Account> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            final int n = sequence++;
+            final int idIndex = n & (ids.length - 1);
+
+            // Each pass over the ids is a new version of every account
+            final int version = n / ids.length + 1;
+            batch.add(BenchmarkAccounts.createAccount(ids[idIndex], AccountType.values()[idIndex % 7], n & 1023, version));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,101 @@
+package demo.benchmark;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Synthetic accounts and JSON feeds for the benchmarks.  The accounts follow the
+ * shape of coding-challenge-input.json: base58 ids and a data schema per account type.
+ * @author skarmali
+ */
+final class BenchmarkAccounts {
+    private static final String BASE58 = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+    private static final String[] JSON_TYPES = {"mint", "metadata", "masterEdition", "auction", "auctionData", "account", "escrow"};
+
+    private BenchmarkAccounts() {
+    }
+
+    /**
+     * Per account logging would dominate the measurements, only keep warnings
+     */
+    static void quietLogging() {
+        Logger.getRootLogger().setLevel(Level.WARN);
+    }
+
+    static String[] createIds(int count, long seed) {
+        final Random random = new Random(seed);
+        final String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = createId(random);
+        }
+        return ids;
+    }
+
+    static Account createAccount(String id, AccountType type, int tokens, int version) {
+        final Account account = new Account();
+        account.setId(id);
+        account.setAccountType(type);
+        account.setTokens(tokens);
+        account.setCallbackTimeMs(1);
+        account.setVersion(version);
+        return account;
+    }
+
+    /**
+     * @return a JSON array of accounts in the format of coding-challenge-input.json
+     */
+    static byte[] createJsonArray(int count, long seed) {
+        final Random random = new Random(seed);
+        final StringBuilder json = new StringBuilder(count * 220);
+        json.append("[\n");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(",\n");
+            }
+            appendAccountJson(json, random);
+        }
+        json.append("\n]\n");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendAccountJson(StringBuilder json, Random random) {
+        final String id = createId(random);
+        final String type = JSON_TYPES[random.nextInt(JSON_TYPES.length)];
+
+        json.append("  {\n    \"id\": \"").append(id).append("\",\n")
+            .append("    \"accountType\": \"").append(type).append("\",\n")
+            .append("    \"tokens\": ").append(random.nextInt(1000)).append(",\n")
+            .append("    \"callbackTimeMs\": ").append(random.nextInt(100) * 100).append(",\n")
+            .append("    \"data\": {");
+        switch (type) {
+            case "mint":
+            case "metadata":
+                json.append("\n      \"mintId\": \"").append(id).append("\"\n    ");
+                break;
+            case "masterEdition":
+                json.append("\n      \"img\": \"https://arweave.net/").append(createId(random)).append("\"\n    ");
+                break;
+            case "auction":
+            case "auctionData":
+                json.append("\n      \"expiry\": ").append(random.nextInt(100_000) - 1)
+                    .append(",\n      \"currentBid\": ").append(random.nextInt(1000)).append("\n    ");
+                break;
+            default:
+                break;
+        }
+        json.append("},\n    \"version\": ").append(random.nextInt(10) + 1).append("\n  }");
+    }
+
+    private static String createId(Random random) {
+        final char[] id = new char[44];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = BASE58.charAt(random.nextInt(BASE58.length()));
+        }
+        return new String(id);
+    }
+}
@@ -0,0 +1,123 @@
+package demo.benchmark;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.ProcessAccountRunnable;
+import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessorConfig;
+import demo.processor.ExecutorStrategy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the same load through AccountIndexerProcessor with every executor strategy and
+ * reports the peak number of live threads, the ingest throughput and how late the
+ * callbacks fire (callbackTimeMs after the account was handed over is on time).
+ * Not a JMH benchmark since thread count and lateness are measured over a whole run.
+ *
+ * java -cp target/benchmarks.jar demo.benchmark.ExecutorComparison [accounts] [producers] [strategies...]
+ * @author skarmali
+ */
+public class ExecutorComparison {
+    private static final int ACCOUNT_IDS = 4096;
+    private static final int MAX_CALLBACK_TIME_MS = 200;
+
+    public static void main(String[] args) throws InterruptedException {
+        BenchmarkAccounts.quietLogging();
+
+        final int accountCount = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        final int producers = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final List<ExecutorStrategy> strategies = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            strategies.add(ExecutorStrategy.valueOf(args[i]));
+        }
+        if (strategies.isEmpty()) {
+            strategies.addAll(Arrays.asList(ExecutorStrategy.values()));
+        }
+
+        System.out.println("accounts=" + accountCount + " producers=" + producers + " ids=" + ACCOUNT_IDS
+                + " virtualThreads=" + ExecutorStrategy.isVirtualThreadSupported());
+        System.out.println(String.format("%-10s %12s %14s %10s %10s %10s %10s",
+                "strategy", "peakThreads", "accounts/s", "late p50", "late p99", "late max", "fired"));
+
+        for (ExecutorStrategy strategy : strategies) {
+            // Once to warm up, once measured
+            run(strategy, accountCount / 4, producers);
+            System.out.println(run(strategy, accountCount, producers));
+        }
+    }
+
+    private static String run(ExecutorStrategy strategy, int accountCount, int producers) throws InterruptedException {
+        final List<Account> accounts = createAccounts(accountCount);
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig().setExecutorStrategy(strategy));
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        final CountDownLatch done = new CountDownLatch(producers);
+        final long start = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            final Thread thread = new Thread(() -> {
+                for (int i = producer; i < accounts.size(); i += producers) {
+                    processor.handleAccountProcessing(accounts.get(i));
+                }
+                done.countDown();
+            }, "producer-" + p);
+            thread.start();
+        }
+        done.await();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        processor.shutdown();
+        final int peakThreads = threads.getPeakThreadCount();
+
+        // Lateness of the callbacks that fired, the cancelled ones never fire
+        final long[] lateness = accounts.stream()
+                .map(Account::getProcessAccountRunnable)
+                .filter(runnable -> runnable != null && runnable.getCallbackLatenessNanos() >= 0)
+                .mapToLong(ProcessAccountRunnable::getCallbackLatenessNanos)
+                .sorted()
+                .toArray();
+
+        return String.format("%-10s %12d %14.0f %8.1fms %8.1fms %8.1fms %10d",
+                strategy, peakThreads, accountCount / seconds,
+                millis(percentile(lateness, 0.50)), millis(percentile(lateness, 0.99)), millis(percentile(lateness, 1.0)),
+                lateness.length);
+    }
+
+    /**
+     * Versions increase per id so most accounts supersede and cancel the previous version of their id
+     */
+    private static List<Account> createAccounts(int count) {
+        final Random random = new Random(42);
+        final String[] ids = BenchmarkAccounts.createIds(ACCOUNT_IDS, 42);
+        final List<Account> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int idIndex = i % ACCOUNT_IDS;
+            final Account account = BenchmarkAccounts.createAccount(ids[idIndex], AccountType.values()[idIndex % 7],
+                                                                    random.nextInt(1000), i / ACCOUNT_IDS + 1);
+            account.setCallbackTimeMs(random.nextInt(MAX_CALLBACK_TIME_MS));
+            accounts.add(account);
+        }
+        return accounts;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
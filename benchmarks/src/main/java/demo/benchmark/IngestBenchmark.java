@@ -0,0 +1,94 @@
+package demo.benchmark;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessor;
+import demo.processor.ShardedAccountProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of AccountIndexerProcessor.handleAccountProcessing.
+ * CHURN updates a handful of hot account ids with ever increasing versions, so every
+ * ingest supersedes and cancels the previous callback.  FANOUT spreads the updates over
+ * a million account ids.
+ * INDEXER is AccountIndexerProcessor with per account id locks, SHARDED is the
+ * single-writer ShardedAccountProcessor with one shard per core.
+ * @author skarmali
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+    private static final int HOT_ACCOUNTS = 16;
+    private static final int WIDE_ACCOUNTS = 1 << 20;
+
+    @Param({"CHURN", "FANOUT"})
+    public String pattern;
+
+    @Param({"INDEXER", "SHARDED"})
+    public String engine;
+
+    private String[] ids;
+    private AccountProcessor processor;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUpIds() {
+        BenchmarkAccounts.quietLogging();
+        ids = BenchmarkAccounts.createIds("CHURN".equals(pattern) ? HOT_ACCOUNTS : WIDE_ACCOUNTS, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpProcessor() {
+        processor = "SHARDED".equals(engine) ? new ShardedAccountProcessor() : new AccountIndexerProcessor();
+        sequence.set(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownProcessor() {
+        processor.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Account ingestSingleThreaded() {
+        return ingest();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Account ingestMultiThreaded() {
+        return ingest();
+    }
+
+    private Account ingest() {
+        final int n = sequence.getAndIncrement();
+        final int idIndex = n & (ids.length - 1);
+
+        // Each pass over the ids is a new version of every account
+        final int version = n / ids.length + 1;
+        final Account account = BenchmarkAccounts.createAccount(ids[idIndex], AccountType.values()[idIndex % 7], n & 1023, version);
+        processor.handleAccountProcessing(account);
+        return account;
+    }
+}
@@ -0,0 +1,64 @@
+package demo.benchmark;
+
+import demo.json.Account;
+import demo.utilities.JsonUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of JsonUtils for a JSON array of accounts in the format of
+ * coding-challenge-input.json.  load parses the whole array into a list while
+ * stream hands each account over as soon as it is decoded.
+ * @author skarmali
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int accounts;
+
+    private final JsonUtils jsonUtils = new JsonUtils();
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        json = BenchmarkAccounts.createJsonArray(accounts, 42);
+    }
+
+    @Benchmark
+    public List<Account> load() {
+        return jsonUtils.loadJsonAccounts(reader());
+    }
+
+    @Benchmark
+    public long stream(Blackhole blackhole) throws IOException {
+        return jsonUtils.streamJsonAccounts(reader(), blackhole::consume);
+    }
+
+    private Reader reader() {
+        return new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8);
+    }
+}
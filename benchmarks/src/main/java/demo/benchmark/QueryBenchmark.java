@@ -0,0 +1,59 @@
+package demo.benchmark;
+
+import demo.json.AccountType;
+import demo.processor.AccountIndexerProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of AccountIndexerProcessor.getHighestTokenValueByAccountType as the
+ * number of indexed account versions grows.
+ * @author skarmali
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    @Param({"1000", "100000"})
+    public int accounts;
+
+    private AccountIndexerProcessor processor;
+    private int query;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkAccounts.quietLogging();
+        processor = new AccountIndexerProcessor();
+
+        final String[] ids = BenchmarkAccounts.createIds(accounts, 42);
+        for (int i = 0; i < accounts; i++) {
+            processor.handleAccountProcessing(BenchmarkAccounts.createAccount(ids[i], AccountType.values()[i % 7], i % 1000, 1));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        processor.shutdown();
+    }
+
+    @Benchmark
+    public int highestTokenValueByAccountType() {
+        return processor.getHighestTokenValueByAccountType(AccountType.values()[query++ % 7]);
+    }
+}
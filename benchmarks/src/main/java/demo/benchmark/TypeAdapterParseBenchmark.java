@@ -0,0 +1,87 @@
+package demo.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import demo.json.Account;
+import demo.utilities.JsonUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of the hand-written account type adapters against the reflective
+ * Gson binding JsonUtils used before.  The input is the bundled coding-challenge-input.json
+ * (124 accounts) repeated the given number of times.
+ * @author skarmali
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class TypeAdapterParseBenchmark {
+    private static final Type ACCOUNT_LIST = new TypeToken<List<Account>>() {
+    }.getType();
+
+    @Param({"10", "1000", "10000"})
+    public int copies;
+
+    private final Gson reflectiveGson = new Gson();
+    private final JsonUtils jsonUtils = new JsonUtils();
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final String bundled;
+        try (InputStream in = JsonUtils.class.getClassLoader().getResourceAsStream("coding-challenge-input.json")) {
+            bundled = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
+
+        // Strip the enclosing brackets and repeat the elements
+        final String elements = bundled.substring(1, bundled.length() - 1).trim();
+        final StringBuilder scaled = new StringBuilder(elements.length() * copies + 16);
+        scaled.append('[');
+        for (int i = 0; i < copies; i++) {
+            if (i > 0) {
+                scaled.append(',');
+            }
+            scaled.append(elements);
+        }
+        scaled.append(']');
+        json = scaled.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Account> reflective() {
+        return reflectiveGson.fromJson(reader(), ACCOUNT_LIST);
+    }
+
+    @Benchmark
+    public List<Account> typeAdapter() {
+        return jsonUtils.loadJsonAccounts(reader());
+    }
+
+    private Reader reader() {
+        return new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8);
+    }
+}
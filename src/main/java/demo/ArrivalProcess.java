@@ -0,0 +1,39 @@
+package demo;
+
+import java.util.Random;
+
+/**
+ * How the accounts of the load generator arrive over time.  Every process has the same
+ * mean rate, they differ in how the arrivals are spread around it.
+ * @author skarmali
+ */
+public enum ArrivalProcess {
+    // Evenly spaced arrivals, exactly one every 1/rate
+    UNIFORM,
+
+    // Exponentially distributed gaps, the arrivals of many independent clients
+    POISSON,
+
+    // Bursts of back-to-back arrivals separated by the silence that keeps the mean rate
+    BURSTY;
+
+    /**
+     * @param random      - random generator of the producer
+     * @param meanGapNanos - mean time between two arrivals, 1/rate
+     * @param burstSize   - number of arrivals in a burst of BURSTY
+     * @param sequence    - number of arrivals so far
+     * @return time between the previous arrival and the next one in nanoseconds
+     */
+    public long nextGapNanos(Random random, double meanGapNanos, int burstSize, long sequence) {
+        switch (this) {
+            case POISSON:
+                // Inverse transform sampling of the exponential distribution
+                return (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+            case BURSTY:
+                return (sequence % burstSize == 0) ? (long) (meanGapNanos * burstSize) : 0;
+            case UNIFORM:
+            default:
+                return (long) meanGapNanos;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package demo;
+
+/**
+ * What DynamicLoadDriver.submitAsync does when the intake queue is full
+ * @author skarmali
+ */
+public enum BackPressurePolicy {
+    // The submitting thread waits until an in-flight account has been processed
+    BLOCK,
+
+    // The oldest in-flight account that has not been processed yet is dropped
+    // (its future is cancelled) to make room for the new one
+    DROP_OLDEST,
+
+    // The new account is rejected, its future fails with a RejectedExecutionException
+    REJECT
+}
@@ -0,0 +1,36 @@
+package demo;
+
+import java.util.Random;
+
+/**
+ * Distribution of the callbackTimeMs of the accounts synthesized by the load generator
+ * @author skarmali
+ */
+public enum CallbackDistribution {
+    // Every account has the mean callback time
+    FIXED,
+
+    // Uniform between 0 and twice the mean, like the data file
+    UNIFORM,
+
+    // Exponential with the given mean, mostly short callbacks and a long tail.
+    // Capped at ten times the mean
+    EXPONENTIAL;
+
+    /**
+     * @param random - random generator of the producer
+     * @param meanMs - mean callback time in milliseconds
+     * @return callback time of the next account in milliseconds
+     */
+    public int nextCallbackTimeMs(Random random, int meanMs) {
+        switch (this) {
+            case UNIFORM:
+                return random.nextInt(2 * meanMs + 1);
+            case EXPONENTIAL:
+                return (int) Math.min(10L * meanMs, (long) (-Math.log(1 - random.nextDouble()) * meanMs));
+            case FIXED:
+            default:
+                return meanMs;
+        }
+    }
+}
@@ -2,28 +2,67 @@ package demo;
 
 import demo.json.Account;
 import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessorConfig;
+import demo.utilities.AccountFileTailer;
+import demo.utilities.Clock;
 import demo.utilities.JsonUtils;
+import demo.utilities.SimulatedClock;
+import demo.utilities.TaskTimer;
 import org.apache.log4j.BasicConfigurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * This is the main entry-point for simulating inbound accounts that arrive
  * in random time (0-1 seconds apart).  To simulate data, a data file exists
  * that contains data emulating indexing of data on the blockchain.
+ * With -Ddriver.async=true main submits the accounts with submitAsync instead: they
+ * are all in flight together, each with its own 0-1 second delay, so the versions of
+ * an account id can reach the processor out of order.
+ * A driver created with simulated() runs on a simulated clock: the ingestion delays and the
+ * callbacks are events in simulated time and a seeded random generator draws the delays,
+ * so a scenario runs as fast as the CPU allows and gives the same result for the same seed.
  * @author skarmali
  */
 public class DynamicLoadDriver {
     public static Logger logger = LoggerFactory.getLogger(DynamicLoadDriver.class);
 
+    public static final int DEFAULT_INTAKE_CAPACITY = 10_000;
+    private static final long SHUTDOWN_WINDOW_SECONDS = 20;
+
     private JobSchedular jobSchedular;
-    private AccountIndexerProcessor accountIndexer = new AccountIndexerProcessor();
+    private final AccountIndexerProcessor accountIndexer;
+
+    // Clock of the driver and the processor, and the generator of the ingestion delays.
+    // A null random uses ThreadLocalRandom
+    private final Clock clock;
+    private final Random random;
+
+    // Asynchronous intake.  The simulated ingestion delay is a timer wheel entry instead
+    // of a sleeping thread, and the number of in-flight accounts is bounded by the permits
+    private final BackPressurePolicy backPressurePolicy;
+    private final Semaphore intakePermits;
+    private final Deque<PendingIngest> intakeQueue = new ConcurrentLinkedDeque<>();
+    private final TaskTimer ingestionTimer;
+
+    // Hands the accounts to the processor when their delay expires, null with a simulated clock
+    // where the timer task does it on the thread driving the simulation
+    private final ExecutorService ingestPool;
 
     /**
      * Lambda expression to execute
@@ -33,18 +72,60 @@ public class DynamicLoadDriver {
     }
 
     public DynamicLoadDriver() {
+        this(DEFAULT_INTAKE_CAPACITY, BackPressurePolicy.BLOCK);
+    }
+
+    /**
+     * @param intakeCapacity     - maximum number of accounts submitted asynchronously that
+     *                           have not been handed to the processor yet
+     * @param backPressurePolicy - what to do when an account is submitted while the intake is full
+     */
+    public DynamicLoadDriver(int intakeCapacity, BackPressurePolicy backPressurePolicy) {
+        this(intakeCapacity, backPressurePolicy, AccountProcessorConfig.fromSystemProperties());
+    }
+
+    /**
+     * @param intakeCapacity     - maximum number of accounts submitted asynchronously that
+     *                           have not been handed to the processor yet
+     * @param backPressurePolicy - what to do when an account is submitted while the intake is full
+     * @param processorConfig    - configuration of the account processor
+     */
+    public DynamicLoadDriver(int intakeCapacity, BackPressurePolicy backPressurePolicy, AccountProcessorConfig processorConfig) {
+        this(intakeCapacity, backPressurePolicy, processorConfig, null);
+    }
+
+    /**
+     * @param intakeCapacity     - maximum number of accounts submitted asynchronously that
+     *                           have not been handed to the processor yet
+     * @param backPressurePolicy - what to do when an account is submitted while the intake is full
+     * @param processorConfig    - configuration of the account processor, its clock is used by the driver too
+     * @param random             - generator of the ingestion delays, null for ThreadLocalRandom
+     */
+    public DynamicLoadDriver(int intakeCapacity, BackPressurePolicy backPressurePolicy, AccountProcessorConfig processorConfig, Random random) {
+        if (intakeCapacity <= 0) {
+            throw new IllegalArgumentException("intakeCapacity must be greater than 0: " + intakeCapacity);
+        }
+        this.intakePermits = new Semaphore(intakeCapacity);
+        this.backPressurePolicy = backPressurePolicy;
+        this.clock = processorConfig.getClock();
+        this.random = random;
+        this.ingestionTimer = clock.newTimer("ingestion-timer");
+        this.ingestPool = clock.isSimulated() ? null : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.accountIndexer = new AccountIndexerProcessor(processorConfig);
+
         // Define lambda logic to randomly sleep to simulate a even distribution of load
         jobSchedular = (account -> {
             logger.info("*** Handling Account " + account.toString() + " ***");
+            account.setSubmittedNanos(clock.nanoTime());
 
             // To keep track of the number of accounts handled
             AtomicInteger accountCount = new AtomicInteger();
 
-            final int ingestionDelay = getRandomUniformDistribution();
+            final int ingestionDelay = nextIngestionDelay();
             logger.debug("\tGoing to delay " + ingestionDelay + " milliseconds");
 
             try {
-                TimeUnit.MILLISECONDS.sleep(ingestionDelay);
+                clock.sleep(ingestionDelay, TimeUnit.MILLISECONDS);
             } catch (InterruptedException ignored) {
             }
 
@@ -57,6 +138,26 @@ public class DynamicLoadDriver {
         });
     }
 
+    /**
+     * Create a driver on a simulated clock.  The simulation runs on the threads that submit
+     * accounts and shut the driver down, submit from a single thread for a deterministic run.
+     *
+     * @param seed            - seed of the ingestion delays
+     * @param processorConfig - configuration of the account processor, its clock is replaced by a new simulated clock
+     * @return driver whose clock is a SimulatedClock
+     */
+    public static DynamicLoadDriver simulated(long seed, AccountProcessorConfig processorConfig) {
+        processorConfig.setClock(new SimulatedClock());
+        return new DynamicLoadDriver(DEFAULT_INTAKE_CAPACITY, BackPressurePolicy.BLOCK, processorConfig, new Random(seed));
+    }
+
+    /**
+     * @return ingestion delay of the next account in milliseconds, drawn from the random generator of the driver
+     */
+    private int nextIngestionDelay() {
+        return (random == null) ? getRandomUniformDistribution() : random.nextInt(1001);
+    }
+
     /**
      * Each account comes into the system at a continuous uniform (random) distribution between 0
      * and 1000ms.
@@ -81,10 +182,183 @@ public class DynamicLoadDriver {
         return jobSchedular.submit(account);
     }
 
+    /**
+     * Submit the account without blocking.  The simulated ingestion delay is scheduled on a
+     * timer and the account is handed to the processor when it expires.  When the intake is
+     * full the back-pressure policy decides whether to wait, drop the oldest in-flight
+     * account or reject this one.
+     *
+     * @param account - Account to ingest
+     * @return future completed with the account once the processor has handled it, or
+     * completed exceptionally if the account cannot reach the processor
+     */
+    public CompletableFuture<Account> submitAsync(Account account) {
+        logger.info("*** Handling Account " + account.toString() + " ***");
+        account.setSubmittedNanos(clock.nanoTime());
+
+        final PendingIngest pendingIngest = new PendingIngest(account);
+        if (!admit(pendingIngest)) {
+            return pendingIngest.future;
+        }
+        if (backPressurePolicy == BackPressurePolicy.DROP_OLDEST) {
+            intakeQueue.add(pendingIngest);
+        }
+
+        final int ingestionDelay = nextIngestionDelay();
+        logger.debug("\tGoing to delay " + ingestionDelay + " milliseconds");
+
+        final Runnable ingestTask = (ingestPool != null) ? () -> handOver(pendingIngest) : () -> ingest(pendingIngest);
+        try {
+            pendingIngest.timeout = ingestionTimer.newTimeout(ingestTask, ingestionDelay, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // The driver is shut down
+            abandon(pendingIngest, e);
+            return pendingIngest.future;
+        }
+        if (backPressurePolicy == BackPressurePolicy.DROP_OLDEST) {
+            trimIntakeQueue();
+        }
+        return pendingIngest.future;
+    }
+
+    /**
+     * Take an intake permit according to the back-pressure policy
+     *
+     * @return false if the account was not admitted, its future has been completed
+     */
+    private boolean admit(PendingIngest pendingIngest) {
+        switch (backPressurePolicy) {
+            case BLOCK:
+                try {
+                    if (clock.isSimulated()) {
+                        // Nobody else moves the simulated time, advance it until an account is ingested
+                        while (!intakePermits.tryAcquire()) {
+                            clock.sleep(1, TimeUnit.MILLISECONDS);
+                        }
+                    } else {
+                        intakePermits.acquire();
+                    }
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    pendingIngest.future.completeExceptionally(e);
+                    return false;
+                }
+            case DROP_OLDEST:
+                while (!intakePermits.tryAcquire()) {
+                    if (!dropOldest()) {
+                        // Everything in flight is being handed to the processor right now
+                        Thread.yield();
+                    }
+                }
+                return true;
+            case REJECT:
+            default:
+                if (intakePermits.tryAcquire()) {
+                    return true;
+                }
+                logger.info("Intake is full, rejecting account " + pendingIngest.account.getId());
+                pendingIngest.future.completeExceptionally(new RejectedExecutionException("Intake is full"));
+                return false;
+        }
+    }
+
+    /**
+     * @return true if an in-flight account was dropped and its permit released
+     */
+    private boolean dropOldest() {
+        PendingIngest oldest;
+        while ((oldest = intakeQueue.pollFirst()) != null) {
+            if (oldest.state.compareAndSet(PendingIngest.PENDING, PendingIngest.DROPPED)) {
+                logger.info("Intake is full, dropping account " + oldest.account.getId() + ", version " + oldest.account.getVersion());
+
+                final TaskTimer.Timeout timeout = oldest.timeout;
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+                oldest.future.completeExceptionally(new CancellationException("Dropped by back-pressure"));
+                intakePermits.release();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hand an account whose delay expired to the ingest pool, from the timer thread
+     */
+    private void handOver(PendingIngest pendingIngest) {
+        try {
+            ingestPool.execute(() -> ingest(pendingIngest));
+        } catch (RejectedExecutionException e) {
+            abandon(pendingIngest, e);
+        }
+    }
+
+    /**
+     * Give up on an account that can no longer reach the processor: its future fails and its permit is released
+     */
+    private void abandon(PendingIngest pendingIngest, RuntimeException cause) {
+        if (pendingIngest.state.compareAndSet(PendingIngest.PENDING, PendingIngest.DROPPED)) {
+            logger.error("Unable to ingest account " + pendingIngest.account.getId(), cause);
+            if (backPressurePolicy == BackPressurePolicy.DROP_OLDEST) {
+                intakeQueue.remove(pendingIngest);
+            }
+            pendingIngest.future.completeExceptionally(cause);
+            intakePermits.release();
+        }
+    }
+
+    private void ingest(PendingIngest pendingIngest) {
+        if (!pendingIngest.state.compareAndSet(PendingIngest.PENDING, PendingIngest.INGESTING)) {
+            // Dropped while waiting
+            return;
+        }
+
+        try {
+            logger.info("Processing account.  Going to handle account " + pendingIngest.account.getId());
+            accountIndexer.handleAccountProcessing(pendingIngest.account);
+            pendingIngest.future.complete(pendingIngest.account);
+        } catch (RuntimeException e) {
+            logger.error("Error processing account " + pendingIngest.account.getId(), e);
+            pendingIngest.future.completeExceptionally(e);
+        } finally {
+            intakePermits.release();
+        }
+    }
+
+    /**
+     * The intake queue keeps accounts in submission order, only for DROP_OLDEST.  Accounts that have
+     * already been processed are removed from the head, so the queue only holds the accounts
+     * submitted within the last ingestion delay window.
+     */
+    private void trimIntakeQueue() {
+        PendingIngest head;
+        while ((head = intakeQueue.peekFirst()) != null && head.state.get() != PendingIngest.PENDING) {
+            intakeQueue.remove(head);
+        }
+    }
+
     /**
      * Shutdown the thread pool
      */
     public void shutdown() {
+        try {
+            // Let the accounts submitted asynchronously reach the processor
+            if (!ingestionTimer.awaitPending(SHUTDOWN_WINDOW_SECONDS, TimeUnit.SECONDS)) {
+                logger.error("Accounts submitted asynchronously were not ingested within the " + SHUTDOWN_WINDOW_SECONDS + " second window");
+            }
+            ingestionTimer.stop();
+            if (ingestPool != null) {
+                ingestPool.shutdown();
+            }
+            if (ingestPool != null && !ingestPool.awaitTermination(SHUTDOWN_WINDOW_SECONDS, TimeUnit.SECONDS)) {
+                logger.error("Accounts submitted asynchronously were not processed within the " + SHUTDOWN_WINDOW_SECONDS + " second window");
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
         accountIndexer.shutdown();
     }
 
@@ -92,27 +366,78 @@ public class DynamicLoadDriver {
         return accountIndexer;
     }
 
-    private void processAccounts(List<Account> accounts) {
-        accounts.forEach(account -> {
-            // Simulation starts after a delay
-            jobSchedular.submit(account);
-        });
+    /**
+     * @return clock of the driver and its processor
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Tail a newline-delimited JSON file of accounts until the JVM is stopped.  The JVM halts
+     * as soon as the shutdown hooks return, so the hook shuts the driver down itself
+     *
+     * @param ndjsonFile - file containing one account per line
+     * @param intake     - submit or submitAsync
+     */
+    private void tailAccounts(String ndjsonFile, Consumer<Account> intake) throws InterruptedException {
+        final AccountFileTailer tailer = new AccountFileTailer(Paths.get(ndjsonFile), intake, 100);
+        final Thread tailerThread = new Thread(tailer, "account-file-tailer");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            tailer.stop();
+            try {
+                tailerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            shutdown();
+        }));
 
+        tailerThread.start();
+        tailerThread.join();
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         // Enable log4j - configure log4j properties
         BasicConfigurator.configure();
 
         // Create a driver that simulates account updates in an
-        // asynchronous manner from JSON file
-        DynamicLoadDriver driver = new DynamicLoadDriver();
+        // asynchronous manner from JSON file.  -Ddriver.simulation.seed=N runs it in simulated time
+        final Long simulationSeed = Long.getLong("driver.simulation.seed");
+        DynamicLoadDriver driver = (simulationSeed != null) ? simulated(simulationSeed, AccountProcessorConfig.fromSystemProperties())
+                                                            : new DynamicLoadDriver();
         JsonUtils jsonUtils = new JsonUtils();
 
-        ArrayList<Account> accounts = jsonUtils.loadJsonAccountFile("coding-challenge-input.json");
-        driver.processAccounts(accounts);
+        // Accounts arrive one after the other unless -Ddriver.async=true puts them all in flight together
+        final Consumer<Account> intake = Boolean.getBoolean("driver.async") ? driver::submitAsync : driver::submit;
+        if (args.length > 0) {
+            // Follow a newline-delimited JSON feed as it grows, the driver is shut down when the JVM stops
+            driver.tailAccounts(args[0], intake);
+        } else {
+            // Each account is processed as soon as it is decoded from the file
+            final long accountCount = jsonUtils.streamJsonAccountFile("coding-challenge-input.json", intake);
+            logger.info("Streamed " + accountCount + " accounts");
+
+            // safely shutdown if no accounts to process
+            driver.shutdown();
+        }
+    }
+
+    /**
+     * An account submitted asynchronously that is waiting for its ingestion delay
+     */
+    private static class PendingIngest {
+        static final int PENDING = 0;
+        static final int INGESTING = 1;
+        static final int DROPPED = 2;
+
+        final Account account;
+        final CompletableFuture<Account> future = new CompletableFuture<>();
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        volatile TaskTimer.Timeout timeout;
 
-        // safely shutdown if no accounts to process
-        driver.shutdown();
+        PendingIngest(Account account) {
+            this.account = account;
+        }
     }
 }
@@ -0,0 +1,281 @@
+package demo;
+
+import demo.json.Account;
+import demo.metrics.IndexerMetrics;
+import demo.metrics.LatencyHistogram;
+import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessorConfig;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives an AccountIndexerProcessor with synthetic accounts at a target rate and reports
+ * the throughput and latency percentiles, to find the rate at which a build saturates.
+ * The load is open loop: every account has an intended send time given by the arrival
+ * process and its latency is measured from that time, so a processor that falls behind
+ * shows up as growing latencies instead of silently slowing the producers down.
+ *
+ * java -Dload.durationMs=10000 -Daccount.executor=BOUNDED demo.LoadGenerator [rate...]
+ * Each rate is run on a new processor, see LoadProfile and AccountProcessorConfig for the settings.
+ * @author skarmali
+ */
+public class LoadGenerator {
+    public static Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    // Below this the producer spins instead of parking, parking is not precise enough
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+    // Throughput below this fraction of the target rate means the processor is saturated
+    private static final double SATURATION_RATIO = 0.95;
+
+    private final LoadProfile profile;
+    private final AccountProcessorConfig processorConfig;
+    private final SyntheticAccounts accounts;
+
+    /**
+     * @param profile         - shape of the synthetic load
+     * @param processorConfig - configuration of the processors under load
+     */
+    public LoadGenerator(LoadProfile profile, AccountProcessorConfig processorConfig) {
+        this.profile = profile;
+        this.processorConfig = processorConfig;
+        this.accounts = new SyntheticAccounts(profile);
+    }
+
+    /**
+     * Drive a new processor at the rate of the profile
+     */
+    public Report run() throws InterruptedException {
+        return run(profile.getRate());
+    }
+
+    /**
+     * Drive a new processor at the rate for the duration of the profile, wait until it has
+     * indexed everything and fired the callbacks, then shut it down
+     *
+     * @param rate - target number of accounts per second across all producers
+     * @return throughput and latencies of the run
+     */
+    public Report run(double rate) throws InterruptedException {
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(processorConfig);
+        final LatencyHistogram sendLag = new LatencyHistogram();
+        final LongAdder sent = new LongAdder();
+
+        final int producers = profile.getProducers();
+        final long start = System.nanoTime() + START_DELAY_NANOS;
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(profile.getDurationMs());
+        final List<Thread> threads = new ArrayList<>(producers);
+        for (int i = 0; i < producers; i++) {
+            final SyntheticAccounts.Generator generator = accounts.newGenerator(i, producers);
+            final Random arrivals = new Random(profile.getSeed() + 7919L * (i + 1));
+            final Thread thread = new Thread(() -> produce(generator, arrivals, processor, rate / producers, start, deadline, sendLag, sent),
+                                             "load-producer-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long sendNanos = System.nanoTime() - start;
+
+        // Every account handed over records its index latency once indexed
+        final IndexerMetrics metrics = processor.getMetrics();
+        final long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT_SECONDS);
+        while (metrics.getIndexLatency().getCount() < sent.sum() && System.nanoTime() - drainDeadline < 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        final long indexNanos = System.nanoTime() - start;
+        processor.shutdown();
+
+        return new Report(rate, sent.sum(), sendNanos, indexNanos, metrics, sendLag);
+    }
+
+    /**
+     * Hand the accounts of one producer to the processor at their intended send time
+     */
+    private void produce(SyntheticAccounts.Generator generator, Random arrivals, AccountIndexerProcessor processor, double rate,
+                         long start, long deadline, LatencyHistogram sendLag, LongAdder sent) {
+        final double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long intended = start;
+        long sequence = 0;
+        while (true) {
+            intended += profile.getArrivalProcess().nextGapNanos(arrivals, meanGapNanos, profile.getBurstSize(), sequence++);
+            if (intended - deadline >= 0) {
+                return;
+            }
+            waitUntil(intended);
+
+            final Account account = generator.next();
+            // The latency starts at the intended time, a late producer counts against the processor
+            account.setSubmittedNanos(intended);
+            try {
+                processor.handleAccountProcessing(account);
+            } catch (RuntimeException e) {
+                logger.error("Error submitting account " + account.getId(), e);
+                return;
+            }
+            sendLag.record(System.nanoTime() - intended);
+            sent.increment();
+        }
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // Per account logging would dominate the measurements, only keep warnings
+        BasicConfigurator.configure();
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        final LoadProfile profile = LoadProfile.fromSystemProperties();
+        final AccountProcessorConfig processorConfig = AccountProcessorConfig.fromSystemProperties();
+        final List<Double> rates = new ArrayList<>();
+        for (String arg : args) {
+            rates.add(Double.parseDouble(arg));
+        }
+        if (rates.isEmpty()) {
+            rates.add(profile.getRate());
+        }
+
+        System.out.println(profile);
+        System.out.println(processorConfig);
+        System.out.println(Report.header());
+        final LoadGenerator loadGenerator = new LoadGenerator(profile, processorConfig);
+        for (double rate : rates) {
+            System.out.println(loadGenerator.run(rate));
+        }
+    }
+
+    /**
+     * Throughput and latencies of one run.  Latencies are in milliseconds: index is from the
+     * intended send time to indexed, lag is how late the producers handed the accounts over
+     * and callback is how late the callbacks fired.
+     */
+    public static final class Report {
+        private final double targetRate;
+        private final long sent;
+        private final long sendNanos;
+        private final long indexNanos;
+        private final long indexed;
+        private final long duplicates;
+        private final long ignoredUpdates;
+        private final long callbacksFired;
+        private final LatencyHistogram indexLatency;
+        private final LatencyHistogram callbackLateness;
+        private final LatencyHistogram sendLag;
+
+        Report(double targetRate, long sent, long sendNanos, long indexNanos, IndexerMetrics metrics, LatencyHistogram sendLag) {
+            this.targetRate = targetRate;
+            this.sent = sent;
+            this.sendNanos = sendNanos;
+            this.indexNanos = indexNanos;
+            this.indexed = metrics.getAccountsIndexed();
+            this.duplicates = metrics.getDuplicates();
+            this.ignoredUpdates = metrics.getIgnoredUpdates();
+            this.callbacksFired = metrics.getCallbacksFired();
+            this.indexLatency = metrics.getIndexLatency();
+            this.callbackLateness = metrics.getCallbackLateness();
+            this.sendLag = sendLag;
+        }
+
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * @return accounts handed to the processor per second
+         */
+        public double getOfferedRate() {
+            return sent / seconds(sendNanos);
+        }
+
+        /**
+         * @return accounts indexed per second, until the last account sent was indexed
+         */
+        public double getThroughput() {
+            return sent / seconds(indexNanos);
+        }
+
+        /**
+         * @return true if the processor did not keep up with the target rate
+         */
+        public boolean isSaturated() {
+            return getThroughput() < SATURATION_RATIO * targetRate;
+        }
+
+        public long getIndexed() {
+            return indexed;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getIgnoredUpdates() {
+            return ignoredUpdates;
+        }
+
+        public long getCallbacksFired() {
+            return callbacksFired;
+        }
+
+        public LatencyHistogram getIndexLatency() {
+            return indexLatency;
+        }
+
+        public LatencyHistogram getCallbackLateness() {
+            return callbackLateness;
+        }
+
+        public LatencyHistogram getSendLag() {
+            return sendLag;
+        }
+
+        public static String header() {
+            return String.format("%10s %10s %10s %10s %10s %10s %10s %10s %10s %10s %10s %10s %10s",
+                    "target/s", "offered/s", "indexed/s", "sent", "dup", "ignored", "index p50", "index p99", "index p999",
+                    "index max", "lag p99", "cb p99", "saturated");
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%10.0f %10.0f %10.0f %10d %10d %10d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f %10s",
+                    targetRate, getOfferedRate(), getThroughput(), sent, duplicates, ignoredUpdates,
+                    millis(indexLatency.getValueAtPercentile(50)), millis(indexLatency.getValueAtPercentile(99)),
+                    millis(indexLatency.getValueAtPercentile(99.9)), millis(indexLatency.getMax()),
+                    millis(sendLag.getValueAtPercentile(99)), millis(callbackLateness.getValueAtPercentile(99)), isSaturated());
+        }
+
+        private static double seconds(long nanos) {
+            return Math.max(1, nanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        }
+
+        private static double millis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
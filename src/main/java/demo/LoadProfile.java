@@ -0,0 +1,223 @@
+package demo;
+
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Shape of the synthetic load of LoadGenerator.  Every setting has a default so only the
+ * settings that differ need to be set.  The profile can also be read from properties
+ * (for example -Dload.rate=50000 on the command line):
+ * - load.accountIds: number of distinct account ids
+ * - load.versionChurn: probability that an update of a known id carries a new version,
+ *   the other updates re-send one of its versions (duplicate or stale)
+ * - load.callbackDistribution: FIXED, UNIFORM (default) or EXPONENTIAL
+ * - load.callbackMeanMs: mean callback time
+ * - load.arrivalProcess: UNIFORM, POISSON (default) or BURSTY
+ * - load.burstSize: number of back-to-back arrivals of a BURSTY burst
+ * - load.rate: target number of accounts per second, across all producers
+ * - load.durationMs: time each rate is driven for
+ * - load.producers: number of producer threads
+ * - load.seed: seed of the synthetic accounts and arrivals
+ * @author skarmali
+ */
+public class LoadProfile {
+    public static final String PROPERTY_PREFIX = "load.";
+
+    private int accountIds = 10_000;
+    private double versionChurn = 0.8;
+    private CallbackDistribution callbackDistribution = CallbackDistribution.UNIFORM;
+    private int callbackMeanMs = 100;
+    private ArrivalProcess arrivalProcess = ArrivalProcess.POISSON;
+    private int burstSize = 100;
+    private double rate = 10_000;
+    private long durationMs = 10_000;
+    private int producers = 1;
+    private long seed = 1;
+
+    /**
+     * @return profile read from the system properties
+     */
+    public static LoadProfile fromSystemProperties() {
+        return fromProperties(System.getProperties());
+    }
+
+    /**
+     * @param properties - properties with the load. prefix, missing ones keep their default
+     * @return profile read from the properties
+     */
+    public static LoadProfile fromProperties(Properties properties) {
+        final LoadProfile profile = new LoadProfile();
+
+        final String accountIds = property(properties, "accountIds");
+        if (accountIds != null) {
+            profile.setAccountIds(Integer.parseInt(accountIds));
+        }
+        final String versionChurn = property(properties, "versionChurn");
+        if (versionChurn != null) {
+            profile.setVersionChurn(Double.parseDouble(versionChurn));
+        }
+        final String callbackDistribution = property(properties, "callbackDistribution");
+        if (callbackDistribution != null) {
+            profile.setCallbackDistribution(CallbackDistribution.valueOf(callbackDistribution.toUpperCase(Locale.ROOT)));
+        }
+        final String callbackMeanMs = property(properties, "callbackMeanMs");
+        if (callbackMeanMs != null) {
+            profile.setCallbackMeanMs(Integer.parseInt(callbackMeanMs));
+        }
+        final String arrivalProcess = property(properties, "arrivalProcess");
+        if (arrivalProcess != null) {
+            profile.setArrivalProcess(ArrivalProcess.valueOf(arrivalProcess.toUpperCase(Locale.ROOT)));
+        }
+        final String burstSize = property(properties, "burstSize");
+        if (burstSize != null) {
+            profile.setBurstSize(Integer.parseInt(burstSize));
+        }
+        final String rate = property(properties, "rate");
+        if (rate != null) {
+            profile.setRate(Double.parseDouble(rate));
+        }
+        final String durationMs = property(properties, "durationMs");
+        if (durationMs != null) {
+            profile.setDurationMs(Long.parseLong(durationMs));
+        }
+        final String producers = property(properties, "producers");
+        if (producers != null) {
+            profile.setProducers(Integer.parseInt(producers));
+        }
+        final String seed = property(properties, "seed");
+        if (seed != null) {
+            profile.setSeed(Long.parseLong(seed));
+        }
+        return profile;
+    }
+
+    private static String property(Properties properties, String name) {
+        final String value = properties.getProperty(PROPERTY_PREFIX + name);
+        return (value == null || value.trim().isEmpty()) ? null : value.trim();
+    }
+
+    public int getAccountIds() {
+        return accountIds;
+    }
+
+    public LoadProfile setAccountIds(int accountIds) {
+        if (accountIds <= 0) {
+            throw new IllegalArgumentException("accountIds must be greater than 0: " + accountIds);
+        }
+        this.accountIds = accountIds;
+        return this;
+    }
+
+    public double getVersionChurn() {
+        return versionChurn;
+    }
+
+    /**
+     * @param versionChurn - between 0 and 1, 1 makes every update of a known id a new version
+     */
+    public LoadProfile setVersionChurn(double versionChurn) {
+        if (versionChurn < 0 || versionChurn > 1) {
+            throw new IllegalArgumentException("versionChurn must be between 0 and 1: " + versionChurn);
+        }
+        this.versionChurn = versionChurn;
+        return this;
+    }
+
+    public CallbackDistribution getCallbackDistribution() {
+        return callbackDistribution;
+    }
+
+    public LoadProfile setCallbackDistribution(CallbackDistribution callbackDistribution) {
+        this.callbackDistribution = callbackDistribution;
+        return this;
+    }
+
+    public int getCallbackMeanMs() {
+        return callbackMeanMs;
+    }
+
+    public LoadProfile setCallbackMeanMs(int callbackMeanMs) {
+        if (callbackMeanMs < 0) {
+            throw new IllegalArgumentException("callbackMeanMs must not be negative: " + callbackMeanMs);
+        }
+        this.callbackMeanMs = callbackMeanMs;
+        return this;
+    }
+
+    public ArrivalProcess getArrivalProcess() {
+        return arrivalProcess;
+    }
+
+    public LoadProfile setArrivalProcess(ArrivalProcess arrivalProcess) {
+        this.arrivalProcess = arrivalProcess;
+        return this;
+    }
+
+    public int getBurstSize() {
+        return burstSize;
+    }
+
+    public LoadProfile setBurstSize(int burstSize) {
+        if (burstSize <= 0) {
+            throw new IllegalArgumentException("burstSize must be greater than 0: " + burstSize);
+        }
+        this.burstSize = burstSize;
+        return this;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate - target number of accounts per second across all producers
+     */
+    public LoadProfile setRate(double rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be greater than 0: " + rate);
+        }
+        this.rate = rate;
+        return this;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public LoadProfile setDurationMs(long durationMs) {
+        if (durationMs <= 0) {
+            throw new IllegalArgumentException("durationMs must be greater than 0: " + durationMs);
+        }
+        this.durationMs = durationMs;
+        return this;
+    }
+
+    public int getProducers() {
+        return producers;
+    }
+
+    public LoadProfile setProducers(int producers) {
+        if (producers <= 0) {
+            throw new IllegalArgumentException("producers must be greater than 0: " + producers);
+        }
+        this.producers = producers;
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public LoadProfile setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadProfile(accountIds=" + accountIds + ", versionChurn=" + versionChurn
+                + ", callbackDistribution=" + callbackDistribution + ", callbackMeanMs=" + callbackMeanMs
+                + ", arrivalProcess=" + arrivalProcess + ", burstSize=" + burstSize + ", rate=" + rate
+                + ", durationMs=" + durationMs + ", producers=" + producers + ", seed=" + seed + ")";
+    }
+}
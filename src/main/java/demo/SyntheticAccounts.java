@@ -0,0 +1,162 @@
+package demo;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic accounts in the shape of coding-challenge-input.json for the load generator.
+ * The universe of account ids is created once from the seed: each id has a fixed account
+ * type and the data schema of that type (mint ids for mint and metadata, images for
+ * metadata and master editions, expiry and bids for auctions, no data for accounts and
+ * escrows).  Metadata accounts reference the mint ids of mint accounts.
+ * Accounts are drawn from generators, one per producer thread, that own a partition of
+ * the ids so the versions of an id only move forward on one thread.
+ * @author skarmali
+ */
+public class SyntheticAccounts {
+    private static final String BASE58 = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+    private static final String IMAGE_URL = "https://arweave.net/";
+
+    private final LoadProfile profile;
+    private final String[] ids;
+    private final AccountType[] types;
+
+    // Mint id of the MINT and mint META_DATA accounts, image of the others with an image schema
+    private final String[] mintIds;
+    private final String[] images;
+
+    public SyntheticAccounts(LoadProfile profile) {
+        this.profile = profile;
+        final int count = profile.getAccountIds();
+        final Random random = new Random(profile.getSeed());
+        final AccountType[] accountTypes = AccountType.values();
+
+        ids = new String[count];
+        types = new AccountType[count];
+        final List<String> mints = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids[i] = createId(random);
+            types[i] = accountTypes[random.nextInt(accountTypes.length)];
+            if (types[i] == AccountType.MINT) {
+                mints.add(ids[i]);
+            }
+        }
+
+        mintIds = new String[count];
+        images = new String[count];
+        for (int i = 0; i < count; i++) {
+            switch (types[i]) {
+                case MINT:
+                    mintIds[i] = ids[i];
+                    break;
+                case META_DATA:
+                    // Like the data file, half of the metadata accounts point to a mint and half have an image
+                    if (!mints.isEmpty() && random.nextBoolean()) {
+                        mintIds[i] = mints.get(random.nextInt(mints.size()));
+                    } else {
+                        images[i] = IMAGE_URL + createId(random);
+                    }
+                    break;
+                case MASTER_EDITION:
+                    images[i] = IMAGE_URL + createId(random);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    public int getAccountIdCount() {
+        return ids.length;
+    }
+
+    /**
+     * @param partition  - index of the generator, from 0 to partitions - 1
+     * @param partitions - number of generators sharing the ids
+     * @return generator of the accounts of the ids of the partition, to be used by a single thread
+     */
+    public Generator newGenerator(int partition, int partitions) {
+        if (partition < 0 || partition >= partitions) {
+            throw new IllegalArgumentException("partition must be between 0 and " + (partitions - 1) + ": " + partition);
+        }
+        if (partitions > ids.length) {
+            throw new IllegalArgumentException("Cannot split " + ids.length + " account ids into " + partitions + " partitions");
+        }
+        return new Generator(partition, partitions);
+    }
+
+    private static String createId(Random random) {
+        final char[] id = new char[44];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = BASE58.charAt(random.nextInt(BASE58.length()));
+        }
+        return new String(id);
+    }
+
+    /**
+     * Draws the accounts of a partition of the ids.  Not thread safe.
+     */
+    public final class Generator {
+        private final Random random;
+        private final int partition;
+        private final int partitions;
+        private final int idCount;
+
+        // Highest version sent for each id of the partition, 0 if the id has not been sent yet
+        private final int[] versions;
+
+        private Generator(int partition, int partitions) {
+            this.random = new Random(profile.getSeed() * 31 + partition);
+            this.partition = partition;
+            this.partitions = partitions;
+            this.idCount = (ids.length - partition + partitions - 1) / partitions;
+            this.versions = new int[idCount];
+        }
+
+        /**
+         * @return a new account of a random id of the partition: its first version, a new version
+         * with the version churn probability or else one of the versions already sent
+         */
+        public Account next() {
+            final int slot = random.nextInt(idCount);
+            final int index = partition + slot * partitions;
+
+            final int version;
+            if (versions[slot] == 0 || random.nextDouble() < profile.getVersionChurn()) {
+                version = ++versions[slot];
+            } else {
+                version = 1 + random.nextInt(versions[slot]);
+            }
+
+            final Account account = new Account();
+            account.setId(ids[index]);
+            account.setAccountType(types[index]);
+            account.setTokens(random.nextInt(1000));
+            account.setCallbackTimeMs(profile.getCallbackDistribution().nextCallbackTimeMs(random, profile.getCallbackMeanMs()));
+            account.setVersion(version);
+            account.setData(createData(index));
+            return account;
+        }
+
+        private Data createData(int index) {
+            final Data data = new Data();
+            switch (types[index]) {
+                case AUCTION:
+                case AUCTION_DATA:
+                    data.setExpiry(random.nextInt(100_000) - 1);
+                    data.setCurrentBid(random.nextInt(1000));
+                    break;
+                default:
+                    data.setMintId(mintIds[index]);
+                    data.setImg(images[index]);
+                    break;
+            }
+            return data;
+        }
+    }
+}
@@ -75,14 +75,19 @@ public class Account {
     }
 
 
-    // Used to keep track on whether this account has been injested
-    private transient boolean isIngested;
+    // Used to keep track on whether this account has been injested.  Set by the
+    // callback timer thread and read by the processor
+    private transient volatile boolean isIngested;
 
     // We save a reference to the runnable class so we have control
     // so we can stop processing this account version if a newer
-    // version of the account with same id is processed
-    private transient ProcessAccountRunnable processAccountRunnable;
+    // version of the account with same id is processed.  Set under the lock of the account
+    // id, read by the thread indexing the newer version
+    private transient volatile ProcessAccountRunnable processAccountRunnable;
 
+    // Clock.nanoTime() of the driver when the account was submitted, 0 if it has not been submitted.
+    // Used to measure the latency from submit to indexed
+    private transient long submittedNanos;
 
     public Account() {
         isIngested = false;
@@ -104,6 +109,14 @@ public class Account {
         this.processAccountRunnable = processAccountRunnable;
     }
 
+    public long getSubmittedNanos() {
+        return submittedNanos;
+    }
+
+    public void setSubmittedNanos(long submittedNanos) {
+        this.submittedNanos = submittedNanos;
+    }
+
     @Override
     public int hashCode() {
         return super.hashCode();
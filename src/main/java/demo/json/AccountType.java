@@ -8,17 +8,55 @@ import com.google.gson.annotations.SerializedName;
  */
 public enum AccountType {
     @SerializedName("mint")
-    MINT,
+    MINT("mint"),
     @SerializedName("metadata")
-    META_DATA,
+    META_DATA("metadata"),
     @SerializedName("masterEdition")
-    MASTER_EDITION,
+    MASTER_EDITION("masterEdition"),
     @SerializedName("auction")
-    AUCTION,
+    AUCTION("auction"),
     @SerializedName("auctionData")
-    AUCTION_DATA,
+    AUCTION_DATA("auctionData"),
     @SerializedName("account")
-    ACCOUNT,
+    ACCOUNT("account"),
     @SerializedName("escrow")
-    ESCROW
+    ESCROW("escrow");
+
+    // Name of the account type in the JSON feed
+    private final String jsonName;
+
+    AccountType(String jsonName) {
+        this.jsonName = jsonName;
+    }
+
+    public String getJsonName() {
+        return jsonName;
+    }
+
+    /**
+     * Map the account type name used in the JSON feed to the enum without reflection
+     *
+     * @param jsonName - account type name in the JSON feed
+     * @return the account type or null if the name is unknown
+     */
+    public static AccountType fromJsonName(String jsonName) {
+        switch (jsonName) {
+            case "mint":
+                return MINT;
+            case "metadata":
+                return META_DATA;
+            case "masterEdition":
+                return MASTER_EDITION;
+            case "auction":
+                return AUCTION;
+            case "auctionData":
+                return AUCTION_DATA;
+            case "account":
+                return ACCOUNT;
+            case "escrow":
+                return ESCROW;
+            default:
+                return null;
+        }
+    }
 }
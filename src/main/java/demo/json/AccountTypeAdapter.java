@@ -0,0 +1,87 @@
+package demo.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Hand-written streaming Gson adapter for Account.  It decodes straight into the
+ * POJO without reflection and maps the accountType name to the enum with a switch.
+ * Unknown fields are skipped and an unknown accountType is decoded as null, the
+ * same as the reflective Gson binding.
+ * The adapter is stateless and can be shared between threads.
+ * @author skarmali
+ */
+public class AccountTypeAdapter extends TypeAdapter<Account> {
+    private final DataTypeAdapter dataTypeAdapter = new DataTypeAdapter();
+
+    @Override
+    public Account read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        final Account account = new Account();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    account.setId(JsonReaders.nextStringOrNull(in));
+                    break;
+                case "accountType":
+                    final String accountType = JsonReaders.nextStringOrNull(in);
+                    account.setAccountType((accountType != null) ? AccountType.fromJsonName(accountType) : null);
+                    break;
+                case "tokens":
+                    account.setTokens(JsonReaders.nextIntegerOrNull(in));
+                    break;
+                case "callbackTimeMs":
+                    account.setCallbackTimeMs(JsonReaders.nextIntegerOrNull(in));
+                    break;
+                case "data":
+                    account.setData(dataTypeAdapter.read(in));
+                    break;
+                case "version":
+                    account.setVersion(JsonReaders.nextIntegerOrNull(in));
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return account;
+    }
+
+    @Override
+    public void write(JsonWriter out, Account account) throws IOException {
+        if (account == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        if (account.getId() != null) {
+            out.name("id").value(account.getId());
+        }
+        if (account.getAccountType() != null) {
+            out.name("accountType").value(account.getAccountType().getJsonName());
+        }
+        if (account.getTokens() != null) {
+            out.name("tokens").value(account.getTokens());
+        }
+        if (account.getCallbackTimeMs() != null) {
+            out.name("callbackTimeMs").value(account.getCallbackTimeMs());
+        }
+        if (account.getData() != null) {
+            out.name("data");
+            dataTypeAdapter.write(out, account.getData());
+        }
+        out.name("version").value(account.getVersion());
+        out.endObject();
+    }
+}
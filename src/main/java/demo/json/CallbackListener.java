@@ -0,0 +1,27 @@
+package demo.json;
+
+/**
+ * Notified of the life cycle of an account callback, for example to record metrics or
+ * to journal the callbacks that fired.  Called from the thread that schedules, fires
+ * or cancels the callback so implementations must be quick and thread safe.
+ * @author skarmali
+ */
+public interface CallbackListener {
+    /**
+     * The callback has been placed on the timer wheel
+     */
+    default void callbackScheduled(Account account) {
+    }
+
+    /**
+     * @param latenessNanos - how much later than its due time the callback fired
+     */
+    default void callbackFired(Account account, long latenessNanos) {
+    }
+
+    /**
+     * The callback was cancelled before it fired, in favor of a newer version
+     */
+    default void callbackCancelled(Account account) {
+    }
+}
@@ -15,6 +15,38 @@ public class Data {
     private Integer currentBid;
     private String mintId;
 
+    public String getImg() {
+        return img;
+    }
+
+    public void setImg(String img) {
+        this.img = img;
+    }
+
+    public Integer getExpiry() {
+        return expiry;
+    }
+
+    public void setExpiry(Integer expiry) {
+        this.expiry = expiry;
+    }
+
+    public Integer getCurrentBid() {
+        return currentBid;
+    }
+
+    public void setCurrentBid(Integer currentBid) {
+        this.currentBid = currentBid;
+    }
+
+    public String getMintId() {
+        return mintId;
+    }
+
+    public void setMintId(String mintId) {
+        this.mintId = mintId;
+    }
+
     public boolean isMintSchema() {
         return (mintId != null);
     }
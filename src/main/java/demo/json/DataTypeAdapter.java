@@ -0,0 +1,72 @@
+package demo.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Hand-written streaming Gson adapter for Data.  It decodes straight into the
+ * POJO without reflection.  Unknown fields are skipped.
+ * The adapter is stateless and can be shared between threads.
+ * @author skarmali
+ */
+public class DataTypeAdapter extends TypeAdapter<Data> {
+
+    @Override
+    public Data read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        final Data data = new Data();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "img":
+                    data.setImg(JsonReaders.nextStringOrNull(in));
+                    break;
+                case "expiry":
+                    data.setExpiry(JsonReaders.nextIntegerOrNull(in));
+                    break;
+                case "currentBid":
+                    data.setCurrentBid(JsonReaders.nextIntegerOrNull(in));
+                    break;
+                case "mintId":
+                    data.setMintId(JsonReaders.nextStringOrNull(in));
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return data;
+    }
+
+    @Override
+    public void write(JsonWriter out, Data data) throws IOException {
+        if (data == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        if (data.getImg() != null) {
+            out.name("img").value(data.getImg());
+        }
+        if (data.getExpiry() != null) {
+            out.name("expiry").value(data.getExpiry());
+        }
+        if (data.getCurrentBid() != null) {
+            out.name("currentBid").value(data.getCurrentBid());
+        }
+        if (data.getMintId() != null) {
+            out.name("mintId").value(data.getMintId());
+        }
+        out.endObject();
+    }
+}
@@ -0,0 +1,37 @@
+package demo.json;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Helpers shared by the hand-written type adapters to read nullable values
+ * @author skarmali
+ */
+final class JsonReaders {
+    private JsonReaders() {
+    }
+
+    static String nextStringOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    static Integer nextIntegerOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            // Same exception as the reflective binding
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
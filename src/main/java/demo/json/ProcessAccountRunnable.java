@@ -1,23 +1,50 @@
 package demo.json;
 
+import demo.utilities.TaskTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
+
 /**
- * This is manages the thread for the processing of
- * a single account.  To simulate processing, the thread
- * sleeps for a certain time (in milliseconds) based on
- * the account CallbackTimeMs.  This introduces a delay
+ * This is manages the processing of a single account.  To simulate
+ * processing, a callback is scheduled on a shared timing wheel that
+ * fires after a certain time (in milliseconds) based on the account
+ * CallbackTimeMs.  This introduces a delay without holding a thread
  * @author skarmali
  */
 public class ProcessAccountRunnable implements Runnable {
     public static Logger logger = LoggerFactory.getLogger(ProcessAccountRunnable.class);
 
     private final Account account;
-    private Thread runThread;
+    private final TaskTimer callbackTimer;
+
+    // Notified when the callback is scheduled, fires or is cancelled, may be null
+    private final CallbackListener listener;
+
+    // Guarded by this.  A stop() can arrive before the callback has been scheduled
+    private TaskTimer.Timeout callbackTimeout;
+    private boolean stopped;
+
+    // When the account was handed over, on the clock of the timer, to measure how late its callback fires
+    private final long createdNanos;
+    private long dueNanos;
+    private volatile long callbackLatenessNanos = -1;
+
+    public ProcessAccountRunnable(Account account, TaskTimer callbackTimer) {
+        this(account, callbackTimer, null);
+    }
 
-    public ProcessAccountRunnable(Account account) {
+    /**
+     * @param account       - account whose callback is scheduled
+     * @param callbackTimer - timer that fires the callback, usually a timer wheel
+     * @param listener      - notified when the callback is scheduled, fires or is cancelled, may be null
+     */
+    public ProcessAccountRunnable(Account account, TaskTimer callbackTimer, CallbackListener listener) {
         this.account = account;
+        this.callbackTimer = callbackTimer;
+        this.createdNanos = callbackTimer.getClock().nanoTime();
+        this.listener = listener;
         this.account.setProcessAccountRunnable(this);
     }
 
@@ -27,7 +54,6 @@ public class ProcessAccountRunnable implements Runnable {
 
     @Override
     public void run() {
-        runThread = Thread.currentThread();
         processAccountType();
     }
 
@@ -49,28 +75,115 @@ public class ProcessAccountRunnable implements Runnable {
     public void scheduleCallbackTimer() {
         logger.info("Scheduling the callback timer for " + account.getCallbackTimeMs() + " milliseconds");
 
-        try {
-            // Ensure the ingested flag is false
-            account.setIngested(false);
+        // The callback is due callbackTimeMs after the account was handed over
+        schedule(createdNanos + TimeUnit.MILLISECONDS.toNanos(account.getCallbackTimeMs()), account.getCallbackTimeMs(), TimeUnit.MILLISECONDS);
+    }
 
-            // Put the thread to sleep.  Note this thread is running in a thread pool
-            // Management of the thread is by the thread pool
-            Thread.sleep(account.getCallbackTimeMs());
+    /**
+     * Schedule the callback after the given delay instead of callbackTimeMs, to re-arm the
+     * callback of an account restored after a restart with its remaining delay
+     *
+     * @param delay - remaining delay of the callback
+     * @param unit  - unit of the delay
+     */
+    public void scheduleCallbackTimer(long delay, TimeUnit unit) {
+        logger.info("Re-arming the callback timer for " + unit.toMillis(delay) + " milliseconds");
 
-            // Specify that this account has been ingested
-            account.setIngested(true);
+        schedule(callbackTimer.getClock().nanoTime() + unit.toNanos(delay), delay, unit);
+    }
 
-            // Log that we have ingested the account
-            logger.info("Account " + account.getId() + ", version: " + account.getVersion() + " has been ingested");
-        } catch (InterruptedException ignored) {
-            logger.info("Thread " + account.getId() + ", version " + account.getVersion() + " has been interrupted");
+    private void schedule(long dueNanos, long delay, TimeUnit unit) {
+        // Ensure the ingested flag is false
+        account.setIngested(false);
 
-            account.setIngested(false);     // ensure it is not ingested
+        synchronized (this) {
+            if (stopped) {
+                // A newer version cancelled this one before its callback was scheduled
+                logCallbackInterrupted();
+                return;
+            }
+
+            // The timer fires the callback.  No thread is held while we wait
+            this.dueNanos = dueNanos;
+            callbackTimeout = callbackTimer.newTimeout(new CallbackTask(), delay, unit);
+        }
+        if (listener != null) {
+            listener.callbackScheduled(account);
         }
     }
 
+    /**
+     * @return how much later than its due time (callbackTimeMs after the account was handed
+     * over) the callback fired, or -1 if it has not fired
+     */
+    public long getCallbackLatenessNanos() {
+        return callbackLatenessNanos;
+    }
+
+    /**
+     * @param task - task of a timeout of the callback timer, for example one returned by TaskTimer.stop()
+     * @return the runnable whose callback the task fires, or null if the task is not an account callback
+     */
+    public static ProcessAccountRunnable ofCallbackTask(Runnable task) {
+        return (task instanceof CallbackTask) ? ((CallbackTask) task).owner() : null;
+    }
+
+    private void callbackFired() {
+        final long due;
+        synchronized (this) {
+            due = dueNanos;
+        }
+        callbackLatenessNanos = Math.max(0, callbackTimer.getClock().nanoTime() - due);
+
+        // Specify that this account has been ingested
+        account.setIngested(true);
+        if (listener != null) {
+            listener.callbackFired(account, callbackLatenessNanos);
+        }
+
+        // Log that we have ingested the account
+        logger.info("Account " + account.getId() + ", version: " + account.getVersion() + " has been ingested");
+    }
+
+    private void logCallbackInterrupted() {
+        if (listener != null) {
+            listener.callbackCancelled(account);
+        }
+        logger.info("Thread " + account.getId() + ", version " + account.getVersion() + " has been interrupted");
+
+        account.setIngested(false);     // ensure it is not ingested
+    }
+
+    /**
+     * Cancel the callback if it has not fired yet.  With a timer wheel cancelling
+     * is a O(1) removal of the entry from the wheel.
+     */
     public void stop() {
         logger.info("Going to stop callback for Account " + account.getId() + ", version " + account.getVersion());
-        runThread.interrupt();
+
+        final TaskTimer.Timeout timeout;
+        synchronized (this) {
+            stopped = true;
+            timeout = callbackTimeout;
+        }
+
+        // If the callback has already fired there is nothing to interrupt
+        if (timeout != null && timeout.cancel()) {
+            logCallbackInterrupted();
+        }
+    }
+
+    /**
+     * Task of the callback timeout, it leads back to its runnable once the timer is stopped
+     */
+    private final class CallbackTask implements Runnable {
+        @Override
+        public void run() {
+            callbackFired();
+        }
+
+        ProcessAccountRunnable owner() {
+            return ProcessAccountRunnable.this;
+        }
     }
 }
@@ -0,0 +1,318 @@
+package demo.metrics;
+
+import demo.json.Account;
+import demo.json.CallbackListener;
+import demo.utilities.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of an account processing engine: what was received, indexed, ignored or
+ * cancelled, how long accounts take from submit to indexed, how late callbacks fire and
+ * the size of the pool, the account map and the timer wheel.
+ * Counters are striped (LongAdder) and latencies go to LatencyHistograms so recording
+ * from the hot path does not contend.  Gauges are only read when the metrics are read.
+ * The metrics can be registered as an MBean and dumped as text periodically (MetricsReporter).
+ * @author skarmali
+ */
+public class IndexerMetrics implements IndexerMetricsMBean, CallbackListener {
+    public static Logger logger = LoggerFactory.getLogger(IndexerMetrics.class);
+
+    public static final String JMX_DOMAIN = "demo.processor";
+
+    private static final long MIN_RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder accountsReceived = new LongAdder();
+    private final LongAdder accountsIndexed = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder ignoredUpdates = new LongAdder();
+    private final LongAdder callbacksScheduled = new LongAdder();
+    private final LongAdder callbacksFired = new LongAdder();
+    private final LongAdder callbacksCancelled = new LongAdder();
+
+    private final LatencyHistogram indexLatency = new LatencyHistogram();
+    private final LatencyHistogram callbackLateness = new LatencyHistogram();
+
+    // Gauges, set by the engine that owns the metrics
+    private volatile ExecutorService pool;
+    private volatile LongSupplier accountIdCount = () -> 0;
+    private volatile LongSupplier pendingCallbacks = () -> 0;
+
+    // Latencies and rates are measured on this clock
+    private final Clock clock;
+
+    // Guarded by this.  Last sample of the ingest rate
+    private long rateSampleNanos;
+    private long rateSampleCount;
+    private double ingestRate;
+
+    private ObjectName objectName;
+
+    public IndexerMetrics() {
+        this(Clock.SYSTEM);
+    }
+
+    /**
+     * @param clock - clock the latencies and rates are measured on, the same as the submitted times
+     */
+    public IndexerMetrics(Clock clock) {
+        this.clock = clock;
+        this.rateSampleNanos = clock.nanoTime();
+    }
+
+    public void accountReceived() {
+        accountsReceived.increment();
+    }
+
+    /**
+     * A new (accountId + version) tuple has been indexed
+     */
+    public void accountIndexed() {
+        accountsIndexed.increment();
+    }
+
+    public void duplicate() {
+        duplicates.increment();
+    }
+
+    /**
+     * An update was ignored: the account has already been ingested or a newer version was seen
+     */
+    public void ignoredUpdate() {
+        ignoredUpdates.increment();
+    }
+
+    /**
+     * @param submittedNanos - time on the clock of the metrics when the account was submitted
+     */
+    public void indexLatency(long submittedNanos) {
+        indexLatency.record(clock.nanoTime() - submittedNanos);
+    }
+
+    @Override
+    public void callbackScheduled(Account account) {
+        callbacksScheduled.increment();
+    }
+
+    /**
+     * @param latenessNanos - how much later than its due time the callback fired
+     */
+    @Override
+    public void callbackFired(Account account, long latenessNanos) {
+        callbacksFired.increment();
+        callbackLateness.record(latenessNanos);
+    }
+
+    @Override
+    public void callbackCancelled(Account account) {
+        callbacksCancelled.increment();
+    }
+
+    /**
+     * @param pool             - executor whose active threads and queued tasks are reported, may be null
+     * @param accountIdCount   - number of account ids in the engine
+     * @param pendingCallbacks - number of callbacks waiting to fire
+     */
+    public void setGauges(ExecutorService pool, LongSupplier accountIdCount, LongSupplier pendingCallbacks) {
+        this.pool = pool;
+        this.accountIdCount = accountIdCount;
+        this.pendingCallbacks = pendingCallbacks;
+    }
+
+    public LatencyHistogram getIndexLatency() {
+        return indexLatency;
+    }
+
+    public LatencyHistogram getCallbackLateness() {
+        return callbackLateness;
+    }
+
+    /**
+     * Register the metrics with the platform MBean server
+     *
+     * @param type - engine type, for example AccountIndexerProcessor
+     * @param name - name unique among the engines of this type
+     */
+    public synchronized void registerMBean(String type, String name) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName candidate = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            server.registerMBean(this, candidate);
+            objectName = candidate;
+        } catch (JMException e) {
+            logger.error("Unable to register the " + type + " metrics " + name + " with JMX", e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.error("Unable to unregister the metrics " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * @return the JMX name of the metrics or null if they are not registered
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public long getAccountsReceived() {
+        return accountsReceived.sum();
+    }
+
+    @Override
+    public long getAccountsIndexed() {
+        return accountsIndexed.sum();
+    }
+
+    @Override
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public long getIgnoredUpdates() {
+        return ignoredUpdates.sum();
+    }
+
+    @Override
+    public long getCallbacksScheduled() {
+        return callbacksScheduled.sum();
+    }
+
+    @Override
+    public long getCallbacksFired() {
+        return callbacksFired.sum();
+    }
+
+    @Override
+    public long getCallbacksCancelled() {
+        return callbacksCancelled.sum();
+    }
+
+    /**
+     * @return accounts received per second since the previous sample, sampled at most once a second
+     */
+    @Override
+    public synchronized double getIngestRatePerSecond() {
+        final long now = clock.nanoTime();
+        final long elapsed = now - rateSampleNanos;
+        if (elapsed >= MIN_RATE_WINDOW_NANOS) {
+            final long received = accountsReceived.sum();
+            ingestRate = (received - rateSampleCount) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            rateSampleCount = received;
+            rateSampleNanos = now;
+        }
+        return ingestRate;
+    }
+
+    @Override
+    public long getIndexLatencyP50Micros() {
+        return micros(indexLatency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getIndexLatencyP99Micros() {
+        return micros(indexLatency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getIndexLatencyMaxMicros() {
+        return micros(indexLatency.getMax());
+    }
+
+    @Override
+    public long getCallbackLatenessP50Micros() {
+        return micros(callbackLateness.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getCallbackLatenessP99Micros() {
+        return micros(callbackLateness.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getCallbackLatenessMaxMicros() {
+        return micros(callbackLateness.getMax());
+    }
+
+    /**
+     * @return active threads of the pool, -1 if the pool does not report it
+     */
+    @Override
+    public int getPoolActiveThreads() {
+        final ExecutorService executor = pool;
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+        } else if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getActiveThreadCount();
+        }
+        return -1;
+    }
+
+    /**
+     * @return tasks waiting in the pool, -1 if the pool does not report it
+     */
+    @Override
+    public int getPoolQueuedTasks() {
+        final ExecutorService executor = pool;
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        } else if (executor instanceof ForkJoinPool) {
+            final ForkJoinPool forkJoinPool = (ForkJoinPool) executor;
+            return (int) Math.min(Integer.MAX_VALUE, forkJoinPool.getQueuedSubmissionCount() + forkJoinPool.getQueuedTaskCount());
+        }
+        return -1;
+    }
+
+    @Override
+    public long getAccountIdCount() {
+        return accountIdCount.getAsLong();
+    }
+
+    @Override
+    public long getPendingCallbacks() {
+        return pendingCallbacks.getAsLong();
+    }
+
+    @Override
+    public String dump() {
+        return "received=" + getAccountsReceived()
+                + " indexed=" + getAccountsIndexed()
+                + " duplicates=" + getDuplicates()
+                + " ignored=" + getIgnoredUpdates()
+                + String.format(" ingestRate=%.1f/s", getIngestRatePerSecond())
+                + " accountIds=" + getAccountIdCount()
+                + " poolActive=" + getPoolActiveThreads()
+                + " poolQueued=" + getPoolQueuedTasks()
+                + "\n  callbacks: scheduled=" + getCallbacksScheduled()
+                + " fired=" + getCallbacksFired()
+                + " cancelled=" + getCallbacksCancelled()
+                + " pending=" + getPendingCallbacks()
+                + "\n  submit->indexed: " + indexLatency.toMillisString()
+                + "\n  callback lateness: " + callbackLateness.toMillisString();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,48 @@
+package demo.metrics;
+
+/**
+ * JMX view of IndexerMetrics.  Latencies are in microseconds
+ * @author skarmali
+ */
+public interface IndexerMetricsMBean {
+    long getAccountsReceived();
+
+    long getAccountsIndexed();
+
+    long getDuplicates();
+
+    long getIgnoredUpdates();
+
+    long getCallbacksScheduled();
+
+    long getCallbacksFired();
+
+    long getCallbacksCancelled();
+
+    double getIngestRatePerSecond();
+
+    long getIndexLatencyP50Micros();
+
+    long getIndexLatencyP99Micros();
+
+    long getIndexLatencyMaxMicros();
+
+    long getCallbackLatenessP50Micros();
+
+    long getCallbackLatenessP99Micros();
+
+    long getCallbackLatenessMaxMicros();
+
+    int getPoolActiveThreads();
+
+    int getPoolQueuedTasks();
+
+    long getAccountIdCount();
+
+    long getPendingCallbacks();
+
+    /**
+     * @return all the metrics as text
+     */
+    String dump();
+}
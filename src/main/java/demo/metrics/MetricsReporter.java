@@ -0,0 +1,40 @@
+package demo.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs a text dump of the metrics periodically from a daemon thread
+ * @author skarmali
+ */
+public class MetricsReporter {
+    public static Logger logger = LoggerFactory.getLogger(MetricsReporter.class);
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param name       - name of the metrics in the dump
+     * @param metrics    - metrics to dump
+     * @param intervalMs - time between two dumps
+     */
+    public MetricsReporter(String name, IndexerMetricsMBean metrics, long intervalMs) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("intervalMs must be greater than 0: " + intervalMs);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> logger.info("Metrics " + name + ": " + metrics.dump()),
+                                      intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+}
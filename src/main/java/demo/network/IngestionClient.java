@@ -0,0 +1,331 @@
+package demo.network;
+
+import demo.LoadProfile;
+import demo.SyntheticAccounts;
+import demo.json.Account;
+import demo.metrics.LatencyHistogram;
+import demo.persistence.AccountCodec;
+import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessorConfig;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blocking client of the IngestionServer that pipelines account frames: up to window
+ * frames are sent without waiting for their acknowledgement, and frames are written to the
+ * socket in batches of a buffer.  A reader thread follows the acknowledgements and records
+ * the time from encoding a frame to its acknowledgement.
+ * Sending is not thread safe, use one client per sending thread.
+ *
+ * The main method is a load test over loopback:
+ * java -Dingest.embedded=true -Dingest.connections=4 -Dingest.format=BINARY -Dload.durationMs=10000 demo.network.IngestionClient
+ * With ingest.embedded the server runs in the same JVM on a free port, otherwise it is
+ * reached on ingest.host and ingest.port.  See LoadProfile for the synthetic accounts.
+ * @author skarmali
+ */
+public class IngestionClient implements AutoCloseable {
+    public static Logger logger = LoggerFactory.getLogger(IngestionClient.class);
+
+    public static final int DEFAULT_WINDOW = 1024;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
+
+    private final SocketChannel channel;
+    private final int window;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private final Thread ackReader;
+
+    // Encoding time of the unacknowledged frames, by frame number modulo the window
+    private final long[] sendNanos;
+    private final LatencyHistogram ackLatency;
+
+    private volatile long sent;
+    private volatile long acked;
+    private volatile IOException failure;
+    private final AtomicLong errors = new AtomicLong();
+    private volatile String lastError;
+
+    /**
+     * Connect to a server and start reading its acknowledgements
+     *
+     * @param address - address of the server
+     * @param window  - maximum number of frames sent and not acknowledged
+     */
+    public IngestionClient(InetSocketAddress address, int window) throws IOException {
+        this(address, window, new LatencyHistogram());
+    }
+
+    /**
+     * @param address    - address of the server
+     * @param window     - maximum number of frames sent and not acknowledged
+     * @param ackLatency - histogram of the acknowledgement latencies, can be shared by several clients
+     */
+    public IngestionClient(InetSocketAddress address, int window, LatencyHistogram ackLatency) throws IOException {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must be at least 1");
+        }
+        this.window = window;
+        this.sendNanos = new long[window];
+        this.ackLatency = ackLatency;
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        ackReader = new Thread(this::readAcks, "ingestion-client-acks");
+        ackReader.setDaemon(true);
+        ackReader.start();
+    }
+
+    /**
+     * Queue an account frame, the frames are written when the buffer is full or on flush.
+     * Blocks while window frames are not acknowledged
+     *
+     * @param account - account to send
+     * @param binary  - true for a binary frame, false for JSON
+     * @return number of the frame on the connection, starting at 1
+     */
+    public long send(Account account, boolean binary) throws IOException {
+        if (sent - acked >= window) {
+            flush();
+            while (sent - acked >= window) {
+                checkFailure();
+                synchronized (this) {
+                    if (sent - acked >= window) {
+                        try {
+                            wait(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted waiting for acknowledgements", e);
+                        }
+                    }
+                }
+            }
+        }
+
+        try {
+            IngestionProtocol.writeAccount(writeBuffer, account, binary);
+        } catch (BufferOverflowException e) {
+            flush();
+            IngestionProtocol.writeAccount(writeBuffer, account, binary);
+        }
+        sent++;
+        sendNanos[(int) (sent % window)] = System.nanoTime();
+        return sent;
+    }
+
+    /**
+     * Write the queued frames to the socket
+     */
+    public void flush() throws IOException {
+        checkFailure();
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Wait until the server acknowledged a frame and all the frames before it
+     *
+     * @param frame   - number of the frame, as returned by send
+     * @param timeout - maximum time to wait
+     * @param unit    - unit of the timeout
+     */
+    public void awaitAcked(long frame, long timeout, TimeUnit unit) throws IOException, InterruptedException, TimeoutException {
+        flush();
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (acked < frame) {
+                checkFailure();
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException(acked + " of " + frame + " frames acknowledged");
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+            }
+        }
+    }
+
+    /**
+     * @return number of frames handled by the server, rejected ones included
+     */
+    public long getAcked() {
+        return acked;
+    }
+
+    /**
+     * @return number of frames sent
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return number of frames the server answered with an error
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return reason of the last error frame, null if there was none
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return time from encoding a frame to its acknowledgement, in nanoseconds
+     */
+    public LatencyHistogram getAckLatency() {
+        return ackLatency;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("The connection failed", failure);
+        }
+    }
+
+    private void readAcks() {
+        final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.remaining() >= IngestionProtocol.HEADER_SIZE
+                       && buffer.remaining() >= Integer.BYTES + buffer.getInt(buffer.position())) {
+                    final int end = buffer.position() + Integer.BYTES + buffer.getInt();
+                    final byte type = buffer.get();
+                    if (type == IngestionProtocol.ACK_FRAME) {
+                        acknowledged(buffer.getLong());
+                    } else if (type == IngestionProtocol.ERROR_FRAME) {
+                        final long frame = buffer.getLong();
+                        lastError = "Frame " + frame + ": " + AccountCodec.readString(buffer);
+                        errors.incrementAndGet();
+                        logger.warn(lastError);
+                    } else {
+                        throw new IOException("Unexpected frame type " + type);
+                    }
+                    buffer.position(end);
+                }
+                buffer.compact();
+            }
+            if (acked < sent) {
+                failure = new IOException("Connection closed by the server");
+            }
+        } catch (IOException e) {
+            if (channel.isOpen()) {
+                failure = e;
+            }
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void acknowledged(long handled) {
+        final long now = System.nanoTime();
+        for (long frame = acked + 1; frame <= handled; frame++) {
+            ackLatency.record(now - sendNanos[(int) (frame % window)]);
+        }
+        synchronized (this) {
+            acked = handled;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        try {
+            ackReader.join(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Per account logging would dominate the measurements, only keep warnings
+        BasicConfigurator.configure();
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        final LoadProfile profile = LoadProfile.fromSystemProperties();
+        final int connections = Integer.getInteger("ingest.connections", profile.getProducers());
+        final int window = Integer.getInteger("ingest.window", DEFAULT_WINDOW);
+        final boolean binary = !"JSON".equalsIgnoreCase(System.getProperty("ingest.format", "BINARY"));
+
+        AccountIndexerProcessor processor = null;
+        IngestionServer server = null;
+        final InetSocketAddress address;
+        if (Boolean.getBoolean("ingest.embedded")) {
+            final AccountProcessorConfig processorConfig = AccountProcessorConfig.fromSystemProperties();
+            System.out.println(processorConfig);
+            processor = new AccountIndexerProcessor(processorConfig);
+            server = new IngestionServer(processor, new InetSocketAddress("127.0.0.1", 0));
+            address = new InetSocketAddress("127.0.0.1", server.getPort());
+        } else {
+            address = new InetSocketAddress(System.getProperty("ingest.host", "127.0.0.1"),
+                                            Integer.getInteger("ingest.port", IngestionServer.DEFAULT_PORT));
+        }
+        System.out.println(profile);
+        System.out.println("connections=" + connections + ", window=" + window + ", format=" + (binary ? "BINARY" : "JSON"));
+
+        final SyntheticAccounts accounts = new SyntheticAccounts(profile);
+        final LatencyHistogram ackLatency = new LatencyHistogram();
+        final List<IngestionClient> clients = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(profile.getDurationMs());
+        for (int i = 0; i < connections; i++) {
+            final IngestionClient client = new IngestionClient(address, window, ackLatency);
+            final SyntheticAccounts.Generator generator = accounts.newGenerator(i, connections);
+            clients.add(client);
+            final Thread thread = new Thread(() -> {
+                try {
+                    while (System.nanoTime() - deadline < 0) {
+                        client.send(generator.next(), binary);
+                    }
+                    client.awaitAcked(client.getSent(), 60, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    logger.error("Load connection failed", e);
+                }
+            }, "ingestion-load-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        long acked = 0;
+        long errors = 0;
+        for (IngestionClient client : clients) {
+            acked += client.getAcked();
+            errors += client.getErrors();
+            client.close();
+        }
+        System.out.println(String.format("acked=%d errors=%d frames/s=%.0f", acked, errors, acked / seconds));
+        System.out.println("ack latency " + ackLatency.toMillisString());
+
+        if (server != null) {
+            server.close();
+            processor.shutdown();
+        }
+    }
+}
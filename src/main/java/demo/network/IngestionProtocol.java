@@ -0,0 +1,131 @@
+package demo.network;
+
+import com.google.gson.JsonParseException;
+import demo.json.Account;
+import demo.persistence.AccountCodec;
+import demo.utilities.JsonUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the TCP ingestion protocol.  Every frame is its length (int, the bytes after
+ * the length), its type (byte) and a payload:
+ * - JSON_FRAME: one account as a UTF-8 JSON object, as in coding-challenge-input.json
+ * - BINARY_FRAME: one account in the binary encoding of AccountCodec
+ * - ACK_FRAME (server to client): number of frames of the connection handled so far (long).
+ *   Acknowledgements are cumulative, one per read of the server
+ * - ERROR_FRAME (server to client): number of the rejected frame on the connection (long,
+ *   starting at 1) and the reason (AccountCodec string).  Sent before the acknowledgement
+ *   covering the frame, for every frame that is malformed or that the processor rejected
+ * Clients pipeline frames without waiting for their acknowledgement.  An acknowledged
+ * account without an error has been indexed by the processor, and journaled if the
+ * processor has a journal.
+ * @author skarmali
+ */
+public final class IngestionProtocol {
+    public static final byte JSON_FRAME = 1;
+    public static final byte BINARY_FRAME = 2;
+    public static final byte ACK_FRAME = 3;
+    public static final byte ERROR_FRAME = 4;
+
+    // Length prefix and type
+    public static final int HEADER_SIZE = Integer.BYTES + 1;
+    public static final int MAX_FRAME_SIZE = 1 << 20;
+
+    private IngestionProtocol() {
+    }
+
+    /**
+     * Write an account frame
+     *
+     * @param buffer  - buffer to write to
+     * @param account - account to send
+     * @param binary  - true for a BINARY_FRAME, false for a JSON_FRAME
+     * @throws BufferOverflowException if the buffer is too small, its position is unchanged
+     */
+    public static void writeAccount(ByteBuffer buffer, Account account, boolean binary) {
+        final int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new BufferOverflowException();
+        }
+        try {
+            buffer.position(start + Integer.BYTES);
+            if (binary) {
+                buffer.put(BINARY_FRAME);
+                AccountCodec.write(buffer, account);
+            } else {
+                buffer.put(JSON_FRAME);
+                buffer.put(JsonUtils.getGson().toJson(account).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (RuntimeException e) {
+            buffer.position(start);
+            throw e;
+        }
+        buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+    }
+
+    /**
+     * Decode the payload of an account frame in place
+     *
+     * @param type    - JSON_FRAME or BINARY_FRAME
+     * @param payload - buffer positioned at the payload, limited to its end
+     * @return the account, with an id and a version
+     * @throws IllegalArgumentException if the payload is not a valid account
+     */
+    public static Account readAccount(byte type, ByteBuffer payload) {
+        final Account account;
+        if (type == BINARY_FRAME) {
+            account = AccountCodec.read(payload);
+        } else if (type == JSON_FRAME) {
+            account = readJson(payload);
+        } else {
+            throw new IllegalArgumentException("Unknown frame type " + type);
+        }
+        if (account == null || account.getId() == null || account.getVersion() == null) {
+            throw new IllegalArgumentException("The account has no id or version");
+        }
+        return account;
+    }
+
+    private static Account readJson(ByteBuffer payload) {
+        try {
+            if (payload.hasArray()) {
+                // Parsed straight from the bytes of the buffer
+                final ByteArrayInputStream bytes = new ByteArrayInputStream(payload.array(), payload.arrayOffset() + payload.position(),
+                                                                            payload.remaining());
+                return JsonUtils.getGson().fromJson(new InputStreamReader(bytes, StandardCharsets.UTF_8), Account.class);
+            }
+            return JsonUtils.parseAccount(StandardCharsets.UTF_8.decode(payload).toString());
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid JSON account: " + e.getMessage(), e);
+        }
+    }
+
+    static void writeAck(ByteBuffer buffer, long handledFrames) {
+        buffer.putInt(1 + Long.BYTES);
+        buffer.put(ACK_FRAME);
+        buffer.putLong(handledFrames);
+    }
+
+    static void writeError(ByteBuffer buffer, long frameNumber, String reason) {
+        final int start = buffer.position();
+        buffer.position(start + Integer.BYTES);
+        buffer.put(ERROR_FRAME);
+        buffer.putLong(frameNumber);
+        AccountCodec.writeString(buffer, truncate(reason));
+        buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+    }
+
+    static int errorFrameSize(String reason) {
+        return HEADER_SIZE + Long.BYTES + Short.BYTES + truncate(reason).length() * 3;
+    }
+
+    private static String truncate(String reason) {
+        final String value = (reason != null) ? reason : "";
+        return (value.length() > 200) ? value.substring(0, 200) : value;
+    }
+}
@@ -0,0 +1,323 @@
+package demo.network;
+
+import demo.json.Account;
+import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessor;
+import demo.processor.AccountProcessorConfig;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking TCP endpoint feeding accounts to a processor, see IngestionProtocol for the
+ * frames.  A single selector thread accepts the connections, reads them into one reusable
+ * buffer per connection and decodes the frames in place.  The accounts of all the frames
+ * of a read go to the processor as one batch, then a single cumulative acknowledgement is
+ * sent, so a client pipelining many frames costs one batch and one ack per read.
+ * A connection whose acknowledgements cannot be written is not read until they are, so a
+ * client that stops reading is slowed down instead of growing the server buffers.
+ *
+ * java -Dingest.port=7070 demo.network.IngestionServer, see AccountProcessorConfig for the processor settings.
+ * @author skarmali
+ */
+public class IngestionServer implements AutoCloseable {
+    public static Logger logger = LoggerFactory.getLogger(IngestionServer.class);
+
+    public static final int DEFAULT_PORT = 7070;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 4 * 1024;
+
+    private final AccountProcessor processor;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong framesRejected = new AtomicLong();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * Bind the server and start its selector thread
+     *
+     * @param processor - processor receiving the accounts
+     * @param address   - address to listen on, port 0 for any free port
+     */
+    public IngestionServer(AccountProcessor processor, InetSocketAddress address) throws IOException {
+        this.processor = processor;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+
+        selectorThread = new Thread(this::run, "ingestion-server");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        logger.info("Ingestion server listening on " + serverChannel.getLocalAddress());
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return number of account frames received, rejected ones included
+     */
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+
+    /**
+     * @return number of frames answered with an error
+     */
+    public long getFramesRejected() {
+        return framesRejected.get();
+    }
+
+    /**
+     * @return number of open client connections
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            final Connection connection = (Connection) key.attachment();
+                            if (key.isWritable()) {
+                                connection.flush();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                        }
+                    } catch (IOException e) {
+                        logger.debug("Closing connection after " + e);
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                logger.error("Ingestion server stopped", e);
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+        connections.incrementAndGet();
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.debug("Error closing " + key.channel(), e);
+        }
+        if (key.attachment() instanceof Connection) {
+            connections.decrementAndGet();
+            key.attach(null);
+        }
+    }
+
+    /**
+     * Stop accepting and close every connection.  The processor is not shut down
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        serverChannel.close();
+        selector.close();
+    }
+
+    /**
+     * State of a client connection, only used by the selector thread
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+        // Account frames received on the connection
+        private long frames;
+
+        // Frame number of each account of the batch being read
+        private long[] accountFrames = new long[64];
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                throw new IOException("Connection closed by the client");
+            }
+            readBuffer.flip();
+
+            final List<Account> accounts = new ArrayList<>();
+            final long firstFrame = frames + 1;
+            while (readBuffer.remaining() >= Integer.BYTES) {
+                final int length = readBuffer.getInt(readBuffer.position());
+                if (length < 1 || length > IngestionProtocol.MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (readBuffer.remaining() < Integer.BYTES + length) {
+                    break;
+                }
+
+                final int payloadEnd = readBuffer.position() + Integer.BYTES + length;
+                final byte type = readBuffer.get(readBuffer.position() + Integer.BYTES);
+                final int limit = readBuffer.limit();
+                readBuffer.position(readBuffer.position() + IngestionProtocol.HEADER_SIZE).limit(payloadEnd);
+                frames++;
+                try {
+                    final Account account = IngestionProtocol.readAccount(type, readBuffer);
+                    if (accounts.size() == accountFrames.length) {
+                        accountFrames = Arrays.copyOf(accountFrames, accountFrames.length * 2);
+                    }
+                    accountFrames[accounts.size()] = frames;
+                    accounts.add(account);
+                } catch (IllegalArgumentException e) {
+                    framesRejected.incrementAndGet();
+                    queueError(frames, e.getMessage());
+                }
+                readBuffer.limit(limit).position(payloadEnd);
+            }
+            readBuffer.compact();
+            if (readBuffer.position() >= Integer.BYTES && readBuffer.getInt(0) + Integer.BYTES > readBuffer.capacity()) {
+                // The next frame does not fit, the buffer grows up to the largest frame
+                final ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.getInt(0) + Integer.BYTES, IngestionProtocol.MAX_FRAME_SIZE + Integer.BYTES));
+                readBuffer.flip();
+                readBuffer = larger.put(readBuffer);
+            }
+
+            if (frames < firstFrame) {
+                return;
+            }
+            framesReceived.addAndGet(frames - firstFrame + 1);
+            if (!accounts.isEmpty()) {
+                try {
+                    processor.handleAccountBatch(accounts);
+                } catch (RuntimeException e) {
+                    logger.error("The processor rejected a batch of " + accounts.size() + " accounts", e);
+                    // None of the accounts was indexed, each frame gets its error before the acknowledgement
+                    framesRejected.addAndGet(accounts.size());
+                    final String reason = "Processor error: " + e;
+                    for (int i = 0; i < accounts.size(); i++) {
+                        queueError(accountFrames[i], reason);
+                    }
+                }
+            }
+            ensureWritable(Integer.BYTES + 1 + Long.BYTES);
+            IngestionProtocol.writeAck(writeBuffer, frames);
+            flush();
+        }
+
+        private void queueError(long frameNumber, String reason) {
+            ensureWritable(IngestionProtocol.errorFrameSize(reason));
+            IngestionProtocol.writeError(writeBuffer, frameNumber, reason);
+        }
+
+        private void ensureWritable(int bytes) {
+            if (writeBuffer.remaining() < bytes) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + bytes));
+                writeBuffer.flip();
+                writeBuffer = larger.put(writeBuffer);
+            }
+        }
+
+        /**
+         * Write the pending acknowledgements.  Until they are all written the connection is
+         * only selected for writing, which stops reading it
+         */
+        void flush() throws IOException {
+            writeBuffer.flip();
+            channel.write(writeBuffer);
+            final boolean pending = writeBuffer.hasRemaining();
+            writeBuffer.compact();
+            key.interestOps(pending ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // Per account logging would dominate under load, only keep warnings
+        BasicConfigurator.configure();
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        final int port = Integer.getInteger("ingest.port", DEFAULT_PORT);
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(AccountProcessorConfig.fromSystemProperties());
+        final IngestionServer server = new IngestionServer(processor, new InetSocketAddress(port));
+        System.out.println("Listening on port " + server.getPort());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                logger.warn("Error closing the ingestion server", e);
+            }
+            processor.shutdown();
+        }));
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,158 @@
+package demo.persistence;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of an account, shared by the journal, the snapshots and the
+ * pending callback file.  Missing values cost one bit in a flag byte:
+ *   id (short length + UTF-8 bytes), version (int), flags (byte), tokens (int),
+ *   callbackTimeMs (int), account type (byte), then the data fields that are present:
+ *   mintId and img (short length + UTF-8 bytes), expiry and currentBid (int)
+ * @author skarmali
+ */
+public final class AccountCodec {
+    private static final int HAS_TOKENS = 1;
+    private static final int HAS_CALLBACK_TIME = 1 << 1;
+    private static final int HAS_TYPE = 1 << 2;
+    private static final int HAS_DATA = 1 << 3;
+    private static final int HAS_MINT_ID = 1 << 4;
+    private static final int HAS_IMAGE = 1 << 5;
+    private static final int HAS_EXPIRY = 1 << 6;
+    private static final int HAS_CURRENT_BID = 1 << 7;
+
+    private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+    private AccountCodec() {
+    }
+
+    /**
+     * @throws java.nio.BufferOverflowException if the buffer is too small, nothing useful is left in it
+     */
+    public static void write(ByteBuffer buffer, Account account) {
+        writeString(buffer, account.getId());
+        buffer.putInt(account.getVersion());
+
+        final Data data = account.getData();
+        int flags = 0;
+        flags |= (account.getTokens() != null) ? HAS_TOKENS : 0;
+        flags |= (account.getCallbackTimeMs() != null) ? HAS_CALLBACK_TIME : 0;
+        flags |= (account.getAccountType() != null) ? HAS_TYPE : 0;
+        if (data != null) {
+            flags |= HAS_DATA;
+            flags |= (data.getMintId() != null) ? HAS_MINT_ID : 0;
+            flags |= (data.getImg() != null) ? HAS_IMAGE : 0;
+            flags |= (data.getExpiry() != null) ? HAS_EXPIRY : 0;
+            flags |= (data.getCurrentBid() != null) ? HAS_CURRENT_BID : 0;
+        }
+        buffer.put((byte) flags);
+
+        if ((flags & HAS_TOKENS) != 0) {
+            buffer.putInt(account.getTokens());
+        }
+        if ((flags & HAS_CALLBACK_TIME) != 0) {
+            buffer.putInt(account.getCallbackTimeMs());
+        }
+        if ((flags & HAS_TYPE) != 0) {
+            buffer.put((byte) account.getAccountType().ordinal());
+        }
+        if ((flags & HAS_MINT_ID) != 0) {
+            writeString(buffer, data.getMintId());
+        }
+        if ((flags & HAS_IMAGE) != 0) {
+            writeString(buffer, data.getImg());
+        }
+        if ((flags & HAS_EXPIRY) != 0) {
+            buffer.putInt(data.getExpiry());
+        }
+        if ((flags & HAS_CURRENT_BID) != 0) {
+            buffer.putInt(data.getCurrentBid());
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not an encoded account
+     */
+    public static Account read(ByteBuffer buffer) {
+        try {
+            final Account account = new Account();
+            account.setId(readString(buffer));
+            account.setVersion(buffer.getInt());
+
+            final int flags = buffer.get() & 0xFF;
+            if ((flags & HAS_TOKENS) != 0) {
+                account.setTokens(buffer.getInt());
+            }
+            if ((flags & HAS_CALLBACK_TIME) != 0) {
+                account.setCallbackTimeMs(buffer.getInt());
+            }
+            if ((flags & HAS_TYPE) != 0) {
+                final int type = buffer.get();
+                if (type < 0 || type >= ACCOUNT_TYPES.length) {
+                    throw new IllegalArgumentException("Unknown account type " + type);
+                }
+                account.setAccountType(ACCOUNT_TYPES[type]);
+            }
+            if ((flags & HAS_DATA) != 0) {
+                final Data data = new Data();
+                if ((flags & HAS_MINT_ID) != 0) {
+                    data.setMintId(readString(buffer));
+                }
+                if ((flags & HAS_IMAGE) != 0) {
+                    data.setImg(readString(buffer));
+                }
+                if ((flags & HAS_EXPIRY) != 0) {
+                    data.setExpiry(buffer.getInt());
+                }
+                if ((flags & HAS_CURRENT_BID) != 0) {
+                    data.setCurrentBid(buffer.getInt());
+                }
+                account.setData(data);
+            }
+            return account;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated account", e);
+        }
+    }
+
+    /**
+     * Strings are limited to 64KB of UTF-8, null is encoded as length 0xFFFF
+     */
+    public static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) 0xFFFF);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= 0xFFFF) {
+            throw new IllegalArgumentException("String too long to encode: " + bytes.length + " bytes");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String readString(ByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xFFFF;
+        if (length == 0xFFFF) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Truncated string of " + length + " bytes");
+        }
+        if (buffer.hasArray()) {
+            final String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        // Direct or memory-mapped buffer
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,352 @@
+package demo.persistence;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+import demo.utilities.QuantileSketch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Point-in-time snapshot of the account index in a memory-mapped file with a fixed layout:
+ * - header: magic, format version, creation time, journal offset covered by the snapshot,
+ *   account count, account type count, CRC32C of everything after the header and offset of
+ *   the token sketch section
+ * - token statistics table: count, sum, min and max per account type ordinal
+ * - account table: one fixed-size record per account version, the highest version of every
+ *   account id and the older versions whose callback is still pending
+ * - string heap: account ids, mint ids and images referenced by offset from the account table
+ * - token sketches (format 2): number of sketches, then the account type ordinal and the
+ *   quantile sketch of the token values of each type
+ * Reading maps the file and decodes the fixed-size records in place, there is no parsing.
+ * A snapshot is written to a temporary file that atomically replaces the previous one, so a
+ * crash while writing leaves the previous snapshot intact.
+ * @author skarmali
+ */
+public final class AccountSnapshot {
+    public static Logger logger = LoggerFactory.getLogger(AccountSnapshot.class);
+
+    private static final int MAGIC = 0x41434E53;
+    private static final int FORMAT_VERSION = 2;
+    private static final int FORMAT_VERSION_WITHOUT_SKETCHES = 1;
+
+    private static final int HEADER_SIZE = 40;
+    private static final int CREATED_AT_OFFSET = 8;
+    private static final int JOURNAL_OFFSET_OFFSET = 16;
+    private static final int ACCOUNT_COUNT_OFFSET = 24;
+    private static final int TYPE_COUNT_OFFSET = 28;
+    private static final int CRC_OFFSET = 32;
+    private static final int SKETCH_OFFSET_OFFSET = 36;
+
+    private static final int STATS_RECORD_SIZE = 2 * Long.BYTES + 2 * Integer.BYTES;
+
+    // Account record: id, version, tokens, callbackTimeMs, mintId, img, expiry, currentBid,
+    // callback due time, type, flags and padding
+    private static final int ACCOUNT_RECORD_SIZE = 48;
+    private static final int NO_STRING = -1;
+    private static final int HAS_TOKENS = 1;
+    private static final int HAS_CALLBACK_TIME = 1 << 1;
+    private static final int HAS_DATA = 1 << 2;
+    private static final int HAS_EXPIRY = 1 << 3;
+    private static final int HAS_CURRENT_BID = 1 << 4;
+    private static final int SUPERSEDED = 1 << 5;
+
+    private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+    private AccountSnapshot() {
+    }
+
+    /**
+     * Map a snapshot and hand its content to the visitor
+     *
+     * @param path    - snapshot file
+     * @param visitor - receives the token statistics and sketches first, then the accounts
+     * @return offset of the journal up to which the snapshot is up to date
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static long read(Path path, SnapshotVisitor visitor) throws IOException {
+        final long start = System.nanoTime();
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot size " + channel.size() + " of " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        final int formatVersion = buffer.getInt(Integer.BYTES);
+        if (buffer.getInt(0) != MAGIC || (formatVersion != FORMAT_VERSION && formatVersion != FORMAT_VERSION_WITHOUT_SKETCHES)) {
+            throw new IOException(path + " is not an account snapshot of format " + FORMAT_VERSION);
+        }
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(HEADER_SIZE));
+        if ((int) crc.getValue() != buffer.getInt(CRC_OFFSET)) {
+            throw new IOException("Corrupt snapshot " + path + ", checksum mismatch");
+        }
+
+        final int accountCount = buffer.getInt(ACCOUNT_COUNT_OFFSET);
+        final int typeCount = buffer.getInt(TYPE_COUNT_OFFSET);
+        for (int i = 0; i < typeCount && i < ACCOUNT_TYPES.length; i++) {
+            final int offset = HEADER_SIZE + i * STATS_RECORD_SIZE;
+            final long count = buffer.getLong(offset);
+            if (count > 0) {
+                visitor.tokenStats(ACCOUNT_TYPES[i], count, buffer.getLong(offset + Long.BYTES),
+                                   buffer.getInt(offset + 2 * Long.BYTES), buffer.getInt(offset + 2 * Long.BYTES + Integer.BYTES));
+            }
+        }
+
+        // Format 1 left the sketch offset as padding
+        final int sketchOffset = (formatVersion == FORMAT_VERSION) ? buffer.getInt(SKETCH_OFFSET_OFFSET) : 0;
+        if (sketchOffset > 0) {
+            final ByteBuffer sketches = buffer.duplicate().position(sketchOffset);
+            final int sketchCount = sketches.getInt();
+            for (int i = 0; i < sketchCount; i++) {
+                final byte type = sketches.get();
+                final QuantileSketch tokenSketch = QuantileSketch.readFrom(sketches);
+                if (type >= 0 && type < ACCOUNT_TYPES.length) {
+                    visitor.tokenSketch(ACCOUNT_TYPES[type], tokenSketch);
+                }
+            }
+        }
+
+        final int accountTableOffset = HEADER_SIZE + typeCount * STATS_RECORD_SIZE;
+        final int heapOffset = accountTableOffset + accountCount * ACCOUNT_RECORD_SIZE;
+        final ByteBuffer heap = buffer.duplicate();
+        for (int i = 0; i < accountCount; i++) {
+            final int record = accountTableOffset + i * ACCOUNT_RECORD_SIZE;
+            final int flags = buffer.get(record + 41);
+
+            final Account account = new Account();
+            account.setId(heapString(heap, heapOffset, buffer.getInt(record)));
+            account.setVersion(buffer.getInt(record + 4));
+            account.setTokens((flags & HAS_TOKENS) != 0 ? buffer.getInt(record + 8) : null);
+            account.setCallbackTimeMs((flags & HAS_CALLBACK_TIME) != 0 ? buffer.getInt(record + 12) : null);
+            final byte type = buffer.get(record + 40);
+            account.setAccountType((type >= 0 && type < ACCOUNT_TYPES.length) ? ACCOUNT_TYPES[type] : null);
+            if ((flags & HAS_DATA) != 0) {
+                final Data data = new Data();
+                data.setMintId(heapString(heap, heapOffset, buffer.getInt(record + 16)));
+                data.setImg(heapString(heap, heapOffset, buffer.getInt(record + 20)));
+                data.setExpiry((flags & HAS_EXPIRY) != 0 ? buffer.getInt(record + 24) : null);
+                data.setCurrentBid((flags & HAS_CURRENT_BID) != 0 ? buffer.getInt(record + 28) : null);
+                account.setData(data);
+            }
+            visitor.account(account, (flags & SUPERSEDED) == 0, buffer.getLong(record + 32));
+        }
+
+        logger.info("Loaded " + accountCount + " accounts from the snapshot " + path + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return buffer.getLong(JOURNAL_OFFSET_OFFSET);
+    }
+
+    private static String heapString(ByteBuffer heap, int heapOffset, int offset) {
+        if (offset == NO_STRING) {
+            return null;
+        }
+        heap.position(heapOffset + offset);
+        return AccountCodec.readString(heap);
+    }
+
+    /**
+     * Collects the content of a snapshot and writes it.  The accounts are only referenced
+     * until the snapshot is written so they must not change in the meantime.
+     */
+    public static final class Writer {
+        private final long journalOffset;
+        private final long[] counts = new long[ACCOUNT_TYPES.length];
+        private final long[] sums = new long[ACCOUNT_TYPES.length];
+        private final int[] mins = new int[ACCOUNT_TYPES.length];
+        private final int[] maxes = new int[ACCOUNT_TYPES.length];
+        private final QuantileSketch[] tokenSketches = new QuantileSketch[ACCOUNT_TYPES.length];
+        private final List<Entry> entries = new ArrayList<>();
+        private int supersededCount;
+
+        /**
+         * @param journalOffset - offset of the journal up to which the snapshot is up to date
+         */
+        public Writer(long journalOffset) {
+            this.journalOffset = journalOffset;
+        }
+
+        public Writer tokenStats(AccountType type, long count, long sum, int min, int max) {
+            counts[type.ordinal()] = count;
+            sums[type.ordinal()] = sum;
+            mins[type.ordinal()] = min;
+            maxes[type.ordinal()] = max;
+            return this;
+        }
+
+        /**
+         * @see SnapshotVisitor#tokenSketch(AccountType, QuantileSketch)
+         */
+        public Writer tokenSketch(AccountType type, QuantileSketch tokenSketch) {
+            tokenSketches[type.ordinal()] = tokenSketch;
+            return this;
+        }
+
+        /**
+         * @see SnapshotVisitor#account(Account, boolean, long)
+         */
+        public Writer account(Account account, boolean highest, long callbackDueMillis) {
+            entries.add(new Entry(account, highest, callbackDueMillis));
+            supersededCount += highest ? 0 : 1;
+            return this;
+        }
+
+        public int getAccountCount() {
+            return entries.size();
+        }
+
+        /**
+         * Write the snapshot to a temporary file and atomically replace the snapshot file with it
+         *
+         * @param path - snapshot file
+         */
+        public void writeTo(Path path) throws IOException {
+            final long start = System.nanoTime();
+
+            // The strings go to the heap first so the size of the file is known before mapping it
+            ByteBuffer heap = ByteBuffer.allocate(Math.max(1024, entries.size() * 32));
+            final int[] stringOffsets = new int[entries.size() * 3];
+            for (int i = 0; i < entries.size(); i++) {
+                final Account account = entries.get(i).account;
+                final Data data = account.getData();
+                final String[] strings = {account.getId(), (data != null) ? data.getMintId() : null, (data != null) ? data.getImg() : null};
+                for (int s = 0; s < strings.length; s++) {
+                    if (strings[s] == null) {
+                        stringOffsets[i * 3 + s] = NO_STRING;
+                        continue;
+                    }
+                    if (heap.remaining() < 2 + strings[s].length() * 3) {
+                        final ByteBuffer larger = ByteBuffer.allocate(heap.capacity() * 2 + strings[s].length() * 3);
+                        heap.flip();
+                        heap = larger.put(heap);
+                    }
+                    stringOffsets[i * 3 + s] = heap.position();
+                    AccountCodec.writeString(heap, strings[s]);
+                }
+            }
+            heap.flip();
+
+            int sketchCount = 0;
+            int sketchSize = 0;
+            for (QuantileSketch tokenSketch : tokenSketches) {
+                if (tokenSketch != null) {
+                    sketchCount++;
+                    sketchSize += 1 + tokenSketch.serializedSize();
+                }
+            }
+
+            final int accountTableOffset = HEADER_SIZE + ACCOUNT_TYPES.length * STATS_RECORD_SIZE;
+            final long sketchOffset = (long) accountTableOffset + (long) entries.size() * ACCOUNT_RECORD_SIZE + heap.remaining();
+            final long size = sketchOffset + ((sketchCount > 0) ? Integer.BYTES + sketchSize : 0);
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot of " + size + " bytes is larger than a mapped file can be");
+            }
+
+            final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(Integer.BYTES, FORMAT_VERSION);
+                buffer.putLong(CREATED_AT_OFFSET, System.currentTimeMillis());
+                buffer.putLong(JOURNAL_OFFSET_OFFSET, journalOffset);
+                buffer.putInt(ACCOUNT_COUNT_OFFSET, entries.size());
+                buffer.putInt(TYPE_COUNT_OFFSET, ACCOUNT_TYPES.length);
+
+                for (int i = 0; i < ACCOUNT_TYPES.length; i++) {
+                    final int offset = HEADER_SIZE + i * STATS_RECORD_SIZE;
+                    buffer.putLong(offset, counts[i]);
+                    buffer.putLong(offset + Long.BYTES, sums[i]);
+                    buffer.putInt(offset + 2 * Long.BYTES, mins[i]);
+                    buffer.putInt(offset + 2 * Long.BYTES + Integer.BYTES, maxes[i]);
+                }
+
+                for (int i = 0; i < entries.size(); i++) {
+                    writeAccount(buffer, accountTableOffset + i * ACCOUNT_RECORD_SIZE, entries.get(i), stringOffsets, i);
+                }
+
+                buffer.position(accountTableOffset + entries.size() * ACCOUNT_RECORD_SIZE);
+                buffer.put(heap);
+
+                buffer.putInt(SKETCH_OFFSET_OFFSET, (sketchCount > 0) ? (int) sketchOffset : 0);
+                if (sketchCount > 0) {
+                    buffer.putInt(sketchCount);
+                    for (int i = 0; i < ACCOUNT_TYPES.length; i++) {
+                        if (tokenSketches[i] != null) {
+                            buffer.put((byte) i);
+                            tokenSketches[i].writeTo(buffer);
+                        }
+                    }
+                }
+
+                final CRC32C crc = new CRC32C();
+                crc.update(buffer.duplicate().position(HEADER_SIZE));
+                buffer.putInt(CRC_OFFSET, (int) crc.getValue());
+                buffer.force();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            logger.info("Wrote " + entries.size() + " accounts (" + supersededCount + " older versions with a pending callback) to the snapshot "
+                    + path + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        }
+
+        private static void writeAccount(ByteBuffer buffer, int record, Entry entry, int[] stringOffsets, int index) {
+            final Account account = entry.account;
+            final Data data = account.getData();
+            int flags = entry.highest ? 0 : SUPERSEDED;
+            buffer.putInt(record, stringOffsets[index * 3]);
+            buffer.putInt(record + 4, account.getVersion());
+            if (account.getTokens() != null) {
+                flags |= HAS_TOKENS;
+                buffer.putInt(record + 8, account.getTokens());
+            }
+            if (account.getCallbackTimeMs() != null) {
+                flags |= HAS_CALLBACK_TIME;
+                buffer.putInt(record + 12, account.getCallbackTimeMs());
+            }
+            buffer.putInt(record + 16, stringOffsets[index * 3 + 1]);
+            buffer.putInt(record + 20, stringOffsets[index * 3 + 2]);
+            if (data != null) {
+                flags |= HAS_DATA;
+                if (data.getExpiry() != null) {
+                    flags |= HAS_EXPIRY;
+                    buffer.putInt(record + 24, data.getExpiry());
+                }
+                if (data.getCurrentBid() != null) {
+                    flags |= HAS_CURRENT_BID;
+                    buffer.putInt(record + 28, data.getCurrentBid());
+                }
+            }
+            buffer.putLong(record + 32, entry.callbackDueMillis);
+            buffer.put(record + 40, (account.getAccountType() != null) ? (byte) account.getAccountType().ordinal() : -1);
+            buffer.put(record + 41, (byte) flags);
+        }
+    }
+
+    private static final class Entry {
+        private final Account account;
+        private final boolean highest;
+        private final long callbackDueMillis;
+
+        Entry(Account account, boolean highest, long callbackDueMillis) {
+            this.account = account;
+            this.highest = highest;
+            this.callbackDueMillis = callbackDueMillis;
+        }
+    }
+}
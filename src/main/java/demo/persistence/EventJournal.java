@@ -0,0 +1,513 @@
+package demo.persistence;
+
+import demo.json.Account;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only binary write-ahead journal of the processor events: account version
+ * indexed, callback fired and callback cancelled.
+ * A record is [int body length][int CRC32C of the body][body] where the body is
+ * [byte record type][long wall clock millis][payload].  The payload of an indexed record
+ * is whether a callback was scheduled and whether the version was a duplicate, then the
+ * account (AccountCodec).  The other records carry the account id and version.
+ * Appending only copies the encoded record into a buffer.  A single writer thread takes
+ * everything appended since its last write and writes it with one FileChannel write,
+ * followed by one fsync depending on the FsyncPolicy (group commit).  With GROUP_COMMIT
+ * callers can wait until their record is durable with awaitDurable().
+ * A torn record at the end of the file (crash while writing) is detected by its length or
+ * checksum on replay and truncated.
+ * @author skarmali
+ */
+public class EventJournal implements Closeable {
+    public static Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    private static final byte ACCOUNT_INDEXED = 1;
+    private static final byte CALLBACK_FIRED = 2;
+    private static final byte CALLBACK_CANCELLED = 3;
+
+    // Flags of an indexed record
+    private static final int CALLBACK_SCHEDULED = 1;
+    private static final int DUPLICATE = 1 << 1;
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+
+    // Appenders wait when this much has been appended but not written yet
+    private static final int MAX_PENDING_BYTES = 16 << 20;
+
+    private static final ThreadLocal<ByteBuffer> ENCODE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final Thread writer;
+
+    // Guarded by lock.  Records appended but not written yet
+    private final Object lock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long appendedSequence;
+    private long durableSequence;
+    private boolean closed;
+    private IOException failure;
+
+    // Only used by the writer thread
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long lastFsyncNanos = System.nanoTime();
+    private boolean unsynced;
+    private long writtenLength;
+
+    // Length of the journal that is written and, unless the policy is NONE, fsynced
+    private volatile long durableLength;
+
+    private final long replayedRecords;
+
+    /**
+     * Replay the journal if it exists, drop a torn record at its end and open it for appending
+     *
+     * @param path             - journal file, created if it does not exist
+     * @param fsyncPolicy      - when the writes are forced to the storage device
+     * @param fsyncIntervalMs  - time between two fsyncs with FsyncPolicy.INTERVAL
+     * @param replayVisitor    - receives the records already in the journal, may be null
+     */
+    public static EventJournal open(Path path, FsyncPolicy fsyncPolicy, long fsyncIntervalMs, JournalVisitor replayVisitor) throws IOException {
+        return open(path, fsyncPolicy, fsyncIntervalMs, 0, replayVisitor);
+    }
+
+    /**
+     * Replay the journal from an offset, for example the offset covered by a snapshot, drop a
+     * torn record at its end and open it for appending
+     *
+     * @param path             - journal file, created if it does not exist
+     * @param fsyncPolicy      - when the writes are forced to the storage device
+     * @param fsyncIntervalMs  - time between two fsyncs with FsyncPolicy.INTERVAL
+     * @param replayOffset     - offset of the first record to replay, the end of a record
+     * @param replayVisitor    - receives the records already in the journal, may be null
+     */
+    public static EventJournal open(Path path, FsyncPolicy fsyncPolicy, long fsyncIntervalMs, long replayOffset, JournalVisitor replayVisitor) throws IOException {
+        long validLength = 0;
+        long records = 0;
+        if (Files.exists(path) || replayOffset > 0) {
+            final ReplayResult result = replay(path, replayOffset, replayVisitor);
+            validLength = result.validLength;
+            records = result.records;
+        }
+        return new EventJournal(path, fsyncPolicy, fsyncIntervalMs, validLength, records);
+    }
+
+    private EventJournal(Path path, FsyncPolicy fsyncPolicy, long fsyncIntervalMs, long validLength, long replayedRecords) throws IOException {
+        this.path = path;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+        this.replayedRecords = replayedRecords;
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() > validLength) {
+            logger.warn("Dropping " + (channel.size() - validLength) + " bytes of torn records at the end of the journal " + path);
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+        writtenLength = validLength;
+        durableLength = validLength;
+
+        writer = new Thread(this::writeLoop, "account-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return number of records found in the journal when it was opened
+     */
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return length of the journal that survives a crash, a snapshot must not go further
+     */
+    public long getDurableLength() {
+        return durableLength;
+    }
+
+    /**
+     * @param account           - account version that was indexed
+     * @param callbackScheduled - true if a callback is scheduled for this version
+     * @param duplicate         - true if this version had already been indexed, so it did not
+     *                          count towards the token statistics
+     * @param indexedAtMillis   - wall clock time at which it was indexed
+     * @return sequence number of the record, to wait for it with awaitDurable()
+     */
+    public long appendAccountIndexed(Account account, boolean callbackScheduled, boolean duplicate, long indexedAtMillis) {
+        ByteBuffer buffer = ENCODE_BUFFER.get();
+        while (true) {
+            try {
+                startRecord(buffer, ACCOUNT_INDEXED, indexedAtMillis);
+                buffer.put((byte) ((callbackScheduled ? CALLBACK_SCHEDULED : 0) | (duplicate ? DUPLICATE : 0)));
+                AccountCodec.write(buffer, account);
+                return append(endRecord(buffer));
+            } catch (BufferOverflowException e) {
+                buffer = growEncodeBuffer(buffer);
+            }
+        }
+    }
+
+    public long appendCallbackFired(String accountId, int version, long firedAtMillis) {
+        return appendCallbackEvent(CALLBACK_FIRED, accountId, version, firedAtMillis);
+    }
+
+    public long appendCallbackCancelled(String accountId, int version, long cancelledAtMillis) {
+        return appendCallbackEvent(CALLBACK_CANCELLED, accountId, version, cancelledAtMillis);
+    }
+
+    private long appendCallbackEvent(byte type, String accountId, int version, long timeMillis) {
+        ByteBuffer buffer = ENCODE_BUFFER.get();
+        while (true) {
+            try {
+                startRecord(buffer, type, timeMillis);
+                AccountCodec.writeString(buffer, accountId);
+                buffer.putInt(version);
+                return append(endRecord(buffer));
+            } catch (BufferOverflowException e) {
+                buffer = growEncodeBuffer(buffer);
+            }
+        }
+    }
+
+    private static void startRecord(ByteBuffer buffer, byte type, long timeMillis) {
+        buffer.clear();
+        buffer.position(HEADER_SIZE);
+        buffer.put(type);
+        buffer.putLong(timeMillis);
+    }
+
+    private static ByteBuffer endRecord(ByteBuffer buffer) {
+        final int bodyLength = buffer.position() - HEADER_SIZE;
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), HEADER_SIZE, bodyLength);
+        buffer.putInt(0, bodyLength);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer growEncodeBuffer(ByteBuffer buffer) {
+        if (buffer.capacity() >= MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Journal record larger than " + MAX_RECORD_SIZE + " bytes");
+        }
+        final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        ENCODE_BUFFER.set(larger);
+        return larger;
+    }
+
+    private long append(ByteBuffer record) {
+        synchronized (lock) {
+            while (pending.position() >= MAX_PENDING_BYTES && !closed) {
+                // The writer is behind, wait for it to take the pending records
+                waitOnLock(0);
+            }
+            checkOpen();
+
+            if (pending.remaining() < record.remaining()) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + record.remaining()));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            pending.put(record);
+            lock.notifyAll();
+            return ++appendedSequence;
+        }
+    }
+
+    /**
+     * Wait until the record with this sequence number has been written and, with
+     * FsyncPolicy.GROUP_COMMIT, forced to the storage device.  Returns right away with
+     * the other policies.
+     */
+    public void awaitDurable(long sequence) {
+        if (fsyncPolicy != FsyncPolicy.GROUP_COMMIT) {
+            return;
+        }
+        synchronized (lock) {
+            while (durableSequence < sequence && failure == null && !(closed && !writer.isAlive())) {
+                waitOnLock(0);
+            }
+            if (durableSequence < sequence) {
+                checkOpen();
+            }
+        }
+    }
+
+    /**
+     * Write and fsync everything appended so far and close the journal
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                final long batchSequence;
+                synchronized (lock) {
+                    while (pending.position() == 0 && !closed) {
+                        if (unsynced) {
+                            // Nothing new to write, fsync what was written once the interval is over
+                            final long remaining = fsyncIntervalNanos - (System.nanoTime() - lastFsyncNanos);
+                            if (remaining <= 0) {
+                                break;
+                            }
+                            waitOnLock(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                        } else {
+                            waitOnLock(0);
+                        }
+                    }
+                    if (pending.position() == 0 && closed) {
+                        break;
+                    }
+
+                    final ByteBuffer swap = writing;
+                    writing = pending;
+                    pending = swap;
+                    batchSequence = appendedSequence;
+
+                    // Appenders waiting for room in the pending buffer can go on
+                    lock.notifyAll();
+                }
+
+                writing.flip();
+                writtenLength += writing.remaining();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                writing.clear();
+                unsynced |= batchSequence > 0;
+                forceIfDue(false);
+
+                synchronized (lock) {
+                    durableSequence = Math.max(durableSequence, batchSequence);
+                    lock.notifyAll();
+                }
+            }
+            forceIfDue(true);
+        } catch (IOException e) {
+            logger.error("Error writing the journal " + path + ", no more events will be journaled", e);
+            synchronized (lock) {
+                failure = e;
+                closed = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void forceIfDue(boolean closing) throws IOException {
+        if (fsyncPolicy == FsyncPolicy.NONE) {
+            durableLength = writtenLength;
+            return;
+        }
+        if (!unsynced) {
+            return;
+        }
+        if (fsyncPolicy == FsyncPolicy.GROUP_COMMIT || closing || System.nanoTime() - lastFsyncNanos >= fsyncIntervalNanos) {
+            channel.force(false);
+            lastFsyncNanos = System.nanoTime();
+            unsynced = false;
+            durableLength = writtenLength;
+        }
+    }
+
+    private void waitOnLock(long timeoutMs) {
+        try {
+            lock.wait(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the journal", e);
+        }
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException("The journal " + path + " failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("The journal " + path + " is closed");
+        }
+    }
+
+    /**
+     * Read the records of a journal in order until its end or the first torn record
+     *
+     * @param path    - journal file
+     * @param visitor - receives the records, may be null to only validate the journal
+     * @return number of valid records and length of the valid part of the file
+     */
+    public static ReplayResult replay(Path path, JournalVisitor visitor) throws IOException {
+        return replay(path, 0, visitor);
+    }
+
+    /**
+     * Read the records of a journal from an offset until its end or the first torn record.
+     * The journal can be replayed while it is appended to, the replay stops at the last
+     * record completely written.
+     *
+     * @param path    - journal file
+     * @param offset  - offset of the first record to read, the end of a record
+     * @param visitor - receives the records, may be null to only validate the journal
+     * @return number of valid records read and length of the valid part of the file
+     */
+    public static ReplayResult replay(Path path, long offset, JournalVisitor visitor) throws IOException {
+        return replay(path, offset, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Read the records of a journal between two offsets, stopping earlier at the first torn record
+     *
+     * @param path      - journal file
+     * @param offset    - offset of the first record to read, the end of a record
+     * @param endOffset - records are only read up to this offset, for example the durable length
+     * @param visitor   - receives the records, may be null to only validate the journal
+     * @return number of valid records read and length of the valid part of the file
+     */
+    public static ReplayResult replay(Path path, long offset, long endOffset, JournalVisitor visitor) throws IOException {
+        final long start = System.nanoTime();
+        long records = 0;
+        long validLength = offset;
+
+        if (!Files.exists(path) || Files.size(path) < offset) {
+            throw new IllegalStateException("The journal " + path + " is shorter than the replay offset " + offset
+                    + ", it does not match its snapshot");
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.position(offset);
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            final CRC32C crc = new CRC32C();
+            boolean endOfFile = false;
+
+            replayLoop:
+            while (!endOfFile) {
+                // Do not read past the end offset, a partial record there is left for later
+                final long readable = endOffset - channel.position();
+                if (readable < buffer.remaining()) {
+                    buffer.limit(buffer.position() + (int) Math.max(0, readable));
+                }
+                endOfFile = readable <= 0 || channel.read(buffer) < 0;
+                buffer.limit(buffer.capacity());
+                buffer.flip();
+
+                while (buffer.remaining() >= HEADER_SIZE) {
+                    final int recordStart = buffer.position();
+                    final int bodyLength = buffer.getInt(recordStart);
+                    if (bodyLength <= 0 || bodyLength > MAX_RECORD_SIZE) {
+                        break replayLoop;
+                    }
+                    if (buffer.remaining() < HEADER_SIZE + bodyLength) {
+                        if (HEADER_SIZE + bodyLength > buffer.capacity()) {
+                            buffer = ByteBuffer.allocate(HEADER_SIZE + bodyLength).put(buffer);
+                            buffer.flip();
+                        }
+                        break;
+                    }
+
+                    final int bodyStart = recordStart + HEADER_SIZE;
+                    crc.reset();
+                    crc.update(buffer.array(), buffer.arrayOffset() + bodyStart, bodyLength);
+                    if ((int) crc.getValue() != buffer.getInt(recordStart + Integer.BYTES)) {
+                        break replayLoop;
+                    }
+
+                    final int limit = buffer.limit();
+                    buffer.position(bodyStart).limit(bodyStart + bodyLength);
+                    try {
+                        if (visitor != null) {
+                            visitRecord(buffer, visitor);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        logger.error("Corrupt record at offset " + validLength + " of the journal " + path, e);
+                        break replayLoop;
+                    }
+                    buffer.limit(limit).position(bodyStart + bodyLength);
+
+                    records++;
+                    validLength += HEADER_SIZE + bodyLength;
+                }
+                buffer.compact();
+            }
+        }
+
+        logger.info("Replayed " + records + " journal records from " + path + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return new ReplayResult(records, validLength);
+    }
+
+    private static void visitRecord(ByteBuffer body, JournalVisitor visitor) {
+        final byte type = body.get();
+        final long timeMillis = body.getLong();
+        switch (type) {
+            case ACCOUNT_INDEXED:
+                final int flags = body.get();
+                visitor.accountIndexed(AccountCodec.read(body), (flags & CALLBACK_SCHEDULED) != 0, (flags & DUPLICATE) != 0, timeMillis);
+                break;
+            case CALLBACK_FIRED:
+                visitor.callbackFired(AccountCodec.readString(body), body.getInt(), timeMillis);
+                break;
+            case CALLBACK_CANCELLED:
+                visitor.callbackCancelled(AccountCodec.readString(body), body.getInt(), timeMillis);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown journal record type " + type);
+        }
+    }
+
+    /**
+     * Outcome of a replay
+     */
+    public static final class ReplayResult {
+        private final long records;
+        private final long validLength;
+
+        ReplayResult(long records, long validLength) {
+            this.records = records;
+            this.validLength = validLength;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * @return length of the file up to the end of the last valid record
+         */
+        public long getValidLength() {
+            return validLength;
+        }
+    }
+}
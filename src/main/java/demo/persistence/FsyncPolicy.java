@@ -0,0 +1,18 @@
+package demo.persistence;
+
+/**
+ * When the journal forces its writes to the storage device
+ * @author skarmali
+ */
+public enum FsyncPolicy {
+    // Never fsync, the operating system flushes when it wants.  Survives a process
+    // crash but not a power loss
+    NONE,
+
+    // Group commit: every batch of records written together is fsynced once and the
+    // processor waits until the records of an account are durable before scheduling its callback
+    GROUP_COMMIT,
+
+    // Fsync at most once per interval without waiting, a power loss can lose the last interval
+    INTERVAL
+}
@@ -0,0 +1,21 @@
+package demo.persistence;
+
+import demo.json.Account;
+
+/**
+ * Receives the records of the journal in the order they were written during a replay
+ * @author skarmali
+ */
+public interface JournalVisitor {
+    /**
+     * @param account           - account version that was indexed
+     * @param callbackScheduled - true if a callback was scheduled for this version
+     * @param duplicate         - true if the version had already been indexed
+     * @param indexedAtMillis   - wall clock time at which it was indexed
+     */
+    void accountIndexed(Account account, boolean callbackScheduled, boolean duplicate, long indexedAtMillis);
+
+    void callbackFired(String accountId, int version, long firedAtMillis);
+
+    void callbackCancelled(String accountId, int version, long cancelledAtMillis);
+}
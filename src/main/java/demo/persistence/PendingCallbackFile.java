@@ -0,0 +1,152 @@
+package demo.persistence;
+
+import demo.json.Account;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * File of the callbacks still pending when a processor was shut down without waiting for
+ * them, so the next start re-arms them:
+ * - header: magic, format version, time the file was saved, callback count and CRC32C of
+ *   everything after the header
+ * - one record per callback: remaining delay in milliseconds (long) and the account in the
+ *   AccountCodec encoding
+ * The delays are relative to the time the file was saved, reading the file reduces them by
+ * the time elapsed since.  The file is written to a temporary file that atomically replaces
+ * the previous one.
+ * @author skarmali
+ */
+public final class PendingCallbackFile {
+    public static Logger logger = LoggerFactory.getLogger(PendingCallbackFile.class);
+
+    private static final int MAGIC = 0x41435042;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int SAVED_AT_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+    private static final int CRC_OFFSET = 20;
+
+    private PendingCallbackFile() {
+    }
+
+    /**
+     * Read a pending callback file and hand its callbacks to the visitor
+     *
+     * @param path      - pending callback file
+     * @param nowMillis - current wall clock time, to adjust the remaining delays
+     * @param visitor   - receives the callbacks in the order they were saved
+     * @return number of callbacks read
+     * @throws IOException if the file cannot be read or is not a valid pending callback file
+     */
+    public static int read(Path path, long nowMillis, PendingCallbackVisitor visitor) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid pending callback file size " + channel.size() + " of " + path);
+            }
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Truncated pending callback file " + path);
+                }
+            }
+            buffer.flip();
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != FORMAT_VERSION) {
+            throw new IOException(path + " is not a pending callback file of format " + FORMAT_VERSION);
+        }
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(HEADER_SIZE));
+        if ((int) crc.getValue() != buffer.getInt(CRC_OFFSET)) {
+            throw new IOException("Corrupt pending callback file " + path + ", checksum mismatch");
+        }
+
+        final long elapsedMs = Math.max(0, nowMillis - buffer.getLong(SAVED_AT_OFFSET));
+        final int count = buffer.getInt(COUNT_OFFSET);
+        buffer.position(HEADER_SIZE);
+        try {
+            for (int i = 0; i < count; i++) {
+                final long remainingDelayMs = buffer.getLong();
+                final Account account = AccountCodec.read(buffer);
+                visitor.pendingCallback(account, Math.max(0, remainingDelayMs - elapsedMs));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated pending callback file " + path, e);
+        }
+        return count;
+    }
+
+    /**
+     * Collects the pending callbacks and writes them
+     */
+    public static final class Writer {
+        private ByteBuffer buffer = ByteBuffer.allocate(4096).position(HEADER_SIZE);
+        private int count;
+
+        /**
+         * @param account          - account version whose callback is pending
+         * @param remainingDelayMs - time left until the callback is due
+         */
+        public Writer callback(Account account, long remainingDelayMs) {
+            while (true) {
+                final int start = buffer.position();
+                try {
+                    buffer.putLong(Math.max(0, remainingDelayMs));
+                    AccountCodec.write(buffer, account);
+                    count++;
+                    return this;
+                } catch (BufferOverflowException e) {
+                    buffer.position(start);
+                    final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    buffer = larger.put(buffer);
+                }
+            }
+        }
+
+        public int getCallbackCount() {
+            return count;
+        }
+
+        /**
+         * Write the callbacks to a temporary file and atomically replace the pending callback file with it
+         *
+         * @param path          - pending callback file
+         * @param savedAtMillis - current wall clock time, the remaining delays are relative to it
+         */
+        public void writeTo(Path path, long savedAtMillis) throws IOException {
+            final ByteBuffer file = buffer.duplicate().flip();
+            file.putInt(0, MAGIC);
+            file.putInt(Integer.BYTES, FORMAT_VERSION);
+            file.putLong(SAVED_AT_OFFSET, savedAtMillis);
+            file.putInt(COUNT_OFFSET, count);
+            final CRC32C crc = new CRC32C();
+            crc.update(file.duplicate().position(HEADER_SIZE));
+            file.putInt(CRC_OFFSET, (int) crc.getValue());
+
+            final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (file.hasRemaining()) {
+                    channel.write(file);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved " + count + " pending callbacks to " + path);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package demo.persistence;
+
+import demo.json.Account;
+
+/**
+ * Receives the callbacks of a pending callback file as it is read
+ * @author skarmali
+ */
+public interface PendingCallbackVisitor {
+    /**
+     * @param account          - account version whose callback was pending
+     * @param remainingDelayMs - time left until the callback is due, already reduced by the time
+     *                         elapsed since the file was saved, never negative
+     */
+    void pendingCallback(Account account, long remainingDelayMs);
+}
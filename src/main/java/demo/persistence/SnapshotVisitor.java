@@ -0,0 +1,31 @@
+package demo.persistence;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.QuantileSketch;
+
+/**
+ * Receives the content of a snapshot as it is read
+ * @author skarmali
+ */
+public interface SnapshotVisitor {
+    /**
+     * Token statistics of an account type at the time of the snapshot, only for the types with accounts
+     */
+    void tokenStats(AccountType type, long count, long sum, int min, int max);
+
+    /**
+     * Quantile sketch of the token values of an account type, absent from snapshots of format 1
+     */
+    default void tokenSketch(AccountType type, QuantileSketch tokenSketch) {
+    }
+
+    /**
+     * @param account           - account version
+     * @param highest           - true for the highest version of the account id, false for an
+     *                          older version whose callback is still pending
+     * @param callbackDueMillis - wall clock time at which the callback is due, or -1 if the
+     *                          callback already fired or was cancelled
+     */
+    void account(Account account, boolean highest, long callbackDueMillis);
+}
@@ -0,0 +1,214 @@
+package demo.processor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interns account ids (and other strings such as mint ids or image urls) to dense
+ * int handles.  The bytes of each distinct string are stored once, back to back, in
+ * large byte chunks, and an open-addressed hash table of handles finds them again.
+ * This costs a few tens of bytes per distinct id instead of a String, its byte array
+ * and a map entry.
+ * Handles are assigned in order starting at 0 and are never reused.
+ * Finding a string that is already interned takes no lock, only adding a new string
+ * locks the dictionary.  The arrays are published through volatile fields, and the
+ * slot of a new handle is filled after the volatile size covering it, so a reader that
+ * finds a handle beyond the size it reads has raced an add and retries under the lock.
+ * @author skarmali
+ */
+public class AccountIdDictionary {
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Bytes of the interned strings.  A string never spans two chunks
+    private volatile byte[][] chunks = new byte[1][];
+
+    // Guarded by this
+    private int chunkCount;
+    private int chunkPosition = CHUNK_SIZE;
+
+    // Per handle: chunk index (high 32 bits) and offset (low 32 bits), length and hash
+    private volatile long[] locations = new long[INITIAL_CAPACITY];
+    private volatile int[] lengths = new int[INITIAL_CAPACITY];
+    private volatile int[] hashes = new int[INITIAL_CAPACITY];
+    private volatile int size;
+
+    // Open-addressed table of (handle + 1), 0 is an empty slot
+    private volatile int[] table = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * @param value - string to intern
+     * @return the handle of the string, a new handle if it was not interned yet
+     */
+    public int intern(String value) {
+        final int hash = hash(value);
+        final int found = find(value, hash);
+        if (found >= 0) {
+            return found;
+        }
+
+        synchronized (this) {
+            final int[] currentTable = table;
+            int slot = hash & (currentTable.length - 1);
+            int entry;
+            while ((entry = currentTable[slot]) != 0) {
+                if (hashes[entry - 1] == hash && matches(entry - 1, value)) {
+                    return entry - 1;
+                }
+                slot = (slot + 1) & (currentTable.length - 1);
+            }
+
+            final int handle = add(value, hash);
+            currentTable[slot] = handle + 1;
+            if (size * 2 > currentTable.length) {
+                rehash();
+            }
+            return handle;
+        }
+    }
+
+    /**
+     * @param value - string to look up
+     * @return the handle of the string or -1 if it has not been interned
+     */
+    public int lookup(String value) {
+        final int hash = hash(value);
+        final int found = find(value, hash);
+        if (found >= 0) {
+            return found;
+        }
+
+        // It may have been added while it was looked up
+        synchronized (this) {
+            return find(value, hash);
+        }
+    }
+
+    /**
+     * @param handle - handle returned by intern
+     * @return the interned string
+     */
+    public String get(int handle) {
+        if (handle < 0 || handle >= size) {
+            synchronized (this) {
+                if (handle < 0 || handle >= size) {
+                    throw new IllegalArgumentException("Unknown handle " + handle);
+                }
+            }
+        }
+        final long location = locations[handle];
+        return new String(chunks[(int) (location >>> 32)], (int) location, lengths[handle], StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate number of bytes used by the dictionary
+     */
+    public synchronized long estimatedSizeBytes() {
+        long bytes = (long) locations.length * Long.BYTES + (long) lengths.length * Integer.BYTES
+                + (long) hashes.length * Integer.BYTES + (long) table.length * Integer.BYTES;
+        for (int i = 0; i < chunkCount; i++) {
+            bytes += chunks[i].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Find an interned string without locking
+     *
+     * @return the handle of the string, or -1 if it was not found
+     */
+    private int find(String value, int hash) {
+        final int[] currentTable = table;
+        int slot = hash & (currentTable.length - 1);
+        int entry;
+        while ((entry = currentTable[slot]) != 0) {
+            // A handle beyond the size is being added, its bytes may not be visible yet
+            if (entry - 1 < size && hashes[entry - 1] == hash && matches(entry - 1, value)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & (currentTable.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Store a new string, called while holding the lock.  The new size is published last
+     */
+    private int add(String value, int hash) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (chunkPosition + bytes.length > CHUNK_SIZE || chunkCount == 0) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            chunks[chunkCount++] = new byte[Math.max(CHUNK_SIZE, bytes.length)];
+            chunkPosition = 0;
+        }
+        System.arraycopy(bytes, 0, chunks[chunkCount - 1], chunkPosition, bytes.length);
+
+        final int handle = size;
+        if (handle == locations.length) {
+            locations = Arrays.copyOf(locations, handle * 2);
+            lengths = Arrays.copyOf(lengths, handle * 2);
+            hashes = Arrays.copyOf(hashes, handle * 2);
+        }
+        locations[handle] = ((long) (chunkCount - 1) << 32) | chunkPosition;
+        lengths[handle] = bytes.length;
+        hashes[handle] = hash;
+        chunkPosition += bytes.length;
+        size = handle + 1;
+        return handle;
+    }
+
+    private void rehash() {
+        final int[] newTable = new int[table.length * 2];
+        for (int handle = 0; handle < size; handle++) {
+            int slot = hashes[handle] & (newTable.length - 1);
+            while (newTable[slot] != 0) {
+                slot = (slot + 1) & (newTable.length - 1);
+            }
+            newTable[slot] = handle + 1;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Compare the interned bytes with a string without encoding it when it is ASCII,
+     * which is always the case for base58 account ids
+     */
+    private boolean matches(int handle, String value) {
+        final long location = locations[handle];
+        final byte[] chunk = chunks[(int) (location >>> 32)];
+        final int offset = (int) location;
+        final int length = lengths[handle];
+
+        if (value.length() == length) {
+            boolean ascii = true;
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                if (c >= 0x80) {
+                    ascii = false;
+                    break;
+                }
+                if (chunk[offset + i] != c) {
+                    return false;
+                }
+            }
+            if (ascii) {
+                return true;
+            }
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return Arrays.equals(bytes, 0, bytes.length, chunk, offset, offset + length);
+    }
+
+    private static int hash(String value) {
+        // Spread the String hash so the low bits used by the table are well distributed
+        final int h = value.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -3,17 +3,37 @@ package demo.processor;
 import com.google.gson.JsonObject;
 import demo.json.Account;
 import demo.json.AccountType;
+import demo.json.CallbackListener;
 import demo.json.ProcessAccountRunnable;
+import demo.metrics.IndexerMetrics;
+import demo.metrics.MetricsReporter;
+import demo.persistence.AccountSnapshot;
+import demo.persistence.EventJournal;
+import demo.persistence.PendingCallbackFile;
+import demo.utilities.CardinalitySketch;
+import demo.utilities.Clock;
+import demo.utilities.QuantileSketch;
+import demo.utilities.TaskTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This is the main processor.  It accepts inbound accounts and processes each one.
@@ -22,87 +42,630 @@ import java.util.stream.Collectors;
  * 2) Display a message when an old callback is canceled in favor of a new one
  * @author skarmali
  */
-public class AccountIndexerProcessor {
+public class AccountIndexerProcessor implements AccountProcessor {
     public static Logger logger = LoggerFactory.getLogger(AccountIndexerProcessor.class);
 
+    private static final long SHUTDOWN_WINDOW_SECONDS = 20;
+
+    // The processing tasks only schedule their callback, shutdownNow lets them finish
+    private static final long SHUTDOWN_NOW_DRAIN_SECONDS = 1;
+    private static final long MIN_COMPACTION_INTERVAL_MS = 100;
+    private static final AtomicInteger PROCESSOR_COUNT = new AtomicInteger();
+
     private final ExecutorService accountPool;
-    private Map<String, PriorityQueue<Account>> accountIdToVersionMap = new HashMap<>();
+
+    // Time source of the callbacks, the latencies and the journal records
+    private final Clock clock;
+
+    // All pending account callbacks share a single timer, a timer wheel on the system clock
+    private final TaskTimer callbackTimer;
+
+    // Per account id state.  Each record is locked on its own (on its segment off heap)
+    // so updates to different account ids are processed in parallel
+    private final AccountStates accountStates;
+
+    // Only used with StorageMode.COMPACT
+    private final CompactAccountStore compactAccountStore;
+
+    // Drops the versions that fell out of the retention time window, null if there is no time window
+    private final ScheduledExecutorService compactionExecutor;
+
+    // Token statistics per account type, updated as accounts are indexed
+    private final TokenAggregates tokenAggregates;
+
+    // Publishes the immutable views serving the token queries, null if the queries read the live aggregates
+    private final QueryViewPublisher queryViews;
+
+    // Account ids by the mint id of their highest version and the live auctions by expiry
+    // and by bid, updated under the account state lock
+    private final MintIndex mintIndex = new MintIndex();
+    private final AuctionIndex auctionIndex = new AuctionIndex();
+
+    // Rejects the duplicates and older versions before they reach the index, null if disabled
+    private final StaleVersionFilter staleVersionFilter;
+
+    private final IndexerMetrics metrics;
+
+    // Periodic text dump of the metrics, null if disabled
+    private final MetricsReporter metricsReporter;
+
+    // Write-ahead journal of the indexed versions and callbacks, null if disabled
+    private final EventJournal journal;
+
+    // Notified by the callbacks: the metrics and the journal
+    private final CallbackListener callbackListener;
+
+    // Builds snapshots from the journal, null if disabled.  Periodic snapshots run on their own thread
+    private final AccountSnapshotter snapshotter;
+    private final ScheduledExecutorService snapshotExecutor;
+
+    // Pending callbacks saved by shutdownNow and re-armed on start, null if they are not saved
+    private final Path pendingCallbacksPath;
+
+    // Cleared by shutdown, accounts are rejected from then on.  Accounts are indexed under the
+    // read lock and shutdown clears it under the write lock, so the accounts already accepted
+    // have handed their callback to the pool before the pool is shut down
+    private final ReadWriteLock intakeLock = new ReentrantReadWriteLock();
+    private volatile boolean accepting = true;
 
     public AccountIndexerProcessor() {
-        // Create a cached thread pool.  Since processing an account is a very small task
-        // a cached thread pool will provide additional threads as needed.
-        accountPool = Executors.newCachedThreadPool();
+        this(TokenAggregatePolicy.ALL_VERSIONS);
+    }
+
+    /**
+     * @param tokenAggregatePolicy - whether superseded account versions still count
+     *                             towards the token statistics of their account type
+     */
+    public AccountIndexerProcessor(TokenAggregatePolicy tokenAggregatePolicy) {
+        this(tokenAggregatePolicy, StorageMode.POJO);
+    }
+
+    /**
+     * @param tokenAggregatePolicy - whether superseded account versions still count
+     *                             towards the token statistics of their account type
+     * @param storageMode          - how the versions of each account are stored
+     */
+    public AccountIndexerProcessor(TokenAggregatePolicy tokenAggregatePolicy, StorageMode storageMode) {
+        this(tokenAggregatePolicy, storageMode, RetentionPolicy.keepAll());
+    }
+
+    /**
+     * @param tokenAggregatePolicy - whether superseded account versions still count
+     *                             towards the token statistics of their account type
+     * @param storageMode          - how the versions of each account are stored
+     * @param retentionPolicy      - how many versions of each account are kept (POJO storage only)
+     */
+    public AccountIndexerProcessor(TokenAggregatePolicy tokenAggregatePolicy, StorageMode storageMode, RetentionPolicy retentionPolicy) {
+        this(new AccountProcessorConfig().setTokenAggregatePolicy(tokenAggregatePolicy)
+                                         .setStorageMode(storageMode)
+                                         .setRetentionPolicy(retentionPolicy));
+    }
+
+    /**
+     * @param config - processor configuration, see AccountProcessorConfig
+     */
+    public AccountIndexerProcessor(AccountProcessorConfig config) {
+        logger.info("Creating the account processor with " + config);
+
+        // Processing an account is a very small task that only schedules its callback.
+        // The executor strategy decides which threads run these tasks, by default a cached
+        // thread pool that provides additional threads as needed.  A simulated clock runs
+        // everything on the thread driving the simulation so the run is deterministic.
+        clock = config.getClock();
+        final ExecutorStrategy executorStrategy = clock.isSimulated() ? ExecutorStrategy.DIRECT : config.getExecutorStrategy();
+        accountPool = executorStrategy.newExecutor(config.getExecutorThreads(), config.getExecutorQueueCapacity());
+        callbackTimer = clock.newTimer("callback-timer");
+        metrics = new IndexerMetrics(clock);
+        tokenAggregates = new TokenAggregates(config.getTokenAggregatePolicy());
+        staleVersionFilter = config.isStaleVersionFilterEnabled() ? new StaleVersionFilter() : null;
+
+        final StorageMode storageMode = config.getStorageMode();
+        final RetentionPolicy retentionPolicy = config.getRetentionPolicy();
+        if (storageMode == StorageMode.COMPACT) {
+            final CompactAccountStore store = new CompactAccountStore();
+            compactAccountStore = store;
+            accountStates = new CompactAccountStates(store);
+        } else if (storageMode == StorageMode.OFF_HEAP) {
+            compactAccountStore = null;
+            accountStates = new OffHeapAccountStore();
+        } else {
+            compactAccountStore = null;
+            accountStates = new HeapAccountStates(new ConcurrentHashMap<>(), () -> new PojoAccountState(retentionPolicy, clock));
+        }
+
+        if (storageMode == StorageMode.POJO && retentionPolicy.hasTimeWindow() && !clock.isSimulated()) {
+            // Compact a few times per window so a version does not outlive the window by much.
+            // In a simulation the versions are only compacted by calling compactVersions()
+            final long intervalMs = Math.max(MIN_COMPACTION_INTERVAL_MS, retentionPolicy.getWindow(TimeUnit.MILLISECONDS) / 4);
+            compactionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "version-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactionExecutor.scheduleWithFixedDelay(this::compactVersions, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            compactionExecutor = null;
+        }
+
+        metrics.setGauges(accountPool, accountStates::size, callbackTimer::pendingTimeouts);
+        final String name = "indexer-" + PROCESSOR_COUNT.incrementAndGet();
+        if (config.isMetricsJmxEnabled()) {
+            metrics.registerMBean(AccountIndexerProcessor.class.getSimpleName(), name);
+        }
+        metricsReporter = (config.getMetricsDumpIntervalMs() > 0) ? new MetricsReporter(name, metrics, config.getMetricsDumpIntervalMs()) : null;
+
+        if (config.getJournalPath() != null) {
+            // Rebuild the state from the snapshot and the journal before accepting accounts
+            final JournalRecovery recovery = new JournalRecovery(accountStates, tokenAggregates);
+            journal = recover(config, recovery);
+            callbackListener = new JournalingCallbackListener();
+            final int rearmed = recovery.rearmCallbacks(callbackTimer, callbackListener);
+            accountStates.forEach((accountId, accountState) -> {
+                final Account highest = accountState.highestVersion();
+                highestVersionChanged(accountId, null, highest);
+                if (staleVersionFilter != null) {
+                    staleVersionFilter.restored(accountId, highest.getVersion());
+                }
+            });
+            logger.info("Recovered " + accountStates.size() + " account ids (" + recovery.getIndexedVersions()
+                    + " versions from the journal), re-armed " + rearmed + " pending callbacks");
+        } else if (config.getSnapshotPath() != null) {
+            throw new IllegalArgumentException("Snapshots are built from the journal, a journal path is required");
+        } else {
+            journal = null;
+            callbackListener = metrics;
+        }
+
+        snapshotter = (config.getSnapshotPath() != null) ? new AccountSnapshotter(config.getSnapshotPath(), journal, config.getTokenAggregatePolicy()) : null;
+        if (snapshotter != null && config.getSnapshotIntervalMs() > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "account-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotExecutor.scheduleWithFixedDelay(this::periodicSnapshot, config.getSnapshotIntervalMs(), config.getSnapshotIntervalMs(), TimeUnit.MILLISECONDS);
+        } else {
+            snapshotExecutor = null;
+        }
+
+        pendingCallbacksPath = config.getPendingCallbacksPath();
+        if (pendingCallbacksPath != null && journal != null) {
+            throw new IllegalArgumentException("The journal re-arms the pending callbacks, a pending callback file cannot be used with it");
+        }
+        if (pendingCallbacksPath != null && Files.exists(pendingCallbacksPath)) {
+            restorePendingCallbacks();
+        }
+
+        // Published after the recovery so the first view has the recovered statistics
+        queryViews = (config.getQueryViewMaxStalenessMs() > 0)
+                ? new QueryViewPublisher(tokenAggregates, accountStates::size, clock, config.getQueryViewMaxStalenessMs())
+                : null;
     }
 
-    private void logUniqueAccountVersionTuple(Account account) {
+    /**
+     * Re-arm the callbacks saved by shutdownNow with their remaining delay, then delete the file
+     * so they are not re-armed again.  Their accounts are indexed again so a newer version can
+     * still cancel them
+     */
+    private void restorePendingCallbacks() {
+        final List<ProcessAccountRunnable> runnables = new ArrayList<>();
+        final List<Long> delays = new ArrayList<>();
+        try {
+            PendingCallbackFile.read(pendingCallbacksPath, clock.currentTimeMillis(), (account, remainingDelayMs) -> {
+                final AccountState accountState = accountStates.getOrCreate(account.getId());
+                synchronized (accountStates.lockOf(accountState)) {
+                    final Account previousHighest = accountState.highestVersion();
+                    if (!accountState.contains(account)) {
+                        tokenAggregates.versionIndexed(account, previousHighest);
+                    }
+                    accountState.add(account);
+                    highestVersionChanged(account.getId(), previousHighest, accountState.highestVersion());
+                    runnables.add(new ProcessAccountRunnable(account, callbackTimer, callbackListener));
+                }
+                delays.add(remainingDelayMs);
+                if (staleVersionFilter != null) {
+                    staleVersionFilter.restored(account.getId(), account.getVersion());
+                }
+            });
+            for (int i = 0; i < runnables.size(); i++) {
+                runnables.get(i).scheduleCallbackTimer(delays.get(i), TimeUnit.MILLISECONDS);
+            }
+            Files.delete(pendingCallbacksPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to restore the pending callbacks from " + pendingCallbacksPath, e);
+        }
+        logger.info("Re-armed " + runnables.size() + " pending callbacks from " + pendingCallbacksPath);
+    }
+
+    /**
+     * Load the snapshot if there is one, then replay the journal records appended after it
+     *
+     * @return the journal, open for appending
+     */
+    private static EventJournal recover(AccountProcessorConfig config, JournalRecovery recovery) {
+        try {
+            long journalOffset = 0;
+            if (config.getSnapshotPath() != null && Files.exists(config.getSnapshotPath())) {
+                journalOffset = AccountSnapshot.read(config.getSnapshotPath(), recovery);
+            }
+            return EventJournal.open(config.getJournalPath(), config.getFsyncPolicy(), config.getFsyncIntervalMs(), journalOffset, recovery);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to recover from the journal " + config.getJournalPath(), e);
+        }
+    }
+
+    private static void logUniqueAccountVersionTuple(Account account) {
         // Display a short message log message to console when each (accountId + version)
         // tuple has been indexed.
         logger.info("Account (id=" + account.getId() + ", " + account.getVersion() + ") has been indexed");
     }
 
-    synchronized public void handleAccountProcessing(Account account) {
-        final String accountID = account.getId();
-        final Integer newerVersion = account.getVersion();
-        if (!accountIdToVersionMap.containsKey(accountID)) {
-            PriorityQueue<Account> pq = new PriorityQueue<>(2, new AccountComparator());
-            pq.add(account);
-            accountIdToVersionMap.put(accountID, pq);
+    @Override
+    public void handleAccountProcessing(Account account) {
+        intakeLock.readLock().lock();
+        try {
+            checkAccepting();
+            processAccount(account);
+        } finally {
+            intakeLock.readLock().unlock();
+        }
+    }
 
-            logUniqueAccountVersionTuple(account);
-        } else {
-            // Safe check to make sure that account has not been previously ingested
-            if (account.isIngested()) {
-                logger.info("The account has already been ingested, ignore the update");
+    private void processAccount(Account account) {
+        accountReceived(account);
+        if (isRejected(account)) {
+            return;
+        }
+        final AccountState accountState = accountStates.getOrCreate(account.getId());
 
+        // The version supersede / cancel logic is atomic per account id
+        final long journalSequence;
+        final ProcessAccountRunnable runnable;
+        synchronized (accountStates.lockOf(accountState)) {
+            final boolean duplicate = (journal != null) && accountState.contains(account);
+            final Account previousHighest = accountState.highestVersion();
+            final boolean scheduleCallback = indexAccountVersion(accountState, account, tokenAggregates, metrics);
+            highestVersionChanged(account.getId(), previousHighest, accountState.highestVersion());
+            metrics.indexLatency(account.getSubmittedNanos());
+            if (!scheduleCallback) {
                 // Don't process further - ignoring update!!!
                 return;
             }
 
-            // If the account is unique log the indexing of the tuple
-            PriorityQueue<Account> accountList = accountIdToVersionMap.get(accountID);
-            if (!accountList.contains(account)) {
-                logUniqueAccountVersionTuple(account);
-            } else {
-                logger.info("Duplicate Index Handled:: Account (id=" + accountID + ", " + account.getVersion() + ") has been indexed");
+            // Journaled under the lock so the records of an account id are in processing order
+            journalSequence = (journal != null) ? journal.appendAccountIndexed(account, true, duplicate, clock.currentTimeMillis()) : 0;
+
+            // Created under the lock so a newer version can always find the runnable to cancel
+            runnable = new ProcessAccountRunnable(account, callbackTimer, callbackListener);
+        }
+
+        if (journal != null) {
+            // With group commit the callback is only scheduled once the version is durable
+            journal.awaitDurable(journalSequence);
+        }
+
+        // Process this account in a thread managed by the thread pool.
+        // The account is wrapped in a runnable class to manage the thread
+        accountPool.execute(runnable);
+    }
+
+    /**
+     * Index a batch of accounts.  The accounts are grouped by id and each account state is
+     * locked once for its whole group.  Every (accountId + version) tuple is logged and
+     * aggregated, but only the highest version of each id in the batch gets a callback,
+     * so a burst of updates does not schedule callbacks only to cancel them right away.
+     * The callbacks of the batch are scheduled by a single pool task.
+     *
+     * @param accounts - inbound accounts in arrival order
+     */
+    @Override
+    public void handleAccountBatch(Collection<Account> accounts) {
+        intakeLock.readLock().lock();
+        try {
+            checkAccepting();
+            processAccountBatch(accounts);
+        } finally {
+            intakeLock.readLock().unlock();
+        }
+    }
+
+    private void processAccountBatch(Collection<Account> accounts) {
+        // Group by id, keeping the arrival order of the ids and of the versions of each id
+        final Map<String, List<Account>> accountsById = new LinkedHashMap<>();
+        for (Account account : accounts) {
+            accountReceived(account);
+            if (!isRejected(account)) {
+                accountsById.computeIfAbsent(account.getId(), id -> new ArrayList<>(1)).add(account);
             }
+        }
 
-            final Account previousHighestAccount = accountList.peek();
-            if ((previousHighestAccount != null) && !previousHighestAccount.isIngested() && (previousHighestAccount.getVersion() < newerVersion)) {
-                logger.info("The previous version " + previousHighestAccount.getVersion() + " has not been ingested.  Cancel old callback in favor of the new one");
+        final List<ProcessAccountRunnable> callbacks = new ArrayList<>(accountsById.size());
+        long journalSequence = 0;
+        for (Map.Entry<String, List<Account>> entry : accountsById.entrySet()) {
+            final AccountState accountState = accountStates.getOrCreate(entry.getKey());
+            synchronized (accountStates.lockOf(accountState)) {
+                final boolean[] duplicates = (journal != null) ? findDuplicates(accountState, entry.getValue()) : null;
+                final Account previousHighest = accountState.highestVersion();
+                final Account highest = indexAccountBatch(accountState, entry.getValue(), tokenAggregates, metrics);
+                highestVersionChanged(entry.getKey(), previousHighest, accountState.highestVersion());
+                entry.getValue().forEach(account -> metrics.indexLatency(account.getSubmittedNanos()));
+                if (highest != null) {
+                    // Created under the lock so a newer version can always find the runnable to cancel
+                    callbacks.add(new ProcessAccountRunnable(highest, callbackTimer, callbackListener));
+                }
+                if (journal != null) {
+                    journalSequence = journalBatch(entry.getValue(), duplicates, highest);
+                }
+            }
+        }
 
-                // If the same account is ingested with a newer version number and the
-                // old callback has not fired yet, cancel the older version's active callback
-                ProcessAccountRunnable runnable = previousHighestAccount.getProcessAccountRunnable();
+        if (journal != null) {
+            // The last record of the batch is durable once its sequence is
+            journal.awaitDurable(journalSequence);
+        }
 
-                // Cancel old callbacks from previous versions if they have not fired
-                runnable.stop();
+        if (!callbacks.isEmpty()) {
+            accountPool.execute(() -> callbacks.forEach(ProcessAccountRunnable::run));
+        }
+    }
+
+    /**
+     * Journal the versions of one account id indexed in a batch, only the highest one has a callback
+     *
+     * @return sequence number of the last record
+     */
+    private long journalBatch(List<Account> versions, boolean[] duplicates, Account highest) {
+        long journalSequence = 0;
+        final long now = clock.currentTimeMillis();
+        for (int i = 0; i < versions.size(); i++) {
+            final Account account = versions.get(i);
+            if (account == highest || !account.isIngested()) {
+                journalSequence = journal.appendAccountIndexed(account, account == highest, duplicates[i], now);
             }
+        }
+        return journalSequence;
+    }
 
-            // This map keeps track of account versions based on account id
-            accountIdToVersionMap.get(accountID).add(account);
+    /**
+     * Find which versions of a batch indexAccountBatch will count as duplicates: the ones
+     * already seen and the repeats within the batch, the highest version being indexed first
+     */
+    private static boolean[] findDuplicates(AccountState accountState, List<Account> versions) {
+        int highest = 0;
+        for (int i = 1; i < versions.size(); i++) {
+            if (versions.get(i).getVersion() > versions.get(highest).getVersion()) {
+                highest = i;
+            }
         }
 
-        // Process this account in a thread managed by the thread pool.
-        // The account is wrapped in a runnable class to manage the thread
-        accountPool.execute(new ProcessAccountRunnable(account));
+        final boolean[] duplicates = new boolean[versions.size()];
+        final Set<Integer> batchVersions = new HashSet<>();
+        duplicates[highest] = accountState.contains(versions.get(highest));
+        batchVersions.add(versions.get(highest).getVersion());
+        for (int i = 0; i < versions.size(); i++) {
+            if (i != highest) {
+                duplicates[i] = !batchVersions.add(versions.get(i).getVersion()) || accountState.contains(versions.get(i));
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Keep the secondary indexes on the highest versions.  The caller must own the account state
+     */
+    private void highestVersionChanged(String accountId, Account previousHighest, Account highest) {
+        mintIndex.highestVersionChanged(accountId, previousHighest, highest);
+        auctionIndex.highestVersionChanged(accountId, previousHighest, highest, clock.currentTimeMillis());
+    }
+
+    /**
+     * Lock-free fast path: a version that is not newer than the highest one seen for its
+     * account id is counted and dropped without touching the index
+     *
+     * @return true if the stale version filter rejected the account
+     */
+    private boolean isRejected(Account account) {
+        if (staleVersionFilter == null) {
+            return false;
+        }
+        switch (staleVersionFilter.offer(account.getId(), account.getVersion())) {
+            case DUPLICATE:
+                metrics.duplicate();
+                return true;
+            case STALE:
+                metrics.ignoredUpdate();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void checkAccepting() {
+        if (!accepting) {
+            throw new RejectedExecutionException("The processor is shut down");
+        }
+    }
+
+    private void accountReceived(Account account) {
+        metrics.accountReceived();
+        if (account.getSubmittedNanos() == 0) {
+            // Not submitted through the driver, the latency starts now
+            account.setSubmittedNanos(clock.nanoTime());
+        }
+    }
+
+    /**
+     * Index the versions of one account id received in a batch.  The highest version goes
+     * through indexAccountVersion so it supersedes the current highest version, the other
+     * versions are only indexed.  The caller must own the account state.
+     *
+     * @param accountState    - state of the account id
+     * @param versions        - versions of the account id in arrival order
+     * @param tokenAggregates - token aggregates to update
+     * @param metrics         - metrics counting indexed, duplicate and ignored versions
+     * @return the version whose callback should be scheduled or null if there is none
+     */
+    static Account indexAccountBatch(AccountState accountState, List<Account> versions, TokenAggregates tokenAggregates, IndexerMetrics metrics) {
+        Account highest = versions.get(0);
+        for (Account account : versions) {
+            if (account.getVersion() > highest.getVersion()) {
+                highest = account;
+            }
+        }
+
+        final boolean scheduleHighest = indexAccountVersion(accountState, highest, tokenAggregates, metrics);
+        for (Account account : versions) {
+            if (account != highest) {
+                indexWithoutCallback(accountState, account, tokenAggregates, metrics);
+            }
+        }
+        return scheduleHighest ? highest : null;
+    }
+
+    /**
+     * Index a new version of an account: log the (accountId + version) tuple, update the
+     * token aggregates and cancel the callback of an older version that has not fired yet.
+     * The caller must own the account state, either by holding its lock or by being the
+     * single thread that updates it.
+     *
+     * @param accountState    - state of the account id
+     * @param account         - new account version
+     * @param tokenAggregates - token aggregates to update
+     * @param metrics         - metrics counting indexed, duplicate and ignored versions
+     * @return false if the update is ignored or a duplicate and no callback should be scheduled
+     */
+    static boolean indexAccountVersion(AccountState accountState, Account account, TokenAggregates tokenAggregates, IndexerMetrics metrics) {
+        final Integer newerVersion = account.getVersion();
+        final Account previousHighestAccount = accountState.highestVersion();
+        if (previousHighestAccount == null) {
+            accountState.add(account);
+            tokenAggregates.versionIndexed(account, null);
+            metrics.accountIndexed();
+
+            logUniqueAccountVersionTuple(account);
+            return true;
+        }
+
+        // Safe check to make sure that account has not been previously ingested
+        if (account.isIngested()) {
+            metrics.ignoredUpdate();
+            logger.info("The account has already been ingested, ignore the update");
+            return false;
+        }
+
+        if (accountState.contains(account)) {
+            // A re-delivered version, the one already indexed keeps its callback
+            logAccountVersion(accountState, account, previousHighestAccount, tokenAggregates, metrics);
+            return false;
+        }
+
+        // The account is unique, log the indexing of the tuple
+        logAccountVersion(accountState, account, previousHighestAccount, tokenAggregates, metrics);
+
+        if (!previousHighestAccount.isIngested() && (previousHighestAccount.getVersion() < newerVersion)) {
+            logger.info("The previous version " + previousHighestAccount.getVersion() + " has not been ingested.  Cancel old callback in favor of the new one");
+
+            // If the same account is ingested with a newer version number and the
+            // old callback has not fired yet, cancel the older version's active callback
+            ProcessAccountRunnable runnable = previousHighestAccount.getProcessAccountRunnable();
+
+            // Cancel old callbacks from previous versions if they have not fired
+            runnable.stop();
+        }
+
+        // This map keeps track of account versions based on account id
+        accountState.add(account);
+        return true;
+    }
+
+    /**
+     * Index a version of a batch that is not the highest version of its account id in the
+     * batch: it is logged and aggregated but no callback is scheduled and nothing is cancelled.
+     * A duplicate is not added again, it would replace the highest version owning the callback
+     */
+    private static void indexWithoutCallback(AccountState accountState, Account account, TokenAggregates tokenAggregates, IndexerMetrics metrics) {
+        if (account.isIngested()) {
+            metrics.ignoredUpdate();
+            logger.info("The account has already been ingested, ignore the update");
+            return;
+        }
+
+        final boolean duplicate = accountState.contains(account);
+        logAccountVersion(accountState, account, accountState.highestVersion(), tokenAggregates, metrics);
+        if (!duplicate) {
+            accountState.add(account);
+        }
+    }
+
+    private static void logAccountVersion(AccountState accountState, Account account, Account previousHighestAccount,
+                                          TokenAggregates tokenAggregates, IndexerMetrics metrics) {
+        if (!accountState.contains(account)) {
+            tokenAggregates.versionIndexed(account, previousHighestAccount);
+            metrics.accountIndexed();
+            logUniqueAccountVersionTuple(account);
+        } else {
+            metrics.duplicate();
+            logger.info("Duplicate Index Handled:: Account (id=" + account.getId() + ", " + account.getVersion() + ") has been indexed");
+        }
     }
 
-    private Map<AccountType, IntSummaryStatistics> getTokenStats(List<Account> allAccounts) {
-        // Calculate the token summary stats grouped by account type
-        return allAccounts.stream().collect(Collectors.groupingBy(Account::getAccountType,
-                                                                  Collectors.summarizingInt(Account::getTokens)));
+    /**
+     * Get the token statistics (count, sum, min and max) grouped by account type.
+     * The statistics are maintained as accounts are indexed so this does not scan the accounts.
+     *
+     * @return token statistics of every account type that has at least one account
+     */
+    @Override
+    public Map<AccountType, TokenStats> getTokenStats() {
+        return (queryViews != null) ? queryViews.current().getTokenStats() : tokenAggregates.getAll();
+    }
+
+    /**
+     * View of the token statistics that does not change while it is read.  With a query view
+     * staleness bound it is the published view, at most that old, otherwise one captured now
+     *
+     * @return immutable view of the token statistics
+     */
+    public QueryView getQueryView() {
+        return (queryViews != null) ? queryViews.current() : QueryView.capture(0, tokenAggregates, accountStates.size(), clock);
+    }
+
+    /**
+     * @param type - account type
+     * @return copy of the quantile sketch of the token values of the account type, updated as
+     * accounts are indexed
+     */
+    @Override
+    public QuantileSketch getTokenSketch(AccountType type) {
+        return tokenAggregates.getTokenSketch(type);
+    }
+
+    /**
+     * @param type - account type
+     * @return copy of the cardinality sketch of the account ids of the account type
+     */
+    @Override
+    public CardinalitySketch getAccountIdSketch(AccountType type) {
+        return tokenAggregates.getAccountIdSketch(type);
+    }
+
+    @Override
+    public int getTokenPercentile(AccountType type, double percentile) {
+        if (queryViews != null) {
+            return queryViews.current().getTokenPercentile(type, percentile);
+        }
+        // Without the copy of the sketch
+        return tokenAggregates.getTokenPercentile(type, percentile);
     }
 
     /**
      * Display the highest token value by account type
      */
+    @Override
     public void displayHighestTokenValue() {
         logger.info("Displaying highest token value grouped by account type");
 
-        List<Account> allAccounts = new ArrayList<>();
-        accountIdToVersionMap.forEach((key, value) -> allAccounts.addAll(value));
-
-        final Map<AccountType, IntSummaryStatistics> byAccountType = getTokenStats(allAccounts);
+        final Map<AccountType, TokenStats> byAccountType = getTokenStats();
         byAccountType.forEach((accountType, tokenStats) -> logger.info("Account Type: " + accountType + ", Highest Token Value: " + tokenStats.getMax()));
     }
 
@@ -112,17 +675,11 @@ public class AccountIndexerProcessor {
      * @param type - account type
      * @return int representing the highest token value for the account type
      */
+    @Override
     public int getHighestTokenValueByAccountType(AccountType type) {
-        // Filter out all the account types that we are interested in
-        List<Account> allAccounts = new ArrayList<>();
-        accountIdToVersionMap.forEach((key, accounts) -> {
-            List<Account> accountsByType = accounts.stream().filter(account -> account.getAccountType() == type).collect(Collectors.toList());
-            allAccounts.addAll(accountsByType);
-        });
-
-        final Map<AccountType, IntSummaryStatistics> byAccountType = getTokenStats(allAccounts);
-        if (!byAccountType.isEmpty()) {
-            return byAccountType.get(type).getMax();
+        final TokenStats tokenStats = (queryViews != null) ? queryViews.current().getTokenStats(type) : tokenAggregates.get(type);
+        if (!tokenStats.isEmpty()) {
+            return tokenStats.getMax();
         } else {
             // Returning 0 for now since there was no match.
             logger.info("There was no " + type + " account types.  Indeterminate high token value");
@@ -130,25 +687,318 @@ public class AccountIndexerProcessor {
         }
     }
 
+    /**
+     * Find the accounts related to a mint: the mint account and the metadata accounts whose
+     * highest version has the mint id.  Answered from the mint index in time proportional
+     * to the number of accounts found.
+     *
+     * @param mintId - mint id
+     * @return ids of the accounts referring to the mint, empty if there is none
+     */
+    public Set<String> getAccountIdsByMint(String mintId) {
+        return mintIndex.getAccountIds(mintId);
+    }
+
+    /**
+     * @param mintId - mint id
+     * @return highest version of every account referring to the mint, empty if there is none
+     */
+    public List<Account> getAccountsByMint(String mintId) {
+        final Set<String> accountIds = mintIndex.getAccountIds(mintId);
+        final List<Account> accounts = new ArrayList<>(accountIds.size());
+        for (String accountId : accountIds) {
+            final AccountState accountState = accountStates.get(accountId);
+            if (accountState == null) {
+                continue;
+            }
+            final Account highest;
+            synchronized (accountStates.lockOf(accountState)) {
+                highest = accountState.highestVersion();
+            }
+            // A newer version may have moved the account to another mint since the index was read
+            if (mintId.equals(MintIndex.mintIdOf(highest))) {
+                accounts.add(highest);
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * @return number of mint ids with at least one account
+     */
+    public int getIndexedMintCount() {
+        return mintIndex.getMintCount();
+    }
+
+    /**
+     * @param duration - time window from now
+     * @param unit     - unit of the duration
+     * @return auctions of both types expiring within the window, soonest first
+     */
+    public List<Account> getAuctionsExpiringWithin(long duration, TimeUnit unit) {
+        return auctionIndex.expiringWithin(clock.currentTimeMillis(), unit.toMillis(duration));
+    }
+
+    /**
+     * @param type - AUCTION or AUCTION_DATA
+     * @param k    - maximum number of auctions
+     * @return up to k live auctions of the type with the highest current bids, highest first
+     */
+    public List<Account> getTopBids(AccountType type, int k) {
+        final long now = clock.currentTimeMillis();
+        auctionIndex.evictExpired(now);
+        return auctionIndex.topBids(type, k, now);
+    }
+
+    /**
+     * @param k - maximum number of auctions
+     * @return up to k live auctions of both types with the highest current bids, highest first
+     */
+    public List<Account> getTopBids(int k) {
+        final long now = clock.currentTimeMillis();
+        auctionIndex.evictExpired(now);
+        return auctionIndex.topBids(k, now);
+    }
+
+    /**
+     * Remove the expired auctions from the auction index.  The account versions are kept
+     *
+     * @return number of auctions evicted
+     */
+    public int evictExpiredAuctions() {
+        return auctionIndex.evictExpired(clock.currentTimeMillis());
+    }
+
+    /**
+     * @return number of auctions in the auction index
+     */
+    public int getIndexedAuctionCount() {
+        return auctionIndex.size();
+    }
+
+    /**
+     * Drop the versions of every account that are no longer retained by the retention policy.
+     * Each account state is locked on its own so ingestion carries on while compacting.
+     *
+     * @return number of versions dropped
+     */
+    public int compactVersions() {
+        final AtomicInteger dropped = new AtomicInteger();
+        final long now = clock.nanoTime();
+        accountStates.forEach((accountId, accountState) -> {
+            synchronized (accountStates.lockOf(accountState)) {
+                dropped.addAndGet(accountState.compact(now));
+            }
+        });
+        final int removed = dropped.get();
+        if (removed > 0) {
+            logger.debug("Compaction dropped " + removed + " account versions");
+        }
+        return removed;
+    }
+
+    /**
+     * @return number of account versions currently kept across all account ids
+     */
+    public long getRetainedVersionCount() {
+        final AtomicLong count = new AtomicLong();
+        accountStates.forEach((accountId, accountState) -> {
+            synchronized (accountStates.lockOf(accountState)) {
+                count.addAndGet(accountState.versionCount());
+            }
+        });
+        return count.get();
+    }
+
+    /**
+     * Take a snapshot of the account index now.  Ingestion carries on while the snapshot is taken
+     *
+     * @return number of accounts in the snapshot, 0 if it was already up to date
+     */
+    public int snapshot() {
+        if (snapshotter == null) {
+            throw new IllegalStateException("No snapshot path is configured");
+        }
+        try {
+            return snapshotter.snapshot();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write the snapshot " + snapshotter.getSnapshotPath(), e);
+        }
+    }
+
+    private void periodicSnapshot() {
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            logger.error("Periodic snapshot failed", e);
+        }
+    }
+
+    /**
+     * @return metrics of this processor, also registered over JMX unless disabled in the configuration
+     */
+    public IndexerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the store holding the account versions or null when the storage mode is not COMPACT
+     */
+    public CompactAccountStore getCompactAccountStore() {
+        return compactAccountStore;
+    }
+
     /**
      * Initiates an orderly shutdown in which previously submitted tasks are executed, but no new tasks will be accepted.
      */
+    @Override
     public void shutdown() {
         logger.info("shutdown() of thread pool");
+        stopAccepting();
+        stopBackgroundTasks();
 
         try {
             // Shutdown the thread pool.  The thread pool will wait for running threads
             // to finish.  No new threads added to the thread pool after this
             accountPool.shutdown();
 
-            if (!accountPool.awaitTermination(20, TimeUnit.SECONDS)) {
+            // Then wait for the pending callbacks on the timer to fire
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_WINDOW_SECONDS);
+            if (!accountPool.awaitTermination(SHUTDOWN_WINDOW_SECONDS, TimeUnit.SECONDS)
+                    || !callbackTimer.awaitPending(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
                 logger.error("************** Threads did not get time to finish within the 20 second window ***********");
             } else {
                 // We are done processing - print the highest token value
                 displayHighestTokenValue();
             }
+            callbackTimer.stop();
+            logger.info("Metrics: " + metrics.dump());
+            metrics.unregisterMBean();
+            closeJournal();
+            if (snapshotter != null) {
+                // Fold the whole journal into the snapshot so the next start only has to map it
+                periodicSnapshot();
+            }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Stop accepting accounts and stop without waiting for the pending callbacks.  They are
+     * saved with their remaining delay to the pending callback file, to be re-armed by the
+     * next processor started with it.  With a journal nothing is saved, the journal re-arms
+     * them on recovery.  Without either the pending callbacks are dropped.
+     *
+     * @return number of pending callbacks left to the next start
+     */
+    public int shutdownNow() {
+        logger.info("shutdownNow() of thread pool");
+        stopAccepting();
+        stopBackgroundTasks();
+
+        // Let the processing tasks already submitted schedule their callback
+        accountPool.shutdown();
+        try {
+            if (!accountPool.awaitTermination(SHUTDOWN_NOW_DRAIN_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Processing tasks still running after " + SHUTDOWN_NOW_DRAIN_SECONDS + " second, their callbacks are not saved");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The callbacks that fire from now on are in neither the file nor the journal
+        final PendingCallbackFile.Writer writer = new PendingCallbackFile.Writer();
+        for (TaskTimer.Timeout timeout : callbackTimer.stop()) {
+            final ProcessAccountRunnable runnable = ProcessAccountRunnable.ofCallbackTask(timeout.getTask());
+            if (runnable != null && !timeout.isCancelled()) {
+                writer.callback(runnable.getAccount(), timeout.getRemainingDelay(TimeUnit.MILLISECONDS));
+            }
+        }
+        metrics.unregisterMBean();
+        closeJournal();
+
+        final int pending = writer.getCallbackCount();
+        if (pendingCallbacksPath != null) {
+            try {
+                writer.writeTo(pendingCallbacksPath, clock.currentTimeMillis());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to save the pending callbacks to " + pendingCallbacksPath, e);
+            }
+        } else if (journal == null && pending > 0) {
+            logger.warn("Dropped " + pending + " pending callbacks, no pending callback file is configured");
+        }
+        logger.info("Stopped with " + pending + " pending callbacks. Metrics: " + metrics.dump());
+        return pending;
+    }
+
+    /**
+     * Reject new accounts, once the accounts being indexed have submitted their callback
+     */
+    private void stopAccepting() {
+        intakeLock.writeLock().lock();
+        try {
+            accepting = false;
+        } finally {
+            intakeLock.writeLock().unlock();
+        }
+    }
+
+    private void stopBackgroundTasks() {
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
+        if (queryViews != null) {
+            queryViews.shutdown();
+        }
+        if (metricsReporter != null) {
+            metricsReporter.stop();
+        }
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.error("Error closing the journal " + journal.getPath(), e);
+        }
+    }
+
+    /**
+     * Counts the callbacks in the metrics and journals the callbacks that fired or were
+     * cancelled, so they are not re-armed on restart.  A callback that fires just before a
+     * crash, before its record is written, fires again after the restart (at least once).
+     */
+    private final class JournalingCallbackListener implements CallbackListener {
+        @Override
+        public void callbackScheduled(Account account) {
+            metrics.callbackScheduled(account);
+        }
+
+        @Override
+        public void callbackFired(Account account, long latenessNanos) {
+            metrics.callbackFired(account, latenessNanos);
+            try {
+                journal.appendCallbackFired(account.getId(), account.getVersion(), clock.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.error("Unable to journal the callback of account " + account.getId() + ", version " + account.getVersion(), e);
+            }
+        }
+
+        @Override
+        public void callbackCancelled(Account account) {
+            metrics.callbackCancelled(account);
+            try {
+                journal.appendCallbackCancelled(account.getId(), account.getVersion(), clock.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.error("Unable to journal the cancelled callback of account " + account.getId() + ", version " + account.getVersion(), e);
+            }
+        }
+    }
 }
\ No newline at end of file
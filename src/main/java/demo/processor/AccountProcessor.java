@@ -0,0 +1,93 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.CardinalitySketch;
+import demo.utilities.QuantileSketch;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An account processing engine.  It accepts inbound accounts, indexes each
+ * (accountId + version) tuple, schedules the account callbacks and answers
+ * the token queries.
+ * @author skarmali
+ */
+public interface AccountProcessor {
+    /**
+     * Index an inbound account and schedule its callback
+     *
+     * @param account - inbound account
+     */
+    void handleAccountProcessing(Account account);
+
+    /**
+     * Index a batch of inbound accounts.  Every (accountId + version) tuple is indexed
+     * but engines may only schedule the callback of the highest version of each account
+     * in the batch.  By default the accounts are processed one by one.
+     *
+     * @param accounts - inbound accounts in arrival order
+     */
+    default void handleAccountBatch(Collection<Account> accounts) {
+        accounts.forEach(this::handleAccountProcessing);
+    }
+
+    /**
+     * @return token statistics of every account type that has at least one account
+     */
+    Map<AccountType, TokenStats> getTokenStats();
+
+    /**
+     * @param type - account type
+     * @return quantile sketch of the token values of the account type, a copy that can be
+     * merged with the sketches of other processors
+     */
+    QuantileSketch getTokenSketch(AccountType type);
+
+    /**
+     * @param type - account type
+     * @return cardinality sketch of the account ids of the account type, a copy that can be
+     * merged with the sketches of other processors
+     */
+    CardinalitySketch getAccountIdSketch(AccountType type);
+
+    /**
+     * @param type       - account type
+     * @param percentile - percentile between 0 and 100, for example 50, 95 or 99
+     * @return token value at the percentile within about 1.6%, 0 if there is no account of the type
+     */
+    default int getTokenPercentile(AccountType type, double percentile) {
+        final TokenStats tokenStats = getTokenStats().getOrDefault(type, TokenStats.EMPTY);
+        if (tokenStats.isEmpty()) {
+            return 0;
+        }
+        // The bucket bound is capped by the exact extremes
+        final int value = getTokenSketch(type).getValueAtPercentile(percentile);
+        return Math.max(tokenStats.getMin(), Math.min(tokenStats.getMax(), value));
+    }
+
+    /**
+     * @param type - account type
+     * @return estimated number of distinct account ids of the account type
+     */
+    default long getDistinctAccountCount(AccountType type) {
+        return getAccountIdSketch(type).estimate();
+    }
+
+    /**
+     * Display the highest token value by account type
+     */
+    void displayHighestTokenValue();
+
+    /**
+     * @param type - account type
+     * @return the highest token value for the account type, 0 if there is none
+     */
+    int getHighestTokenValueByAccountType(AccountType type);
+
+    /**
+     * Stop accepting accounts and wait for the pending callbacks
+     */
+    void shutdown();
+}
@@ -0,0 +1,389 @@
+package demo.processor;
+
+import demo.persistence.FsyncPolicy;
+import demo.utilities.Clock;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration of AccountIndexerProcessor.  Every setting has a default so only the
+ * settings that differ need to be set.  The configuration can also be read from
+ * properties (for example -Daccount.executor=BOUNDED on the command line):
+ * - account.tokenAggregatePolicy: ALL_VERSIONS or LATEST_VERSION_ONLY
+ * - account.storageMode: POJO, COMPACT or OFF_HEAP
+ * - account.retention: all, latest, latest:K or window:MILLISECONDS
+ * - account.staleVersionFilter: true to reject the versions not newer than the highest one seen
+ *   before they reach the index, false by default
+ * - account.queryView.maxStalenessMs: serve the token queries from an immutable view published at
+ *   least this often, 0 to read the live aggregates (default)
+ * - account.executor: CACHED, BOUNDED, FORK_JOIN, SCHEDULER, VIRTUAL or DIRECT
+ * - account.executor.threads: threads of BOUNDED, parallelism of FORK_JOIN
+ * - account.executor.queueCapacity: queue capacity of BOUNDED
+ * - account.metrics.jmx: true to register the metrics over JMX (default)
+ * - account.metrics.dumpIntervalMs: time between two text dumps of the metrics, 0 to disable (default)
+ * - account.journal.path: file of the event journal, no journal if not set (default)
+ * - account.journal.fsync: NONE, GROUP_COMMIT (default) or INTERVAL
+ * - account.journal.fsyncIntervalMs: time between two fsyncs with INTERVAL
+ * - account.snapshot.path: file of the snapshots built from the journal, no snapshot if not set (default)
+ * - account.snapshot.intervalMs: time between two snapshots, 0 to only snapshot on demand and on shutdown (default)
+ * - account.pendingCallbacks.path: file the pending callbacks are saved to by shutdownNow and re-armed from on
+ *   start, without a journal only.  Not set by default
+ * The clock is only set in code, it is the system clock unless a simulation is run.
+ * @author skarmali
+ */
+public class AccountProcessorConfig {
+    public static final String PROPERTY_PREFIX = "account.";
+    public static final int DEFAULT_EXECUTOR_QUEUE_CAPACITY = 10_000;
+    public static final long DEFAULT_FSYNC_INTERVAL_MS = 100;
+
+    private TokenAggregatePolicy tokenAggregatePolicy = TokenAggregatePolicy.ALL_VERSIONS;
+    private StorageMode storageMode = StorageMode.POJO;
+    private RetentionPolicy retentionPolicy = RetentionPolicy.keepAll();
+    private boolean staleVersionFilterEnabled;
+    private long queryViewMaxStalenessMs;
+    private ExecutorStrategy executorStrategy = ExecutorStrategy.CACHED;
+    private int executorThreads = Runtime.getRuntime().availableProcessors();
+    private int executorQueueCapacity = DEFAULT_EXECUTOR_QUEUE_CAPACITY;
+    private boolean metricsJmxEnabled = true;
+    private long metricsDumpIntervalMs;
+    private Path journalPath;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.GROUP_COMMIT;
+    private long fsyncIntervalMs = DEFAULT_FSYNC_INTERVAL_MS;
+    private Path snapshotPath;
+    private long snapshotIntervalMs;
+    private Path pendingCallbacksPath;
+    private Clock clock = Clock.SYSTEM;
+
+    /**
+     * @return configuration read from the system properties
+     */
+    public static AccountProcessorConfig fromSystemProperties() {
+        return fromProperties(System.getProperties());
+    }
+
+    /**
+     * @param properties - properties with the account. prefix, missing ones keep their default
+     * @return configuration read from the properties
+     */
+    public static AccountProcessorConfig fromProperties(Properties properties) {
+        final AccountProcessorConfig config = new AccountProcessorConfig();
+
+        final String tokenAggregatePolicy = property(properties, "tokenAggregatePolicy");
+        if (tokenAggregatePolicy != null) {
+            config.setTokenAggregatePolicy(TokenAggregatePolicy.valueOf(tokenAggregatePolicy.toUpperCase(Locale.ROOT)));
+        }
+        final String storageMode = property(properties, "storageMode");
+        if (storageMode != null) {
+            config.setStorageMode(StorageMode.valueOf(storageMode.toUpperCase(Locale.ROOT)));
+        }
+        final String retention = property(properties, "retention");
+        if (retention != null) {
+            config.setRetentionPolicy(parseRetentionPolicy(retention));
+        }
+        final String staleVersionFilter = property(properties, "staleVersionFilter");
+        if (staleVersionFilter != null) {
+            config.setStaleVersionFilterEnabled(Boolean.parseBoolean(staleVersionFilter));
+        }
+        final String queryViewMaxStalenessMs = property(properties, "queryView.maxStalenessMs");
+        if (queryViewMaxStalenessMs != null) {
+            config.setQueryViewMaxStalenessMs(Long.parseLong(queryViewMaxStalenessMs));
+        }
+        final String executor = property(properties, "executor");
+        if (executor != null) {
+            config.setExecutorStrategy(ExecutorStrategy.valueOf(executor.toUpperCase(Locale.ROOT)));
+        }
+        final String executorThreads = property(properties, "executor.threads");
+        if (executorThreads != null) {
+            config.setExecutorThreads(Integer.parseInt(executorThreads));
+        }
+        final String executorQueueCapacity = property(properties, "executor.queueCapacity");
+        if (executorQueueCapacity != null) {
+            config.setExecutorQueueCapacity(Integer.parseInt(executorQueueCapacity));
+        }
+        final String metricsJmx = property(properties, "metrics.jmx");
+        if (metricsJmx != null) {
+            config.setMetricsJmxEnabled(Boolean.parseBoolean(metricsJmx));
+        }
+        final String metricsDumpIntervalMs = property(properties, "metrics.dumpIntervalMs");
+        if (metricsDumpIntervalMs != null) {
+            config.setMetricsDumpIntervalMs(Long.parseLong(metricsDumpIntervalMs));
+        }
+        final String journalPath = property(properties, "journal.path");
+        if (journalPath != null) {
+            config.setJournalPath(Paths.get(journalPath));
+        }
+        final String fsyncPolicy = property(properties, "journal.fsync");
+        if (fsyncPolicy != null) {
+            config.setFsyncPolicy(FsyncPolicy.valueOf(fsyncPolicy.toUpperCase(Locale.ROOT)));
+        }
+        final String fsyncIntervalMs = property(properties, "journal.fsyncIntervalMs");
+        if (fsyncIntervalMs != null) {
+            config.setFsyncIntervalMs(Long.parseLong(fsyncIntervalMs));
+        }
+        final String snapshotPath = property(properties, "snapshot.path");
+        if (snapshotPath != null) {
+            config.setSnapshotPath(Paths.get(snapshotPath));
+        }
+        final String snapshotIntervalMs = property(properties, "snapshot.intervalMs");
+        if (snapshotIntervalMs != null) {
+            config.setSnapshotIntervalMs(Long.parseLong(snapshotIntervalMs));
+        }
+        final String pendingCallbacksPath = property(properties, "pendingCallbacks.path");
+        if (pendingCallbacksPath != null) {
+            config.setPendingCallbacksPath(Paths.get(pendingCallbacksPath));
+        }
+        return config;
+    }
+
+    /**
+     * @param value - all, latest, latest:K or window:MILLISECONDS
+     */
+    static RetentionPolicy parseRetentionPolicy(String value) {
+        final String[] parts = value.trim().toLowerCase(Locale.ROOT).split(":", 2);
+        switch (parts[0]) {
+            case "all":
+                return RetentionPolicy.keepAll();
+            case "latest":
+                return (parts.length == 1) ? RetentionPolicy.latest() : RetentionPolicy.latest(Integer.parseInt(parts[1]));
+            case "window":
+                if (parts.length == 2) {
+                    return RetentionPolicy.timeWindow(Long.parseLong(parts[1]), TimeUnit.MILLISECONDS);
+                }
+                break;
+            default:
+                break;
+        }
+        throw new IllegalArgumentException("Invalid retention policy: " + value);
+    }
+
+    private static String property(Properties properties, String name) {
+        final String value = properties.getProperty(PROPERTY_PREFIX + name);
+        return (value == null || value.trim().isEmpty()) ? null : value.trim();
+    }
+
+    public TokenAggregatePolicy getTokenAggregatePolicy() {
+        return tokenAggregatePolicy;
+    }
+
+    public AccountProcessorConfig setTokenAggregatePolicy(TokenAggregatePolicy tokenAggregatePolicy) {
+        this.tokenAggregatePolicy = tokenAggregatePolicy;
+        return this;
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    public AccountProcessorConfig setStorageMode(StorageMode storageMode) {
+        this.storageMode = storageMode;
+        return this;
+    }
+
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    public AccountProcessorConfig setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+        return this;
+    }
+
+    public ExecutorStrategy getExecutorStrategy() {
+        return executorStrategy;
+    }
+
+    public AccountProcessorConfig setExecutorStrategy(ExecutorStrategy executorStrategy) {
+        this.executorStrategy = executorStrategy;
+        return this;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public AccountProcessorConfig setExecutorThreads(int executorThreads) {
+        if (executorThreads <= 0) {
+            throw new IllegalArgumentException("executorThreads must be greater than 0: " + executorThreads);
+        }
+        this.executorThreads = executorThreads;
+        return this;
+    }
+
+    public int getExecutorQueueCapacity() {
+        return executorQueueCapacity;
+    }
+
+    public AccountProcessorConfig setExecutorQueueCapacity(int executorQueueCapacity) {
+        if (executorQueueCapacity <= 0) {
+            throw new IllegalArgumentException("executorQueueCapacity must be greater than 0: " + executorQueueCapacity);
+        }
+        this.executorQueueCapacity = executorQueueCapacity;
+        return this;
+    }
+
+    public boolean isStaleVersionFilterEnabled() {
+        return staleVersionFilterEnabled;
+    }
+
+    /**
+     * @param staleVersionFilterEnabled - true to reject the exact duplicates and the versions older
+     *                                  than the highest one seen with a lock-free check before indexing.
+     *                                  Older versions arriving late are then neither indexed nor aggregated
+     */
+    public AccountProcessorConfig setStaleVersionFilterEnabled(boolean staleVersionFilterEnabled) {
+        this.staleVersionFilterEnabled = staleVersionFilterEnabled;
+        return this;
+    }
+
+    public long getQueryViewMaxStalenessMs() {
+        return queryViewMaxStalenessMs;
+    }
+
+    /**
+     * @param queryViewMaxStalenessMs - maximum age of the immutable view serving the token queries,
+     *                                0 to read the live aggregates.  See QueryView
+     */
+    public AccountProcessorConfig setQueryViewMaxStalenessMs(long queryViewMaxStalenessMs) {
+        if (queryViewMaxStalenessMs < 0) {
+            throw new IllegalArgumentException("queryViewMaxStalenessMs must not be negative: " + queryViewMaxStalenessMs);
+        }
+        this.queryViewMaxStalenessMs = queryViewMaxStalenessMs;
+        return this;
+    }
+
+    public boolean isMetricsJmxEnabled() {
+        return metricsJmxEnabled;
+    }
+
+    public AccountProcessorConfig setMetricsJmxEnabled(boolean metricsJmxEnabled) {
+        this.metricsJmxEnabled = metricsJmxEnabled;
+        return this;
+    }
+
+    public long getMetricsDumpIntervalMs() {
+        return metricsDumpIntervalMs;
+    }
+
+    public AccountProcessorConfig setMetricsDumpIntervalMs(long metricsDumpIntervalMs) {
+        if (metricsDumpIntervalMs < 0) {
+            throw new IllegalArgumentException("metricsDumpIntervalMs must not be negative: " + metricsDumpIntervalMs);
+        }
+        this.metricsDumpIntervalMs = metricsDumpIntervalMs;
+        return this;
+    }
+
+    /**
+     * @return file of the event journal or null if the processor does not journal its events
+     */
+    public Path getJournalPath() {
+        return journalPath;
+    }
+
+    /**
+     * @param journalPath - file of the event journal, replayed on start if it exists.  Null disables the journal
+     */
+    public AccountProcessorConfig setJournalPath(Path journalPath) {
+        this.journalPath = journalPath;
+        return this;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public AccountProcessorConfig setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+        return this;
+    }
+
+    public long getFsyncIntervalMs() {
+        return fsyncIntervalMs;
+    }
+
+    public AccountProcessorConfig setFsyncIntervalMs(long fsyncIntervalMs) {
+        if (fsyncIntervalMs <= 0) {
+            throw new IllegalArgumentException("fsyncIntervalMs must be greater than 0: " + fsyncIntervalMs);
+        }
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        return this;
+    }
+
+    /**
+     * @return file of the snapshots or null if the processor does not take snapshots
+     */
+    public Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    /**
+     * @param snapshotPath - file of the snapshots, loaded on start if it exists.  Snapshots are built
+     *                     from the journal so a journal path must be set as well
+     */
+    public AccountProcessorConfig setSnapshotPath(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+        return this;
+    }
+
+    public long getSnapshotIntervalMs() {
+        return snapshotIntervalMs;
+    }
+
+    public AccountProcessorConfig setSnapshotIntervalMs(long snapshotIntervalMs) {
+        if (snapshotIntervalMs < 0) {
+            throw new IllegalArgumentException("snapshotIntervalMs must not be negative: " + snapshotIntervalMs);
+        }
+        this.snapshotIntervalMs = snapshotIntervalMs;
+        return this;
+    }
+
+    /**
+     * @return file of the pending callbacks or null if shutdownNow does not save them
+     */
+    public Path getPendingCallbacksPath() {
+        return pendingCallbacksPath;
+    }
+
+    /**
+     * @param pendingCallbacksPath - file the pending callbacks are saved to by shutdownNow, re-armed and
+     *                             deleted on start if it exists.  With a journal the journal re-arms
+     *                             them instead, so both cannot be set
+     */
+    public AccountProcessorConfig setPendingCallbacksPath(Path pendingCallbacksPath) {
+        this.pendingCallbacksPath = pendingCallbacksPath;
+        return this;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * @param clock - clock of the processor: time of the callbacks, the latencies and the journal records.
+     *              With a simulated clock the processing tasks run on the thread driving the simulation
+     */
+    public AccountProcessorConfig setClock(Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock must not be null");
+        }
+        this.clock = clock;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountProcessorConfig(tokenAggregatePolicy=" + tokenAggregatePolicy + ", storageMode=" + storageMode
+                + ", retentionPolicy=" + retentionPolicy + ", staleVersionFilterEnabled=" + staleVersionFilterEnabled
+                + ", queryViewMaxStalenessMs=" + queryViewMaxStalenessMs
+                + ", executorStrategy=" + executorStrategy
+                + ", executorThreads=" + executorThreads + ", executorQueueCapacity=" + executorQueueCapacity
+                + ", metricsJmxEnabled=" + metricsJmxEnabled + ", metricsDumpIntervalMs=" + metricsDumpIntervalMs
+                + ", journalPath=" + journalPath + ", fsyncPolicy=" + fsyncPolicy + ", fsyncIntervalMs=" + fsyncIntervalMs
+                + ", snapshotPath=" + snapshotPath + ", snapshotIntervalMs=" + snapshotIntervalMs
+                + ", pendingCallbacksPath=" + pendingCallbacksPath
+                + ", clock=" + clock + ")";
+    }
+}
@@ -0,0 +1,58 @@
+package demo.processor;
+
+import demo.persistence.AccountSnapshot;
+import demo.persistence.EventJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Takes snapshots of the account index without touching the live index: the previous
+ * snapshot is loaded into a private copy of the state, the journal records appended since
+ * then are folded in and the result is written as the new snapshot.  Ingestion carries on
+ * untouched, the snapshotter only reads the journal file up to its durable length, so a
+ * snapshot never covers records that a crash could lose.
+ * The private copy only keeps the latest version of each account id.
+ * @author skarmali
+ */
+class AccountSnapshotter {
+    public static Logger logger = LoggerFactory.getLogger(AccountSnapshotter.class);
+
+    private final Path snapshotPath;
+    private final EventJournal journal;
+    private final TokenAggregatePolicy tokenAggregatePolicy;
+
+    AccountSnapshotter(Path snapshotPath, EventJournal journal, TokenAggregatePolicy tokenAggregatePolicy) {
+        this.snapshotPath = snapshotPath;
+        this.journal = journal;
+        this.tokenAggregatePolicy = tokenAggregatePolicy;
+    }
+
+    /**
+     * @return number of accounts written to the new snapshot, 0 if the snapshot was already up to date
+     */
+    synchronized int snapshot() throws IOException {
+        final JournalRecovery state = new JournalRecovery(new HeapAccountStates(new HashMap<>(), () -> new PojoAccountState(RetentionPolicy.latest())),
+                                                          new TokenAggregates(tokenAggregatePolicy));
+        final long previousOffset = Files.exists(snapshotPath) ? AccountSnapshot.read(snapshotPath, state) : 0;
+        final long durableLength = journal.getDurableLength();
+        if (durableLength == previousOffset && Files.exists(snapshotPath)) {
+            logger.debug("No new journal records since the snapshot " + snapshotPath);
+            return 0;
+        }
+
+        final EventJournal.ReplayResult result = EventJournal.replay(journal.getPath(), previousOffset, durableLength, state);
+        final AccountSnapshot.Writer writer = new AccountSnapshot.Writer(result.getValidLength());
+        state.writeTo(writer);
+        writer.writeTo(snapshotPath);
+        return writer.getAccountCount();
+    }
+
+    Path getSnapshotPath() {
+        return snapshotPath;
+    }
+}
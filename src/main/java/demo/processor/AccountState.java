@@ -0,0 +1,52 @@
+package demo.processor;
+
+import demo.json.Account;
+
+/**
+ * Per account id state record.  It knows the versions seen for one account id and
+ * which one is the highest.
+ * The record is locked through AccountStates.lockOf, usually the record itself: updates
+ * for the same account id are serialized on it while updates for different account ids
+ * run in parallel.  In the sharded engine the record is confined to its shard thread instead.
+ * The methods must be called while holding the lock of the record (or from its shard thread).
+ * @author skarmali
+ */
+interface AccountState {
+    /**
+     * @return the account with the highest version or null if no version has been seen
+     */
+    Account highestVersion();
+
+    /**
+     * @return true if this version of the account has already been seen
+     */
+    boolean contains(Account account);
+
+    /**
+     * Record a new version of the account
+     */
+    void add(Account account);
+
+    /**
+     * Drop the versions that are no longer retained.  The highest version is always kept
+     *
+     * @param nowNanos - current nanoTime() of the processor clock
+     * @return number of versions dropped
+     */
+    default int compact(long nowNanos) {
+        return 0;
+    }
+
+    /**
+     * @return number of versions currently kept
+     */
+    int versionCount();
+
+    /**
+     * Consider every version up to this one as already seen, for a state restored from a
+     * snapshot that only has the highest version.  Older versions arriving later are duplicates
+     *
+     * @param version - highest version of the restored account
+     */
+    void restoredUpTo(int version);
+}
@@ -0,0 +1,41 @@
+package demo.processor;
+
+import java.util.function.BiConsumer;
+
+/**
+ * The account states of a processor by account id.  The states can be objects kept on the
+ * heap (HeapAccountStates) or views of records kept outside of it (OffHeapAccountStore).
+ * Updates of an account state are made while holding the lock returned by lockOf.
+ * @author skarmali
+ */
+interface AccountStates {
+    /**
+     * @param accountId - account id
+     * @return the state of the account id, created without any version if there is none
+     */
+    AccountState getOrCreate(String accountId);
+
+    /**
+     * @param accountId - account id
+     * @return the state of the account id or null if there is none
+     */
+    AccountState get(String accountId);
+
+    /**
+     * @param accountState - state returned by getOrCreate or get
+     * @return the lock serializing the updates of the account state, the state itself by default
+     */
+    default Object lockOf(AccountState accountState) {
+        return accountState;
+    }
+
+    /**
+     * @return number of account ids
+     */
+    int size();
+
+    /**
+     * Visit every account id and its state.  Account ids added during the visit may be missed
+     */
+    void forEach(BiConsumer<String, AccountState> action);
+}
@@ -0,0 +1,211 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ordered indexes of the live auctions (AUCTION and AUCTION_DATA accounts with the bid
+ * schema), kept current with the highest version of each account id:
+ * - by expiry time, to find the auctions expiring soon and to evict the expired ones
+ *   from the head of the index
+ * - by current bid per account type, highest first, for the top bids
+ * Both are skip lists so a query costs O(log n) plus the number of auctions returned.
+ * Data.expiry is the time to live of the auction in milliseconds from the moment its
+ * version is indexed, a negative expiry means the auction does not expire.
+ * Updates of an account id are made by the thread that owns its account state, queries
+ * and eviction run concurrently with them.
+ * @author skarmali
+ */
+class AuctionIndex {
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private static final Comparator<Entry> BY_EXPIRY = Comparator.comparingLong((Entry entry) -> entry.expiresAtMillis)
+                                                                 .thenComparingLong(entry -> entry.sequence);
+    private static final Comparator<Entry> BY_BID = Comparator.comparingInt((Entry entry) -> entry.currentBid).reversed()
+                                                              .thenComparingLong(entry -> entry.sequence);
+
+    // Entries that expire, by expiry time
+    private final ConcurrentSkipListSet<Entry> byExpiry = new ConcurrentSkipListSet<>(BY_EXPIRY);
+
+    // Every live entry by current bid, per account type
+    private final Map<AccountType, ConcurrentSkipListSet<Entry>> byBid = new EnumMap<>(AccountType.class);
+
+    private final Map<String, Entry> byAccountId = new ConcurrentHashMap<>();
+
+    // Unique tie-breaker so two entries are never equal in the ordered sets
+    private final AtomicLong sequence = new AtomicLong();
+
+    AuctionIndex() {
+        byBid.put(AccountType.AUCTION, new ConcurrentSkipListSet<>(BY_BID));
+        byBid.put(AccountType.AUCTION_DATA, new ConcurrentSkipListSet<>(BY_BID));
+    }
+
+    /**
+     * The highest version of an account id changed
+     *
+     * @param accountId       - account id
+     * @param previousHighest - previous highest version, null if the id is new
+     * @param highest         - new highest version
+     * @param nowMillis       - current time, the expiry of the version starts now
+     */
+    void highestVersionChanged(String accountId, Account previousHighest, Account highest, long nowMillis) {
+        if (highest == previousHighest) {
+            return;
+        }
+
+        final Entry previous = byAccountId.get(accountId);
+        if (previous != null && previous.isSameAuction(highest)) {
+            // The same version delivered again keeps its expiry time
+            return;
+        }
+        if (previous != null) {
+            remove(previous);
+        }
+        if (isAuction(highest)) {
+            final Data data = highest.getData();
+            final long expiresAtMillis = (data.getExpiry() < 0) ? NO_EXPIRY : nowMillis + data.getExpiry();
+            final Entry entry = new Entry(highest, expiresAtMillis, sequence.incrementAndGet());
+            byAccountId.put(accountId, entry);
+            byBid.get(highest.getAccountType()).add(entry);
+            if (expiresAtMillis != NO_EXPIRY) {
+                byExpiry.add(entry);
+            }
+        }
+    }
+
+    /**
+     * @return false if the entry had already been removed from the expiry index by another thread
+     */
+    private boolean remove(Entry entry) {
+        byAccountId.remove(entry.account.getId(), entry);
+        byBid.get(entry.account.getAccountType()).remove(entry);
+        return byExpiry.remove(entry);
+    }
+
+    /**
+     * Remove the auctions expired at the given time.  They are the head of the expiry index,
+     * so the cost is O(log n) per auction evicted whatever the size of the index.
+     *
+     * @return number of auctions evicted
+     */
+    int evictExpired(long nowMillis) {
+        int evicted = 0;
+        for (Entry entry : byExpiry.headSet(bound(nowMillis, Long.MAX_VALUE), true)) {
+            if (remove(entry)) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @param nowMillis      - current time
+     * @param durationMillis - time window
+     * @return auctions expiring after now and within the window, soonest first
+     */
+    List<Account> expiringWithin(long nowMillis, long durationMillis) {
+        final NavigableSet<Entry> window = byExpiry.subSet(bound(nowMillis, Long.MAX_VALUE), false,
+                                                           bound(nowMillis + durationMillis, Long.MAX_VALUE), false);
+        final List<Account> auctions = new ArrayList<>();
+        window.forEach(entry -> auctions.add(entry.account));
+        return auctions;
+    }
+
+    /**
+     * @param type      - AUCTION or AUCTION_DATA
+     * @param k         - maximum number of auctions
+     * @param nowMillis - current time, auctions expired but not evicted yet are skipped
+     * @return up to k live auctions of the type with the highest current bids, highest first
+     */
+    List<Account> topBids(AccountType type, int k, long nowMillis) {
+        final ConcurrentSkipListSet<Entry> entries = byBid.get(type);
+        final List<Account> auctions = new ArrayList<>(Math.min(k, 128));
+        if (entries == null) {
+            return auctions;
+        }
+        final Iterator<Entry> iterator = entries.iterator();
+        while (auctions.size() < k && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.expiresAtMillis > nowMillis) {
+                auctions.add(entry.account);
+            }
+        }
+        return auctions;
+    }
+
+    /**
+     * @return up to k live auctions of both auction types with the highest current bids, highest first
+     */
+    List<Account> topBids(int k, long nowMillis) {
+        // Merge of the two per-type lists, each already sorted
+        final List<Account> auctions = topBids(AccountType.AUCTION, k, nowMillis);
+        final List<Account> auctionData = topBids(AccountType.AUCTION_DATA, k, nowMillis);
+        final List<Account> merged = new ArrayList<>(Math.min(k, auctions.size() + auctionData.size()));
+        int i = 0;
+        int j = 0;
+        while (merged.size() < k && (i < auctions.size() || j < auctionData.size())) {
+            if (j == auctionData.size() || (i < auctions.size()
+                    && auctions.get(i).getData().getCurrentBid() >= auctionData.get(j).getData().getCurrentBid())) {
+                merged.add(auctions.get(i++));
+            } else {
+                merged.add(auctionData.get(j++));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return number of auctions in the index, expired ones not evicted yet included
+     */
+    int size() {
+        return byAccountId.size();
+    }
+
+    static boolean isAuction(Account account) {
+        return account != null
+                && (account.getAccountType() == AccountType.AUCTION || account.getAccountType() == AccountType.AUCTION_DATA)
+                && account.getData() != null && account.getData().isBidSchema();
+    }
+
+    /**
+     * Search key of the expiry index: sorts after every entry expiring at the time
+     */
+    private static Entry bound(long expiresAtMillis, long sequence) {
+        return new Entry(null, expiresAtMillis, sequence);
+    }
+
+    private static final class Entry {
+        private final Account account;
+        private final long expiresAtMillis;
+        private final int currentBid;
+        private final long sequence;
+
+        Entry(Account account, long expiresAtMillis, long sequence) {
+            this.account = account;
+            this.expiresAtMillis = expiresAtMillis;
+            this.currentBid = (account != null) ? account.getData().getCurrentBid() : 0;
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return true if the account is the same version of the auction with the same data
+         */
+        boolean isSameAuction(Account other) {
+            return isAuction(other) && other.getVersion().equals(account.getVersion())
+                    && other.getData().getCurrentBid().equals(account.getData().getCurrentBid())
+                    && other.getData().getExpiry().equals(account.getData().getExpiry());
+        }
+    }
+}
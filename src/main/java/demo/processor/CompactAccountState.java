@@ -0,0 +1,118 @@
+package demo.processor;
+
+import demo.json.Account;
+
+/**
+ * Account state that keeps the versions of the account as records of a shared
+ * CompactAccountStore.  Only the highest version is kept as a POJO: while its callback
+ * is pending so it can still be cancelled, then materialized once from its record and
+ * reused until a higher version arrives.
+ * A version is a duplicate when a record with the same version number exists.  A bitmap
+ * of the 64 versions up to the highest one answers most checks, the version chain is only
+ * walked for older versions.
+ * The store is an append-only log so the retention policy does not apply to it.
+ * @author skarmali
+ */
+class CompactAccountState implements AccountState {
+    private final CompactAccountStore store;
+    private final int idHandle;
+
+    // Last record appended for this account id, the head of the version chain
+    private int lastRecord = CompactAccountStore.NO_RECORD;
+
+    // Record of the highest version, its POJO and whether the POJO was read from the record
+    private int highestRecord = CompactAccountStore.NO_RECORD;
+    private int highestVersionNumber;
+    private Account highestVersion;
+    private boolean materialized;
+
+    // Bit i is set when the version i below the highest one was seen
+    private long seenVersions;
+    private int versionCount;
+
+    // Versions up to this one were seen before the state was restored from a snapshot
+    private int restoredVersion = Integer.MIN_VALUE;
+
+    /**
+     * @param store    - store of the records
+     * @param idHandle - handle of the account id in the id dictionary of the store
+     */
+    CompactAccountState(CompactAccountStore store, int idHandle) {
+        this.store = store;
+        this.idHandle = idHandle;
+    }
+
+    @Override
+    public Account highestVersion() {
+        if (highestRecord == CompactAccountStore.NO_RECORD) {
+            return null;
+        }
+
+        if (!materialized && highestVersion.isIngested()) {
+            // The callback fired, keep a copy read from the record instead of the original
+            highestVersion = store.toAccount(highestRecord);
+            highestVersion.setIngested(true);
+            materialized = true;
+        }
+        return highestVersion;
+    }
+
+    @Override
+    public boolean contains(Account account) {
+        final int version = account.getVersion();
+        if (version <= restoredVersion) {
+            return true;
+        }
+        if (highestRecord == CompactAccountStore.NO_RECORD) {
+            return false;
+        }
+
+        final long below = (long) highestVersionNumber - version;
+        if (below < 0) {
+            return false;
+        }
+        if (below < Long.SIZE) {
+            return (seenVersions & (1L << below)) != 0;
+        }
+        for (int record = lastRecord; record != CompactAccountStore.NO_RECORD; record = store.getPreviousRecord(record)) {
+            if (store.getVersion(record) == version) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void add(Account account) {
+        lastRecord = store.append(account, idHandle, lastRecord);
+        versionCount++;
+
+        final int version = account.getVersion();
+        if (highestRecord != CompactAccountStore.NO_RECORD) {
+            final long below = (long) highestVersionNumber - version;
+            if (below >= 0) {
+                if (below < Long.SIZE) {
+                    seenVersions |= 1L << below;
+                }
+                return;
+            }
+            seenVersions = (-below >= Long.SIZE) ? 1 : (seenVersions << -below) | 1;
+        } else {
+            seenVersions = 1;
+        }
+        highestRecord = lastRecord;
+        highestVersionNumber = version;
+        highestVersion = account;
+        materialized = false;
+    }
+
+    @Override
+    public int versionCount() {
+        return versionCount;
+    }
+
+    @Override
+    public void restoredUpTo(int version) {
+        restoredVersion = Math.max(restoredVersion, version);
+    }
+}
@@ -0,0 +1,109 @@
+package demo.processor;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Account states of a CompactAccountStore indexed by the handle of their account id
+ * instead of a map keyed by String: the id is interned once and the state is the slot
+ * of that dense handle.  Each state is its own lock.
+ * @author skarmali
+ */
+class CompactAccountStates implements AccountStates {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final CompactAccountStore store;
+    private final AccountIdDictionary idDictionary;
+
+    // States by handle, a chunk is never replaced once added
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    CompactAccountStates(CompactAccountStore store) {
+        this.store = store;
+        this.idDictionary = store.getIdDictionary();
+    }
+
+    @Override
+    public AccountState getOrCreate(String accountId) {
+        final int handle = idDictionary.intern(accountId);
+        final Chunk chunk = chunkFor(handle);
+        final int index = handle & CHUNK_MASK;
+        final CompactAccountState state = chunk.get(index);
+        if (state != null) {
+            return state;
+        }
+
+        final CompactAccountState created = new CompactAccountState(store, handle);
+        if (chunk.compareAndSet(index, null, created)) {
+            size.incrementAndGet();
+            return created;
+        }
+        return chunk.get(index);
+    }
+
+    @Override
+    public AccountState get(String accountId) {
+        final int handle = idDictionary.lookup(accountId);
+        return (handle >= 0) ? stateOf(handle) : null;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, AccountState> action) {
+        final int handles = idDictionary.size();
+        for (int handle = 0; handle < handles; handle++) {
+            final CompactAccountState state = stateOf(handle);
+            if (state != null) {
+                action.accept(idDictionary.get(handle), state);
+            }
+        }
+    }
+
+    private CompactAccountState stateOf(int handle) {
+        final Chunk[] current = chunks;
+        final int chunk = handle >>> CHUNK_BITS;
+        return (chunk < current.length) ? current[chunk].get(handle & CHUNK_MASK) : null;
+    }
+
+    private Chunk chunkFor(int handle) {
+        final int chunk = handle >>> CHUNK_BITS;
+        final Chunk[] current = chunks;
+        if (chunk < current.length) {
+            return current[chunk];
+        }
+
+        synchronized (this) {
+            Chunk[] grown = chunks;
+            if (chunk >= grown.length) {
+                final int length = grown.length;
+                grown = Arrays.copyOf(grown, chunk + 1);
+                for (int i = length; i < grown.length; i++) {
+                    grown[i] = new Chunk();
+                }
+                chunks = grown;
+            }
+            return grown[chunk];
+        }
+    }
+
+    /**
+     * States of CHUNK_SIZE consecutive handles, created with a CAS
+     */
+    private static final class Chunk extends AtomicReferenceArray<CompactAccountState> {
+        private static final long serialVersionUID = 1L;
+
+        Chunk() {
+            super(CHUNK_SIZE);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compact, append-only storage of account versions.  Each version is a record made
+ * of primitive columns held in large chunks instead of an Account POJO with boxed
+ * fields:
+ * - the account id is an int handle of an AccountIdDictionary
+ * - tokens, callbackTimeMs and version are primitive ints (a missing version is stored as 0)
+ * - the data is packed by schema in two ints: the mint id handle for the mint schema,
+ *   the image handle for the image schema, or the expiry and current bid for the bid schema
+ * - the previous record of the same account id, so the versions of an account form a chain
+ * A record costs about 30 bytes.  Data mixing several schemas, which the feed never
+ * sends, is kept as is in an overflow map.
+ * An append reserves its record with one atomic increment and fills it without any
+ * lock, only adding a chunk every 65536 records is locked.  A record can be read by the
+ * thread that appended it, or by a thread that synchronized with it afterwards, for
+ * example through the lock of the account id.
+ * @author skarmali
+ */
+public class CompactAccountStore {
+    public static final int NO_RECORD = -1;
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Schema and null flags of a record
+    private static final int MINT_SCHEMA = 1;
+    private static final int IMAGE_SCHEMA = 1 << 1;
+    private static final int BID_SCHEMA = 1 << 2;
+    private static final int NULL_DATA = 1 << 3;
+    private static final int NULL_TOKENS = 1 << 4;
+    private static final int NULL_CALLBACK_TIME = 1 << 5;
+    private static final int OVERFLOW_DATA = 1 << 6;
+
+    private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+    private final AccountIdDictionary idDictionary = new AccountIdDictionary();
+    private final AccountIdDictionary imageDictionary = new AccountIdDictionary();
+
+    // Chunks of records, a chunk is never replaced once added
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    private final Map<Integer, Data> overflowData = new ConcurrentHashMap<>();
+
+    // Next record to reserve
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Append a version of an account
+     *
+     * @param account        - account version to store
+     * @param previousRecord - previous record of the same account id or NO_RECORD
+     * @return the record of the account version
+     */
+    public int append(Account account, int previousRecord) {
+        return append(account, idDictionary.intern(account.getId()), previousRecord);
+    }
+
+    /**
+     * Append a version of an account whose id is already interned
+     *
+     * @param account        - account version to store
+     * @param idHandle       - handle of the account id in getIdDictionary()
+     * @param previousRecord - previous record of the same account id or NO_RECORD
+     * @return the record of the account version
+     */
+    public int append(Account account, int idHandle, int previousRecord) {
+        final int record = size.getAndIncrement();
+        if (record < 0) {
+            throw new IllegalStateException("The store is full");
+        }
+        final Chunk chunk = chunkFor(record);
+        final int index = record & CHUNK_MASK;
+
+        int recordFlags = 0;
+        chunk.idHandles[index] = idHandle;
+        chunk.versions[index] = account.getVersion();
+        if (account.getTokens() != null) {
+            chunk.tokens[index] = account.getTokens();
+        } else {
+            recordFlags |= NULL_TOKENS;
+        }
+        if (account.getCallbackTimeMs() != null) {
+            chunk.callbackTimes[index] = account.getCallbackTimeMs();
+        } else {
+            recordFlags |= NULL_CALLBACK_TIME;
+        }
+        chunk.types[index] = (account.getAccountType() != null) ? (byte) account.getAccountType().ordinal() : -1;
+        chunk.previousRecords[index] = previousRecord;
+
+        final Data data = account.getData();
+        if (data == null) {
+            recordFlags |= NULL_DATA;
+        } else if (data.isBidSchema() && !data.isMintSchema() && !data.isImageSchema()) {
+            recordFlags |= BID_SCHEMA;
+            chunk.dataA[index] = data.getExpiry();
+            chunk.dataB[index] = data.getCurrentBid();
+        } else if (data.getExpiry() == null && data.getCurrentBid() == null) {
+            if (data.isMintSchema()) {
+                recordFlags |= MINT_SCHEMA;
+                chunk.dataA[index] = idDictionary.intern(data.getMintId());
+            }
+            if (data.isImageSchema()) {
+                recordFlags |= IMAGE_SCHEMA;
+                chunk.dataB[index] = imageDictionary.intern(data.getImg());
+            }
+        } else {
+            recordFlags |= OVERFLOW_DATA;
+            overflowData.put(record, data);
+        }
+        chunk.flags[index] = (byte) recordFlags;
+        return record;
+    }
+
+    /**
+     * Materialize a record as an Account POJO
+     *
+     * @param record - record returned by append
+     * @return a new Account with the stored values
+     */
+    public Account toAccount(int record) {
+        final Chunk chunk = chunkOf(record);
+        final int index = record & CHUNK_MASK;
+        final int recordFlags = chunk.flags[index] & 0xFF;
+
+        final Account account = new Account();
+        account.setId(idDictionary.get(chunk.idHandles[index]));
+        account.setVersion(chunk.versions[index]);
+        account.setTokens((recordFlags & NULL_TOKENS) == 0 ? chunk.tokens[index] : null);
+        account.setCallbackTimeMs((recordFlags & NULL_CALLBACK_TIME) == 0 ? chunk.callbackTimes[index] : null);
+        final byte type = chunk.types[index];
+        account.setAccountType((type >= 0) ? ACCOUNT_TYPES[type] : null);
+
+        if ((recordFlags & OVERFLOW_DATA) != 0) {
+            account.setData(overflowData.get(record));
+        } else if ((recordFlags & NULL_DATA) == 0) {
+            final Data data = new Data();
+            if ((recordFlags & BID_SCHEMA) != 0) {
+                data.setExpiry(chunk.dataA[index]);
+                data.setCurrentBid(chunk.dataB[index]);
+            }
+            if ((recordFlags & MINT_SCHEMA) != 0) {
+                data.setMintId(idDictionary.get(chunk.dataA[index]));
+            }
+            if ((recordFlags & IMAGE_SCHEMA) != 0) {
+                data.setImg(imageDictionary.get(chunk.dataB[index]));
+            }
+            account.setData(data);
+        }
+        return account;
+    }
+
+    public int getIdHandle(int record) {
+        return chunkOf(record).idHandles[record & CHUNK_MASK];
+    }
+
+    public int getVersion(int record) {
+        return chunkOf(record).versions[record & CHUNK_MASK];
+    }
+
+    /**
+     * @return the previous record of the same account id or NO_RECORD
+     */
+    public int getPreviousRecord(int record) {
+        return chunkOf(record).previousRecords[record & CHUNK_MASK];
+    }
+
+    /**
+     * @return the dictionary of account ids (and mint ids) used by the records
+     */
+    public AccountIdDictionary getIdDictionary() {
+        return idDictionary;
+    }
+
+    /**
+     * @return number of records, appends in progress included
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return approximate number of bytes used by the records and the dictionaries
+     */
+    public long estimatedSizeBytes() {
+        final long chunkCount = chunks.length;
+        return chunkCount * CHUNK_SIZE * (7 * Integer.BYTES + 2)
+                + idDictionary.estimatedSizeBytes() + imageDictionary.estimatedSizeBytes();
+    }
+
+    /**
+     * @return the chunk of a reserved record, added if it does not exist yet
+     */
+    private Chunk chunkFor(int record) {
+        final int chunk = record >>> CHUNK_BITS;
+        final Chunk[] current = chunks;
+        if (chunk < current.length) {
+            return current[chunk];
+        }
+
+        synchronized (this) {
+            Chunk[] grown = chunks;
+            while (chunk >= grown.length) {
+                grown = Arrays.copyOf(grown, grown.length + 1);
+                grown[grown.length - 1] = new Chunk();
+            }
+            chunks = grown;
+            return grown[chunk];
+        }
+    }
+
+    private Chunk chunkOf(int record) {
+        if (record < 0 || record >= size.get()) {
+            throw new IllegalArgumentException("Unknown record " + record);
+        }
+        return chunks[record >>> CHUNK_BITS];
+    }
+
+    /**
+     * Columns of CHUNK_SIZE records
+     */
+    private static final class Chunk {
+        final int[] idHandles = new int[CHUNK_SIZE];
+        final int[] versions = new int[CHUNK_SIZE];
+        final int[] tokens = new int[CHUNK_SIZE];
+        final int[] callbackTimes = new int[CHUNK_SIZE];
+        final int[] dataA = new int[CHUNK_SIZE];
+        final int[] dataB = new int[CHUNK_SIZE];
+        final int[] previousRecords = new int[CHUNK_SIZE];
+        final byte[] types = new byte[CHUNK_SIZE];
+        final byte[] flags = new byte[CHUNK_SIZE];
+    }
+}
@@ -0,0 +1,159 @@
+package demo.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that runs the account processing tasks of the processor.  A task only
+ * schedules the callback of an account on the timer wheel, so it is short and never blocks.
+ * @author skarmali
+ */
+public enum ExecutorStrategy {
+    // Unbounded cached thread pool, threads are added as needed (the original behaviour)
+    CACHED,
+
+    // Fixed number of threads with a bounded queue.  When the queue is full the
+    // submitting thread runs the task itself, which slows down the producers
+    BOUNDED,
+
+    // Work-stealing ForkJoinPool with the configured parallelism
+    FORK_JOIN,
+
+    // A single dedicated scheduler thread.  Scheduling a callback is only a timer wheel
+    // insert, so one thread is enough and the tasks run in submission order
+    SCHEDULER,
+
+    // A new virtual thread per task on JDK 21+.  Falls back to CACHED on older JDKs
+    VIRTUAL,
+
+    // No thread at all, the task runs on the submitting thread.  Used with a simulated
+    // clock so the whole scenario runs on the thread driving the simulation
+    DIRECT;
+
+    public static Logger logger = LoggerFactory.getLogger(ExecutorStrategy.class);
+
+    /**
+     * @param threads       - number of threads of BOUNDED, parallelism of FORK_JOIN
+     * @param queueCapacity - queue capacity of BOUNDED
+     * @return a new executor of this strategy
+     */
+    public ExecutorService newExecutor(int threads, int queueCapacity) {
+        switch (this) {
+            case BOUNDED:
+                return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                                              namedThreads("account-pool"), new ThreadPoolExecutor.CallerRunsPolicy());
+            case FORK_JOIN:
+                return new ForkJoinPool(threads);
+            case SCHEDULER:
+                return Executors.newSingleThreadExecutor(namedThreads("account-scheduler"));
+            case DIRECT:
+                return new DirectExecutorService();
+            case VIRTUAL:
+                final ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+                if (virtualThreadExecutor != null) {
+                    return virtualThreadExecutor;
+                }
+                logger.warn("Virtual threads need JDK 21+, running on " + Runtime.version() + ".  Falling back to " + CACHED);
+                return CACHED.newExecutor(threads, queueCapacity);
+            case CACHED:
+            default:
+                return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * @return true if virtual threads are available on this JVM
+     */
+    public static boolean isVirtualThreadSupported() {
+        return virtualThreadFactoryMethod() != null;
+    }
+
+    /**
+     * The project is built for Java 11, so Executors.newVirtualThreadPerTaskExecutor()
+     * is looked up at runtime
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        final Method method = virtualThreadFactoryMethod();
+        if (method == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.error("Unable to create a virtual thread executor", e);
+            return null;
+        }
+    }
+
+    private static Method virtualThreadFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Runs every task on the thread that submits it
+     */
+    private static final class DirectExecutorService extends AbstractExecutorService {
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("The executor has been shut down");
+            }
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+    }
+}
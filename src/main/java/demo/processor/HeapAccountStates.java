@@ -0,0 +1,43 @@
+package demo.processor;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Account states kept as objects in a map, each state is its own lock
+ * @author skarmali
+ */
+class HeapAccountStates implements AccountStates {
+    private final Map<String, AccountState> accountIdToVersionMap;
+    private final Supplier<AccountState> accountStateFactory;
+
+    /**
+     * @param accountIdToVersionMap - map of the states, a concurrent map if it is shared between threads
+     * @param accountStateFactory   - creates the state of a new account id
+     */
+    HeapAccountStates(Map<String, AccountState> accountIdToVersionMap, Supplier<AccountState> accountStateFactory) {
+        this.accountIdToVersionMap = accountIdToVersionMap;
+        this.accountStateFactory = accountStateFactory;
+    }
+
+    @Override
+    public AccountState getOrCreate(String accountId) {
+        return accountIdToVersionMap.computeIfAbsent(accountId, id -> accountStateFactory.get());
+    }
+
+    @Override
+    public AccountState get(String accountId) {
+        return accountIdToVersionMap.get(accountId);
+    }
+
+    @Override
+    public int size() {
+        return accountIdToVersionMap.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, AccountState> action) {
+        accountIdToVersionMap.forEach(action);
+    }
+}
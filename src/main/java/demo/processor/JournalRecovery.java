@@ -0,0 +1,191 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.CallbackListener;
+import demo.json.ProcessAccountRunnable;
+import demo.persistence.AccountSnapshot;
+import demo.persistence.JournalVisitor;
+import demo.persistence.SnapshotVisitor;
+import demo.utilities.QuantileSketch;
+import demo.utilities.TaskTimer;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebuilds the account states and token aggregates of a processor from its snapshot and
+ * journal.  Versions are added to the account states without the per-tuple logging of live
+ * ingestion.  The callbacks that were scheduled but neither fired nor were cancelled
+ * are re-armed with the time they had left, so a callback due while the process was
+ * down fires right after the restart.
+ * Also used by the snapshotter to fold the journal into the previous snapshot.
+ * Runs on a single thread before the rebuilt state is shared.
+ * @author skarmali
+ */
+class JournalRecovery implements JournalVisitor, SnapshotVisitor {
+    private final AccountStates accountStates;
+    private final TokenAggregates tokenAggregates;
+
+    // Callbacks still pending by account id then version, with the time they are due
+    private final Map<String, Map<Integer, PendingCallback>> pendingCallbacks = new HashMap<>();
+    private long indexedVersions;
+
+    JournalRecovery(AccountStates accountStates, TokenAggregates tokenAggregates) {
+        this.accountStates = accountStates;
+        this.tokenAggregates = tokenAggregates;
+    }
+
+    @Override
+    public void tokenStats(AccountType type, long count, long sum, int min, int max) {
+        if (tokenAggregates.getPolicy() == TokenAggregatePolicy.ALL_VERSIONS) {
+            tokenAggregates.restore(type, new TokenStats(count, sum, min, max));
+        }
+    }
+
+    @Override
+    public void tokenSketch(AccountType type, QuantileSketch tokenSketch) {
+        if (tokenAggregates.getPolicy() == TokenAggregatePolicy.ALL_VERSIONS) {
+            tokenAggregates.restore(type, tokenSketch);
+        }
+    }
+
+    @Override
+    public void account(Account account, boolean highest, long callbackDueMillis) {
+        final AccountState accountState = accountStates.getOrCreate(account.getId());
+        if (highest && tokenAggregates.getPolicy() == TokenAggregatePolicy.LATEST_VERSION_ONLY) {
+            // The statistics of the latest versions are rebuilt from the latest versions
+            tokenAggregates.versionIndexed(account, null);
+        } else if (highest) {
+            // The distinct account ids are rebuilt from the ids, the snapshot has all of them
+            tokenAggregates.accountIdRestored(account);
+        }
+        accountState.add(account);
+        if (highest) {
+            accountState.restoredUpTo(account.getVersion());
+        }
+
+        if (callbackDueMillis >= 0) {
+            addPending(account, callbackDueMillis);
+        }
+    }
+
+    @Override
+    public void accountIndexed(Account account, boolean callbackScheduled, boolean duplicate, long indexedAtMillis) {
+        final AccountState accountState = accountStates.getOrCreate(account.getId());
+        if (!duplicate) {
+            tokenAggregates.versionIndexed(account, accountState.highestVersion());
+            indexedVersions++;
+        }
+        accountState.add(account);
+
+        if (callbackScheduled) {
+            addPending(account, indexedAtMillis + account.getCallbackTimeMs());
+        }
+    }
+
+    @Override
+    public void callbackFired(String accountId, int version, long firedAtMillis) {
+        final PendingCallback pending = removePending(accountId, version);
+        if (pending != null) {
+            pending.account.setIngested(true);
+        }
+    }
+
+    @Override
+    public void callbackCancelled(String accountId, int version, long cancelledAtMillis) {
+        removePending(accountId, version);
+    }
+
+    private void addPending(Account account, long dueMillis) {
+        pendingCallbacks.computeIfAbsent(account.getId(), id -> new LinkedHashMap<>(2))
+                        .put(account.getVersion(), new PendingCallback(account, dueMillis));
+    }
+
+    private PendingCallback removePending(String accountId, int version) {
+        final Map<Integer, PendingCallback> byVersion = pendingCallbacks.get(accountId);
+        if (byVersion == null) {
+            return null;
+        }
+        final PendingCallback pending = byVersion.remove(version);
+        if (byVersion.isEmpty()) {
+            pendingCallbacks.remove(accountId);
+        }
+        return pending;
+    }
+
+    /**
+     * Re-arm the pending callbacks and mark the highest version of every other account id
+     * as ingested, since its callback already fired or was never scheduled
+     *
+     * @return number of callbacks re-armed
+     */
+    int rearmCallbacks(TaskTimer callbackTimer, CallbackListener listener) {
+        int rearmed = 0;
+        final long now = callbackTimer.getClock().currentTimeMillis();
+        for (Map<Integer, PendingCallback> byVersion : pendingCallbacks.values()) {
+            for (PendingCallback pending : byVersion.values()) {
+                final long remainingMs = Math.max(0, pending.dueMillis - now);
+                new ProcessAccountRunnable(pending.account, callbackTimer, listener).scheduleCallbackTimer(remainingMs, TimeUnit.MILLISECONDS);
+                rearmed++;
+            }
+        }
+
+        accountStates.forEach((accountId, accountState) -> {
+            final Account highest = accountState.highestVersion();
+            final Map<Integer, PendingCallback> byVersion = pendingCallbacks.get(accountId);
+            if (byVersion == null || !byVersion.containsKey(highest.getVersion())) {
+                highest.setIngested(true);
+            }
+        });
+        pendingCallbacks.clear();
+        return rearmed;
+    }
+
+    /**
+     * Add the rebuilt state to a snapshot: the token statistics and sketches, the highest version of every
+     * account id and the older versions whose callback is still pending
+     */
+    void writeTo(AccountSnapshot.Writer writer) {
+        tokenAggregates.getAll().forEach((type, stats) -> {
+            writer.tokenStats(type, stats.getCount(), stats.getSum(), stats.getMin(), stats.getMax());
+            if (tokenAggregates.getPolicy() == TokenAggregatePolicy.ALL_VERSIONS) {
+                writer.tokenSketch(type, tokenAggregates.getTokenSketch(type));
+            }
+        });
+
+        accountStates.forEach((accountId, accountState) -> {
+            final Account highest = accountState.highestVersion();
+            final Map<Integer, PendingCallback> byVersion = pendingCallbacks.get(accountId);
+            final PendingCallback highestPending = (byVersion != null) ? byVersion.get(highest.getVersion()) : null;
+            writer.account(highest, true, (highestPending != null) ? highestPending.dueMillis : -1);
+
+            if (byVersion != null) {
+                for (PendingCallback pending : byVersion.values()) {
+                    if (pending != highestPending) {
+                        writer.account(pending.account, false, pending.dueMillis);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return number of distinct (accountId + version) tuples rebuilt from the journal
+     */
+    long getIndexedVersions() {
+        return indexedVersions;
+    }
+
+    private static final class PendingCallback {
+        private final Account account;
+        private final long dueMillis;
+
+        PendingCallback(Account account, long dueMillis) {
+            this.account = account;
+            this.dueMillis = dueMillis;
+        }
+    }
+}
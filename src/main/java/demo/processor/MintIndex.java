@@ -0,0 +1,74 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.Data;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary index from a mint id to the ids of the accounts whose highest version refers
+ * to it (Data.mintId): the mint account itself and the metadata accounts of the mint.
+ * An account id moves when a newer version changes or drops its mint id, so the index
+ * follows the highest versions without scanning the account map.
+ * Updates of an account id are made by the thread that owns its account state, each
+ * mint entry is changed atomically so updates of different ids run in parallel.
+ * @author skarmali
+ */
+class MintIndex {
+    private final ConcurrentHashMap<String, Set<String>> accountIdsByMint = new ConcurrentHashMap<>();
+
+    /**
+     * The highest version of an account id changed
+     *
+     * @param accountId       - account id
+     * @param previousHighest - previous highest version, null if the id is new
+     * @param highest         - new highest version
+     */
+    void highestVersionChanged(String accountId, Account previousHighest, Account highest) {
+        final String previousMintId = mintIdOf(previousHighest);
+        final String mintId = mintIdOf(highest);
+        if (Objects.equals(previousMintId, mintId)) {
+            return;
+        }
+
+        if (previousMintId != null) {
+            accountIdsByMint.computeIfPresent(previousMintId, (key, accountIds) -> {
+                accountIds.remove(accountId);
+                return accountIds.isEmpty() ? null : accountIds;
+            });
+        }
+        if (mintId != null) {
+            // Added inside compute so a concurrent removal of an empty entry cannot drop the id
+            accountIdsByMint.compute(mintId, (key, accountIds) -> {
+                final Set<String> ids = (accountIds != null) ? accountIds : ConcurrentHashMap.newKeySet();
+                ids.add(accountId);
+                return ids;
+            });
+        }
+    }
+
+    /**
+     * @param mintId - mint id
+     * @return copy of the ids of the accounts referring to the mint, empty if there is none
+     */
+    Set<String> getAccountIds(String mintId) {
+        final Set<String> accountIds = accountIdsByMint.get(mintId);
+        return (accountIds == null) ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(accountIds));
+    }
+
+    /**
+     * @return number of mint ids with at least one account
+     */
+    int getMintCount() {
+        return accountIdsByMint.size();
+    }
+
+    static String mintIdOf(Account account) {
+        final Data data = (account != null) ? account.getData() : null;
+        return (data != null) ? data.getMintId() : null;
+    }
+}
@@ -0,0 +1,523 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Account states kept outside of the Java heap, so the garbage collector does not have to
+ * trace one object graph per account id.  Only the highest version of each account id is
+ * kept, as a fixed-size record of an open-addressed hash table in a direct ByteBuffer:
+ * - the account id, a reference to its bytes in an append-only arena of direct buffers
+ * - version, tokens and callbackTimeMs as primitive ints
+ * - the data packed by schema like CompactAccountStore: the expiry and current bid for the
+ *   bid schema, references to the mint id and image bytes in the arena otherwise
+ * - the account type and null / schema flags
+ * - a bitmap of the versions seen among the 64 versions up to the highest one
+ * The table is split in segments by the high bits of the id hash.  Each segment has its own
+ * table and arena, grows on its own and is the lock of the account ids it holds, so the
+ * updates of ids of different segments run in parallel.
+ * The highest version stays an Account POJO only while its callback is pending so it can
+ * still be cancelled.  Versions are compared by number: a version more than 63 below the
+ * highest one is considered already seen.  Data mixing several schemas, which
+ * the feed never sends, is kept as is in an overflow map.
+ * @author skarmali
+ */
+class OffHeapAccountStore implements AccountStates {
+    private static final int SEGMENT_BITS = 8;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 256;
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 25;
+
+    // Record of a table slot
+    private static final int SLOT_SIZE = 56;
+    private static final int KEY_OFFSET = 0;
+    private static final int HASH_OFFSET = 8;
+    private static final int VERSION_OFFSET = 12;
+    private static final int TOKENS_OFFSET = 16;
+    private static final int CALLBACK_TIME_OFFSET = 20;
+    private static final int DATA_A_OFFSET = 24;
+    private static final int DATA_B_OFFSET = 32;
+    private static final int TYPE_OFFSET = 40;
+    private static final int FLAGS_OFFSET = 41;
+    private static final int SEEN_VERSIONS_OFFSET = 48;
+
+    // Flags of a record, a slot with a hash of 0 is empty
+    private static final int HAS_VERSION = 1;
+    private static final int MINT_SCHEMA = 1 << 1;
+    private static final int IMAGE_SCHEMA = 1 << 2;
+    private static final int BID_SCHEMA = 1 << 3;
+    private static final int NULL_DATA = 1 << 4;
+    private static final int NULL_TOKENS = 1 << 5;
+    private static final int NULL_CALLBACK_TIME = 1 << 6;
+    private static final int OVERFLOW_DATA = 1 << 7;
+
+    private static final int MIN_PURGE_THRESHOLD = 1024;
+
+    private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    // Highest versions whose callback may still be pending, by account id
+    private final ConcurrentHashMap<String, Account> pendingHighestVersions = new ConcurrentHashMap<>();
+    private volatile int purgeThreshold = MIN_PURGE_THRESHOLD;
+
+    OffHeapAccountStore() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public AccountState getOrCreate(String accountId) {
+        final int hash = hash(accountId);
+        final Segment segment = segmentOf(hash);
+        synchronized (segment) {
+            int slot = segment.find(accountId, hash);
+            if (slot < 0) {
+                slot = segment.insert(accountId, hash);
+            }
+            return new OffHeapAccountState(segment, accountId, hash, slot);
+        }
+    }
+
+    @Override
+    public AccountState get(String accountId) {
+        final int hash = hash(accountId);
+        final Segment segment = segmentOf(hash);
+        synchronized (segment) {
+            final int slot = segment.find(accountId, hash);
+            return (slot < 0) ? null : new OffHeapAccountState(segment, accountId, hash, slot);
+        }
+    }
+
+    @Override
+    public Object lockOf(AccountState accountState) {
+        return ((OffHeapAccountState) accountState).segment;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, AccountState> action) {
+        for (Segment segment : segments) {
+            // The ids are read under the lock, the states are visited without it
+            final List<String> accountIds;
+            synchronized (segment) {
+                accountIds = segment.accountIds();
+            }
+            for (String accountId : accountIds) {
+                final AccountState accountState = get(accountId);
+                if (accountState != null) {
+                    action.accept(accountId, accountState);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes of direct memory used by the tables and the arenas
+     */
+    long estimatedSizeBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += (long) segment.capacity * SLOT_SIZE + segment.arena.capacity();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return number of highest versions currently kept as POJOs
+     */
+    int pendingHighestVersionCount() {
+        return pendingHighestVersions.size();
+    }
+
+    private Segment segmentOf(int hash) {
+        return segments[hash >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    private void pendingHighestVersion(String accountId, Account account) {
+        pendingHighestVersions.put(accountId, account);
+        if (pendingHighestVersions.size() > purgeThreshold) {
+            purgeIngested();
+        }
+    }
+
+    /**
+     * Drop the POJOs of the highest versions whose callback fired, their record is enough.
+     * The sweep runs once the map doubled since the previous one so its cost is amortized
+     */
+    private synchronized void purgeIngested() {
+        if (pendingHighestVersions.size() <= purgeThreshold) {
+            return;
+        }
+        // Only removes an entry still mapped to the ingested account
+        pendingHighestVersions.entrySet().removeIf(entry -> entry.getValue().isIngested());
+        purgeThreshold = Math.max(MIN_PURGE_THRESHOLD, pendingHighestVersions.size() * 2);
+    }
+
+    private static int hash(String value) {
+        // Spread the String hash, the segment uses the high bits and the slot the low bits
+        final int h = value.hashCode() * 0x9E3779B9;
+        final int hash = h ^ (h >>> 16);
+        return (hash == 0) ? 1 : hash;
+    }
+
+    /**
+     * View of the record of an account id.  The position of the record is cached and
+     * looked up again when its segment has been resized.
+     */
+    private final class OffHeapAccountState implements AccountState {
+        private final Segment segment;
+        private final String accountId;
+        private final int hash;
+        private int slot;
+        private int generation;
+
+        OffHeapAccountState(Segment segment, String accountId, int hash, int slot) {
+            this.segment = segment;
+            this.accountId = accountId;
+            this.hash = hash;
+            this.slot = slot;
+            this.generation = segment.generation;
+        }
+
+        private int position() {
+            if (generation != segment.generation) {
+                slot = segment.find(accountId, hash);
+                generation = segment.generation;
+            }
+            return slot * SLOT_SIZE;
+        }
+
+        @Override
+        public Account highestVersion() {
+            synchronized (segment) {
+                final int position = position();
+                if ((segment.table.get(position + FLAGS_OFFSET) & HAS_VERSION) == 0) {
+                    return null;
+                }
+
+                final Account pending = pendingHighestVersions.get(accountId);
+                if (pending != null) {
+                    if (!pending.isIngested()) {
+                        return pending;
+                    }
+                    // The callback fired, the record is all we need from now on
+                    pendingHighestVersions.remove(accountId, pending);
+                }
+
+                final Account account = segment.toAccount(accountId, position);
+                account.setIngested(true);
+                return account;
+            }
+        }
+
+        @Override
+        public boolean contains(Account account) {
+            synchronized (segment) {
+                final int position = position();
+                if ((segment.table.get(position + FLAGS_OFFSET) & HAS_VERSION) == 0) {
+                    return false;
+                }
+                final long below = (long) segment.table.getInt(position + VERSION_OFFSET) - account.getVersion();
+                return below >= Long.SIZE
+                        || (below >= 0 && (segment.table.getLong(position + SEEN_VERSIONS_OFFSET) & (1L << below)) != 0);
+            }
+        }
+
+        @Override
+        public void add(Account account) {
+            synchronized (segment) {
+                final int position = position();
+                long seenVersions = 1;
+                if ((segment.table.get(position + FLAGS_OFFSET) & HAS_VERSION) != 0) {
+                    // Bit i of the bitmap is the version i below the highest one
+                    seenVersions = segment.table.getLong(position + SEEN_VERSIONS_OFFSET);
+                    final long below = (long) segment.table.getInt(position + VERSION_OFFSET) - account.getVersion();
+                    if (below >= 0) {
+                        if (below < Long.SIZE) {
+                            segment.table.putLong(position + SEEN_VERSIONS_OFFSET, seenVersions | (1L << below));
+                        }
+                        return;
+                    }
+                    seenVersions = (-below >= Long.SIZE) ? 1 : (seenVersions << -below) | 1;
+                }
+                segment.table.putLong(position + SEEN_VERSIONS_OFFSET, seenVersions);
+                segment.write(accountId, position, account);
+            }
+            if (!account.isIngested()) {
+                pendingHighestVersion(accountId, account);
+            } else {
+                pendingHighestVersions.remove(accountId);
+            }
+        }
+
+        @Override
+        public int versionCount() {
+            synchronized (segment) {
+                return ((segment.table.get(position() + FLAGS_OFFSET) & HAS_VERSION) != 0) ? 1 : 0;
+            }
+        }
+
+        @Override
+        public void restoredUpTo(int version) {
+            synchronized (segment) {
+                final int position = position();
+                if ((segment.table.get(position + FLAGS_OFFSET) & HAS_VERSION) == 0) {
+                    return;
+                }
+                // Versions 64 or more below the highest one are already considered seen, mark the others
+                final long below = (long) segment.table.getInt(position + VERSION_OFFSET) - version;
+                if (below >= 0 && below < Long.SIZE) {
+                    final long seenVersions = segment.table.getLong(position + SEEN_VERSIONS_OFFSET);
+                    segment.table.putLong(position + SEEN_VERSIONS_OFFSET, seenVersions | (-1L << below));
+                }
+            }
+        }
+    }
+
+    /**
+     * Open-addressed table with linear probing and the arena of its strings.
+     * Guarded by its own lock.
+     */
+    private static final class Segment {
+        private ByteBuffer table = ByteBuffer.allocateDirect(INITIAL_SEGMENT_CAPACITY * SLOT_SIZE);
+        private int capacity = INITIAL_SEGMENT_CAPACITY;
+        private int size;
+
+        // Incremented when the records move to a larger table
+        private int generation;
+
+        private final StringArena arena = new StringArena();
+        private final Map<String, Data> overflowData = new HashMap<>();
+
+        int find(String accountId, int hash) {
+            int slot = hash & (capacity - 1);
+            int slotHash;
+            while ((slotHash = table.getInt(slot * SLOT_SIZE + HASH_OFFSET)) != 0) {
+                if (slotHash == hash && arena.matches(table.getLong(slot * SLOT_SIZE + KEY_OFFSET), accountId)) {
+                    return slot;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            return -1;
+        }
+
+        int insert(String accountId, int hash) {
+            if ((size + 1) * 10L > capacity * 7L) {
+                resize();
+            }
+            int slot = hash & (capacity - 1);
+            while (table.getInt(slot * SLOT_SIZE + HASH_OFFSET) != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            final int position = slot * SLOT_SIZE;
+            table.putLong(position + KEY_OFFSET, arena.add(accountId));
+            table.putInt(position + HASH_OFFSET, hash);
+            table.put(position + FLAGS_OFFSET, (byte) 0);
+            size++;
+            return slot;
+        }
+
+        private void resize() {
+            if (capacity == MAX_SEGMENT_CAPACITY) {
+                throw new IllegalStateException("The off-heap segment is full with " + size + " account ids");
+            }
+            final int newCapacity = capacity * 2;
+            final ByteBuffer newTable = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE);
+            for (int slot = 0; slot < capacity; slot++) {
+                final int position = slot * SLOT_SIZE;
+                final int hash = table.getInt(position + HASH_OFFSET);
+                if (hash == 0) {
+                    continue;
+                }
+                int newSlot = hash & (newCapacity - 1);
+                while (newTable.getInt(newSlot * SLOT_SIZE + HASH_OFFSET) != 0) {
+                    newSlot = (newSlot + 1) & (newCapacity - 1);
+                }
+                for (int offset = 0; offset < SLOT_SIZE; offset += Long.BYTES) {
+                    newTable.putLong(newSlot * SLOT_SIZE + offset, table.getLong(position + offset));
+                }
+            }
+            table = newTable;
+            capacity = newCapacity;
+            generation++;
+        }
+
+        void write(String accountId, int position, Account account) {
+            int recordFlags = HAS_VERSION;
+            table.putInt(position + VERSION_OFFSET, account.getVersion());
+            if (account.getTokens() != null) {
+                table.putInt(position + TOKENS_OFFSET, account.getTokens());
+            } else {
+                recordFlags |= NULL_TOKENS;
+            }
+            if (account.getCallbackTimeMs() != null) {
+                table.putInt(position + CALLBACK_TIME_OFFSET, account.getCallbackTimeMs());
+            } else {
+                recordFlags |= NULL_CALLBACK_TIME;
+            }
+            table.put(position + TYPE_OFFSET, (account.getAccountType() != null) ? (byte) account.getAccountType().ordinal() : -1);
+
+            final int previousFlags = table.get(position + FLAGS_OFFSET);
+            final Data data = account.getData();
+            if (data == null) {
+                recordFlags |= NULL_DATA;
+            } else if (data.isBidSchema() && !data.isMintSchema() && !data.isImageSchema()) {
+                recordFlags |= BID_SCHEMA;
+                table.putLong(position + DATA_A_OFFSET, data.getExpiry());
+                table.putLong(position + DATA_B_OFFSET, data.getCurrentBid());
+            } else if (data.getExpiry() == null && data.getCurrentBid() == null) {
+                if (data.isMintSchema()) {
+                    recordFlags |= MINT_SCHEMA;
+                    // A new version usually keeps its mint id, the arena is append-only
+                    final long previous = table.getLong(position + DATA_A_OFFSET);
+                    if ((previousFlags & MINT_SCHEMA) == 0 || !arena.matches(previous, data.getMintId())) {
+                        table.putLong(position + DATA_A_OFFSET, arena.add(data.getMintId()));
+                    }
+                }
+                if (data.isImageSchema()) {
+                    recordFlags |= IMAGE_SCHEMA;
+                    final long previous = table.getLong(position + DATA_B_OFFSET);
+                    if ((previousFlags & IMAGE_SCHEMA) == 0 || !arena.matches(previous, data.getImg())) {
+                        table.putLong(position + DATA_B_OFFSET, arena.add(data.getImg()));
+                    }
+                }
+            } else {
+                recordFlags |= OVERFLOW_DATA;
+                overflowData.put(accountId, data);
+            }
+            if ((previousFlags & OVERFLOW_DATA) != 0 && (recordFlags & OVERFLOW_DATA) == 0) {
+                overflowData.remove(accountId);
+            }
+            table.put(position + FLAGS_OFFSET, (byte) recordFlags);
+        }
+
+        Account toAccount(String accountId, int position) {
+            final int recordFlags = table.get(position + FLAGS_OFFSET) & 0xFF;
+            final Account account = new Account();
+            account.setId(accountId);
+            account.setVersion(table.getInt(position + VERSION_OFFSET));
+            account.setTokens((recordFlags & NULL_TOKENS) == 0 ? table.getInt(position + TOKENS_OFFSET) : null);
+            account.setCallbackTimeMs((recordFlags & NULL_CALLBACK_TIME) == 0 ? table.getInt(position + CALLBACK_TIME_OFFSET) : null);
+            final byte type = table.get(position + TYPE_OFFSET);
+            account.setAccountType((type >= 0) ? ACCOUNT_TYPES[type] : null);
+
+            if ((recordFlags & OVERFLOW_DATA) != 0) {
+                account.setData(overflowData.get(accountId));
+            } else if ((recordFlags & NULL_DATA) == 0) {
+                final Data data = new Data();
+                if ((recordFlags & BID_SCHEMA) != 0) {
+                    data.setExpiry((int) table.getLong(position + DATA_A_OFFSET));
+                    data.setCurrentBid((int) table.getLong(position + DATA_B_OFFSET));
+                }
+                if ((recordFlags & MINT_SCHEMA) != 0) {
+                    data.setMintId(arena.get(table.getLong(position + DATA_A_OFFSET)));
+                }
+                if ((recordFlags & IMAGE_SCHEMA) != 0) {
+                    data.setImg(arena.get(table.getLong(position + DATA_B_OFFSET)));
+                }
+                account.setData(data);
+            }
+            return account;
+        }
+
+        List<String> accountIds() {
+            final List<String> accountIds = new ArrayList<>(size);
+            for (int slot = 0; slot < capacity; slot++) {
+                if (table.getInt(slot * SLOT_SIZE + HASH_OFFSET) != 0) {
+                    accountIds.add(arena.get(table.getLong(slot * SLOT_SIZE + KEY_OFFSET)));
+                }
+            }
+            return accountIds;
+        }
+    }
+
+    /**
+     * Append-only strings in direct buffers: the length then the UTF-8 bytes, referenced by
+     * the chunk index (high 32 bits) and the offset in the chunk (low 32 bits).  The chunks
+     * double in size up to MAX_CHUNK_SIZE so a segment with few ids stays small.
+     */
+    private static final class StringArena {
+        private static final int MIN_CHUNK_SIZE = 4096;
+        private static final int MAX_CHUNK_SIZE = 1 << 22;
+
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private ByteBuffer current;
+
+        long add(String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            final int recordSize = Integer.BYTES + bytes.length;
+            if (current == null || current.remaining() < recordSize) {
+                final int chunkSize = (current == null) ? MIN_CHUNK_SIZE : Math.min(MAX_CHUNK_SIZE, current.capacity() * 2);
+                current = ByteBuffer.allocateDirect(Math.max(chunkSize, recordSize));
+                chunks.add(current);
+            }
+            final long reference = ((long) (chunks.size() - 1) << 32) | current.position();
+            current.putInt(bytes.length).put(bytes);
+            return reference;
+        }
+
+        String get(long reference) {
+            final ByteBuffer chunk = chunks.get((int) (reference >>> 32));
+            final int offset = (int) reference;
+            final byte[] bytes = new byte[chunk.getInt(offset)];
+            chunk.duplicate().position(offset + Integer.BYTES).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Compare the stored bytes with a string without encoding it when it is ASCII,
+         * which is always the case for base58 account ids
+         */
+        boolean matches(long reference, String value) {
+            final ByteBuffer chunk = chunks.get((int) (reference >>> 32));
+            final int offset = (int) reference;
+            final int length = chunk.getInt(offset);
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) >= 0x80) {
+                    return get(reference).equals(value);
+                }
+            }
+            if (value.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chunk.get(offset + Integer.BYTES + i) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long capacity() {
+            long capacity = 0;
+            for (ByteBuffer chunk : chunks) {
+                capacity += chunk.capacity();
+            }
+            return capacity;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.utilities.Clock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Account state that keeps the versions of the account as POJOs, keyed by version
+ * number in arrival order.  Duplicate detection is a hash lookup and the highest
+ * version is tracked as versions are added.
+ * Versions are dropped according to the retention policy.
+ * @author skarmali
+ */
+class PojoAccountState implements AccountState {
+    private final RetentionPolicy retentionPolicy;
+
+    // Time source of the version timestamps checked by the retention time window
+    private final Clock clock;
+
+    // Versions by version number in arrival order
+    private final LinkedHashMap<Integer, IndexedVersion> versions = new LinkedHashMap<>(4);
+    private Account highestVersion;
+
+    // Highest version dropped by the retention policy
+    private boolean compacted;
+    private int compactedVersion;
+
+    PojoAccountState(RetentionPolicy retentionPolicy) {
+        this(retentionPolicy, Clock.SYSTEM);
+    }
+
+    PojoAccountState(RetentionPolicy retentionPolicy, Clock clock) {
+        this.retentionPolicy = retentionPolicy;
+        this.clock = clock;
+    }
+
+    @Override
+    public Account highestVersion() {
+        return highestVersion;
+    }
+
+    @Override
+    public boolean contains(Account account) {
+        final int version = account.getVersion();
+        return versions.containsKey(version) || (compacted && version <= compactedVersion);
+    }
+
+    @Override
+    public void add(Account account) {
+        if (versions.containsKey(account.getVersion())) {
+            // A duplicate, the version already kept may own the scheduled callback
+            return;
+        }
+        versions.put(account.getVersion(), new IndexedVersion(account, clock.nanoTime()));
+        if (highestVersion == null || highestVersion.getVersion() < account.getVersion()) {
+            highestVersion = account;
+        }
+
+        if (versions.size() > retentionPolicy.getMaxVersions()) {
+            compact(clock.nanoTime());
+        }
+    }
+
+    @Override
+    public int compact(long nowNanos) {
+        int removed = 0;
+
+        // Drop the lowest versions above the maximum, the highest version is never dropped
+        while (versions.size() > retentionPolicy.getMaxVersions()) {
+            int lowestVersion = Integer.MAX_VALUE;
+            for (Integer version : versions.keySet()) {
+                lowestVersion = Math.min(lowestVersion, version);
+            }
+            versions.remove(lowestVersion);
+            versionDropped(lowestVersion);
+            removed++;
+        }
+
+        // Versions are in arrival order so the expired ones are at the head
+        if (retentionPolicy.hasTimeWindow()) {
+            final long windowNanos = retentionPolicy.getWindow(TimeUnit.NANOSECONDS);
+            final Iterator<Map.Entry<Integer, IndexedVersion>> iterator = versions.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<Integer, IndexedVersion> entry = iterator.next();
+                if (nowNanos - entry.getValue().indexedAtNanos < windowNanos) {
+                    break;
+                }
+                if (entry.getValue().account != highestVersion) {
+                    iterator.remove();
+                    versionDropped(entry.getKey());
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public int versionCount() {
+        return versions.size();
+    }
+
+    @Override
+    public void restoredUpTo(int version) {
+        versionDropped(version);
+    }
+
+    private void versionDropped(int version) {
+        compactedVersion = compacted ? Math.max(compactedVersion, version) : version;
+        compacted = true;
+    }
+
+    private static final class IndexedVersion {
+        private final Account account;
+        private final long indexedAtNanos;
+
+        IndexedVersion(Account account, long indexedAtNanos) {
+            this.account = account;
+            this.indexedAtNanos = indexedAtNanos;
+        }
+    }
+}
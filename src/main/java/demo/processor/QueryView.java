@@ -0,0 +1,122 @@
+package demo.processor;
+
+import demo.json.AccountType;
+import demo.utilities.Clock;
+import demo.utilities.QuantileSketch;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Immutable view of the token statistics of a processor, published periodically so the
+ * queries never take the locks the indexing threads update the aggregates under.
+ * Each account type is captured atomically, its statistics and its quantile sketch are
+ * from the same point in time.  Views are numbered by an increasing epoch.
+ * @author skarmali
+ */
+public final class QueryView {
+    private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+    private final long epoch;
+    private final long publishedAtNanos;
+    private final long publishedAtMillis;
+    private final int accountIdCount;
+    private final TokenStats[] stats = new TokenStats[ACCOUNT_TYPES.length];
+    private final QuantileSketch[] tokenSketches = new QuantileSketch[ACCOUNT_TYPES.length];
+    private final Map<AccountType, TokenStats> nonEmptyStats;
+
+    private QueryView(long epoch, TokenAggregates tokenAggregates, int accountIdCount, Clock clock) {
+        this.epoch = epoch;
+        this.accountIdCount = accountIdCount;
+
+        final Map<AccountType, TokenStats> nonEmpty = new EnumMap<>(AccountType.class);
+        for (AccountType type : ACCOUNT_TYPES) {
+            final TokenAggregates.TypeSnapshot snapshot = tokenAggregates.snapshot(type);
+            stats[type.ordinal()] = snapshot.stats;
+            tokenSketches[type.ordinal()] = snapshot.tokenSketch;
+            if (!snapshot.stats.isEmpty()) {
+                nonEmpty.put(type, snapshot.stats);
+            }
+        }
+        nonEmptyStats = Collections.unmodifiableMap(nonEmpty);
+
+        // Taken after the capture so the age of the view is never underestimated
+        publishedAtNanos = clock.nanoTime();
+        publishedAtMillis = clock.currentTimeMillis();
+    }
+
+    /**
+     * Capture the token aggregates now
+     *
+     * @param epoch           - number of the view
+     * @param tokenAggregates - live token aggregates
+     * @param accountIdCount  - number of account ids
+     * @param clock           - clock timestamping the view
+     */
+    static QueryView capture(long epoch, TokenAggregates tokenAggregates, int accountIdCount, Clock clock) {
+        return new QueryView(epoch, tokenAggregates, accountIdCount, clock);
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return time the view was published, in milliseconds of the processor clock
+     */
+    public long getPublishedAtMillis() {
+        return publishedAtMillis;
+    }
+
+    long getPublishedAtNanos() {
+        return publishedAtNanos;
+    }
+
+    /**
+     * @return number of account ids when the view was published
+     */
+    public int getAccountIdCount() {
+        return accountIdCount;
+    }
+
+    /**
+     * @return token statistics of every account type that has at least one account
+     */
+    public Map<AccountType, TokenStats> getTokenStats() {
+        return nonEmptyStats;
+    }
+
+    /**
+     * @param type - account type
+     * @return token statistics of the account type, never null
+     */
+    public TokenStats getTokenStats(AccountType type) {
+        return stats[type.ordinal()];
+    }
+
+    /**
+     * @param type - account type
+     * @return highest token value of the account type, 0 if the type has no account
+     */
+    public int getHighestTokenValue(AccountType type) {
+        final TokenStats typeStats = stats[type.ordinal()];
+        return typeStats.isEmpty() ? 0 : typeStats.getMax();
+    }
+
+    /**
+     * @param type       - account type
+     * @param percentile - percentile between 0 and 100
+     * @return token value at the percentile within about 1.6%, 0 if the type has no account
+     */
+    public int getTokenPercentile(AccountType type, double percentile) {
+        // The sketch is never updated once captured, reading it concurrently is safe
+        return TokenAggregates.percentile(stats[type.ordinal()], tokenSketches[type.ordinal()], percentile);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryView(epoch=" + epoch + ", publishedAtMillis=" + publishedAtMillis + ", accountIds=" + accountIdCount
+                + ", tokenStats=" + nonEmptyStats + ")";
+    }
+}
@@ -0,0 +1,108 @@
+package demo.processor;
+
+import demo.utilities.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Publishes the QueryView of a processor through a volatile reference (copy on write): a
+ * background thread captures a new view twice per staleness bound and readers get the
+ * current one without any lock.  A reader finding a view older than the bound, because
+ * the publisher fell behind or the clock is simulated, publishes a new one itself, so the
+ * bound always holds.  Publishing takes each type aggregate exclusively for as long as it
+ * takes to copy its statistics and sketch, so each type is captured at one point in time.
+ * @author skarmali
+ */
+final class QueryViewPublisher {
+    public static Logger logger = LoggerFactory.getLogger(QueryViewPublisher.class);
+
+    private final TokenAggregates tokenAggregates;
+    private final IntSupplier accountIdCount;
+    private final Clock clock;
+    private final long maxStalenessNanos;
+
+    // Periodic publication, null with a simulated clock where the readers publish
+    private final ScheduledExecutorService executor;
+
+    private volatile QueryView current;
+
+    // Guarded by this
+    private long epoch;
+
+    /**
+     * @param tokenAggregates - live token aggregates
+     * @param accountIdCount  - number of account ids
+     * @param clock           - clock of the processor
+     * @param maxStalenessMs  - maximum age of the view returned to the readers
+     */
+    QueryViewPublisher(TokenAggregates tokenAggregates, IntSupplier accountIdCount, Clock clock, long maxStalenessMs) {
+        if (maxStalenessMs <= 0) {
+            throw new IllegalArgumentException("maxStalenessMs must be greater than 0: " + maxStalenessMs);
+        }
+        this.tokenAggregates = tokenAggregates;
+        this.accountIdCount = accountIdCount;
+        this.clock = clock;
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMs);
+        publish();
+
+        if (clock.isSimulated()) {
+            executor = null;
+        } else {
+            final long intervalNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), maxStalenessNanos / 2);
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "query-view-publisher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(this::periodicPublish, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return the current view, never older than the staleness bound
+     */
+    QueryView current() {
+        final QueryView view = current;
+        if (clock.nanoTime() - view.getPublishedAtNanos() <= maxStalenessNanos) {
+            return view;
+        }
+        return publishIfStale();
+    }
+
+    /**
+     * Capture and publish a new view now
+     */
+    synchronized QueryView publish() {
+        final QueryView view = QueryView.capture(++epoch, tokenAggregates, accountIdCount.getAsInt(), clock);
+        current = view;
+        return view;
+    }
+
+    private synchronized QueryView publishIfStale() {
+        // Another reader may have published while this one waited
+        final QueryView view = current;
+        if (clock.nanoTime() - view.getPublishedAtNanos() <= maxStalenessNanos) {
+            return view;
+        }
+        return publish();
+    }
+
+    private void periodicPublish() {
+        try {
+            publish();
+        } catch (RuntimeException e) {
+            logger.error("Publishing the query view failed", e);
+        }
+    }
+
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
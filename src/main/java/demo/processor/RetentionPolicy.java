@@ -0,0 +1,89 @@
+package demo.processor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many versions of each account id the processor remembers.  The highest version
+ * of an account is always kept.  Older versions are dropped as soon as there are more
+ * than the maximum number of versions, or once they have been indexed for longer than
+ * the time window (the time window is also enforced by a background compaction).
+ * A version older than a dropped version is handled as a duplicate since it can no
+ * longer be told apart from one that was already seen.
+ * @author skarmali
+ */
+public final class RetentionPolicy {
+    private static final RetentionPolicy KEEP_ALL = new RetentionPolicy(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final int maxVersions;
+    private final long windowNanos;
+
+    private RetentionPolicy(int maxVersions, long windowNanos) {
+        this.maxVersions = maxVersions;
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * @return policy that keeps every version, the default
+     */
+    public static RetentionPolicy keepAll() {
+        return KEEP_ALL;
+    }
+
+    /**
+     * @return policy that only keeps the highest version of each account
+     */
+    public static RetentionPolicy latest() {
+        return latest(1);
+    }
+
+    /**
+     * @param maxVersions - number of versions kept per account, the highest ones
+     */
+    public static RetentionPolicy latest(int maxVersions) {
+        if (maxVersions <= 0) {
+            throw new IllegalArgumentException("maxVersions must be greater than 0: " + maxVersions);
+        }
+        return new RetentionPolicy(maxVersions, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param window - how long a version is kept after it has been indexed
+     */
+    public static RetentionPolicy timeWindow(long window, TimeUnit unit) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be greater than 0: " + window);
+        }
+        return new RetentionPolicy(Integer.MAX_VALUE, unit.toNanos(window));
+    }
+
+    public int getMaxVersions() {
+        return maxVersions;
+    }
+
+    public long getWindow(TimeUnit unit) {
+        return (windowNanos == Long.MAX_VALUE) ? Long.MAX_VALUE : unit.convert(windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true if versions expire after a time window and need a background compaction
+     */
+    public boolean hasTimeWindow() {
+        return windowNanos != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return true if this policy can drop versions
+     */
+    public boolean isBounded() {
+        return maxVersions != Integer.MAX_VALUE || hasTimeWindow();
+    }
+
+    @Override
+    public String toString() {
+        if (!isBounded()) {
+            return "RetentionPolicy(keepAll)";
+        }
+        return hasTimeWindow() ? "RetentionPolicy(window=" + getWindow(TimeUnit.MILLISECONDS) + "ms)"
+                : "RetentionPolicy(latest=" + maxVersions + ")";
+    }
+}
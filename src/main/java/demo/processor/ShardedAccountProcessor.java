@@ -0,0 +1,354 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.ProcessAccountRunnable;
+import demo.metrics.IndexerMetrics;
+import demo.utilities.CardinalitySketch;
+import demo.utilities.HashedWheelTimer;
+import demo.utilities.QuantileSketch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Alternative processing engine to AccountIndexerProcessor.  Accounts are routed by the
+ * hash of their id to one of N shards.  Each shard is owned by a single thread that drains
+ * a lock-free mailbox and updates a private, non-synchronized version map, so the versions
+ * of an account are processed in arrival order without any locks.
+ * Each shard keeps its own token aggregates.  Queries across shards merge the partial
+ * aggregates of every shard.
+ * @author skarmali
+ */
+public class ShardedAccountProcessor implements AccountProcessor {
+    public static Logger logger = LoggerFactory.getLogger(ShardedAccountProcessor.class);
+
+    private static final long SHUTDOWN_WINDOW_SECONDS = 20;
+    private static final long MIN_COMPACTION_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final AtomicInteger PROCESSOR_COUNT = new AtomicInteger();
+
+    private final Shard[] shards;
+    private final RetentionPolicy retentionPolicy;
+    private final IndexerMetrics metrics = new IndexerMetrics();
+
+    // Account ids by the mint id of their highest version.  Each id is only updated by the thread of its shard
+    private final MintIndex mintIndex = new MintIndex();
+
+    // All pending account callbacks share a single timer wheel
+    private final HashedWheelTimer callbackTimer;
+
+    // Accounts are posted under the read lock and shutdown clears running under the write
+    // lock, so every posted account is in a mailbox before the shard threads drain and exit
+    private final ReadWriteLock intakeLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    public ShardedAccountProcessor() {
+        this(Runtime.getRuntime().availableProcessors(), TokenAggregatePolicy.ALL_VERSIONS);
+    }
+
+    /**
+     * @param shardCount           - number of shards, each one owned by its own thread
+     * @param tokenAggregatePolicy - whether superseded account versions still count
+     *                             towards the token statistics of their account type
+     */
+    public ShardedAccountProcessor(int shardCount, TokenAggregatePolicy tokenAggregatePolicy) {
+        this(shardCount, tokenAggregatePolicy, RetentionPolicy.keepAll());
+    }
+
+    /**
+     * @param shardCount           - number of shards, each one owned by its own thread
+     * @param tokenAggregatePolicy - whether superseded account versions still count
+     *                             towards the token statistics of their account type
+     * @param retentionPolicy      - how many versions of each account are kept.  Each shard
+     *                             thread compacts its own version map
+     */
+    public ShardedAccountProcessor(int shardCount, TokenAggregatePolicy tokenAggregatePolicy, RetentionPolicy retentionPolicy) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be greater than 0: " + shardCount);
+        }
+
+        this.retentionPolicy = retentionPolicy;
+        callbackTimer = new HashedWheelTimer();
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, tokenAggregatePolicy);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+
+        // The account count is read from the shard maps without synchronization, it is approximate
+        metrics.setGauges(null, () -> {
+            long accountIds = 0;
+            for (Shard shard : shards) {
+                accountIds += shard.accountIdToVersionMap.size();
+            }
+            return accountIds;
+        }, callbackTimer::pendingTimeouts);
+        metrics.registerMBean(ShardedAccountProcessor.class.getSimpleName(), "sharded-" + PROCESSOR_COUNT.incrementAndGet());
+    }
+
+    /**
+     * @return metrics of this processor, also registered over JMX
+     */
+    public IndexerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public void handleAccountProcessing(Account account) {
+        intakeLock.readLock().lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("The processor has been shut down");
+            }
+            metrics.accountReceived();
+            if (account.getSubmittedNanos() == 0) {
+                account.setSubmittedNanos(System.nanoTime());
+            }
+            shardFor(account.getId()).post(account);
+        } finally {
+            intakeLock.readLock().unlock();
+        }
+    }
+
+    private Shard shardFor(String accountId) {
+        // Spread the hash so ids that differ in the high bits land on different shards
+        final int hash = accountId.hashCode();
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+
+    @Override
+    public Map<AccountType, TokenStats> getTokenStats() {
+        final Map<AccountType, TokenStats> byAccountType = new EnumMap<>(AccountType.class);
+        for (AccountType type : AccountType.values()) {
+            final TokenStats tokenStats = getTokenStats(type);
+            if (!tokenStats.isEmpty()) {
+                byAccountType.put(type, tokenStats);
+            }
+        }
+        return byAccountType;
+    }
+
+    /**
+     * Merge the partial token statistics of every shard
+     *
+     * @param type - account type
+     * @return token statistics of the account type, never null
+     */
+    public TokenStats getTokenStats(AccountType type) {
+        TokenStats merged = TokenStats.EMPTY;
+        for (Shard shard : shards) {
+            merged = merged.merge(shard.tokenAggregates.get(type));
+        }
+        return merged;
+    }
+
+    /**
+     * Merge the token sketches of every shard
+     */
+    @Override
+    public QuantileSketch getTokenSketch(AccountType type) {
+        final QuantileSketch merged = new QuantileSketch();
+        for (Shard shard : shards) {
+            merged.merge(shard.tokenAggregates.getTokenSketch(type));
+        }
+        return merged;
+    }
+
+    /**
+     * Merge the account id sketches of every shard.  An account id always goes to the same
+     * shard so the shards count disjoint ids.
+     */
+    @Override
+    public CardinalitySketch getAccountIdSketch(AccountType type) {
+        final CardinalitySketch merged = new CardinalitySketch();
+        for (Shard shard : shards) {
+            merged.merge(shard.tokenAggregates.getAccountIdSketch(type));
+        }
+        return merged;
+    }
+
+    /**
+     * @param mintId - mint id
+     * @return ids of the accounts whose highest version refers to the mint, empty if there is none
+     */
+    public Set<String> getAccountIdsByMint(String mintId) {
+        return mintIndex.getAccountIds(mintId);
+    }
+
+    @Override
+    public void displayHighestTokenValue() {
+        logger.info("Displaying highest token value grouped by account type");
+
+        getTokenStats().forEach((accountType, tokenStats) -> logger.info("Account Type: " + accountType + ", Highest Token Value: " + tokenStats.getMax()));
+    }
+
+    @Override
+    public int getHighestTokenValueByAccountType(AccountType type) {
+        final TokenStats tokenStats = getTokenStats(type);
+        if (!tokenStats.isEmpty()) {
+            return tokenStats.getMax();
+        } else {
+            // Returning 0 for now since there was no match.
+            logger.info("There was no " + type + " account types.  Indeterminate high token value");
+            return 0;
+        }
+    }
+
+    /**
+     * Wait until every account handed to the processor so far has been indexed
+     *
+     * @return false if the shards did not catch up within the timeout
+     */
+    public boolean awaitIndexed(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Shard shard : shards) {
+            while (!shard.mailbox.isEmpty() || shard.busy) {
+                if (System.nanoTime() - deadline > 0) {
+                    return false;
+                }
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop accepting accounts, let the shards drain their mailbox and wait for the pending callbacks
+     */
+    @Override
+    public void shutdown() {
+        logger.info("shutdown() of " + shards.length + " shards");
+        intakeLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            intakeLock.writeLock().unlock();
+        }
+
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_WINDOW_SECONDS);
+            boolean finished = true;
+            for (Shard shard : shards) {
+                LockSupport.unpark(shard.thread);
+                shard.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                finished &= !shard.thread.isAlive();
+            }
+
+            if (!finished || !callbackTimer.awaitPending(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                logger.error("************** Shards did not get time to finish within the 20 second window ***********");
+            } else {
+                // We are done processing - print the highest token value
+                displayHighestTokenValue();
+            }
+            callbackTimer.stop();
+            logger.info("Metrics: " + metrics.dump());
+            metrics.unregisterMBean();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A shard owns the state of the account ids routed to it.  Only the shard thread reads
+     * or writes the version map, other threads only post accounts to the mailbox.
+     */
+    private final class Shard implements Runnable {
+        private final Thread thread;
+        private final Queue<Account> mailbox = new ConcurrentLinkedQueue<>();
+        private final Map<String, AccountState> accountIdToVersionMap = new HashMap<>();
+        private final TokenAggregates tokenAggregates;
+
+        // Set while the shard thread is parked, so producers know to wake it up
+        private volatile boolean waiting;
+
+        // Set while the shard thread is indexing an account it took from the mailbox
+        private volatile boolean busy;
+
+        private long nextCompactionNanos;
+
+        Shard(int index, TokenAggregatePolicy tokenAggregatePolicy) {
+            this.tokenAggregates = new TokenAggregates(tokenAggregatePolicy);
+            this.thread = new Thread(this, "account-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void post(Account account) {
+            mailbox.offer(account);
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            nextCompactionNanos = System.nanoTime() + compactionIntervalNanos();
+            while (running || !mailbox.isEmpty()) {
+                if (retentionPolicy.hasTimeWindow() && System.nanoTime() - nextCompactionNanos >= 0) {
+                    compact();
+                }
+
+                busy = true;
+                final Account account = mailbox.poll();
+                if (account == null) {
+                    busy = false;
+                    waiting = true;
+
+                    // Re-check after publishing the waiting flag so a concurrent post is not missed
+                    if (mailbox.isEmpty() && running) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                    }
+                    waiting = false;
+                    continue;
+                }
+
+                try {
+                    process(account);
+                } catch (RuntimeException e) {
+                    logger.error("Error processing account " + account.getId(), e);
+                }
+            }
+            busy = false;
+        }
+
+        private void process(Account account) {
+            final AccountState accountState = accountIdToVersionMap.computeIfAbsent(account.getId(), id -> new PojoAccountState(retentionPolicy));
+            final Account previousHighest = accountState.highestVersion();
+            final boolean scheduleCallback = AccountIndexerProcessor.indexAccountVersion(accountState, account, tokenAggregates, metrics);
+            mintIndex.highestVersionChanged(account.getId(), previousHighest, accountState.highestVersion());
+            metrics.indexLatency(account.getSubmittedNanos());
+            if (scheduleCallback) {
+                // Scheduling the callback only adds an entry to the timer wheel, no need for a thread pool
+                new ProcessAccountRunnable(account, callbackTimer, metrics).run();
+            }
+        }
+
+        private void compact() {
+            final long now = System.nanoTime();
+            for (AccountState accountState : accountIdToVersionMap.values()) {
+                accountState.compact(now);
+            }
+            nextCompactionNanos = now + compactionIntervalNanos();
+        }
+
+        private long compactionIntervalNanos() {
+            return Math.max(MIN_COMPACTION_INTERVAL_NANOS, retentionPolicy.getWindow(TimeUnit.NANOSECONDS) / 4);
+        }
+    }
+}
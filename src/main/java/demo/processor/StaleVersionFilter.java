@@ -0,0 +1,65 @@
+package demo.processor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free check of the inbound versions in front of the account index.  It keeps the
+ * highest version offered for each account id and raises it with a CAS, so a replayed
+ * feed whose versions are mostly duplicates or older versions is rejected without taking
+ * the lock of the account state, reading the index or allocating.  Only the first version
+ * of an account id allocates its counter.
+ * @author skarmali
+ */
+class StaleVersionFilter {
+    enum Verdict {
+        // Newer than every version offered before, it goes on to the index
+        NEWER,
+
+        // Same version as the highest one offered before
+        DUPLICATE,
+
+        // Older than the highest version offered before
+        STALE
+    }
+
+    private final ConcurrentHashMap<String, AtomicInteger> highestVersions = new ConcurrentHashMap<>();
+
+    /**
+     * @param accountId - account id
+     * @param version   - inbound version
+     * @return NEWER if the version is now the highest one of the account id
+     */
+    Verdict offer(String accountId, int version) {
+        AtomicInteger highest = highestVersions.get(accountId);
+        if (highest == null) {
+            final AtomicInteger first = new AtomicInteger(version);
+            highest = highestVersions.putIfAbsent(accountId, first);
+            if (highest == null) {
+                return Verdict.NEWER;
+            }
+        }
+
+        int current;
+        while ((current = highest.get()) < version) {
+            if (highest.compareAndSet(current, version)) {
+                return Verdict.NEWER;
+            }
+        }
+        return (current == version) ? Verdict.DUPLICATE : Verdict.STALE;
+    }
+
+    /**
+     * Raise the highest version of an account id restored from the journal or a snapshot
+     */
+    void restored(String accountId, int version) {
+        highestVersions.computeIfAbsent(accountId, id -> new AtomicInteger(version)).accumulateAndGet(version, Math::max);
+    }
+
+    /**
+     * @return number of account ids
+     */
+    int size() {
+        return highestVersions.size();
+    }
+}
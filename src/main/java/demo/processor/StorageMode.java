@@ -0,0 +1,21 @@
+package demo.processor;
+
+/**
+ * How the processor stores the versions of each account
+ * @author skarmali
+ */
+public enum StorageMode {
+    // Every version is kept as an Account POJO in a priority queue per account id
+    POJO,
+
+    // Versions are records of primitive columns with interned ids (CompactAccountStore).
+    // Only the highest version with a pending callback is kept as a POJO.
+    // Versions are compared by number, so a re-delivered (id, version) tuple is a duplicate
+    COMPACT,
+
+    // Only the highest version of each account id is kept, as a record of an off-heap hash
+    // table (OffHeapAccountStore), so the heap does not grow with the number of ids.
+    // Versions are compared by number, the versions more than 63 below the highest one count as
+    // already seen.  The retention policy does not apply
+    OFF_HEAP
+}
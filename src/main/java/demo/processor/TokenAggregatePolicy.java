@@ -0,0 +1,16 @@
+package demo.processor;
+
+/**
+ * Policy that decides which account versions count towards the token
+ * aggregates of an account type.
+ * @author skarmali
+ */
+public enum TokenAggregatePolicy {
+    // Every indexed (accountId + version) tuple counts, including versions
+    // that were superseded by a newer version of the same account
+    ALL_VERSIONS,
+
+    // Only the highest version of each account counts.  A superseded version
+    // is removed from the aggregates and an older version arriving late is ignored
+    LATEST_VERSION_ONLY
+}
@@ -0,0 +1,430 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.CardinalitySketch;
+import demo.utilities.QuantileSketch;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Token aggregates (count, sum, min and max) per account type that are
+ * maintained as accounts are indexed, so queries are answered in O(1)
+ * without scanning every account version.
+ * Each type also keeps a quantile sketch of its token values (p50, p95, p99...) and a
+ * cardinality sketch of its account ids, both mergeable across processors or shards.
+ * An account id stays counted in a type it has left, the cardinality sketch cannot remove.
+ * The aggregates are indexed by the ordinal of the account type.  Recording a
+ * value does not serialize the ingest threads on the type, see TypeAggregate, and
+ * the immutable TokenStats is built when it is queried, from a point in time where no
+ * update of the type is half applied.
+ * @author skarmali
+ */
+public class TokenAggregates {
+    private final TokenAggregatePolicy policy;
+    private final TypeAggregate[] aggregates = new TypeAggregate[AccountType.values().length];
+
+    public TokenAggregates(TokenAggregatePolicy policy) {
+        this.policy = policy;
+        for (int i = 0; i < aggregates.length; i++) {
+            aggregates[i] = new TypeAggregate(policy, i);
+        }
+    }
+
+    public TokenAggregatePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Update the aggregates with a newly indexed (accountId + version) tuple.
+     * Must be called while holding the lock of the account id so versions of the
+     * same account are applied in order.
+     *
+     * @param account                - newly indexed account version
+     * @param previousHighestAccount - highest version of the account indexed so far, or null
+     */
+    void versionIndexed(Account account, Account previousHighestAccount) {
+        if (policy == TokenAggregatePolicy.ALL_VERSIONS || previousHighestAccount == null) {
+            add(account);
+        } else if (previousHighestAccount.getVersion() < account.getVersion()) {
+            // The previous version is superseded by the new one, a read sees both changes or none
+            final TypeAggregate removed = aggregateOf(previousHighestAccount);
+            final TypeAggregate added = aggregateOf(account);
+            // Locked in ordinal order when the account changed type
+            final TypeAggregate first = (added == null || (removed != null && removed.ordinal <= added.ordinal)) ? removed : added;
+            final TypeAggregate second = (first == removed) ? added : removed;
+            final long firstStamp = (first != null) ? first.updates.readLock() : 0;
+            final long secondStamp = (second != null && second != first) ? second.updates.readLock() : 0;
+            try {
+                if (removed != null) {
+                    removed.remove(tokensOf(previousHighestAccount), previousHighestAccount.getId());
+                }
+                if (added != null) {
+                    added.add(tokensOf(account), account.getId());
+                }
+            } finally {
+                if (second != null && second != first) {
+                    second.updates.unlockRead(secondStamp);
+                }
+                if (first != null) {
+                    first.updates.unlockRead(firstStamp);
+                }
+            }
+        }
+        // else an older version arrived late, it does not count
+    }
+
+    /**
+     * Restore the statistics of an account type from a snapshot.  Only possible with
+     * ALL_VERSIONS, with LATEST_VERSION_ONLY the restored accounts are indexed again instead
+     *
+     * @param type  - account type
+     * @param stats - statistics of the account type when the snapshot was taken
+     */
+    void restore(AccountType type, TokenStats stats) {
+        if (policy != TokenAggregatePolicy.ALL_VERSIONS) {
+            throw new IllegalStateException("Token statistics can only be restored with " + TokenAggregatePolicy.ALL_VERSIONS);
+        }
+        aggregates[type.ordinal()].restore(stats);
+    }
+
+    /**
+     * Restore the quantile sketch of an account type from a snapshot, ALL_VERSIONS only
+     */
+    void restore(AccountType type, QuantileSketch tokenSketch) {
+        if (policy != TokenAggregatePolicy.ALL_VERSIONS) {
+            throw new IllegalStateException("Token sketches can only be restored with " + TokenAggregatePolicy.ALL_VERSIONS);
+        }
+        aggregates[type.ordinal()].restore(tokenSketch);
+    }
+
+    /**
+     * Count the id of an account restored from a snapshot in the distinct account ids of its type,
+     * the snapshot has the highest version of every account id
+     */
+    void accountIdRestored(Account account) {
+        if (account.getAccountType() != null) {
+            aggregates[account.getAccountType().ordinal()].accountIdRestored(account.getId());
+        }
+    }
+
+    /**
+     * @param type - account type
+     * @return token statistics of the account type, never null
+     */
+    public TokenStats get(AccountType type) {
+        return aggregates[type.ordinal()].stats();
+    }
+
+    /**
+     * @param type       - account type
+     * @param percentile - percentile between 0 and 100
+     * @return token value at the percentile within about 1.6%, 0 if the type has no account
+     */
+    public int getTokenPercentile(AccountType type, double percentile) {
+        return aggregates[type.ordinal()].tokenPercentile(percentile);
+    }
+
+    /**
+     * @param type - account type
+     * @return copy of the quantile sketch of the token values of the account type
+     */
+    public QuantileSketch getTokenSketch(AccountType type) {
+        return aggregates[type.ordinal()].tokenSketch();
+    }
+
+    /**
+     * @param type - account type
+     * @return copy of the cardinality sketch of the account ids of the account type
+     */
+    public CardinalitySketch getAccountIdSketch(AccountType type) {
+        return aggregates[type.ordinal()].accountIdSketch();
+    }
+
+    /**
+     * @param type - account type
+     * @return statistics and copy of the quantile sketch of the account type
+     */
+    TypeSnapshot snapshot(AccountType type) {
+        return aggregates[type.ordinal()].snapshot();
+    }
+
+    /**
+     * @return token statistics of every account type that has at least one account
+     */
+    public Map<AccountType, TokenStats> getAll() {
+        final Map<AccountType, TokenStats> all = new EnumMap<>(AccountType.class);
+        for (AccountType type : AccountType.values()) {
+            final TokenStats stats = get(type);
+            if (!stats.isEmpty()) {
+                all.put(type, stats);
+            }
+        }
+        return all;
+    }
+
+    private void add(Account account) {
+        final TypeAggregate aggregate = aggregateOf(account);
+        if (aggregate != null) {
+            final long stamp = aggregate.updates.readLock();
+            try {
+                aggregate.add(tokensOf(account), account.getId());
+            } finally {
+                aggregate.updates.unlockRead(stamp);
+            }
+        }
+    }
+
+    private TypeAggregate aggregateOf(Account account) {
+        return (account.getAccountType() != null) ? aggregates[account.getAccountType().ordinal()] : null;
+    }
+
+    private static int tokensOf(Account account) {
+        return (account.getTokens() != null) ? account.getTokens() : 0;
+    }
+
+    /**
+     * @return token value at the percentile, the bucket bound of the sketch is capped by the exact extremes
+     */
+    static int percentile(TokenStats stats, QuantileSketch tokenSketch, double percentile) {
+        return stats.isEmpty() ? 0 : Math.max(stats.getMin(), Math.min(stats.getMax(), tokenSketch.getValueAtPercentile(percentile)));
+    }
+
+    /**
+     * Statistics and quantile sketch of an account type at the same point in time
+     */
+    static final class TypeSnapshot {
+        final TokenStats stats;
+        final QuantileSketch tokenSketch;
+
+        TypeSnapshot(TokenStats stats, QuantileSketch tokenSketch) {
+            this.stats = stats;
+            this.tokenSketch = tokenSketch;
+        }
+    }
+
+    /**
+     * Aggregate of one account type.  Count and sum are LongAdders, and with ALL_VERSIONS min
+     * and max are LongAccumulators, so recording a token value takes no lock.  The sketches,
+     * and the token value counts of LATEST_VERSION_ONLY, are split in stripes chosen by the
+     * hash of the account id, each with its own lock: different ids rarely contend, and the
+     * versions of one id always go to the same stripe so a superseded value is removed
+     * where it was added.  The stripes are merged on read, TokenStats is only built when a
+     * query asks for it.
+     * Updates hold the read side of a StampedLock, so they only share its counter, and the
+     * reads of the statistics hold its write side: they wait for the updates in progress
+     * and see count, sum, min, max and the sketch of the same point in time.
+     */
+    private static class TypeAggregate {
+        private static final int STRIPE_COUNT = stripeCount();
+
+        private final boolean removable;
+        private final int ordinal;
+
+        // Shared by the updates, exclusive for the consistent reads.  Taken by the caller of
+        // add and remove, in ordinal order when an update spans two types
+        final StampedLock updates = new StampedLock();
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        // Only with ALL_VERSIONS, with LATEST_VERSION_ONLY they come from the token value counts
+        private final LongAccumulator min = new LongAccumulator(Math::min, Integer.MAX_VALUE);
+        private final LongAccumulator max = new LongAccumulator(Math::max, Integer.MIN_VALUE);
+
+        // Created on first use, most account types only see a few ids
+        private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<>(STRIPE_COUNT);
+
+        TypeAggregate(TokenAggregatePolicy policy, int ordinal) {
+            this.removable = (policy == TokenAggregatePolicy.LATEST_VERSION_ONLY);
+            this.ordinal = ordinal;
+        }
+
+        void add(int tokens, String accountId) {
+            final Stripe stripe = stripe(accountId);
+            synchronized (stripe) {
+                if (removable) {
+                    stripe.tokenCounts.merge(tokens, 1, Integer::sum);
+                }
+                stripe.tokenSketch.add(tokens);
+                if (accountId != null) {
+                    stripe.accountIds.add(accountId);
+                }
+            }
+            count.increment();
+            sum.add(tokens);
+            if (!removable) {
+                min.accumulate(tokens);
+                max.accumulate(tokens);
+            }
+        }
+
+        void remove(int tokens, String accountId) {
+            final Stripe stripe = stripe(accountId);
+            synchronized (stripe) {
+                stripe.tokenSketch.remove(tokens);
+                if (stripe.tokenCounts.merge(tokens, -1, Integer::sum) == 0) {
+                    stripe.tokenCounts.remove(tokens);
+                }
+            }
+            count.decrement();
+            sum.add(-tokens);
+        }
+
+        /**
+         * Only called before any account is indexed
+         */
+        void restore(TokenStats restored) {
+            count.reset();
+            count.add(restored.getCount());
+            sum.reset();
+            sum.add(restored.getSum());
+            min.reset();
+            min.accumulate(restored.getMin());
+            max.reset();
+            max.accumulate(restored.getMax());
+        }
+
+        /**
+         * Only called before any account is indexed
+         */
+        void restore(QuantileSketch restored) {
+            final Stripe stripe = stripe(null);
+            synchronized (stripe) {
+                stripe.tokenSketch = restored.copy();
+            }
+        }
+
+        void accountIdRestored(String accountId) {
+            if (accountId != null) {
+                final Stripe stripe = stripe(accountId);
+                synchronized (stripe) {
+                    stripe.accountIds.add(accountId);
+                }
+            }
+        }
+
+        TokenStats stats() {
+            final long stamp = updates.writeLock();
+            try {
+                return currentStats();
+            } finally {
+                updates.unlockWrite(stamp);
+            }
+        }
+
+        private TokenStats currentStats() {
+            final long currentCount = count.sum();
+            if (currentCount <= 0) {
+                return TokenStats.EMPTY;
+            }
+            if (!removable) {
+                return new TokenStats(currentCount, sum.sum(), (int) min.get(), (int) max.get());
+            }
+
+            int lowest = Integer.MAX_VALUE;
+            int highest = Integer.MIN_VALUE;
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                final Stripe stripe = stripes.get(i);
+                if (stripe != null) {
+                    synchronized (stripe) {
+                        if (!stripe.tokenCounts.isEmpty()) {
+                            lowest = Math.min(lowest, stripe.tokenCounts.firstKey());
+                            highest = Math.max(highest, stripe.tokenCounts.lastKey());
+                        }
+                    }
+                }
+            }
+            return new TokenStats(currentCount, sum.sum(), lowest, highest);
+        }
+
+        int tokenPercentile(double percentile) {
+            final TypeSnapshot snapshot = snapshot();
+            return percentile(snapshot.stats, snapshot.tokenSketch, percentile);
+        }
+
+        TypeSnapshot snapshot() {
+            final long stamp = updates.writeLock();
+            try {
+                return new TypeSnapshot(currentStats(), mergedTokenSketch());
+            } finally {
+                updates.unlockWrite(stamp);
+            }
+        }
+
+        QuantileSketch tokenSketch() {
+            final long stamp = updates.writeLock();
+            try {
+                return mergedTokenSketch();
+            } finally {
+                updates.unlockWrite(stamp);
+            }
+        }
+
+        private QuantileSketch mergedTokenSketch() {
+            final QuantileSketch merged = new QuantileSketch();
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                final Stripe stripe = stripes.get(i);
+                if (stripe != null) {
+                    synchronized (stripe) {
+                        merged.merge(stripe.tokenSketch);
+                    }
+                }
+            }
+            return merged;
+        }
+
+        CardinalitySketch accountIdSketch() {
+            final CardinalitySketch merged = new CardinalitySketch();
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                final Stripe stripe = stripes.get(i);
+                if (stripe != null) {
+                    synchronized (stripe) {
+                        merged.merge(stripe.accountIds);
+                    }
+                }
+            }
+            return merged;
+        }
+
+        private Stripe stripe(String accountId) {
+            final int hash = (accountId != null) ? accountId.hashCode() : 0;
+            final int index = (hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1);
+            final Stripe stripe = stripes.get(index);
+            if (stripe != null) {
+                return stripe;
+            }
+            stripes.compareAndSet(index, null, new Stripe(removable));
+            return stripes.get(index);
+        }
+
+        /**
+         * @return twice the number of cores rounded up to a power of two, so a stripe is a mask of the hash
+         */
+        private static int stripeCount() {
+            final int cores = Math.min(32, Runtime.getRuntime().availableProcessors());
+            return Integer.highestOneBit(2 * cores - 1) << 1;
+        }
+    }
+
+    /**
+     * Part of the aggregate of one account type, guarded by itself
+     */
+    private static final class Stripe {
+        // Token value -> number of accounts with that value.  Only needed when
+        // values can be removed, so min and max can be recomputed in O(log n)
+        final TreeMap<Integer, Integer> tokenCounts;
+        QuantileSketch tokenSketch = new QuantileSketch();
+        final CardinalitySketch accountIds = new CardinalitySketch();
+
+        Stripe(boolean removable) {
+            tokenCounts = removable ? new TreeMap<>() : null;
+        }
+    }
+}
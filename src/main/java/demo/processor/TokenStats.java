@@ -0,0 +1,73 @@
+package demo.processor;
+
+/**
+ * Immutable token statistics (count, sum, min and max) for one account type.
+ * Built from the aggregates when a query asks for it, at a point in time where no
+ * update is half applied, so the reader can use the values together without a lock.
+ * @author skarmali
+ */
+public final class TokenStats {
+    public static final TokenStats EMPTY = new TokenStats(0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE);
+
+    private final long count;
+    private final long sum;
+    private final int min;
+    private final int max;
+
+    public TokenStats(long count, long sum, int min, int max) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the lowest token value, or Integer.MAX_VALUE if there are no accounts
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * @return the highest token value, or Integer.MIN_VALUE if there are no accounts
+     */
+    public int getMax() {
+        return max;
+    }
+
+    public double getAverage() {
+        return (count > 0) ? (double) sum / count : 0.0d;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Combine two partial statistics, for example computed by different processors
+     *
+     * @param other - statistics to combine with
+     * @return statistics covering both
+     */
+    public TokenStats merge(TokenStats other) {
+        return new TokenStats(count + other.count, sum + other.sum, Math.min(min, other.min), Math.max(max, other.max));
+    }
+
+    @Override
+    public String toString() {
+        return "TokenStats{" +
+                "count=" + count +
+                ", sum=" + sum +
+                ", min=" + min +
+                ", max=" + max +
+                '}';
+    }
+}
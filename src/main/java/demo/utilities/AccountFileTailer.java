@@ -0,0 +1,216 @@
+package demo.utilities;
+
+import com.google.gson.JsonParseException;
+import demo.json.Account;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows a newline-delimited JSON file (one account per line) as it grows,
+ * like "tail -f".  Each complete line is decoded and handed to the consumer as
+ * soon as it has been written.  Only a read buffer and the current line are
+ * kept in memory whatever the size of the file.
+ * If the file is truncated, or replaced by another file (rotated, detected by its file key
+ * where the file system has one), it is read again from the start.  A consumer failure is
+ * logged and the tailer goes on with the next line.
+ * @author skarmali
+ */
+public class AccountFileTailer implements Runnable {
+    public static Logger logger = LoggerFactory.getLogger(AccountFileTailer.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Consumer<Account> consumer;
+    private final long pollIntervalMs;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(1024);
+
+    private volatile boolean running = true;
+    private long position;
+    private long accountCount;
+
+    // File key of the file being read, null until it is opened or if the file system has none
+    private Object fileKey;
+
+    /**
+     * @param file           - newline-delimited JSON file to follow
+     * @param consumer       - receives each account in file order
+     * @param pollIntervalMs - how long to wait for the file to grow once the end has been reached
+     */
+    public AccountFileTailer(Path file, Consumer<Account> consumer, long pollIntervalMs) {
+        this.file = file;
+        this.consumer = consumer;
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    /**
+     * Follow the file until stop() is called or the thread is interrupted
+     */
+    @Override
+    public void run() {
+        logger.info("Tailing account file " + file);
+
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                opened();
+                follow(channel);
+            } catch (NoSuchFileException e) {
+                // Wait for the file to be created
+                pause();
+            } catch (IOException e) {
+                logger.error("Error tailing account file " + file, e);
+                pause();
+            }
+        }
+
+        logger.info("Stopped tailing account file " + file + " after " + accountCount + " accounts");
+    }
+
+    /**
+     * Read every complete line currently in the file and return
+     *
+     * @return number of accounts read
+     */
+    public long readAvailable() throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        final long before = accountCount;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            opened();
+            readToEnd(channel);
+        }
+        return accountCount - before;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * @return number of accounts handed to the consumer so far
+     */
+    public long getAccountCount() {
+        return accountCount;
+    }
+
+    private void follow(FileChannel channel) throws IOException {
+        while (running && !Thread.currentThread().isInterrupted()) {
+            if (!readToEnd(channel)) {
+                if (isReplaced()) {
+                    // The end of the previous file has been read, open the new one
+                    return;
+                }
+                pause();
+            }
+        }
+    }
+
+    /**
+     * Start again from the beginning if the file just opened is not the one read so far
+     */
+    private void opened() throws IOException {
+        final Object openedKey = currentFileKey();
+        if (fileKey != null && openedKey != null && !fileKey.equals(openedKey)) {
+            logger.info("Account file " + file + " was replaced, reading it from the start");
+            position = 0;
+            lineBuffer.reset();
+        }
+        fileKey = openedKey;
+    }
+
+    /**
+     * @return true if the path now names another file than the open one, or no file
+     */
+    private boolean isReplaced() throws IOException {
+        if (!Files.exists(file)) {
+            return true;
+        }
+        final Object currentKey = currentFileKey();
+        return fileKey != null && currentKey != null && !fileKey.equals(currentKey);
+    }
+
+    private Object currentFileKey() throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * @return true if new bytes were read
+     */
+    private boolean readToEnd(FileChannel channel) throws IOException {
+        if (channel.size() < position) {
+            logger.info("Account file " + file + " was truncated, reading it from the start");
+            position = 0;
+            lineBuffer.reset();
+        }
+
+        boolean readBytes = false;
+        int read;
+        while ((read = channel.read(readBuffer.clear(), position)) > 0) {
+            position += read;
+            readBytes = true;
+
+            final byte[] bytes = readBuffer.array();
+            int lineStart = 0;
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    lineBuffer.write(bytes, lineStart, i - lineStart);
+                    lineCompleted();
+                    lineStart = i + 1;
+                }
+            }
+
+            // Keep the partial line until the rest of it is written
+            lineBuffer.write(bytes, lineStart, read - lineStart);
+        }
+        return readBytes;
+    }
+
+    private void lineCompleted() {
+        final String line = lineBuffer.toString(StandardCharsets.UTF_8).trim();
+        lineBuffer.reset();
+        if (line.isEmpty()) {
+            return;
+        }
+
+        final Account account;
+        try {
+            account = JsonUtils.parseAccount(line);
+        } catch (JsonParseException e) {
+            logger.error("Skipping corrupt account line in " + file + ": " + line, e);
+            return;
+        }
+
+        accountCount++;
+        try {
+            consumer.accept(account);
+        } catch (RuntimeException e) {
+            // One failing account must not stop the tailer
+            logger.error("Error processing account " + account.getId() + " version " + account.getVersion() + " from " + file, e);
+        }
+    }
+
+    private void pause() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(pollIntervalMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
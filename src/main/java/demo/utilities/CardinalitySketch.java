@@ -0,0 +1,90 @@
+package demo.utilities;
+
+/**
+ * HyperLogLog sketch of the number of distinct strings, with 4096 one-byte registers.
+ * The estimate has a standard error of about 1.6% whatever the number of strings, and is
+ * within a string or two below a few hundred strings (linear counting).  Adding a string twice
+ * does not change the sketch, and two sketches merge by keeping the highest register, so
+ * the sketches of several shards or processors give the distinct count of their union.
+ * Not thread safe.
+ * @author skarmali
+ */
+public final class CardinalitySketch {
+    private static final int PRECISION = 12;
+    private static final int REGISTER_COUNT = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+
+    private final byte[] registers = new byte[REGISTER_COUNT];
+
+    public void add(String value) {
+        final long hash = hash(value);
+        final int register = (int) (hash >>> (Long.SIZE - PRECISION));
+
+        // Position of the first set bit after the register bits, bounded by the guard bit
+        final byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+
+    /**
+     * @return estimated number of distinct strings added
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            zeros += (register == 0) ? 1 : 0;
+        }
+
+        final double estimate = ALPHA * REGISTER_COUNT * REGISTER_COUNT / sum;
+        if (estimate <= 2.5 * REGISTER_COUNT && zeros > 0) {
+            // Small range correction
+            return Math.round(REGISTER_COUNT * Math.log((double) REGISTER_COUNT / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Add the strings of another sketch to this one
+     *
+     * @param other - sketch to merge, unchanged
+     * @return this sketch
+     */
+    public CardinalitySketch merge(CardinalitySketch other) {
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    public CardinalitySketch copy() {
+        return new CardinalitySketch().merge(this);
+    }
+
+    /**
+     * 64-bit FNV-1a of the chars followed by the MurmurHash3 finalizer, which spreads the
+     * bits of similar strings such as base58 account ids
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CardinalitySketch(estimate=" + estimate() + ")";
+    }
+}
@@ -0,0 +1,75 @@
+package demo.utilities;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of time and timers for the driver, the processor and the account callbacks.
+ * SYSTEM is the real clock.  A SimulatedClock replaces it to run a scenario in simulated
+ * time, as fast as the events can be processed.
+ * @author skarmali
+ */
+public interface Clock {
+    Clock SYSTEM = new SystemClock();
+
+    /**
+     * @return monotonic time in nanoseconds, like System.nanoTime()
+     */
+    long nanoTime();
+
+    /**
+     * @return wall clock time in milliseconds since the epoch, like System.currentTimeMillis()
+     */
+    long currentTimeMillis();
+
+    /**
+     * Wait for the given delay.  A simulated clock runs the events due in the meantime instead
+     */
+    void sleep(long delay, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * @param name - name of the timer, used for its thread
+     * @return a new timer that schedules tasks on this clock
+     */
+    TaskTimer newTimer(String name);
+
+    /**
+     * @return true if time only moves when the simulation is advanced.  Timer tasks then run on
+     * the thread advancing the simulation and must not be handed to other threads
+     */
+    default boolean isSimulated() {
+        return false;
+    }
+
+    /**
+     * The real clock, timers are hashed timing wheels
+     */
+    final class SystemClock implements Clock {
+        private SystemClock() {
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleep(long delay, TimeUnit unit) throws InterruptedException {
+            unit.sleep(delay);
+        }
+
+        @Override
+        public TaskTimer newTimer(String name) {
+            return new HashedWheelTimer(name, HashedWheelTimer.DEFAULT_TICK_DURATION_MS, TimeUnit.MILLISECONDS, HashedWheelTimer.DEFAULT_TICKS_PER_WHEEL);
+        }
+
+        @Override
+        public String toString() {
+            return "SystemClock";
+        }
+    }
+}
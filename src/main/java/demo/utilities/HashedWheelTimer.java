@@ -0,0 +1,457 @@
+package demo.utilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hashed timing wheel that holds a very large number of pending callbacks
+ * using a single worker thread.  Instead of parking one thread per callback
+ * (Thread.sleep), each callback is placed in a bucket of the wheel based on
+ * its deadline.  The worker thread advances one bucket every tick and fires
+ * the callbacks whose deadline has passed.
+ * Scheduling and cancelling a callback are both O(1).  Callbacks fire with a
+ * precision of one tick, so they should be short (logging, flag updates).
+ * @author skarmali
+ */
+public class HashedWheelTimer implements TaskTimer {
+    public static Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    public static final long DEFAULT_TICK_DURATION_MS = 10;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    // Upper bound of new timeouts moved into the wheel per tick so a burst
+    // of submissions cannot starve the expiration of existing timeouts
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickDurationNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+
+    // New and cancelled timeouts are handed to the worker thread through
+    // lock-free queues.  Only the worker thread touches the buckets
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingTimeouts = new AtomicLong();
+    private final Object pendingMonitor = new Object();
+
+    private final Thread workerThread;
+    private volatile boolean running = true;
+    private final List<Timeout> unprocessedTimeouts = new ArrayList<>();
+    private long tick;
+
+    public HashedWheelTimer() {
+        this("callback-timer", DEFAULT_TICK_DURATION_MS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("ticksPerWheel must be greater than 0: " + ticksPerWheel);
+        }
+
+        // Round the wheel up to a power of two so the bucket index is a mask
+        int normalizedTicks = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        if (normalizedTicks <= 0) {
+            normalizedTicks = 1;
+        }
+
+        wheel = new Bucket[normalizedTicks];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = wheel.length - 1;
+        tickDurationNanos = unit.toNanos(tickDuration);
+        startTime = System.nanoTime();
+
+        workerThread = new Thread(new Worker(), name);
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    /**
+     * Schedule a task to run once after the given delay.
+     *
+     * @param task  - task to run on the timer thread
+     * @param delay - delay before the task runs
+     * @param unit  - unit of the delay
+     * @return handle that can be used to cancel the task
+     */
+    @Override
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Cannot schedule a timeout after the timer has been stopped");
+        }
+
+        final long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+        final Timeout timeout = new Timeout(this, task, deadline);
+        pendingTimeouts.incrementAndGet();
+        newTimeouts.add(timeout);
+
+        // The worker may have drained the new timeouts for the last time between the check
+        // above and the add, the timeout would then never be processed nor returned by stop()
+        if (!running && newTimeouts.remove(timeout)) {
+            release(timeout);
+            throw new IllegalStateException("Cannot schedule a timeout after the timer has been stopped");
+        }
+        return timeout;
+    }
+
+    /**
+     * @return number of timeouts that have neither fired nor been cancelled
+     */
+    @Override
+    public long pendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    /**
+     * Wait until every pending timeout has either fired or been cancelled.
+     *
+     * @param timeout - maximum time to wait
+     * @param unit    - unit of the timeout
+     * @return true if there are no more pending timeouts, false if the wait timed out
+     */
+    @Override
+    public boolean awaitPending(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (pendingMonitor) {
+            while (pendingTimeouts.get() > 0) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(pendingMonitor, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the worker thread.  Timeouts that have not fired are not run.
+     *
+     * @return the timeouts that were still pending when the timer stopped
+     */
+    @Override
+    public List<Timeout> stop() {
+        if (Thread.currentThread() == workerThread) {
+            throw new IllegalStateException("stop() cannot be called from the timer thread");
+        }
+
+        running = false;
+        boolean interrupted = false;
+        while (workerThread.isAlive()) {
+            workerThread.interrupt();
+            try {
+                workerThread.join(100);
+            } catch (InterruptedException ignored) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return unprocessedTimeouts;
+    }
+
+    /**
+     * @return the system clock, the wheel always runs in real time
+     */
+    @Override
+    public Clock getClock() {
+        return Clock.SYSTEM;
+    }
+
+    /**
+     * Account for a timeout that has fired or been cancelled.  Only called by the
+     * worker thread, at most once per timeout, or by newTimeout for a timeout the worker
+     * never saw.
+     */
+    private void release(Timeout timeout) {
+        if (timeout.released) {
+            return;
+        }
+
+        timeout.released = true;
+        if (pendingTimeouts.decrementAndGet() == 0) {
+            synchronized (pendingMonitor) {
+                pendingMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The worker thread.  Each tick it removes cancelled timeouts, moves newly
+     * scheduled timeouts into their bucket and expires the current bucket.
+     */
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            do {
+                final long deadline = waitForNextTick();
+                if (deadline > 0) {
+                    processCancelledTimeouts();
+                    transferTimeoutsToBuckets();
+                    wheel[(int) (tick & mask)].expireTimeouts(deadline);
+                    tick++;
+                }
+            } while (running);
+
+            // Collect whatever has not fired so the caller can decide what to do with it
+            for (Bucket bucket : wheel) {
+                bucket.clearTimeouts(unprocessedTimeouts);
+            }
+            Timeout timeout;
+            while ((timeout = newTimeouts.poll()) != null) {
+                release(timeout);
+                if (!timeout.isCancelled()) {
+                    unprocessedTimeouts.add(timeout);
+                }
+            }
+            processCancelledTimeouts();
+        }
+
+        private void transferTimeoutsToBuckets() {
+            for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+                final Timeout timeout = newTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.state() == Timeout.ST_CANCELLED) {
+                    // Cancelled before it ever reached the wheel
+                    release(timeout);
+                    continue;
+                }
+
+                final long calculated = timeout.deadline / tickDurationNanos;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+
+                // Make sure we never schedule into the past
+                final long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].addTimeout(timeout);
+            }
+        }
+
+        private void processCancelledTimeouts() {
+            Timeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+                release(timeout);
+            }
+        }
+
+        /**
+         * Sleep until the next tick is due.
+         *
+         * @return the current time relative to the start time, or a negative
+         * value if the timer is stopping
+         */
+        private long waitForNextTick() {
+            final long deadline = tickDurationNanos * (tick + 1);
+
+            for (; ; ) {
+                final long currentTime = System.nanoTime() - startTime;
+                final long sleepTimeMs = (deadline - currentTime + 999_999) / 1_000_000;
+
+                if (sleepTimeMs <= 0) {
+                    return currentTime;
+                }
+
+                try {
+                    Thread.sleep(sleepTimeMs);
+                } catch (InterruptedException ignored) {
+                    if (!running) {
+                        return -1;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.  Cancelling is O(1): the timeout is marked
+     * cancelled and handed to the worker thread which unlinks it from its bucket.
+     */
+    public static final class Timeout implements TaskTimer.Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+
+        @SuppressWarnings("unused")
+        private volatile int state = ST_INIT;
+
+        // Only accessed by the worker thread
+        private long remainingRounds;
+        private boolean released;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Runnable getTask() {
+            return task;
+        }
+
+        /**
+         * @param unit - unit of the returned delay
+         * @return time left until this timeout is due, never negative
+         */
+        @Override
+        public long getRemainingDelay(TimeUnit unit) {
+            final long remaining = deadline - (System.nanoTime() - timer.startTime);
+            return unit.convert(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Cancel the task.
+         *
+         * @return true if the task was cancelled, false if it has already fired or been cancelled
+         */
+        @Override
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+
+            // Let the worker thread unlink it from the bucket on its next tick
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state() == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state() == ST_EXPIRED;
+        }
+
+        private int state() {
+            return state;
+        }
+
+        private void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                // Lost the race against cancel()
+                timer.release(this);
+                return;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn("An exception was thrown by a timer task", t);
+            } finally {
+                timer.release(this);
+            }
+        }
+    }
+
+    /**
+     * A bucket of the wheel.  A doubly linked list so a timeout can be unlinked in O(1).
+     * Only accessed by the worker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void addTimeout(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expireTimeouts(long deadline) {
+            Timeout timeout = head;
+
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    next = remove(timeout);
+                    if (timeout.deadline <= deadline) {
+                        // Releases the timeout once the task has run
+                        timeout.expire();
+                    } else {
+                        // The timeout was placed into the wrong slot. This should never happen
+                        throw new IllegalStateException("timeout.deadline (" + timeout.deadline + ") > deadline (" + deadline + ")");
+                    }
+                } else if (timeout.isCancelled()) {
+                    next = remove(timeout);
+                    timeout.timer.release(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        Timeout remove(Timeout timeout) {
+            final Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+
+            if (timeout == head) {
+                if (timeout == tail) {
+                    tail = null;
+                    head = null;
+                } else {
+                    head = next;
+                }
+            } else if (timeout == tail) {
+                tail = timeout.prev;
+            }
+
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        void clearTimeouts(List<Timeout> unprocessed) {
+            Timeout timeout;
+            while ((timeout = head) != null) {
+                remove(timeout);
+                timeout.timer.release(timeout);
+                if (!timeout.isExpired() && !timeout.isCancelled()) {
+                    unprocessed.add(timeout);
+                }
+            }
+        }
+    }
+}
@@ -3,28 +3,110 @@ package demo.utilities;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 import demo.json.Account;
+import demo.json.AccountTypeAdapter;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * JSON utility methods to help parse and process JSON files
  * @author skarmali
  */
 public class JsonUtils {
+    // Hand-written adapters decode straight into the POJOs without reflection.  They are
+    // stateless so a single parser is shared instead of building one per file
+    private static final AccountTypeAdapter ACCOUNT_ADAPTER = new AccountTypeAdapter();
+    private static final Gson GSON = new GsonBuilder().registerTypeAdapter(Account.class, ACCOUNT_ADAPTER).create();
+
     public ArrayList<Account> loadJsonAccountFile(String jsonFileName) {
         // Read JSON from coding-challenge-input which simulates various account types
         // being ingested
-        final Gson gson = new GsonBuilder().setDateFormat("SSSS").create();
         final InputStream resourceAsStream = getClass().getClassLoader().getResourceAsStream(jsonFileName);
         assert resourceAsStream != null;
 
         final BufferedReader br = new BufferedReader(new InputStreamReader(resourceAsStream));
-        return gson.fromJson(br, new TypeToken<List<Account>>() {
+        return loadJsonAccounts(br);
+    }
+
+    /**
+     * Parse a whole JSON array of accounts into memory
+     *
+     * @param reader - reader positioned at the start of a JSON array of accounts
+     * @return all the accounts
+     */
+    public ArrayList<Account> loadJsonAccounts(Reader reader) {
+        return GSON.fromJson(reader, new TypeToken<ArrayList<Account>>() {
         }.getType());
     }
+
+    /**
+     * Stream the JSON array of accounts in a classpath resource.  Each account is handed to
+     * the consumer as soon as it is decoded, so memory use does not depend on the file size.
+     *
+     * @param jsonFileName - classpath resource containing a JSON array of accounts
+     * @param consumer     - receives each account in file order
+     * @return number of accounts streamed
+     */
+    public long streamJsonAccountFile(String jsonFileName, Consumer<Account> consumer) {
+        final InputStream resourceAsStream = getClass().getClassLoader().getResourceAsStream(jsonFileName);
+        if (resourceAsStream == null) {
+            throw new IllegalArgumentException("JSON account file " + jsonFileName + " not found on the classpath");
+        }
+
+        try (Reader reader = new BufferedReader(new InputStreamReader(resourceAsStream, StandardCharsets.UTF_8))) {
+            return streamJsonAccounts(reader, consumer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stream a JSON array of accounts.  Each account is handed to the consumer as soon as it
+     * is decoded.
+     *
+     * @param reader   - reader positioned at the start of a JSON array of accounts
+     * @param consumer - receives each account in order
+     * @return number of accounts streamed
+     */
+    public long streamJsonAccounts(Reader reader, Consumer<Account> consumer) throws IOException {
+        final JsonReader jsonReader = new JsonReader(reader);
+        long count = 0;
+
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            final Account account = ACCOUNT_ADAPTER.read(jsonReader);
+            consumer.accept(account);
+            count++;
+        }
+        jsonReader.endArray();
+
+        return count;
+    }
+
+    /**
+     * Parse a single account, for example one line of a newline-delimited JSON feed
+     *
+     * @param json - JSON object of one account
+     * @return the account
+     * @throws com.google.gson.JsonParseException if the JSON is not a valid account
+     */
+    public static Account parseAccount(String json) {
+        return GSON.fromJson(json, Account.class);
+    }
+
+    /**
+     * @return the shared parser with the account type adapters registered
+     */
+    public static Gson getGson() {
+        return GSON;
+    }
 }
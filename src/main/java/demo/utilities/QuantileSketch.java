@@ -0,0 +1,158 @@
+package demo.utilities;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mergeable quantile sketch of non-negative int values.  Values are counted in log-linear
+ * buckets like LatencyHistogram: values below 128 exactly, larger values in 64 linear
+ * sub-buckets per power of two, so any percentile is within about 1.6% of the true value
+ * whatever the number of values, in a fixed 13KB array.
+ * Counts are plain integers so values can also be removed, and two sketches merge by
+ * adding their counts, for example the sketches of several shards or processors.
+ * Not thread safe.
+ * @author skarmali
+ */
+public final class QuantileSketch {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Integer.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+
+    /**
+     * @param value - value to add, negative values are counted as 0
+     */
+    public void add(int value) {
+        counts[bucketIndex(value)]++;
+        count++;
+    }
+
+    /**
+     * Remove a value added before
+     *
+     * @param value - value to remove, negative values are counted as 0
+     */
+    public void remove(int value) {
+        final int index = bucketIndex(value);
+        if (counts[index] == 0) {
+            throw new IllegalStateException("The value " + value + " is not in the sketch");
+        }
+        counts[index]--;
+        count--;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @param percentile - percentile between 0 and 100
+     * @return the highest value of the bucket holding the percentile, 0 if the sketch is empty
+     */
+    public int getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Add the values of another sketch to this one
+     *
+     * @param other - sketch to merge, unchanged
+     * @return this sketch
+     */
+    public QuantileSketch merge(QuantileSketch other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        return this;
+    }
+
+    public QuantileSketch copy() {
+        return new QuantileSketch().merge(this);
+    }
+
+    /**
+     * @return number of bytes written by writeTo
+     */
+    public int serializedSize() {
+        int buckets = 0;
+        for (long bucketCount : counts) {
+            buckets += (bucketCount != 0) ? 1 : 0;
+        }
+        return Integer.BYTES + buckets * (Short.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Write the non-empty buckets: their number, then the index and count of each one
+     */
+    public void writeTo(ByteBuffer buffer) {
+        final int countPosition = buffer.position();
+        buffer.putInt(0);
+        int buckets = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] != 0) {
+                buffer.putShort((short) i);
+                buffer.putLong(counts[i]);
+                buckets++;
+            }
+        }
+        buffer.putInt(countPosition, buckets);
+    }
+
+    /**
+     * @return sketch read from the position of the buffer, written by writeTo
+     */
+    public static QuantileSketch readFrom(ByteBuffer buffer) {
+        final QuantileSketch sketch = new QuantileSketch();
+        final int buckets = buffer.getInt();
+        for (int i = 0; i < buckets; i++) {
+            final int index = buffer.getShort();
+            if (index < 0 || index >= BUCKET_COUNT) {
+                throw new IllegalArgumentException("Invalid quantile sketch bucket " + index);
+            }
+            final long bucketCount = buffer.getLong();
+            sketch.counts[index] += bucketCount;
+            sketch.count += bucketCount;
+        }
+        return sketch;
+    }
+
+    static int bucketIndex(int value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return Math.max(0, value);
+        }
+        final int shift = (Integer.SIZE - 1 - Integer.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static int bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return (int) Math.min(Integer.MAX_VALUE, ((subBucket + 1) << shift) - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch(count=" + count + ", p50=" + getValueAtPercentile(50) + ", p95=" + getValueAtPercentile(95)
+                + ", p99=" + getValueAtPercentile(99) + ")";
+    }
+}
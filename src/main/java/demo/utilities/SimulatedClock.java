@@ -0,0 +1,309 @@
+package demo.utilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Discrete-event simulated clock.  Time only moves when the simulation is advanced: the
+ * scheduled tasks of every timer of the clock are kept in one queue ordered by due time
+ * (then by scheduling order), and advancing the clock runs them one after the other,
+ * setting the time to the due time of each task.  Nobody waits for real time to pass so
+ * a scenario of hours runs as fast as its tasks can be processed.
+ * Tasks run on the thread advancing the simulation, which makes a run deterministic as
+ * long as that thread is the only one scheduling tasks.  Sleeping, waiting for pending
+ * timeouts and runUntilIdle() advance the simulation.
+ * @author skarmali
+ */
+public class SimulatedClock implements Clock {
+    public static Logger logger = LoggerFactory.getLogger(SimulatedClock.class);
+
+    private final long startMillis;
+
+    // Guarded by this
+    private final PriorityQueue<SimulatedTimeout> events = new PriorityQueue<>();
+    private long nowNanos;
+    private long sequence;
+    private long executedEvents;
+
+    /**
+     * A clock whose wall clock time starts at 0
+     */
+    public SimulatedClock() {
+        this(0);
+    }
+
+    /**
+     * @param startMillis - wall clock time at the start of the simulation
+     */
+    public SimulatedClock(long startMillis) {
+        this.startMillis = startMillis;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return nowNanos;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return startMillis + TimeUnit.NANOSECONDS.toMillis(nowNanos);
+    }
+
+    /**
+     * Advance the simulation by the delay
+     */
+    @Override
+    public void sleep(long delay, TimeUnit unit) {
+        advance(delay, unit);
+    }
+
+    @Override
+    public TaskTimer newTimer(String name) {
+        return new SimulatedTimer(name);
+    }
+
+    @Override
+    public boolean isSimulated() {
+        return true;
+    }
+
+    /**
+     * Run the tasks due within the delay, then move the time to the end of the delay
+     *
+     * @return number of tasks run
+     */
+    public long advance(long delay, TimeUnit unit) {
+        final long target;
+        synchronized (this) {
+            target = nowNanos + unit.toNanos(Math.max(0, delay));
+        }
+        final long executed = runUntil(target, null);
+        synchronized (this) {
+            nowNanos = Math.max(nowNanos, target);
+        }
+        return executed;
+    }
+
+    /**
+     * Run every scheduled task, including the ones scheduled by the tasks themselves,
+     * until nothing is left
+     *
+     * @return number of tasks run
+     */
+    public long runUntilIdle() {
+        return runUntil(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * @return number of tasks run since the simulation started
+     */
+    public synchronized long getExecutedEvents() {
+        return executedEvents;
+    }
+
+    /**
+     * @return number of tasks scheduled and not run or cancelled yet, across every timer
+     */
+    public synchronized int getPendingEvents() {
+        int pending = 0;
+        for (SimulatedTimeout event : events) {
+            pending += event.isCancelled() ? 0 : 1;
+        }
+        return pending;
+    }
+
+    /**
+     * Run the tasks in due order until the next one is due after the target time, or until
+     * the timer has no pending timeout left
+     */
+    private long runUntil(long targetNanos, SimulatedTimer timer) {
+        long executed = 0;
+        while (timer == null || timer.pending.get() > 0) {
+            final SimulatedTimeout event;
+            synchronized (this) {
+                final SimulatedTimeout next = events.peek();
+                if (next == null || next.dueNanos > targetNanos) {
+                    break;
+                }
+                event = events.poll();
+                nowNanos = Math.max(nowNanos, event.dueNanos);
+            }
+
+            // Run outside the lock, the task can schedule new tasks
+            if (event.expire()) {
+                executed++;
+                synchronized (this) {
+                    executedEvents++;
+                }
+            }
+        }
+        return executed;
+    }
+
+    private synchronized SimulatedTimeout schedule(SimulatedTimer timer, Runnable task, long delay, TimeUnit unit) {
+        final SimulatedTimeout timeout = new SimulatedTimeout(timer, task, nowNanos + unit.toNanos(Math.max(0, delay)), sequence++);
+        events.add(timeout);
+        return timeout;
+    }
+
+    private synchronized List<SimulatedTimeout> removeEvents(SimulatedTimer timer) {
+        final List<SimulatedTimeout> removed = new ArrayList<>();
+        events.removeIf(event -> {
+            if (event.timer == timer) {
+                if (!event.isCancelled()) {
+                    removed.add(event);
+                }
+                return true;
+            }
+            return false;
+        });
+        removed.sort(null);
+        return removed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SimulatedClock(nowMs=" + TimeUnit.NANOSECONDS.toMillis(nowNanos) + ", pending=" + events.size() + ")";
+    }
+
+    /**
+     * A timer of the simulated clock.  It only counts its own timeouts, the tasks of every
+     * timer of the clock run in one time order.
+     */
+    private final class SimulatedTimer implements TaskTimer {
+        private final String name;
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean running = true;
+
+        SimulatedTimer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+            if (!running) {
+                throw new IllegalStateException("Cannot schedule a timeout after the timer " + name + " has been stopped");
+            }
+            pending.incrementAndGet();
+            return schedule(this, task, delay, unit);
+        }
+
+        @Override
+        public long pendingTimeouts() {
+            return pending.get();
+        }
+
+        /**
+         * Advance the simulation until every timeout of this timer has fired or been cancelled,
+         * or until the timeout has passed in simulated time
+         */
+        @Override
+        public boolean awaitPending(long timeout, TimeUnit unit) {
+            final long deadline;
+            synchronized (SimulatedClock.this) {
+                deadline = nowNanos + unit.toNanos(timeout);
+            }
+            runUntil(deadline, this);
+            return pending.get() == 0;
+        }
+
+        @Override
+        public List<SimulatedTimeout> stop() {
+            running = false;
+            final List<SimulatedTimeout> unprocessed = removeEvents(this);
+            pending.set(0);
+            return unprocessed;
+        }
+
+        @Override
+        public Clock getClock() {
+            return SimulatedClock.this;
+        }
+
+        @Override
+        public String toString() {
+            return "SimulatedTimer(" + name + ")";
+        }
+    }
+
+    /**
+     * A task scheduled on the simulated clock
+     */
+    private final class SimulatedTimeout implements TaskTimer.Timeout, Comparable<SimulatedTimeout> {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final SimulatedTimer timer;
+        private final Runnable task;
+        private final long dueNanos;
+        private final long sequence;
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        SimulatedTimeout(SimulatedTimer timer, Runnable task, long dueNanos, long sequence) {
+            this.timer = timer;
+            this.task = task;
+            this.dueNanos = dueNanos;
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return true if the task ran, false if it had been cancelled
+         */
+        boolean expire() {
+            if (!state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return false;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("An exception was thrown by a simulated timer task", e);
+            } finally {
+                timer.pending.decrementAndGet();
+            }
+            return true;
+        }
+
+        @Override
+        public Runnable getTask() {
+            return task;
+        }
+
+        @Override
+        public long getRemainingDelay(TimeUnit unit) {
+            return unit.convert(Math.max(0, dueNanos - nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            // The event stays queued and is skipped when its time comes
+            timer.pending.decrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        @Override
+        public int compareTo(SimulatedTimeout other) {
+            final int byTime = Long.compare(dueNanos, other.dueNanos);
+            return (byTime != 0) ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package demo.utilities;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules short tasks to run once after a delay, such as the account callbacks.
+ * Implemented by HashedWheelTimer in real time and by SimulatedClock in simulated time.
+ * @author skarmali
+ */
+public interface TaskTimer {
+    /**
+     * Schedule a task to run once after the given delay.
+     *
+     * @param task  - task to run
+     * @param delay - delay before the task runs
+     * @param unit  - unit of the delay
+     * @return handle that can be used to cancel the task
+     */
+    Timeout newTimeout(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * @return number of timeouts that have neither fired nor been cancelled
+     */
+    long pendingTimeouts();
+
+    /**
+     * Wait until every pending timeout has either fired or been cancelled.
+     *
+     * @param timeout - maximum time to wait
+     * @param unit    - unit of the timeout
+     * @return true if there are no more pending timeouts, false if the wait timed out
+     */
+    boolean awaitPending(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Stop the timer.  Timeouts that have not fired are not run.
+     *
+     * @return the timeouts that were still pending when the timer stopped
+     */
+    List<? extends Timeout> stop();
+
+    /**
+     * @return the clock the delays are measured with
+     */
+    Clock getClock();
+
+    /**
+     * Handle of a scheduled task
+     */
+    interface Timeout {
+        Runnable getTask();
+
+        /**
+         * @param unit - unit of the returned delay
+         * @return time left until this timeout is due, never negative
+         */
+        long getRemainingDelay(TimeUnit unit);
+
+        /**
+         * Cancel the task.
+         *
+         * @return true if the task was cancelled, false if it has already fired or been cancelled
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        boolean isExpired();
+    }
+}
@@ -0,0 +1,174 @@
+package demo;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.metrics.IndexerMetrics;
+import demo.processor.AccountProcessorConfig;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+import org.apache.log4j.Level;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the asynchronous submit of the driver and its back-pressure policies
+ * @author skarmali
+ */
+public class DynamicLoadDriverTest extends TestCase {
+    private DynamicLoadDriver driver;
+    private Level rootLevel;
+
+    @Override
+    public void setUp() {
+        // Per account logging would slow down the thousands of accounts in flight
+        rootLevel = org.apache.log4j.Logger.getRootLogger().getLevel();
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        if (driver != null) {
+            driver.shutdown();
+        }
+        org.apache.log4j.Logger.getRootLogger().setLevel(rootLevel);
+    }
+
+    /**
+     * Thousands of accounts are in flight at the same time, the submitting thread never waits
+     * for the simulated ingestion delay
+     */
+    public void testThousandsOfAccountsInFlight() {
+        driver = new DynamicLoadDriver(10_000, BackPressurePolicy.BLOCK);
+        final List<CompletableFuture<Account>> futures = new ArrayList<>();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 5_000; i++) {
+            futures.add(driver.submitAsync(TestAccounts.createAccount("id" + i, 1, i, 10)));
+        }
+        assertTrue("submitAsync blocked the caller", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+
+        CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).orTimeout(10, TimeUnit.SECONDS).join();
+        assertEquals(4_999, driver.getAccountIndexer().getHighestTokenValueByAccountType(AccountType.MINT));
+    }
+
+    /**
+     * With REJECT, accounts submitted while the intake is full fail immediately
+     */
+    public void testRejectPolicy() {
+        driver = new DynamicLoadDriver(2, BackPressurePolicy.REJECT);
+
+        final CompletableFuture<Account> first = driver.submitAsync(TestAccounts.createAccount("id1", 1, 1, 10));
+        final CompletableFuture<Account> second = driver.submitAsync(TestAccounts.createAccount("id2", 1, 2, 10));
+        final CompletableFuture<Account> third = driver.submitAsync(TestAccounts.createAccount("id3", 1, 3, 10));
+
+        assertTrue(third.isCompletedExceptionally());
+        assertCause(third, RejectedExecutionException.class);
+        assertNotNull(first.orTimeout(5, TimeUnit.SECONDS).join());
+        assertNotNull(second.orTimeout(5, TimeUnit.SECONDS).join());
+    }
+
+    /**
+     * With DROP_OLDEST, the oldest in-flight account makes room for the new one
+     */
+    public void testDropOldestPolicy() {
+        driver = new DynamicLoadDriver(2, BackPressurePolicy.DROP_OLDEST);
+
+        final CompletableFuture<Account> first = driver.submitAsync(TestAccounts.createAccount("id1", 1, 1, 10));
+        final CompletableFuture<Account> second = driver.submitAsync(TestAccounts.createAccount("id2", 1, 2, 10));
+        final CompletableFuture<Account> third = driver.submitAsync(TestAccounts.createAccount("id3", 1, 3, 10));
+
+        // The first account is dropped unless it was already ingested after a 0ms delay
+        if (first.isCompletedExceptionally()) {
+            assertCause(first, CancellationException.class);
+        }
+        assertNotNull(second.orTimeout(5, TimeUnit.SECONDS).join());
+        assertNotNull(third.orTimeout(5, TimeUnit.SECONDS).join());
+    }
+
+    /**
+     * With BLOCK, the submitting thread waits for an intake permit
+     */
+    public void testBlockPolicy() {
+        driver = new DynamicLoadDriver(1, BackPressurePolicy.BLOCK);
+
+        final CompletableFuture<Account> first = driver.submitAsync(TestAccounts.createAccount("id1", 1, 1, 10));
+        final CompletableFuture<Account> second = driver.submitAsync(TestAccounts.createAccount("id2", 1, 2, 10));
+
+        // The second submit could only be admitted once the first account was processed
+        assertTrue(first.isDone());
+        assertNotNull(first.join());
+        assertNotNull(second.orTimeout(5, TimeUnit.SECONDS).join());
+    }
+
+    /**
+     * A simulated run of the whole data file does not wait for the ingestion delays nor the
+     * callbacks, and the same seed ingests the accounts at the same simulated times
+     */
+    public void testSimulatedRunIsDeterministic() {
+        final long start = System.nanoTime();
+        final List<String> firstRun = runSimulation(42);
+        assertTrue("A simulated run should not wait for real time", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+
+        assertEquals(firstRun, runSimulation(42));
+        assertFalse(firstRun.equals(runSimulation(7)));
+    }
+
+    private List<String> runSimulation(long seed) {
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        final DynamicLoadDriver simulatedDriver = DynamicLoadDriver.simulated(seed, new AccountProcessorConfig().setMetricsJmxEnabled(false));
+
+        // Ingestion order and simulated time of every account
+        final List<String> ingested = new ArrayList<>();
+        for (Account account : accounts) {
+            simulatedDriver.submitAsync(account).thenAccept(indexed -> ingested.add(indexed.getId() + ":" + indexed.getVersion()
+                    + "@" + simulatedDriver.getClock().currentTimeMillis()));
+        }
+        simulatedDriver.shutdown();
+
+        assertEquals(accounts.size(), ingested.size());
+        assertEquals(999, simulatedDriver.getAccountIndexer().getHighestTokenValueByAccountType(AccountType.MINT));
+        assertEquals(960, simulatedDriver.getAccountIndexer().getHighestTokenValueByAccountType(AccountType.AUCTION_DATA));
+        // Every callback fired or was cancelled within the simulated shutdown window
+        final IndexerMetrics metrics = simulatedDriver.getAccountIndexer().getMetrics();
+        assertEquals(metrics.getCallbacksScheduled(), metrics.getCallbacksFired() + metrics.getCallbacksCancelled());
+        return ingested;
+    }
+
+    private static void assertCause(CompletableFuture<Account> future, Class<? extends Throwable> expected) {
+        try {
+            future.join();
+            fail("Expected " + expected.getSimpleName());
+        } catch (CancellationException e) {
+            assertTrue(expected.isInstance(e));
+        } catch (CompletionException e) {
+            assertTrue(expected.isInstance(e.getCause()));
+        }
+    }
+
+    /**
+     * An account submitted after the shutdown fails and gives its permit back, so the intake never fills up
+     */
+    public void testSubmitAfterShutdownReleasesThePermit() {
+        for (BackPressurePolicy policy : BackPressurePolicy.values()) {
+            final DynamicLoadDriver stopped = new DynamicLoadDriver(1, policy);
+            stopped.shutdown();
+            for (int i = 0; i < 3; i++) {
+                final CompletableFuture<Account> future = stopped.submitAsync(TestAccounts.createAccount("id" + i, 1, i, 10));
+                try {
+                    future.orTimeout(10, TimeUnit.SECONDS).join();
+                    fail("Expected CompletionException");
+                } catch (CompletionException e) {
+                    assertTrue(policy + " " + e.getCause(), e.getCause() instanceof IllegalStateException);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package demo;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.processor.AccountProcessorConfig;
+import junit.framework.TestCase;
+import org.apache.log4j.Level;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Test class for the synthetic accounts and the load generator
+ * @author skarmali
+ */
+public class LoadGeneratorTest extends TestCase {
+    private Level rootLevel;
+
+    @Override
+    public void setUp() {
+        // Per account logging would slow down the generated load
+        rootLevel = org.apache.log4j.Logger.getRootLogger().getLevel();
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        org.apache.log4j.Logger.getRootLogger().setLevel(rootLevel);
+    }
+
+    /**
+     * Every account has the data schema of its type, metadata accounts point to mint
+     * accounts, and with a churn of 1 every update of an id is its next version
+     */
+    public void testSyntheticAccountsFollowTheSchemas() {
+        final SyntheticAccounts accounts = new SyntheticAccounts(new LoadProfile().setAccountIds(500).setVersionChurn(1));
+        final SyntheticAccounts.Generator generator = accounts.newGenerator(0, 1);
+
+        final Map<String, Integer> versions = new HashMap<>();
+        final Map<String, AccountType> types = new HashMap<>();
+        final Set<String> metadataMintIds = new HashSet<>();
+        for (int i = 0; i < 5_000; i++) {
+            final Account account = generator.next();
+            assertEquals(account.getId(), account.getVersion().intValue(), versions.merge(account.getId(), 1, Integer::sum).intValue());
+            assertEquals(account.getAccountType(), types.computeIfAbsent(account.getId(), id -> account.getAccountType()));
+
+            switch (account.getAccountType()) {
+                case MINT:
+                    assertEquals(account.getId(), account.getData().getMintId());
+                    break;
+                case META_DATA:
+                    assertTrue(account.getData().isMintSchema() != account.getData().isImageSchema());
+                    if (account.getData().isMintSchema()) {
+                        metadataMintIds.add(account.getData().getMintId());
+                    }
+                    break;
+                case MASTER_EDITION:
+                    assertTrue(account.getData().isImageSchema());
+                    break;
+                case AUCTION:
+                case AUCTION_DATA:
+                    assertTrue(account.getData().isBidSchema());
+                    break;
+                default:
+                    assertFalse(account.getData().isMintSchema() || account.getData().isImageSchema() || account.getData().isBidSchema());
+                    break;
+            }
+        }
+
+        assertEquals(AccountType.values().length, new HashSet<>(types.values()).size());
+        assertFalse(metadataMintIds.isEmpty());
+        for (String mintId : metadataMintIds) {
+            assertEquals(AccountType.MINT, types.getOrDefault(mintId, AccountType.MINT));
+        }
+    }
+
+    /**
+     * The generators of different producers never send the same id
+     */
+    public void testGeneratorsPartitionTheIds() {
+        final SyntheticAccounts accounts = new SyntheticAccounts(new LoadProfile().setAccountIds(100));
+        final Set<String> first = new HashSet<>();
+        final Set<String> second = new HashSet<>();
+        final SyntheticAccounts.Generator firstGenerator = accounts.newGenerator(0, 2);
+        final SyntheticAccounts.Generator secondGenerator = accounts.newGenerator(1, 2);
+        for (int i = 0; i < 1_000; i++) {
+            first.add(firstGenerator.next().getId());
+            second.add(secondGenerator.next().getId());
+        }
+
+        assertEquals(50, first.size());
+        assertEquals(50, second.size());
+        first.retainAll(second);
+        assertTrue(first.isEmpty());
+    }
+
+    /**
+     * Every arrival process keeps the mean rate
+     */
+    public void testArrivalProcessesKeepTheMeanRate() {
+        final double meanGapNanos = 100_000;
+        for (ArrivalProcess arrivalProcess : ArrivalProcess.values()) {
+            final Random random = new Random(3);
+            long total = 0;
+            for (int i = 0; i < 100_000; i++) {
+                total += arrivalProcess.nextGapNanos(random, meanGapNanos, 100, i);
+            }
+            assertEquals(arrivalProcess.toString(), 1.0, total / (meanGapNanos * 100_000), 0.02);
+        }
+    }
+
+    /**
+     * A short run well below saturation indexes everything it sent and reports its latencies
+     */
+    public void testRunReportsThroughputAndLatency() throws InterruptedException {
+        final LoadProfile profile = new LoadProfile().setAccountIds(1_000)
+                                                     .setRate(10_000)
+                                                     .setDurationMs(500)
+                                                     .setProducers(2)
+                                                     .setCallbackMeanMs(5);
+        final LoadGenerator.Report report = new LoadGenerator(profile, new AccountProcessorConfig().setMetricsJmxEnabled(false)).run();
+
+        assertTrue(report.toString(), report.getSent() > 4_000 && report.getSent() < 6_000);
+        assertEquals(report.getSent(), report.getIndexed() + report.getDuplicates() + report.getIgnoredUpdates());
+        assertEquals(report.getSent(), report.getIndexLatency().getCount());
+        assertTrue(report.getOfferedRate() > 8_000);
+        assertTrue(report.getCallbacksFired() > 0);
+        assertEquals(13, report.toString().trim().split("\\s+").length);
+    }
+}
@@ -0,0 +1,46 @@
+package demo;
+
+import demo.json.Account;
+import demo.json.AccountType;
+
+/**
+ * Accounts built by the tests
+ * @author skarmali
+ */
+public final class TestAccounts {
+
+    private TestAccounts() {
+    }
+
+    /**
+     * @param id             - account id
+     * @param type           - account type
+     * @param version        - version of the account
+     * @param tokens         - token value
+     * @param callbackTimeMs - callback delay in milliseconds
+     * @return account without data
+     */
+    public static Account createAccount(String id, AccountType type, int version, int tokens, int callbackTimeMs) {
+        final Account account = new Account();
+        account.setId(id);
+        account.setAccountType(type);
+        account.setTokens(tokens);
+        account.setCallbackTimeMs(callbackTimeMs);
+        account.setVersion(version);
+        return account;
+    }
+
+    /**
+     * @return MINT account without data
+     */
+    public static Account createAccount(String id, int version, int tokens, int callbackTimeMs) {
+        return createAccount(id, AccountType.MINT, version, tokens, callbackTimeMs);
+    }
+
+    /**
+     * @return MINT account without data whose callback is due right away
+     */
+    public static Account createAccount(String id, int version, int tokens) {
+        return createAccount(id, AccountType.MINT, version, tokens, 0);
+    }
+}
@@ -0,0 +1,70 @@
+package demo.metrics;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessorConfig;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test class for the metrics of the processor
+ * @author skarmali
+ */
+public class IndexerMetricsTest extends TestCase {
+
+    /**
+     * Received, indexed and duplicate counts of the input file, read over JMX
+     */
+    public void testProcessorMetricsOverJmx() throws Exception {
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig());
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+        final Set<String> tuples = new HashSet<>();
+        accounts.forEach(account -> tuples.add(account.getId() + ":" + account.getVersion()));
+
+        accounts.forEach(processor::handleAccountProcessing);
+
+        final IndexerMetrics metrics = processor.getMetrics();
+        final ObjectName objectName = metrics.getObjectName();
+        assertNotNull(objectName);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals((long) accounts.size(), server.getAttribute(objectName, "AccountsReceived"));
+        assertEquals((long) tuples.size(), server.getAttribute(objectName, "AccountsIndexed"));
+        assertEquals((long) (accounts.size() - tuples.size()), server.getAttribute(objectName, "Duplicates"));
+        assertEquals(12L, server.getAttribute(objectName, "AccountIdCount"));
+        assertEquals(accounts.size(), metrics.getIndexLatency().getCount());
+
+        processor.shutdown();
+        assertFalse(server.isRegistered(objectName));
+
+        // Every accepted account that is not a duplicate either had its callback fired or cancelled (maybe before it was scheduled)
+        assertEquals(accounts.size() - metrics.getIgnoredUpdates() - metrics.getDuplicates(), metrics.getCallbacksFired() + metrics.getCallbacksCancelled());
+        assertTrue(metrics.dump().contains("received=" + accounts.size()));
+    }
+
+    /**
+     * A newer version cancels the pending callback of the older one
+     */
+    public void testCancellationCount() {
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false));
+        final Account v1 = TestAccounts.createAccount("id1", 1, 1, 60_000);
+        processor.handleAccountProcessing(v1);
+        while (v1.getProcessAccountRunnable() == null || processor.getMetrics().getCallbacksScheduled() == 0) {
+            Thread.yield();
+        }
+        processor.handleAccountProcessing(TestAccounts.createAccount("id1", 2, 2, 0));
+        processor.shutdown();
+
+        assertNull(processor.getMetrics().getObjectName());
+        assertEquals(1, processor.getMetrics().getCallbacksCancelled());
+        assertEquals(1, processor.getMetrics().getCallbacksFired());
+    }
+}
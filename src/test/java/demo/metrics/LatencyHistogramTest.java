@@ -0,0 +1,45 @@
+package demo.metrics;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Test class for the log-linear latency histogram
+ * @author skarmali
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    /**
+     * Every value falls in a bucket whose upper bound is within about 3% of it
+     */
+    public void testBucketPrecision() {
+        for (int i = 0; i < 100_000; i++) {
+            final long value = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE >>> ThreadLocalRandom.current().nextInt(63));
+            final int index = LatencyHistogram.bucketIndex(value);
+            final long upperBound = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(value + " > " + upperBound, value <= upperBound);
+            assertTrue(value + " <= " + LatencyHistogram.bucketUpperBound(index - 1),
+                       index == 0 || value > LatencyHistogram.bucketUpperBound(index - 1));
+            assertTrue(upperBound - value <= value / 32 + 1);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+
+        for (int value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-5);
+
+        assertEquals(10_001, histogram.getCount());
+        assertEquals(10_000, histogram.getMax());
+        assertEquals(5000, histogram.getValueAtPercentile(50), 5000 / 32);
+        assertEquals(9900, histogram.getValueAtPercentile(99), 9900 / 32);
+        assertEquals(10_000, histogram.getValueAtPercentile(100));
+        assertEquals(5000.0, histogram.getMean(), 1.0);
+    }
+}
@@ -0,0 +1,186 @@
+package demo.network;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessorConfig;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the TCP ingestion server and client
+ * @author skarmali
+ */
+public class IngestionServerTest extends TestCase {
+    private AccountIndexerProcessor processor;
+    private IngestionServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false));
+        server = new IngestionServer(processor, new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        server.close();
+        processor.shutdown();
+    }
+
+    /**
+     * The data file sent over two pipelined connections, one JSON and one binary, gives the
+     * same highest values as processing it directly
+     */
+    public void testJsonAndBinaryFrames() throws Exception {
+        final List<Account> accounts = loadAccounts();
+        final int half = accounts.size() / 2;
+        try (IngestionClient json = new IngestionClient(address(), 16);
+             IngestionClient binary = new IngestionClient(address(), 16)) {
+            long lastJson = 0;
+            long lastBinary = 0;
+            for (Account account : accounts.subList(0, half)) {
+                lastJson = json.send(account, false);
+            }
+            for (Account account : accounts.subList(half, accounts.size())) {
+                lastBinary = binary.send(account, true);
+            }
+            json.awaitAcked(lastJson, 10, TimeUnit.SECONDS);
+            binary.awaitAcked(lastBinary, 10, TimeUnit.SECONDS);
+
+            assertEquals(0, json.getErrors() + binary.getErrors());
+            assertEquals(accounts.size(), json.getAckLatency().getCount() + binary.getAckLatency().getCount());
+        }
+        assertEquals(accounts.size(), server.getFramesReceived());
+        assertEquals(0, server.getFramesRejected());
+
+        final AccountIndexerProcessor direct = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false));
+        try {
+            loadAccounts().forEach(direct::handleAccountProcessing);
+            for (AccountType type : AccountType.values()) {
+                assertEquals(String.valueOf(type), direct.getHighestTokenValueByAccountType(type), processor.getHighestTokenValueByAccountType(type));
+            }
+        } finally {
+            direct.shutdown();
+        }
+    }
+
+    /**
+     * A malformed frame is answered with an error for its frame number, the frames around
+     * it are still processed and acknowledged
+     */
+    public void testMalformedFrameIsRejected() throws Exception {
+        final List<Account> accounts = loadAccounts();
+        try (SocketChannel channel = SocketChannel.open(address())) {
+            final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+            IngestionProtocol.writeAccount(buffer, accounts.get(0), true);
+            final byte[] garbage = "{\"id\": ".getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(1 + garbage.length).put(IngestionProtocol.JSON_FRAME).put(garbage);
+            IngestionProtocol.writeAccount(buffer, accounts.get(1), false);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            final ByteBuffer response = ByteBuffer.allocate(8 * 1024);
+            long acked = 0;
+            long rejectedFrame = 0;
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (acked < 3 && System.nanoTime() - deadline < 0) {
+                if (channel.read(response) < 0) {
+                    throw new IOException("Connection closed");
+                }
+                response.flip();
+                while (response.remaining() >= Integer.BYTES && response.remaining() >= Integer.BYTES + response.getInt(response.position())) {
+                    final int end = response.position() + Integer.BYTES + response.getInt();
+                    final byte type = response.get();
+                    if (type == IngestionProtocol.ACK_FRAME) {
+                        acked = response.getLong();
+                    } else {
+                        assertEquals(IngestionProtocol.ERROR_FRAME, type);
+                        rejectedFrame = response.getLong();
+                    }
+                    response.position(end);
+                }
+                response.compact();
+            }
+            assertEquals(3, acked);
+            assertEquals(2, rejectedFrame);
+        }
+        assertEquals(3, server.getFramesReceived());
+        assertEquals(1, server.getFramesRejected());
+        assertEquals(2, processor.getMetrics().getAccountsIndexed());
+    }
+
+    /**
+     * Frames rejected by a shut down processor each get an error before the acknowledgement
+     * covering them, so no account is acknowledged without being indexed
+     */
+    public void testFramesRejectedByTheProcessor() throws Exception {
+        final AccountIndexerProcessor stopped = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false));
+        stopped.shutdown();
+        final List<Account> accounts = loadAccounts();
+        try (IngestionServer stoppedServer = new IngestionServer(stopped, new InetSocketAddress("127.0.0.1", 0));
+             SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", stoppedServer.getPort()))) {
+            final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+            for (int i = 0; i < 3; i++) {
+                IngestionProtocol.writeAccount(buffer, accounts.get(i), true);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            final ByteBuffer response = ByteBuffer.allocate(8 * 1024);
+            final List<Long> rejectedFrames = new ArrayList<>();
+            long acked = 0;
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (acked < 3 && System.nanoTime() - deadline < 0) {
+                if (channel.read(response) < 0) {
+                    throw new IOException("Connection closed");
+                }
+                response.flip();
+                while (response.remaining() >= Integer.BYTES && response.remaining() >= Integer.BYTES + response.getInt(response.position())) {
+                    final int end = response.position() + Integer.BYTES + response.getInt();
+                    final byte type = response.get();
+                    if (type == IngestionProtocol.ACK_FRAME) {
+                        acked = response.getLong();
+                        // Every frame the acknowledgement covers had its error first
+                        assertEquals(acked, rejectedFrames.size());
+                    } else {
+                        assertEquals(IngestionProtocol.ERROR_FRAME, type);
+                        rejectedFrames.add(response.getLong());
+                    }
+                    response.position(end);
+                }
+                response.compact();
+            }
+            assertEquals(3, acked);
+            assertEquals(List.of(1L, 2L, 3L), rejectedFrames);
+            assertEquals(3, stoppedServer.getFramesRejected());
+        }
+        assertEquals(0, stopped.getMetrics().getAccountsIndexed());
+    }
+
+    private InetSocketAddress address() {
+        return new InetSocketAddress("127.0.0.1", server.getPort());
+    }
+
+    private static List<Account> loadAccounts() {
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+        return accounts;
+    }
+}
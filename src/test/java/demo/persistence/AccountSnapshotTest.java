@@ -0,0 +1,175 @@
+package demo.persistence;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessorConfig;
+import demo.processor.StorageMode;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Test class for the snapshots of the account index
+ * @author skarmali
+ */
+public class AccountSnapshotTest extends TestCase {
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        directory = Files.createTempDirectory("account-snapshot");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    public void testWriteAndRead() throws IOException {
+        final Account highest = TestAccounts.createAccount("id1", 3, 42);
+        final Data data = new Data();
+        data.setMintId("mint1");
+        data.setImg("https://example.com/1.png");
+        highest.setData(data);
+        final Account pendingOlder = TestAccounts.createAccount("id1", 2, 7);
+        pendingOlder.setAccountType(null);
+
+        final Path path = directory.resolve("accounts.snapshot");
+        new AccountSnapshot.Writer(1234)
+                .tokenStats(AccountType.MINT, 2, 49, 7, 42)
+                .account(highest, true, -1)
+                .account(pendingOlder, false, 5000)
+                .writeTo(path);
+
+        final List<String> content = new ArrayList<>();
+        final long journalOffset = AccountSnapshot.read(path, new SnapshotVisitor() {
+            @Override
+            public void tokenStats(AccountType type, long count, long sum, int min, int max) {
+                content.add(type + " " + count + " " + sum + " " + min + " " + max);
+            }
+
+            @Override
+            public void account(Account account, boolean highest, long callbackDueMillis) {
+                content.add(account.getId() + ":" + account.getVersion() + " " + account.getTokens() + " " + account.getAccountType()
+                        + " " + account.getData() + " " + highest + " " + callbackDueMillis);
+            }
+        });
+
+        assertEquals(1234, journalOffset);
+        assertEquals(3, content.size());
+        assertEquals("MINT 2 49 7 42", content.get(0));
+        assertTrue(content.get(1), content.get(1).startsWith("id1:3 42 MINT "));
+        assertTrue(content.get(1), content.get(1).contains("mint1") && content.get(1).contains("https://example.com/1.png"));
+        assertTrue(content.get(1), content.get(1).endsWith(" true -1"));
+        assertEquals("id1:2 7 null null false 5000", content.get(2));
+    }
+
+    public void testCorruptSnapshotIsRejected() throws IOException {
+        final Path path = directory.resolve("accounts.snapshot");
+        new AccountSnapshot.Writer(0).account(TestAccounts.createAccount("id1", 1, 1), true, -1).writeTo(path);
+        final byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(path, bytes);
+
+        try {
+            AccountSnapshot.read(path, null);
+            fail("The corrupt snapshot was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+        }
+    }
+
+    /**
+     * A restarted processor gets the same token statistics from the snapshot without replaying the journal
+     */
+    public void testRestartFromSnapshot() {
+        final AccountProcessorConfig config = new AccountProcessorConfig()
+                .setMetricsJmxEnabled(false)
+                .setJournalPath(directory.resolve("accounts.journal"))
+                .setSnapshotPath(directory.resolve("accounts.snapshot"));
+
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(config);
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        final List<Account> firstHalf = accounts.subList(0, accounts.size() / 2);
+        firstHalf.forEach(account -> account.setCallbackTimeMs(0));
+        firstHalf.forEach(processor::handleAccountProcessing);
+        assertTrue(processor.snapshot() > 0);
+
+        // Ingestion carries on after the snapshot, these versions are only in the journal
+        final List<Account> secondHalf = accounts.subList(accounts.size() / 2, accounts.size());
+        secondHalf.forEach(account -> account.setCallbackTimeMs(0));
+        secondHalf.forEach(processor::handleAccountProcessing);
+        processor.shutdown();
+        final Map<AccountType, ?> expected = processor.getTokenStats();
+
+        final AccountIndexerProcessor restarted = new AccountIndexerProcessor(config);
+        assertEquals(expected.toString(), restarted.getTokenStats().toString());
+        for (AccountType type : AccountType.values()) {
+            // The sketches come from the snapshot and the journal
+            assertEquals(processor.getTokenSketch(type).toString(), restarted.getTokenSketch(type).toString());
+            assertEquals(processor.getDistinctAccountCount(type), restarted.getDistinctAccountCount(type));
+        }
+        assertTrue(restarted.getDistinctAccountCount(AccountType.MINT) > 0);
+        assertEquals(999, restarted.getHighestTokenValueByAccountType(AccountType.MINT));
+        assertEquals(901, restarted.getHighestTokenValueByAccountType(AccountType.MASTER_EDITION));
+        assertEquals(0, restarted.getMetrics().getPendingCallbacks());
+
+        // A version seen before the restart is still a duplicate
+        restarted.handleAccountProcessing(copy(accounts.get(0)));
+        restarted.shutdown();
+        assertEquals(expected.toString(), restarted.getTokenStats().toString());
+    }
+
+    /**
+     * With off-heap storage a version older than the restored highest one, even one never
+     * seen before the restart, is a duplicate
+     */
+    public void testOffHeapRestartTreatsOlderVersionsAsDuplicates() {
+        final AccountProcessorConfig config = new AccountProcessorConfig()
+                .setMetricsJmxEnabled(false)
+                .setStorageMode(StorageMode.OFF_HEAP)
+                .setJournalPath(directory.resolve("accounts.journal"))
+                .setSnapshotPath(directory.resolve("accounts.snapshot"));
+
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(config);
+        processor.handleAccountProcessing(TestAccounts.createAccount("id1", 1, 10));
+        processor.handleAccountProcessing(TestAccounts.createAccount("id1", 3, 30));
+        assertTrue(processor.snapshot() > 0);
+        processor.shutdown();
+        final Map<AccountType, ?> expected = processor.getTokenStats();
+
+        final AccountIndexerProcessor restarted = new AccountIndexerProcessor(config);
+        restarted.handleAccountProcessing(TestAccounts.createAccount("id1", 2, 20));
+        restarted.handleAccountProcessing(TestAccounts.createAccount("id1", 3, 30));
+        restarted.shutdown();
+        assertEquals(2, restarted.getMetrics().getDuplicates());
+        assertEquals(expected.toString(), restarted.getTokenStats().toString());
+        assertEquals(30, restarted.getHighestTokenValueByAccountType(AccountType.MINT));
+    }
+
+    private static Account copy(Account account) {
+        final Account copy = TestAccounts.createAccount(account.getId(), account.getVersion(), account.getTokens());
+        copy.setAccountType(account.getAccountType());
+        copy.setData(account.getData());
+        return copy;
+    }
+}
@@ -0,0 +1,169 @@
+package demo.persistence;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+import demo.processor.AccountIndexerProcessor;
+import demo.processor.AccountProcessorConfig;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the event journal and the recovery of a processor from it
+ * @author skarmali
+ */
+public class EventJournalTest extends TestCase {
+    private Path journalPath;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        journalPath = Files.createTempFile("account-journal", ".bin");
+        Files.delete(journalPath);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        Files.deleteIfExists(journalPath);
+    }
+
+    public void testCodecRoundTrip() {
+        final Account account = TestAccounts.createAccount("id1", AccountType.AUCTION, 7, 42, 250);
+        final Data data = new Data();
+        data.setExpiry(1000);
+        data.setCurrentBid(55);
+        account.setData(data);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(256);
+        AccountCodec.write(buffer, account);
+        buffer.flip();
+        final Account decoded = AccountCodec.read(buffer);
+
+        assertEquals("id1", decoded.getId());
+        assertEquals(Integer.valueOf(7), decoded.getVersion());
+        assertEquals(Integer.valueOf(42), decoded.getTokens());
+        assertEquals(Integer.valueOf(250), decoded.getCallbackTimeMs());
+        assertEquals(AccountType.AUCTION, decoded.getAccountType());
+        assertEquals(Integer.valueOf(1000), decoded.getData().getExpiry());
+        assertEquals(Integer.valueOf(55), decoded.getData().getCurrentBid());
+        assertNull(decoded.getData().getMintId());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    public void testReplayInAppendOrder() throws IOException {
+        try (EventJournal journal = EventJournal.open(journalPath, FsyncPolicy.GROUP_COMMIT, 100, null)) {
+            journal.awaitDurable(journal.appendAccountIndexed(TestAccounts.createAccount("id1", AccountType.AUCTION, 1, 10, 0), true, false, 1));
+            journal.appendCallbackFired("id1", 1, 2);
+            journal.appendAccountIndexed(TestAccounts.createAccount("id1", AccountType.AUCTION, 2, 20, 0), false, true, 3);
+            journal.appendCallbackCancelled("id1", 2, 4);
+        }
+
+        final List<String> events = new ArrayList<>();
+        final EventJournal.ReplayResult result = EventJournal.replay(journalPath, new RecordingVisitor(events));
+
+        assertEquals(4, result.getRecords());
+        assertEquals(Files.size(journalPath), result.getValidLength());
+        assertEquals("[indexed id1:1 true 1, fired id1:1 2, indexed id1:2 false duplicate 3, cancelled id1:2 4]", events.toString());
+    }
+
+    /**
+     * A record only partly written before a crash is dropped and appending carries on after the last valid record
+     */
+    public void testTornRecordIsTruncated() throws IOException {
+        try (EventJournal journal = EventJournal.open(journalPath, FsyncPolicy.NONE, 100, null)) {
+            journal.appendAccountIndexed(TestAccounts.createAccount("id1", AccountType.AUCTION, 1, 10, 0), true, false, 1);
+            journal.appendAccountIndexed(TestAccounts.createAccount("id1", AccountType.AUCTION, 2, 20, 0), true, false, 2);
+        }
+        final long validLength = Files.size(journalPath);
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            // Header of a 100 bytes record followed by only a few bytes of it
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 1, 0, 0}));
+        }
+
+        try (EventJournal journal = EventJournal.open(journalPath, FsyncPolicy.NONE, 100, null)) {
+            assertEquals(2, journal.getReplayedRecords());
+            assertEquals(validLength, Files.size(journalPath));
+            journal.appendCallbackFired("id1", 2, 3);
+        }
+
+        final List<String> events = new ArrayList<>();
+        assertEquals(3, EventJournal.replay(journalPath, new RecordingVisitor(events)).getRecords());
+        assertEquals("fired id1:2 3", events.get(2));
+    }
+
+    /**
+     * A processor rebuilds its token statistics from the journal and fires the callbacks
+     * that were pending when the previous process stopped
+     */
+    public void testProcessorRecoversFromJournal() throws IOException, InterruptedException {
+        final long now = System.currentTimeMillis();
+        try (EventJournal journal = EventJournal.open(journalPath, FsyncPolicy.NONE, 100, null)) {
+            journal.appendAccountIndexed(TestAccounts.createAccount("id1", AccountType.AUCTION, 1, 10, 0), true, false, now - 1000);
+            journal.appendCallbackFired("id1", 1, now - 1000);
+            journal.appendAccountIndexed(TestAccounts.createAccount("id1", AccountType.AUCTION, 2, 30, 100), true, false, now);
+            journal.appendAccountIndexed(TestAccounts.createAccount("id2", AccountType.AUCTION, 1, 20, 60_000), true, false, now - 1000);
+            journal.appendCallbackCancelled("id2", 1, now - 500);
+            journal.appendAccountIndexed(TestAccounts.createAccount("id2", AccountType.AUCTION, 2, 5, 200), true, false, now - 1000);
+        }
+
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig()
+                .setMetricsJmxEnabled(false)
+                .setJournalPath(journalPath));
+        assertEquals(30, processor.getHighestTokenValueByAccountType(AccountType.AUCTION));
+        assertEquals(4, processor.getTokenStats().get(AccountType.AUCTION).getCount());
+
+        // Both pending callbacks fire again, the one of id2 right away since it was due
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (processor.getMetrics().getCallbacksFired() < 2 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertEquals(2, processor.getMetrics().getCallbacksFired());
+
+        // A new version is indexed on top of the recovered state
+        processor.handleAccountProcessing(TestAccounts.createAccount("id1", AccountType.AUCTION, 3, 40, 0));
+        processor.shutdown();
+        assertEquals(40, processor.getHighestTokenValueByAccountType(AccountType.AUCTION));
+
+        final List<String> events = new ArrayList<>();
+        EventJournal.replay(journalPath, new RecordingVisitor(events));
+        assertTrue(events.toString(), events.stream().anyMatch(event -> event.startsWith("indexed id1:3 true")));
+        assertEquals(events.toString(), 4, events.stream().filter(event -> event.startsWith("fired")).count());
+    }
+
+    private static final class RecordingVisitor implements JournalVisitor {
+        private final List<String> events;
+
+        RecordingVisitor(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void accountIndexed(Account account, boolean callbackScheduled, boolean duplicate, long indexedAtMillis) {
+            events.add("indexed " + account.getId() + ":" + account.getVersion() + " " + callbackScheduled
+                    + (duplicate ? " duplicate " : " ") + indexedAtMillis);
+        }
+
+        @Override
+        public void callbackFired(String accountId, int version, long firedAtMillis) {
+            events.add("fired " + accountId + ":" + version + " " + firedAtMillis);
+        }
+
+        @Override
+        public void callbackCancelled(String accountId, int version, long cancelledAtMillis) {
+            events.add("cancelled " + accountId + ":" + version + " " + cancelledAtMillis);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package demo.processor;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the batch ingestion of the processor
+ * @author skarmali
+ */
+public class AccountBatchTest extends TestCase {
+    private AccountIndexerProcessor processor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        processor = new AccountIndexerProcessor();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        processor.shutdown();
+    }
+
+    /**
+     * A batch indexes every tuple, so the token statistics are the same as one by one
+     */
+    public void testBatchIndexesEveryTuple() {
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+        final Set<String> tuples = new HashSet<>();
+        accounts.forEach(account -> tuples.add(account.getId() + ":" + account.getVersion()));
+
+        processor.handleAccountBatch(accounts);
+
+        assertEquals(901, processor.getHighestTokenValueByAccountType(AccountType.MASTER_EDITION));
+        assertEquals(960, processor.getHighestTokenValueByAccountType(AccountType.AUCTION_DATA));
+        assertEquals(999, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+        assertEquals(920, processor.getHighestTokenValueByAccountType(AccountType.ACCOUNT));
+        assertEquals(898, processor.getHighestTokenValueByAccountType(AccountType.ESCROW));
+        assertEquals(997, processor.getHighestTokenValueByAccountType(AccountType.META_DATA));
+        assertEquals(836, processor.getHighestTokenValueByAccountType(AccountType.AUCTION));
+        assertEquals(tuples.size(), processor.getTokenStats().values().stream().mapToLong(TokenStats::getCount).sum());
+    }
+
+    /**
+     * Only the highest version of an id in the batch gets a callback
+     */
+    public void testSingleCallbackPerId() throws InterruptedException {
+        final Account v1 = TestAccounts.createAccount("id1", 1, 3, 10);
+        final Account v3 = TestAccounts.createAccount("id1", 3, 5, 10);
+        final Account v2 = TestAccounts.createAccount("id1", 2, 4, 10);
+        final Account other = TestAccounts.createAccount("id2", 1, 3, 10);
+
+        processor.handleAccountBatch(Arrays.asList(v1, v3, other, v2));
+        waitForIngested(v3);
+        waitForIngested(other);
+
+        assertNull(v1.getProcessAccountRunnable());
+        assertNull(v2.getProcessAccountRunnable());
+        assertFalse(v1.isIngested());
+        assertFalse(v2.isIngested());
+    }
+
+    /**
+     * The highest version of a batch cancels the pending callback of an earlier version
+     */
+    public void testBatchCancelsPendingCallback() throws InterruptedException {
+        final Account v1 = TestAccounts.createAccount("id1", 1, 3, 10);
+        v1.setCallbackTimeMs(60_000);
+        processor.handleAccountProcessing(v1);
+
+        final Account v2 = TestAccounts.createAccount("id1", 2, 4, 10);
+        final Account v3 = TestAccounts.createAccount("id1", 3, 5, 10);
+        processor.handleAccountBatch(Arrays.asList(v2, v3));
+        waitForIngested(v3);
+
+        assertFalse(v1.isIngested());
+        assertEquals(5, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+    }
+
+    /**
+     * A re-sent copy of the highest version in the same batch keeps the version owning the
+     * callback, so the next version can still cancel it
+     */
+    public void testResentHighestVersionInBatch() throws InterruptedException {
+        final Account v1 = TestAccounts.createAccount("id1", 1, 3, 10);
+        v1.setCallbackTimeMs(60_000);
+        final Account resent = TestAccounts.createAccount("id1", 1, 3, 10);
+        processor.handleAccountBatch(Arrays.asList(v1, resent));
+        assertNotNull(v1.getProcessAccountRunnable());
+
+        final Account v2 = TestAccounts.createAccount("id1", 2, 4, 10);
+        processor.handleAccountBatch(Arrays.asList(v2));
+        waitForIngested(v2);
+
+        assertFalse(v1.isIngested());
+        assertEquals(4, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+        assertEquals(1, processor.getMetrics().getDuplicates());
+    }
+
+    private static void waitForIngested(Account account) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!account.isIngested() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertTrue("Account " + account.getId() + " version " + account.getVersion() + " was not ingested", account.isIngested());
+    }
+}
@@ -0,0 +1,180 @@
+package demo.processor;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.ProcessAccountRunnable;
+import demo.persistence.FsyncPolicy;
+import junit.framework.TestCase;
+import org.apache.log4j.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Multi-threaded throughput test of the account processor.  Each ingest thread
+ * updates its own set of account ids so, with per account id locking, the
+ * throughput should grow with the number of cores.
+ * @author skarmali
+ */
+public class AccountIndexerThroughputTest extends TestCase {
+    private static final Logger logger = LoggerFactory.getLogger(AccountIndexerThroughputTest.class);
+
+    private static final int ACCOUNTS_PER_THREAD = 2_000;
+    private static final int VERSIONS_PER_ACCOUNT = 10;
+
+    private Level processorLevel;
+    private Level runnableLevel;
+
+    @Override
+    public void setUp() {
+        // Per account logging would dominate the measurement
+        processorLevel = org.apache.log4j.Logger.getLogger(AccountIndexerProcessor.class).getLevel();
+        runnableLevel = org.apache.log4j.Logger.getLogger(ProcessAccountRunnable.class).getLevel();
+        org.apache.log4j.Logger.getLogger(AccountIndexerProcessor.class).setLevel(Level.WARN);
+        org.apache.log4j.Logger.getLogger(ProcessAccountRunnable.class).setLevel(Level.WARN);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        org.apache.log4j.Logger.getLogger(AccountIndexerProcessor.class).setLevel(processorLevel);
+        org.apache.log4j.Logger.getLogger(ProcessAccountRunnable.class).setLevel(runnableLevel);
+    }
+
+    /**
+     * Ingest the same amount of work per thread with 1..N threads and report the throughput.
+     * Every version must be indexed whatever the number of threads
+     */
+    public void testThroughputScalesWithCores() throws InterruptedException {
+        final int cores = Runtime.getRuntime().availableProcessors();
+
+        // Warm up the JIT before measuring
+        runIngest(1);
+
+        final double singleThreaded = runIngest(1);
+        double bestMultiThreaded = singleThreaded;
+        for (int threads = 2; threads <= Math.max(2, cores); threads *= 2) {
+            bestMultiThreaded = Math.max(bestMultiThreaded, runIngest(threads));
+        }
+
+        logger.info("Throughput scaling with " + cores + " cores: " + String.format("%.2f", bestMultiThreaded / singleThreaded) + "x");
+        if (cores >= 4) {
+            assertTrue("Throughput did not scale with the number of cores", bestMultiThreaded > singleThreaded * 1.2);
+        }
+    }
+
+    /**
+     * Two threads ingest versions 1 and 2 of the same account ids at the same time.  Whichever
+     * version takes the lock of an id first, the newer one finds the runnable to cancel.  The
+     * group commit journal widens the window between indexing and scheduling the callback
+     */
+    public void testConcurrentVersionsOfTheSameIds() throws InterruptedException, IOException {
+        final Path journalPath = Files.createTempFile("concurrent-versions", ".journal");
+        try {
+            final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false)
+                                                                                                              .setJournalPath(journalPath)
+                                                                                                              .setFsyncPolicy(FsyncPolicy.GROUP_COMMIT));
+            final int ids = 300;
+            final List<Account> versions1 = new ArrayList<>(ids);
+            final List<Account> versions2 = new ArrayList<>(ids);
+            for (int i = 0; i < ids; i++) {
+                versions1.add(TestAccounts.createAccount("id" + i, 1, 3, 60_000));
+                versions2.add(TestAccounts.createAccount("id" + i, 2, 4, 60_000));
+            }
+
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final Thread first = new Thread(() -> {
+                try {
+                    versions1.forEach(processor::handleAccountProcessing);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            final Thread second = new Thread(() -> {
+                try {
+                    for (int i = 0; i < ids; i++) {
+                        // Follow right behind version 1, it is received once its submit time is set
+                        while (versions1.get(i).getSubmittedNanos() == 0 && first.isAlive()) {
+                            Thread.onSpinWait();
+                        }
+                        processor.handleAccountProcessing(versions2.get(i));
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            first.start();
+            second.start();
+            first.join(TimeUnit.MINUTES.toMillis(1));
+            second.join(TimeUnit.MINUTES.toMillis(1));
+            processor.shutdownNow();
+
+            assertNull(String.valueOf(failure.get()), failure.get());
+            assertEquals(2 * ids, processor.getMetrics().getAccountsIndexed());
+        } finally {
+            Files.deleteIfExists(journalPath);
+        }
+    }
+
+    /**
+     * @return accounts ingested per second
+     */
+    private double runIngest(int threads) throws InterruptedException {
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor();
+        final List<List<Account>> work = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            work.add(createAccounts("thread" + t));
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final List<Account> accounts = work.get(t);
+            new Thread(() -> {
+                try {
+                    start.await();
+                    accounts.forEach(processor::handleAccountProcessing);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        final long startTime = System.nanoTime();
+        start.countDown();
+        assertTrue("Ingest did not finish", done.await(2, TimeUnit.MINUTES));
+        final long elapsed = System.nanoTime() - startTime;
+        processor.shutdown();
+
+        final int total = threads * ACCOUNTS_PER_THREAD * VERSIONS_PER_ACCOUNT;
+        final double throughput = total / (elapsed / 1_000_000_000.0);
+        logger.info(threads + " thread(s): " + total + " accounts in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms, " + String.format("%.0f", throughput) + " accounts/sec");
+
+        // The highest version of each account carries the highest token value
+        assertEquals(ACCOUNTS_PER_THREAD - 1 + VERSIONS_PER_ACCOUNT, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+        return throughput;
+    }
+
+    private List<Account> createAccounts(String prefix) {
+        final List<Account> accounts = new ArrayList<>(ACCOUNTS_PER_THREAD * VERSIONS_PER_ACCOUNT);
+        for (int version = 1; version <= VERSIONS_PER_ACCOUNT; version++) {
+            for (int i = 0; i < ACCOUNTS_PER_THREAD; i++) {
+                final Account account = TestAccounts.createAccount(prefix + "-" + i, version, version + 2, 1);
+                account.setTokens(i + version);
+                accounts.add(account);
+            }
+        }
+        return accounts;
+    }
+}
@@ -0,0 +1,102 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the processor configuration and the executor strategies
+ * @author skarmali
+ */
+public class AccountProcessorConfigTest extends TestCase {
+
+    public void testFromProperties() {
+        final Properties properties = new Properties();
+        properties.setProperty("account.executor", "bounded");
+        properties.setProperty("account.executor.threads", "3");
+        properties.setProperty("account.executor.queueCapacity", "50");
+        properties.setProperty("account.tokenAggregatePolicy", "LATEST_VERSION_ONLY");
+        properties.setProperty("account.storageMode", "compact");
+        properties.setProperty("account.retention", "latest:4");
+        properties.setProperty("account.staleVersionFilter", "true");
+        properties.setProperty("account.queryView.maxStalenessMs", "250");
+        properties.setProperty("account.pendingCallbacks.path", "accounts.pending");
+
+        final AccountProcessorConfig config = AccountProcessorConfig.fromProperties(properties);
+        assertEquals(ExecutorStrategy.BOUNDED, config.getExecutorStrategy());
+        assertEquals(3, config.getExecutorThreads());
+        assertEquals(50, config.getExecutorQueueCapacity());
+        assertEquals(TokenAggregatePolicy.LATEST_VERSION_ONLY, config.getTokenAggregatePolicy());
+        assertEquals(StorageMode.COMPACT, config.getStorageMode());
+        assertEquals(4, config.getRetentionPolicy().getMaxVersions());
+        assertTrue(config.isStaleVersionFilterEnabled());
+        assertEquals(250, config.getQueryViewMaxStalenessMs());
+        assertEquals(Paths.get("accounts.pending"), config.getPendingCallbacksPath());
+    }
+
+    public void testDefaults() {
+        final AccountProcessorConfig config = AccountProcessorConfig.fromProperties(new Properties());
+        assertEquals(ExecutorStrategy.CACHED, config.getExecutorStrategy());
+        assertEquals(TokenAggregatePolicy.ALL_VERSIONS, config.getTokenAggregatePolicy());
+        assertEquals(StorageMode.POJO, config.getStorageMode());
+        assertFalse(config.getRetentionPolicy().isBounded());
+        assertFalse(config.isStaleVersionFilterEnabled());
+        assertEquals(0, config.getQueryViewMaxStalenessMs());
+        assertNull(config.getPendingCallbacksPath());
+    }
+
+    public void testRetentionPolicyParsing() {
+        assertEquals(1, AccountProcessorConfig.parseRetentionPolicy("latest").getMaxVersions());
+        assertEquals(60, AccountProcessorConfig.parseRetentionPolicy("window:60000").getWindow(TimeUnit.SECONDS));
+        try {
+            AccountProcessorConfig.parseRetentionPolicy("window");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testExecutorStrategies() {
+        assertTrue(newExecutor(ExecutorStrategy.BOUNDED) instanceof ThreadPoolExecutor);
+        assertTrue(newExecutor(ExecutorStrategy.FORK_JOIN) instanceof ForkJoinPool);
+        assertNotNull(newExecutor(ExecutorStrategy.SCHEDULER));
+
+        // Falls back to a cached thread pool before JDK 21
+        assertNotNull(newExecutor(ExecutorStrategy.VIRTUAL));
+    }
+
+    /**
+     * Every executor strategy gives the same highest token values
+     */
+    public void testProcessingWithEveryStrategy() {
+        for (ExecutorStrategy strategy : ExecutorStrategy.values()) {
+            final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig()
+                    .setExecutorStrategy(strategy)
+                    .setExecutorThreads(2)
+                    .setExecutorQueueCapacity(8));
+            final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+            accounts.forEach(account -> account.setCallbackTimeMs(0));
+
+            accounts.forEach(processor::handleAccountProcessing);
+            processor.shutdown();
+
+            assertEquals(strategy.name(), 999, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+            assertEquals(strategy.name(), 836, processor.getHighestTokenValueByAccountType(AccountType.AUCTION));
+        }
+    }
+
+    private static ExecutorService newExecutor(ExecutorStrategy strategy) {
+        final ExecutorService executor = strategy.newExecutor(2, 8);
+        executor.shutdown();
+        return executor;
+    }
+}
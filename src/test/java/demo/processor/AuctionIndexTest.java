@@ -0,0 +1,116 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+import demo.utilities.JsonUtils;
+import demo.utilities.SimulatedClock;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Test class for the auction index by expiry and by bid
+ * @author skarmali
+ */
+public class AuctionIndexTest extends TestCase {
+    private AccountIndexerProcessor processor;
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        if (processor != null) {
+            processor.shutdown();
+        }
+    }
+
+    /**
+     * The top bids are the highest versions of the auctions of the data file ordered by bid
+     */
+    public void testTopBidsOfDataFile() {
+        processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false));
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+        accounts.forEach(processor::handleAccountProcessing);
+
+        final Map<String, Account> highestById = new HashMap<>();
+        for (Account account : accounts) {
+            highestById.merge(account.getId(), account, (current, next) -> (next.getVersion() >= current.getVersion()) ? next : current);
+        }
+        for (AccountType type : new AccountType[]{AccountType.AUCTION, AccountType.AUCTION_DATA}) {
+            final List<Integer> expected = highestById.values().stream()
+                                                      .filter(account -> account.getAccountType() == type)
+                                                      .map(account -> account.getData().getCurrentBid())
+                                                      .sorted(Comparator.reverseOrder())
+                                                      .collect(Collectors.toList());
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, bids(processor.getTopBids(type, 100)));
+        }
+
+        final List<Account> top = processor.getTopBids(2);
+        assertEquals(2, top.size());
+        assertTrue(top.get(0).getData().getCurrentBid() >= top.get(1).getData().getCurrentBid());
+
+        // An expiry of -1 never expires
+        assertTrue(processor.getAuctionsExpiringWithin(1, TimeUnit.DAYS).isEmpty());
+        assertEquals(0, processor.evictExpiredAuctions());
+    }
+
+    /**
+     * The auctions expiring soon come from the expiry index, expired ones are evicted from its head
+     */
+    public void testExpiryWindowAndEviction() {
+        final SimulatedClock clock = new SimulatedClock(1_000_000);
+        processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false).setClock(clock));
+        processor.handleAccountProcessing(createAuction("a1", 1, 300, 10));
+        processor.handleAccountProcessing(createAuction("a2", 1, 100, 20));
+        processor.handleAccountProcessing(createAuction("a3", 1, 200, 30));
+        processor.handleAccountProcessing(createAuction("a4", 1, -1, 5));
+
+        assertEquals(List.of("a2", "a3"), ids(processor.getAuctionsExpiringWithin(250, TimeUnit.MILLISECONDS)));
+        assertEquals(List.of("a3", "a2", "a1", "a4"), ids(processor.getTopBids(AccountType.AUCTION, 10)));
+
+        clock.advance(250, TimeUnit.MILLISECONDS);
+        assertEquals(List.of("a1"), ids(processor.getAuctionsExpiringWithin(1, TimeUnit.SECONDS)));
+        assertEquals(2, processor.evictExpiredAuctions());
+        assertEquals(2, processor.getIndexedAuctionCount());
+        assertEquals(List.of("a1", "a4"), ids(processor.getTopBids(AccountType.AUCTION, 10)));
+
+        // A new version with a higher bid moves up and restarts its expiry
+        processor.handleAccountProcessing(createAuction("a4", 2, 1_000, 50));
+        assertEquals(List.of("a4", "a1"), ids(processor.getTopBids(AccountType.AUCTION, 10)));
+        assertEquals(List.of("a1", "a4"), ids(processor.getAuctionsExpiringWithin(2, TimeUnit.SECONDS)));
+        assertEquals(List.of("a4"), ids(processor.getTopBids(1)));
+    }
+
+    private static List<String> ids(List<Account> accounts) {
+        final List<String> ids = new ArrayList<>();
+        accounts.forEach(account -> ids.add(account.getId()));
+        return ids;
+    }
+
+    private static List<Integer> bids(List<Account> accounts) {
+        return accounts.stream().map(account -> account.getData().getCurrentBid()).collect(Collectors.toList());
+    }
+
+    private static Account createAuction(String id, int version, int expiry, int currentBid) {
+        final Account account = new Account();
+        account.setId(id);
+        account.setAccountType(AccountType.AUCTION);
+        account.setTokens(currentBid);
+        account.setCallbackTimeMs(0);
+        account.setVersion(version);
+        final Data data = new Data();
+        data.setExpiry(expiry);
+        data.setCurrentBid(currentBid);
+        account.setData(data);
+        return account;
+    }
+}
@@ -0,0 +1,177 @@
+package demo.processor;
+
+import com.google.gson.Gson;
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Test class for the compact account version storage
+ * @author skarmali
+ */
+public class CompactAccountStoreTest extends TestCase {
+    private static final Gson GSON = JsonUtils.getGson();
+
+    /**
+     * Every account of the input file reads back from its record with the same values
+     */
+    public void testRoundTrip() {
+        final CompactAccountStore store = new CompactAccountStore();
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+
+        final int[] records = new int[accounts.size()];
+        for (int i = 0; i < accounts.size(); i++) {
+            records[i] = store.append(accounts.get(i), CompactAccountStore.NO_RECORD);
+        }
+
+        assertEquals(accounts.size(), store.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            assertEquals(GSON.toJson(accounts.get(i)), GSON.toJson(store.toAccount(records[i])));
+        }
+    }
+
+    /**
+     * Account ids are interned once, the versions of an account form a chain of records
+     */
+    public void testInternedIdsAndVersionChain() {
+        final CompactAccountStore store = new CompactAccountStore();
+        final int v1 = store.append(TestAccounts.createAccount("id1", 1, 10), CompactAccountStore.NO_RECORD);
+        store.append(TestAccounts.createAccount("id2", 1, 10), CompactAccountStore.NO_RECORD);
+        final int v2 = store.append(TestAccounts.createAccount("id1", 2, 10), v1);
+
+        assertEquals(2, store.getIdDictionary().size());
+        assertEquals(store.getIdHandle(v1), store.getIdHandle(v2));
+        assertEquals(v1, store.getPreviousRecord(v2));
+        assertEquals(2, store.getVersion(v2));
+        assertEquals(CompactAccountStore.NO_RECORD, store.getPreviousRecord(v1));
+        assertEquals(-1, store.getIdDictionary().lookup("id3"));
+    }
+
+    /**
+     * Versions close to the highest one are found by the bitmap, older ones by the chain.
+     * The highest version is materialized once after its callback fired
+     */
+    public void testDuplicateVersionsAndHighestVersion() {
+        final CompactAccountStore store = new CompactAccountStore();
+        final CompactAccountStates states = new CompactAccountStates(store);
+        final AccountState state = states.getOrCreate("id1");
+        assertSame(state, states.getOrCreate("id1"));
+        assertSame(state, states.get("id1"));
+        assertNull(states.get("id2"));
+
+        state.add(TestAccounts.createAccount("id1", 1, 10));
+        state.add(TestAccounts.createAccount("id1", 100, 10));
+        final Account v99 = TestAccounts.createAccount("id1", 99, 10);
+        assertFalse(state.contains(v99));
+        state.add(v99);
+        assertTrue(state.contains(TestAccounts.createAccount("id1", 99, 10)));
+        assertTrue(state.contains(TestAccounts.createAccount("id1", 100, 10)));
+        assertTrue(state.contains(TestAccounts.createAccount("id1", 1, 10)));
+        assertFalse(state.contains(TestAccounts.createAccount("id1", 2, 10)));
+        assertFalse(state.contains(TestAccounts.createAccount("id1", 101, 10)));
+        assertEquals(3, state.versionCount());
+
+        final Account v100 = state.highestVersion();
+        assertEquals(100, (int) v100.getVersion());
+        v100.setIngested(true);
+        final Account materialized = state.highestVersion();
+        assertNotSame(v100, materialized);
+        assertSame(materialized, state.highestVersion());
+        assertEquals(GSON.toJson(v100), GSON.toJson(materialized));
+
+        assertEquals(1, states.size());
+        states.forEach((id, accountState) -> assertSame(state, accountState));
+    }
+
+    /**
+     * Threads appending at the same time each get their own record
+     */
+    public void testConcurrentAppends() throws Exception {
+        final CompactAccountStore store = new CompactAccountStore();
+        final int threadCount = 4;
+        final int perThread = 50_000;
+        final int[][] records = new int[threadCount][perThread];
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    records[thread][i] = store.append(TestAccounts.createAccount("id" + thread + "-" + i, i + 1, 10), CompactAccountStore.NO_RECORD);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * perThread, store.size());
+        assertEquals(threadCount * perThread, store.getIdDictionary().size());
+        for (int t = 0; t < threadCount; t++) {
+            for (int i = 0; i < perThread; i++) {
+                final Account account = store.toAccount(records[t][i]);
+                assertEquals("id" + t + "-" + i, account.getId());
+                assertEquals(i + 1, (int) account.getVersion());
+            }
+        }
+    }
+
+    /**
+     * The dictionary grows past its initial capacity and finds every id again
+     */
+    public void testDictionaryGrowth() {
+        final AccountIdDictionary dictionary = new AccountIdDictionary();
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, dictionary.intern("account-" + i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, dictionary.lookup("account-" + i));
+            assertEquals("account-" + i, dictionary.get(i));
+        }
+        assertEquals(42, dictionary.intern("account-42"));
+        assertEquals(10_000, dictionary.size());
+    }
+
+    /**
+     * The processor gives the same highest token values with compact storage.  Versions
+     * are compared by number, so the re-delivered (id, version) tuples of the input file
+     * are handled as duplicates and do not count twice.
+     */
+    public void testProcessorWithCompactStorage() {
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(TokenAggregatePolicy.ALL_VERSIONS, StorageMode.COMPACT);
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+
+        final Set<String> tuples = new HashSet<>();
+        accounts.forEach(account -> tuples.add(account.getId() + ":" + account.getVersion()));
+
+        accounts.forEach(processor::handleAccountProcessing);
+        processor.shutdown();
+
+        assertEquals(901, processor.getHighestTokenValueByAccountType(AccountType.MASTER_EDITION));
+        assertEquals(960, processor.getHighestTokenValueByAccountType(AccountType.AUCTION_DATA));
+        assertEquals(999, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+        assertEquals(920, processor.getHighestTokenValueByAccountType(AccountType.ACCOUNT));
+        assertEquals(898, processor.getHighestTokenValueByAccountType(AccountType.ESCROW));
+        assertEquals(997, processor.getHighestTokenValueByAccountType(AccountType.META_DATA));
+        assertEquals(836, processor.getHighestTokenValueByAccountType(AccountType.AUCTION));
+        assertEquals(tuples.size(), processor.getTokenStats().values().stream().mapToLong(TokenStats::getCount).sum());
+        // A duplicate is not stored again
+        assertEquals(tuples.size(), processor.getCompactAccountStore().size());
+    }
+}
@@ -0,0 +1,158 @@
+package demo.processor;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.SimulatedClock;
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the fast shutdown saving the pending callbacks and the restart re-arming them
+ * @author skarmali
+ */
+public class FastShutdownTest extends TestCase {
+    private Path directory;
+    private Path pendingCallbacksPath;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        directory = Files.createTempDirectory("pending-callbacks");
+        pendingCallbacksPath = directory.resolve("pending-callbacks.bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        Files.deleteIfExists(pendingCallbacksPath);
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * The callbacks pending at shutdown fire after the restart at their original due time,
+     * the time the processor was down included, and only once
+     */
+    public void testPendingCallbacksAreRearmedWithTheirRemainingDelay() {
+        final SimulatedClock clock = new SimulatedClock(1_000_000);
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(newConfig(clock));
+        processor.handleAccountProcessing(TestAccounts.createAccount("id1", 1, 3, 200));
+        processor.handleAccountProcessing(TestAccounts.createAccount("id2", 1, 3, 1_000));
+        processor.handleAccountProcessing(TestAccounts.createAccount("id3", 1, 3, 5_000));
+        clock.advance(400, TimeUnit.MILLISECONDS);
+        assertEquals(1, processor.getMetrics().getCallbacksFired());
+
+        assertEquals(2, processor.shutdownNow());
+        assertTrue(Files.exists(pendingCallbacksPath));
+        try {
+            processor.handleAccountProcessing(TestAccounts.createAccount("id4", 1, 3, 0));
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        // Restarted 100ms later, id2 is due in 1000 - 400 - 100 = 500ms
+        final SimulatedClock restartClock = new SimulatedClock(1_000_500);
+        final AccountIndexerProcessor restarted = new AccountIndexerProcessor(newConfig(restartClock));
+        try {
+            assertFalse(Files.exists(pendingCallbacksPath));
+            assertEquals(2, restarted.getMetrics().getCallbacksScheduled());
+            assertEquals(3, restarted.getHighestTokenValueByAccountType(AccountType.MINT));
+
+            restartClock.advance(499, TimeUnit.MILLISECONDS);
+            assertEquals(0, restarted.getMetrics().getCallbacksFired());
+            restartClock.advance(1, TimeUnit.MILLISECONDS);
+            assertEquals(1, restarted.getMetrics().getCallbacksFired());
+
+            // A newer version still cancels the restored callback
+            restarted.handleAccountProcessing(TestAccounts.createAccount("id3", 2, 4, 10));
+            restartClock.advance(10, TimeUnit.SECONDS);
+            assertEquals(1, restarted.getMetrics().getCallbacksCancelled());
+            assertEquals(2, restarted.getMetrics().getCallbacksFired());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    /**
+     * The fast shutdown does not wait for callbacks due long after it
+     */
+    public void testShutdownNowDoesNotWaitForCallbacks() {
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false)
+                                                                                                          .setPendingCallbacksPath(pendingCallbacksPath));
+        processor.handleAccountProcessing(TestAccounts.createAccount("id1", 1, 3, 60_000));
+        processor.handleAccountProcessing(TestAccounts.createAccount("id1", 2, 4, 60_000));
+
+        final long start = System.nanoTime();
+        assertEquals(1, processor.shutdownNow());
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+
+        final AccountIndexerProcessor restarted = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false)
+                                                                                                          .setPendingCallbacksPath(pendingCallbacksPath));
+        assertEquals(1, restarted.getMetrics().getPendingCallbacks());
+        assertEquals(1, restarted.shutdownNow());
+    }
+
+    /**
+     * An account accepted while shutdownNow runs has its callback saved, it is either
+     * rejected up front or part of the pending callbacks, never lost in between
+     */
+    public void testAccountsAcceptedDuringShutdownNowAreSaved() throws InterruptedException {
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false)
+                                                                                                          .setPendingCallbacksPath(pendingCallbacksPath));
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; ; i++) {
+                    try {
+                        processor.handleAccountProcessing(TestAccounts.createAccount("id" + thread + "-" + i, 1, 3, 60_000));
+                        accepted.incrementAndGet();
+                    } catch (RejectedExecutionException e) {
+                        if (!e.getMessage().contains("shut down")) {
+                            failures.incrementAndGet();
+                        }
+                        return;
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        while (accepted.get() < 1_000) {
+            Thread.sleep(1);
+        }
+
+        final int pending = processor.shutdownNow();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(accepted.get(), pending);
+    }
+
+    public void testPendingCallbackFileRequiresNoJournal() {
+        try {
+            new AccountIndexerProcessor(newConfig(new SimulatedClock()).setJournalPath(directory.resolve("journal.bin")));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            directory.resolve("journal.bin").toFile().delete();
+        }
+    }
+
+    private AccountProcessorConfig newConfig(SimulatedClock clock) {
+        return new AccountProcessorConfig().setMetricsJmxEnabled(false).setClock(clock).setPendingCallbacksPath(pendingCallbacksPath);
+    }
+}
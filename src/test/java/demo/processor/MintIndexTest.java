@@ -0,0 +1,127 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.json.Data;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the secondary index from mint ids to account ids
+ * @author skarmali
+ */
+public class MintIndexTest extends TestCase {
+    private AccountIndexerProcessor processor;
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        if (processor != null) {
+            processor.shutdown();
+        }
+    }
+
+    /**
+     * The index answers the same joins as a full scan of the highest versions
+     */
+    public void testJoinsMatchFullScan() {
+        processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false));
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+        accounts.forEach(processor::handleAccountProcessing);
+
+        // Highest version of each id, the last one received wins between equal versions
+        final Map<String, Account> highestById = new HashMap<>();
+        for (Account account : accounts) {
+            highestById.merge(account.getId(), account, (current, next) -> (next.getVersion() >= current.getVersion()) ? next : current);
+        }
+        final Map<String, Set<String>> expected = new HashMap<>();
+        highestById.values().forEach(account -> {
+            if (account.getData() != null && account.getData().getMintId() != null) {
+                expected.computeIfAbsent(account.getData().getMintId(), mintId -> new HashSet<>()).add(account.getId());
+            }
+        });
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), processor.getIndexedMintCount());
+        expected.forEach((mintId, accountIds) -> {
+            assertEquals(accountIds, processor.getAccountIdsByMint(mintId));
+            assertEquals(accountIds.size(), processor.getAccountsByMint(mintId).size());
+        });
+        assertTrue(processor.getAccountIdsByMint("unknown").isEmpty());
+    }
+
+    /**
+     * A newer version moves the account to its new mint, an older version arriving late does not
+     */
+    public void testNewerVersionMovesTheAccount() {
+        processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false));
+        processor.handleAccountProcessing(createMetadata("meta1", 2, "mintA"));
+        processor.handleAccountProcessing(createMetadata("meta2", 1, "mintA"));
+        assertEquals(new HashSet<>(List.of("meta1", "meta2")), processor.getAccountIdsByMint("mintA"));
+
+        processor.handleAccountProcessing(createMetadata("meta1", 3, "mintB"));
+        processor.handleAccountProcessing(createMetadata("meta1", 1, "mintA"));
+        assertEquals(Collections.singleton("meta2"), processor.getAccountIdsByMint("mintA"));
+        assertEquals(Collections.singleton("meta1"), processor.getAccountIdsByMint("mintB"));
+        assertEquals(Integer.valueOf(3), processor.getAccountsByMint("mintB").get(0).getVersion());
+
+        // A version without a mint id takes the account out of the index
+        processor.handleAccountProcessing(createMetadata("meta2", 2, null));
+        assertTrue(processor.getAccountIdsByMint("mintA").isEmpty());
+        assertEquals(1, processor.getIndexedMintCount());
+    }
+
+    /**
+     * Threads moving different accounts between the same mints never lose an account
+     */
+    public void testConcurrentUpdates() throws InterruptedException {
+        final MintIndex mintIndex = new MintIndex();
+        final int threads = 4;
+        final int accountsPerThread = 200;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(() -> {
+                for (int i = 0; i < accountsPerThread; i++) {
+                    final String accountId = "account-" + thread + "-" + i;
+                    Account previous = null;
+                    for (int version = 1; version <= 20; version++) {
+                        final Account account = createMetadata(accountId, version, "mint" + (version % 2));
+                        mintIndex.highestVersionChanged(accountId, previous, account);
+                        previous = account;
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(threads * accountsPerThread, mintIndex.getAccountIds("mint0").size());
+        assertTrue(mintIndex.getAccountIds("mint1").isEmpty());
+    }
+
+    private static Account createMetadata(String id, int version, String mintId) {
+        final Account account = new Account();
+        account.setId(id);
+        account.setAccountType(AccountType.META_DATA);
+        account.setTokens(version);
+        account.setCallbackTimeMs(0);
+        account.setVersion(version);
+        final Data data = new Data();
+        data.setMintId(mintId);
+        account.setData(data);
+        return account;
+    }
+}
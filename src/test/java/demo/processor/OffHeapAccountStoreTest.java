@@ -0,0 +1,150 @@
+package demo.processor;
+
+import com.google.gson.Gson;
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test class for the off-heap account state store
+ * @author skarmali
+ */
+public class OffHeapAccountStoreTest extends TestCase {
+    private static final Gson GSON = JsonUtils.getGson();
+
+    /**
+     * Every account of the input file reads back from its off-heap record with the same values
+     */
+    public void testRoundTrip() {
+        final OffHeapAccountStore store = new OffHeapAccountStore();
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+
+        for (int i = 0; i < accounts.size(); i++) {
+            final Account account = accounts.get(i);
+            account.setId(account.getId() + "-" + i);
+            account.setIngested(true);
+            final AccountState accountState = store.getOrCreate(account.getId());
+            assertNull(accountState.highestVersion());
+            accountState.add(account);
+        }
+
+        assertEquals(accounts.size(), store.size());
+        for (Account account : accounts) {
+            final Account stored = store.get(account.getId()).highestVersion();
+            assertNotSame(account, stored);
+            assertEquals(GSON.toJson(account), GSON.toJson(stored));
+        }
+    }
+
+    /**
+     * Only the highest version is kept, as a POJO while its callback is pending, and the
+     * versions seen below it are remembered
+     */
+    public void testHighestVersionOnly() {
+        final OffHeapAccountStore store = new OffHeapAccountStore();
+        final AccountState accountState = store.getOrCreate("id1");
+        final Account v2 = TestAccounts.createAccount("id1", 2, 20);
+        final Account v1 = TestAccounts.createAccount("id1", 1, 10);
+        accountState.add(v2);
+        accountState.add(v1);
+
+        assertSame(v2, accountState.highestVersion());
+        assertTrue(accountState.contains(v1));
+        assertFalse(accountState.contains(TestAccounts.createAccount("id1", 3, 30)));
+        assertFalse(accountState.contains(TestAccounts.createAccount("id1", 0, 0)));
+        assertTrue(accountState.contains(TestAccounts.createAccount("id1", -100, 0)));
+        assertEquals(1, accountState.versionCount());
+        assertEquals(1, store.pendingHighestVersionCount());
+
+        // Once the callback fired the version is read from its record
+        v2.setIngested(true);
+        final Account stored = store.get("id1").highestVersion();
+        assertNotSame(v2, stored);
+        assertEquals(Integer.valueOf(20), stored.getTokens());
+        assertTrue(stored.isIngested());
+        assertEquals(0, store.pendingHighestVersionCount());
+        assertNull(store.get("id2"));
+    }
+
+    /**
+     * The segments grow past their initial capacity and find every id again
+     */
+    public void testGrowth() {
+        final OffHeapAccountStore store = new OffHeapAccountStore();
+        final long initialSize = store.estimatedSizeBytes();
+        for (int i = 0; i < 200_000; i++) {
+            final Account account = TestAccounts.createAccount("account-" + i, 1, i);
+            account.setIngested(true);
+            store.getOrCreate(account.getId()).add(account);
+        }
+
+        assertEquals(200_000, store.size());
+        assertTrue(store.estimatedSizeBytes() > initialSize);
+        for (int i = 0; i < 200_000; i += 7) {
+            assertEquals(Integer.valueOf(i), store.get("account-" + i).highestVersion().getTokens());
+        }
+        final Set<String> visited = new HashSet<>();
+        store.forEach((accountId, accountState) -> visited.add(accountId));
+        assertEquals(200_000, visited.size());
+    }
+
+    /**
+     * The processor gives the same highest token values and mint joins with off-heap storage
+     */
+    public void testProcessorWithOffHeapStorage() {
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig()
+                .setMetricsJmxEnabled(false)
+                .setStorageMode(StorageMode.OFF_HEAP));
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+        accounts.forEach(processor::handleAccountProcessing);
+        processor.shutdown();
+
+        assertEquals(901, processor.getHighestTokenValueByAccountType(AccountType.MASTER_EDITION));
+        assertEquals(960, processor.getHighestTokenValueByAccountType(AccountType.AUCTION_DATA));
+        assertEquals(999, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+        assertEquals(920, processor.getHighestTokenValueByAccountType(AccountType.ACCOUNT));
+        assertEquals(898, processor.getHighestTokenValueByAccountType(AccountType.ESCROW));
+        assertEquals(997, processor.getHighestTokenValueByAccountType(AccountType.META_DATA));
+        assertEquals(836, processor.getHighestTokenValueByAccountType(AccountType.AUCTION));
+        assertEquals(accounts.stream().map(Account::getId).distinct().count(),
+                     processor.getRetainedVersionCount());
+        assertTrue(processor.getIndexedMintCount() > 0);
+    }
+
+    /**
+     * The off-heap states are rebuilt from the journal like the POJO ones
+     */
+    public void testRecoveryFromJournal() throws IOException {
+        final Path directory = Files.createTempDirectory("off-heap");
+        try {
+            final AccountProcessorConfig config = new AccountProcessorConfig()
+                    .setMetricsJmxEnabled(false)
+                    .setStorageMode(StorageMode.OFF_HEAP)
+                    .setJournalPath(directory.resolve("accounts.journal"));
+            final AccountIndexerProcessor processor = new AccountIndexerProcessor(config);
+            final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+            accounts.forEach(account -> account.setCallbackTimeMs(0));
+            accounts.forEach(processor::handleAccountProcessing);
+            processor.shutdown();
+
+            final AccountIndexerProcessor restarted = new AccountIndexerProcessor(config);
+            restarted.shutdown();
+            assertEquals(processor.getTokenStats().toString(), restarted.getTokenStats().toString());
+            assertEquals(processor.getRetainedVersionCount(), restarted.getRetainedVersionCount());
+            assertEquals(0, restarted.getMetrics().getPendingCallbacks());
+        } finally {
+            Files.deleteIfExists(directory.resolve("accounts.journal"));
+            Files.delete(directory);
+        }
+    }
+}
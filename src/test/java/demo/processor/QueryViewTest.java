@@ -0,0 +1,106 @@
+package demo.processor;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.JsonUtils;
+import demo.utilities.SimulatedClock;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test class for the query views published within a staleness bound
+ * @author skarmali
+ */
+public class QueryViewTest extends TestCase {
+    private AccountIndexerProcessor processor;
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        if (processor != null) {
+            processor.shutdown();
+        }
+    }
+
+    /**
+     * Queries see the last published view until it is older than the bound, a published
+     * view never changes
+     */
+    public void testViewIsRepublishedAfterStalenessBound() {
+        final SimulatedClock clock = new SimulatedClock(1_000_000);
+        processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false).setClock(clock)
+                                                                            .setQueryViewMaxStalenessMs(100));
+        final QueryView first = processor.getQueryView();
+        assertTrue(first.getTokenStats().isEmpty());
+
+        processor.handleAccountProcessing(TestAccounts.createAccount("id1", 1, 40));
+        processor.handleAccountProcessing(TestAccounts.createAccount("id2", 1, 70));
+        assertSame(first, processor.getQueryView());
+        assertEquals(0, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+
+        clock.advance(101, TimeUnit.MILLISECONDS);
+        final QueryView second = processor.getQueryView();
+        assertTrue(second.getEpoch() > first.getEpoch());
+        assertEquals(70, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+        assertEquals(2, second.getTokenStats(AccountType.MINT).getCount());
+        assertEquals(2, second.getAccountIdCount());
+        assertEquals(40, second.getTokenPercentile(AccountType.MINT, 50));
+        assertEquals(1_000_101, second.getPublishedAtMillis());
+
+        // The first view still shows the accounts before the update
+        assertTrue(first.getTokenStats().isEmpty());
+        assertEquals(0, first.getHighestTokenValue(AccountType.MINT));
+    }
+
+    /**
+     * Readers running while the data file is indexed get views within the bound, in epoch
+     * order, and a view after the bound has the final statistics
+     */
+    public void testConcurrentReadersDuringIngestion() throws InterruptedException {
+        final long maxStalenessMs = 20;
+        processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false).setQueryViewMaxStalenessMs(maxStalenessMs));
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread[] readers = new Thread[2];
+        final long deadline = System.currentTimeMillis() + 300;
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                long lastEpoch = 0;
+                while (System.currentTimeMillis() < deadline) {
+                    final long now = System.currentTimeMillis();
+                    final QueryView view = processor.getQueryView();
+                    if (view.getEpoch() < lastEpoch) {
+                        failure.set("Epoch " + view.getEpoch() + " after " + lastEpoch);
+                    }
+                    // Allow for the precision of currentTimeMillis
+                    if (now - view.getPublishedAtMillis() > maxStalenessMs + 5) {
+                        failure.set("View published at " + view.getPublishedAtMillis() + " read at " + now);
+                    }
+                    lastEpoch = view.getEpoch();
+                }
+            });
+            readers[i].start();
+        }
+        for (Account account : accounts) {
+            processor.handleAccountProcessing(account);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get(), failure.get());
+
+        TimeUnit.MILLISECONDS.sleep(maxStalenessMs + 5);
+        assertEquals(999, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+        assertEquals(960, processor.getHighestTokenValueByAccountType(AccountType.AUCTION_DATA));
+        assertEquals(898, processor.getHighestTokenValueByAccountType(AccountType.ESCROW));
+        assertEquals(accounts.size(), processor.getTokenStats().values().stream().mapToLong(TokenStats::getCount).sum()
+                + processor.getMetrics().getDuplicates());
+    }
+}
@@ -0,0 +1,117 @@
+package demo.processor;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.utilities.SimulatedClock;
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the retention of account versions
+ * @author skarmali
+ */
+public class RetentionPolicyTest extends TestCase {
+
+    /**
+     * Only the K highest versions are kept, whatever the arrival order
+     */
+    public void testLatestVersions() {
+        final PojoAccountState accountState = new PojoAccountState(RetentionPolicy.latest(2));
+        accountState.add(TestAccounts.createAccount("id1", 3, 3));
+        accountState.add(TestAccounts.createAccount("id1", 1, 1));
+        accountState.add(TestAccounts.createAccount("id1", 5, 5));
+        accountState.add(TestAccounts.createAccount("id1", 4, 4));
+
+        assertEquals(2, accountState.versionCount());
+        assertEquals(5, accountState.highestVersion().getVersion().intValue());
+        assertTrue(accountState.contains(TestAccounts.createAccount("id1", 4, 4)));
+        assertTrue(accountState.contains(TestAccounts.createAccount("id1", 5, 5)));
+
+        // Dropped versions and anything older can't be told apart from a duplicate
+        assertTrue(accountState.contains(TestAccounts.createAccount("id1", 3, 3)));
+        assertTrue(accountState.contains(TestAccounts.createAccount("id1", 2, 2)));
+        assertFalse(accountState.contains(TestAccounts.createAccount("id1", 6, 6)));
+    }
+
+    /**
+     * Duplicates are detected by (id, version), not by object identity
+     */
+    public void testDuplicateDetection() {
+        final PojoAccountState accountState = new PojoAccountState(RetentionPolicy.keepAll());
+        for (int version = 1; version <= 1000; version++) {
+            accountState.add(TestAccounts.createAccount("id1", version, version));
+        }
+
+        assertEquals(1000, accountState.versionCount());
+        assertTrue(accountState.contains(TestAccounts.createAccount("id1", 500, 500)));
+        assertFalse(accountState.contains(TestAccounts.createAccount("id1", 1001, 1001)));
+        assertEquals(0, accountState.compact(System.nanoTime()));
+    }
+
+    /**
+     * A re-delivered copy of the pending highest version does not schedule a second callback,
+     * and the newer version that follows cancels the only one
+     */
+    public void testDuplicateOfPendingVersionFiresOneCallback() {
+        for (StorageMode storageMode : StorageMode.values()) {
+            final SimulatedClock clock = new SimulatedClock();
+            final AccountIndexerProcessor processor = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false)
+                                                                                                              .setStorageMode(storageMode)
+                                                                                                              .setClock(clock));
+            final Account v1 = TestAccounts.createAccount("id1", 1, 1);
+            v1.setCallbackTimeMs(1_000);
+            final Account copy = TestAccounts.createAccount("id1", 1, 1);
+            copy.setCallbackTimeMs(1_000);
+            final Account v2 = TestAccounts.createAccount("id1", 2, 2);
+            v2.setCallbackTimeMs(1_000);
+
+            processor.handleAccountProcessing(v1);
+            processor.handleAccountProcessing(copy);
+            assertEquals(storageMode.name(), 1, processor.getMetrics().getDuplicates());
+            processor.handleAccountProcessing(v2);
+            clock.advance(10, TimeUnit.SECONDS);
+
+            assertEquals(storageMode.name(), 1, processor.getMetrics().getCallbacksFired());
+            assertEquals(storageMode.name(), 1, processor.getMetrics().getCallbacksCancelled());
+            assertTrue(v2.isIngested());
+            assertFalse(copy.isIngested());
+            processor.shutdown();
+        }
+    }
+
+    /**
+     * Versions older than the time window are compacted, the highest version is kept
+     */
+    public void testTimeWindowCompaction() {
+        final AccountIndexerProcessor processor = new AccountIndexerProcessor(TokenAggregatePolicy.ALL_VERSIONS,
+                StorageMode.POJO, RetentionPolicy.timeWindow(1, TimeUnit.HOURS));
+        try {
+            processor.handleAccountProcessing(TestAccounts.createAccount("id1", 1, 1));
+            processor.handleAccountProcessing(TestAccounts.createAccount("id1", 2, 2));
+            assertEquals(2, processor.getRetainedVersionCount());
+            assertEquals(0, processor.compactVersions());
+        } finally {
+            processor.shutdown();
+        }
+
+        final PojoAccountState accountState = new PojoAccountState(RetentionPolicy.timeWindow(1, TimeUnit.HOURS));
+        accountState.add(TestAccounts.createAccount("id1", 2, 2));
+        accountState.add(TestAccounts.createAccount("id1", 1, 1));
+        accountState.add(TestAccounts.createAccount("id1", 3, 3));
+        assertEquals(2, accountState.compact(System.nanoTime() + TimeUnit.HOURS.toNanos(2)));
+        assertEquals(1, accountState.versionCount());
+        assertEquals(3, accountState.highestVersion().getVersion().intValue());
+    }
+
+    public void testInvalidPolicies() {
+        try {
+            RetentionPolicy.latest(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(RetentionPolicy.keepAll().isBounded());
+        assertTrue(RetentionPolicy.latest().isBounded());
+    }
+}
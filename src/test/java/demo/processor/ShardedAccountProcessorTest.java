@@ -0,0 +1,159 @@
+package demo.processor;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the hash-partitioned shard engine
+ * @author skarmali
+ */
+public class ShardedAccountProcessorTest extends TestCase {
+    private ShardedAccountProcessor processor;
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        processor.shutdown();
+    }
+
+    /**
+     * The merged per-shard aggregates give the same highest token values as the single processor
+     */
+    public void testHighestTokenValueAcrossShards() throws InterruptedException {
+        processor = new ShardedAccountProcessor(4, TokenAggregatePolicy.ALL_VERSIONS);
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+
+        accounts.forEach(processor::handleAccountProcessing);
+        assertTrue(processor.awaitIndexed(10, TimeUnit.SECONDS));
+
+        assertEquals(901, processor.getHighestTokenValueByAccountType(AccountType.MASTER_EDITION));
+        assertEquals(960, processor.getHighestTokenValueByAccountType(AccountType.AUCTION_DATA));
+        assertEquals(999, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+        assertEquals(920, processor.getHighestTokenValueByAccountType(AccountType.ACCOUNT));
+        assertEquals(898, processor.getHighestTokenValueByAccountType(AccountType.ESCROW));
+        assertEquals(997, processor.getHighestTokenValueByAccountType(AccountType.META_DATA));
+        assertEquals(836, processor.getHighestTokenValueByAccountType(AccountType.AUCTION));
+
+        // Re-delivered (id, version) tuples are duplicates and only count once
+        final Set<String> tuples = new HashSet<>();
+        accounts.forEach(account -> tuples.add(account.getId() + ":" + account.getVersion()));
+        assertEquals(tuples.size(), processor.getTokenStats().values().stream().mapToLong(TokenStats::getCount).sum());
+    }
+
+    /**
+     * The merged sketches of the shards give the same percentiles and distinct counts as a single processor
+     */
+    public void testSketchesAcrossShards() throws InterruptedException {
+        processor = new ShardedAccountProcessor(4, TokenAggregatePolicy.ALL_VERSIONS);
+        final AccountIndexerProcessor single = new AccountIndexerProcessor(new AccountProcessorConfig().setMetricsJmxEnabled(false));
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+
+        accounts.forEach(processor::handleAccountProcessing);
+        assertTrue(processor.awaitIndexed(10, TimeUnit.SECONDS));
+        final List<Account> copies = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        copies.forEach(account -> account.setCallbackTimeMs(0));
+        copies.forEach(single::handleAccountProcessing);
+        single.shutdown();
+
+        final Map<String, Integer> tokensByTuple = new HashMap<>();
+        final Map<AccountType, Set<String>> idsByType = new EnumMap<>(AccountType.class);
+        for (Account account : accounts) {
+            tokensByTuple.putIfAbsent(account.getAccountType() + ":" + account.getId() + ":" + account.getVersion(), account.getTokens());
+            idsByType.computeIfAbsent(account.getAccountType(), type -> new HashSet<>()).add(account.getId());
+        }
+
+        for (AccountType type : AccountType.values()) {
+            final String prefix = type + ":";
+            final int[] tokens = tokensByTuple.entrySet().stream().filter(entry -> entry.getKey().startsWith(prefix))
+                                              .mapToInt(Map.Entry::getValue).sorted().toArray();
+            assertEquals(idsByType.getOrDefault(type, Collections.emptySet()).size(), processor.getDistinctAccountCount(type));
+            assertEquals(single.getDistinctAccountCount(type), processor.getDistinctAccountCount(type));
+            for (double percentile : new double[]{50, 95, 99}) {
+                final int estimate = processor.getTokenPercentile(type, percentile);
+                assertEquals(single.getTokenPercentile(type, percentile), estimate);
+                if (tokens.length > 0) {
+                    final int exact = tokens[(int) Math.ceil(percentile / 100 * tokens.length) - 1];
+                    assertTrue(type + " p" + percentile + ": " + estimate + " vs " + exact, estimate >= exact && estimate - exact <= exact / 64 + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Versions of the same account are processed in order by its shard: the newer version
+     * cancels the callback of the older one
+     */
+    public void testNewerVersionCancelsOlderCallback() throws InterruptedException {
+        processor = new ShardedAccountProcessor(2, TokenAggregatePolicy.LATEST_VERSION_ONLY);
+        final Account v1 = TestAccounts.createAccount("id1", 1, 100, 60_000);
+        final Account v2 = TestAccounts.createAccount("id1", 2, 50, 10);
+
+        processor.handleAccountProcessing(v1);
+        processor.handleAccountProcessing(v2);
+        assertTrue(processor.awaitIndexed(10, TimeUnit.SECONDS));
+
+        assertEquals(50, processor.getHighestTokenValueByAccountType(AccountType.MINT));
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertFalse(v1.isIngested());
+        assertTrue(v2.isIngested());
+    }
+
+    /**
+     * An account accepted while shutdown runs is indexed before the shard threads exit,
+     * it is either rejected up front or indexed, never left in a mailbox
+     */
+    public void testAccountsAcceptedDuringShutdownAreIndexed() throws InterruptedException {
+        processor = new ShardedAccountProcessor(2, TokenAggregatePolicy.ALL_VERSIONS);
+        final AtomicInteger accepted = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; ; i++) {
+                    try {
+                        processor.handleAccountProcessing(TestAccounts.createAccount("id" + thread + "-" + i, 1, 1, 0));
+                        accepted.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        return;
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        while (accepted.get() < 1_000) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        processor.shutdown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(accepted.get(), processor.getMetrics().getAccountsIndexed());
+        assertEquals(accepted.get(), processor.getMetrics().getAccountsReceived());
+    }
+
+    /**
+     * The shard count defaults to the number of cores
+     */
+    public void testDefaultShardCount() {
+        processor = new ShardedAccountProcessor();
+        assertEquals(Runtime.getRuntime().availableProcessors(), processor.getShardCount());
+    }
+}
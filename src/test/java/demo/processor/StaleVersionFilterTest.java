@@ -0,0 +1,97 @@
+package demo.processor;
+
+import demo.json.Account;
+import demo.utilities.JsonUtils;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the lock-free duplicate and stale version rejection
+ * @author skarmali
+ */
+public class StaleVersionFilterTest extends TestCase {
+
+    public void testVerdicts() {
+        final StaleVersionFilter filter = new StaleVersionFilter();
+        assertEquals(StaleVersionFilter.Verdict.NEWER, filter.offer("id1", 2));
+        assertEquals(StaleVersionFilter.Verdict.DUPLICATE, filter.offer("id1", 2));
+        assertEquals(StaleVersionFilter.Verdict.STALE, filter.offer("id1", 1));
+        assertEquals(StaleVersionFilter.Verdict.NEWER, filter.offer("id1", 5));
+        assertEquals(StaleVersionFilter.Verdict.NEWER, filter.offer("id2", 1));
+
+        filter.restored("id2", 4);
+        filter.restored("id1", 3);
+        assertEquals(StaleVersionFilter.Verdict.STALE, filter.offer("id2", 3));
+        assertEquals(StaleVersionFilter.Verdict.DUPLICATE, filter.offer("id1", 5));
+        assertEquals(2, filter.size());
+    }
+
+    /**
+     * Threads racing on the same account ids let each version through at most once, in increasing order
+     */
+    public void testConcurrentOffers() throws InterruptedException {
+        final StaleVersionFilter filter = new StaleVersionFilter();
+        final int threads = 4;
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger[] highestAccepted = {new AtomicInteger(), new AtomicInteger()};
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    final int id = i & 1;
+                    final int version = ThreadLocalRandom.current().nextInt(1, 10_000);
+                    if (filter.offer("id" + id, version) == StaleVersionFilter.Verdict.NEWER) {
+                        accepted.incrementAndGet();
+                        highestAccepted[id].accumulateAndGet(version, Math::max);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(accepted.get() <= 2 * 10_000);
+        for (int id = 0; id < 2; id++) {
+            assertEquals(StaleVersionFilter.Verdict.DUPLICATE, filter.offer("id" + id, highestAccepted[id].get()));
+        }
+    }
+
+    /**
+     * A replayed feed is rejected by the filter, the highest versions are the same as without it
+     */
+    public void testReplayedFeedIsRejected() {
+        final AccountIndexerProcessor filtered = new AccountIndexerProcessor(new AccountProcessorConfig()
+                .setMetricsJmxEnabled(false)
+                .setTokenAggregatePolicy(TokenAggregatePolicy.LATEST_VERSION_ONLY)
+                .setStaleVersionFilterEnabled(true));
+        final AccountIndexerProcessor unfiltered = new AccountIndexerProcessor(new AccountProcessorConfig()
+                .setMetricsJmxEnabled(false)
+                .setTokenAggregatePolicy(TokenAggregatePolicy.LATEST_VERSION_ONLY));
+        final List<Account> accounts = loadAccounts();
+        accounts.forEach(filtered::handleAccountProcessing);
+        loadAccounts().forEach(unfiltered::handleAccountProcessing);
+        final long indexed = filtered.getMetrics().getAccountsIndexed();
+
+        final List<Account> replay = loadAccounts();
+        filtered.handleAccountBatch(replay);
+        replay.forEach(filtered::handleAccountProcessing);
+        filtered.shutdown();
+        unfiltered.shutdown();
+
+        assertEquals(indexed, filtered.getMetrics().getAccountsIndexed());
+        assertEquals(3L * accounts.size(), filtered.getMetrics().getAccountsReceived());
+        assertEquals(3L * accounts.size() - indexed, filtered.getMetrics().getDuplicates() + filtered.getMetrics().getIgnoredUpdates());
+        assertEquals(unfiltered.getTokenStats().toString(), filtered.getTokenStats().toString());
+    }
+
+    private static List<Account> loadAccounts() {
+        final List<Account> accounts = new JsonUtils().loadJsonAccountFile("coding-challenge-input.json");
+        accounts.forEach(account -> account.setCallbackTimeMs(0));
+        return accounts;
+    }
+}
@@ -0,0 +1,150 @@
+package demo.processor;
+
+import demo.TestAccounts;
+import demo.json.Account;
+import demo.json.AccountType;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for the token aggregates maintained per account type
+ * @author skarmali
+ */
+public class TokenAggregatesTest extends TestCase {
+
+    /**
+     * Every version counts, including superseded versions and versions that arrive late
+     */
+    public void testAllVersionsPolicy() {
+        final TokenAggregates aggregates = new TokenAggregates(TokenAggregatePolicy.ALL_VERSIONS);
+        final Account v1 = TestAccounts.createAccount("id1", AccountType.MINT, 1, 500, 0);
+        final Account v3 = TestAccounts.createAccount("id1", AccountType.MINT, 3, 100, 0);
+        final Account v2 = TestAccounts.createAccount("id1", AccountType.MINT, 2, 300, 0);
+
+        aggregates.versionIndexed(v1, null);
+        aggregates.versionIndexed(v3, v1);
+        aggregates.versionIndexed(v2, v3);
+
+        final TokenStats stats = aggregates.get(AccountType.MINT);
+        assertEquals(3, stats.getCount());
+        assertEquals(900, stats.getSum());
+        assertEquals(100, stats.getMin());
+        assertEquals(500, stats.getMax());
+        assertTrue(aggregates.get(AccountType.ESCROW).isEmpty());
+    }
+
+    /**
+     * A superseded version is removed from the aggregates and a late older version is ignored
+     */
+    public void testLatestVersionOnlyPolicy() {
+        final TokenAggregates aggregates = new TokenAggregates(TokenAggregatePolicy.LATEST_VERSION_ONLY);
+        final Account v1 = TestAccounts.createAccount("id1", AccountType.MINT, 1, 500, 0);
+        final Account v3 = TestAccounts.createAccount("id1", AccountType.MINT, 3, 100, 0);
+        final Account v2 = TestAccounts.createAccount("id1", AccountType.MINT, 2, 300, 0);
+        final Account other = TestAccounts.createAccount("id2", AccountType.MINT, 1, 200, 0);
+
+        aggregates.versionIndexed(v1, null);
+        aggregates.versionIndexed(other, null);
+        assertEquals(500, aggregates.get(AccountType.MINT).getMax());
+
+        aggregates.versionIndexed(v3, v1);
+        aggregates.versionIndexed(v2, v3);
+
+        final TokenStats stats = aggregates.get(AccountType.MINT);
+        assertEquals(2, stats.getCount());
+        assertEquals(300, stats.getSum());
+        assertEquals(100, stats.getMin());
+        assertEquals(200, stats.getMax());
+    }
+
+    /**
+     * A newer version of an account with a different account type moves the account to the new type
+     */
+    public void testLatestVersionChangesAccountType() {
+        final TokenAggregates aggregates = new TokenAggregates(TokenAggregatePolicy.LATEST_VERSION_ONLY);
+        final Account v1 = TestAccounts.createAccount("id1", AccountType.AUCTION, 1, 500, 0);
+        final Account v2 = TestAccounts.createAccount("id1", AccountType.AUCTION_DATA, 2, 400, 0);
+
+        aggregates.versionIndexed(v1, null);
+        aggregates.versionIndexed(v2, v1);
+
+        assertTrue(aggregates.get(AccountType.AUCTION).isEmpty());
+        assertEquals(400, aggregates.get(AccountType.AUCTION_DATA).getMax());
+        assertEquals(1, aggregates.getAll().size());
+    }
+
+    /**
+     * Threads indexing different ids of the same type do not lose updates, for both policies
+     */
+    public void testConcurrentUpdatesOfOneType() throws InterruptedException {
+        for (TokenAggregatePolicy policy : TokenAggregatePolicy.values()) {
+            final TokenAggregates aggregates = new TokenAggregates(policy);
+            final int threads = 4;
+            final int ids = 5_000;
+            final List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final String prefix = "thread" + t + "-";
+                final Thread writer = new Thread(() -> {
+                    for (int i = 1; i <= ids; i++) {
+                        final Account v1 = TestAccounts.createAccount(prefix + i, AccountType.MINT, 1, i, 0);
+                        aggregates.versionIndexed(v1, null);
+                        aggregates.versionIndexed(TestAccounts.createAccount(prefix + i, AccountType.MINT, 2, i + 1, 0), v1);
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+
+            final int perId = (policy == TokenAggregatePolicy.ALL_VERSIONS) ? 2 : 1;
+            final TokenStats stats = aggregates.get(AccountType.MINT);
+            assertEquals((long) threads * ids * perId, stats.getCount());
+            assertEquals((policy == TokenAggregatePolicy.ALL_VERSIONS) ? 1 : 2, stats.getMin());
+            assertEquals(ids + 1, stats.getMax());
+            assertEquals(stats.getCount(), aggregates.getTokenSketch(AccountType.MINT).getCount());
+        }
+    }
+
+    /**
+     * A read while other threads supersede versions sees each supersede applied fully or not at all
+     */
+    public void testConsistentReadsDuringSupersedes() throws InterruptedException {
+        final TokenAggregates aggregates = new TokenAggregates(TokenAggregatePolicy.LATEST_VERSION_ONLY);
+        final int threads = 4;
+        final int versions = 20_000;
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            // One account id per thread, so its versions are applied in order
+            final Account first = TestAccounts.createAccount("id" + t, AccountType.MINT, 1, 1, 0);
+            aggregates.versionIndexed(first, null);
+            writers.add(new Thread(() -> {
+                Account previous = first;
+                for (int version = 2; version <= versions; version++) {
+                    final Account account = TestAccounts.createAccount(first.getId(), AccountType.MINT, version, version % 100 + 1, 0);
+                    aggregates.versionIndexed(account, previous);
+                    previous = account;
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+
+        int reads = 0;
+        while (writers.stream().anyMatch(Thread::isAlive) || reads == 0) {
+            final TokenAggregates.TypeSnapshot snapshot = aggregates.snapshot(AccountType.MINT);
+            final TokenStats stats = snapshot.stats;
+            assertEquals(threads, stats.getCount());
+            assertTrue(stats.toString(), stats.getMin() <= stats.getMax());
+            assertTrue(stats.toString(), stats.getSum() >= stats.getCount() * stats.getMin());
+            assertTrue(stats.toString(), stats.getSum() <= stats.getCount() * stats.getMax());
+            assertEquals(stats.getCount(), snapshot.tokenSketch.getCount());
+            reads++;
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+    }
+}
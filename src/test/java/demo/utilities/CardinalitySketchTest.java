@@ -0,0 +1,51 @@
+package demo.utilities;
+
+import junit.framework.TestCase;
+
+/**
+ * Test class for the HyperLogLog distinct count sketch
+ * @author skarmali
+ */
+public class CardinalitySketchTest extends TestCase {
+
+    /**
+     * Small counts use linear counting and are within a couple of the true count
+     */
+    public void testSmallCounts() {
+        final CardinalitySketch sketch = new CardinalitySketch();
+        assertEquals(0, sketch.estimate());
+
+        for (int i = 0; i < 100; i++) {
+            sketch.add("account-" + i);
+            sketch.add("account-" + i);
+        }
+        assertEquals(100, sketch.estimate(), 2);
+    }
+
+    /**
+     * Large counts are within a few standard errors, duplicates do not count
+     */
+    public void testLargeCounts() {
+        final CardinalitySketch sketch = new CardinalitySketch();
+        for (int i = 0; i < 200_000; i++) {
+            sketch.add("account-" + (i % 100_000));
+        }
+        assertEquals(100_000, sketch.estimate(), 5_000);
+    }
+
+    /**
+     * The merge of overlapping sketches counts the union once
+     */
+    public void testMergeOverlappingSketches() {
+        final CardinalitySketch first = new CardinalitySketch();
+        final CardinalitySketch second = new CardinalitySketch();
+        for (int i = 0; i < 30_000; i++) {
+            first.add("account-" + i);
+            second.add("account-" + (i + 20_000));
+        }
+
+        final CardinalitySketch merged = first.copy().merge(second);
+        assertEquals(50_000, merged.estimate(), 2_500);
+        assertEquals(30_000, first.estimate(), 1_500);
+    }
+}
@@ -0,0 +1,115 @@
+package demo.utilities;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the timing wheel that fires the account callbacks
+ * @author skarmali
+ */
+public class HashedWheelTimerTest extends TestCase {
+    private HashedWheelTimer timer;
+
+    @Override
+    public void setUp() {
+        timer = new HashedWheelTimer("test-timer", 1, TimeUnit.MILLISECONDS, 64);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        timer.stop();
+    }
+
+    /**
+     * A timeout should not fire before its delay has elapsed
+     */
+    public void testTimeoutFiresAfterDelay() throws InterruptedException {
+        final CountDownLatch fired = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        final HashedWheelTimer.Timeout timeout = timer.newTimeout(fired::countDown, 200, TimeUnit.MILLISECONDS);
+
+        assertTrue("Timeout did not fire", fired.await(5, TimeUnit.SECONDS));
+        assertTrue("Timeout fired too early", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        assertTrue(timeout.isExpired());
+        assertFalse("An expired timeout cannot be cancelled", timeout.cancel());
+    }
+
+    /**
+     * A cancelled timeout should never fire and should no longer be pending
+     */
+    public void testCancelledTimeoutDoesNotFire() throws InterruptedException {
+        final AtomicInteger fired = new AtomicInteger();
+        final HashedWheelTimer.Timeout timeout = timer.newTimeout(fired::incrementAndGet, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertFalse("Timeout cannot be cancelled twice", timeout.cancel());
+        assertTrue(timer.awaitPending(5, TimeUnit.SECONDS));
+
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(0, fired.get());
+        assertTrue(timeout.isCancelled());
+    }
+
+    /**
+     * Many pending timeouts, some spanning several rounds of the wheel, are all fired
+     * by the single timer thread.  Every other timeout is cancelled
+     */
+    public void testManyTimeouts() throws InterruptedException {
+        final int count = 100_000;
+        final AtomicInteger fired = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            final HashedWheelTimer.Timeout timeout = timer.newTimeout(fired::incrementAndGet, i % 300, TimeUnit.MILLISECONDS);
+            if (i % 2 == 1) {
+                timeout.cancel();
+            }
+        }
+
+        assertTrue("Pending timeouts did not drain", timer.awaitPending(10, TimeUnit.SECONDS));
+        assertEquals(count / 2, fired.get());
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    /**
+     * Stopping the timer hands back the timeouts that have not fired
+     */
+    public void testStopReturnsUnprocessedTimeouts() {
+        timer.newTimeout(() -> fail("Timeout should not fire"), 1, TimeUnit.HOURS);
+        timer.newTimeout(() -> fail("Timeout should not fire"), 2, TimeUnit.HOURS).cancel();
+
+        final List<HashedWheelTimer.Timeout> unprocessed = timer.stop();
+        assertEquals(1, unprocessed.size());
+        assertTrue(unprocessed.get(0).getRemainingDelay(TimeUnit.MINUTES) > 50);
+    }
+
+    /**
+     * A timeout scheduled while the timer stops is either returned by stop() or rejected,
+     * it is never left pending
+     */
+    public void testScheduleWhileStopping() throws InterruptedException {
+        final AtomicInteger accepted = new AtomicInteger();
+        final Thread scheduler = new Thread(() -> {
+            try {
+                while (true) {
+                    timer.newTimeout(() -> { }, 1, TimeUnit.HOURS);
+                    accepted.incrementAndGet();
+                }
+            } catch (IllegalStateException expected) {
+                // The timer stopped
+            }
+        });
+        scheduler.start();
+        TimeUnit.MILLISECONDS.sleep(20);
+
+        final List<HashedWheelTimer.Timeout> unprocessed = timer.stop();
+        scheduler.join();
+        assertEquals(accepted.get(), unprocessed.size());
+        assertEquals(0, timer.pendingTimeouts());
+        assertTrue(timer.awaitPending(0, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,199 @@
+package demo.utilities;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import demo.json.Account;
+import demo.json.AccountType;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the streaming and tail-following account parsing
+ * @author skarmali
+ */
+public class JsonUtilsTest extends TestCase {
+    private final JsonUtils jsonUtils = new JsonUtils();
+    private Path ndjsonFile;
+
+    @Override
+    public void setUp() throws IOException {
+        ndjsonFile = Files.createTempFile("accounts", ".ndjson");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        Files.deleteIfExists(ndjsonFile);
+    }
+
+    /**
+     * Streaming the JSON array yields the same accounts, in the same order, as loading it
+     */
+    public void testStreamJsonAccountFile() {
+        final List<Account> loaded = jsonUtils.loadJsonAccountFile("coding-challenge-input.json");
+        final List<Account> streamed = new ArrayList<>();
+
+        final long count = jsonUtils.streamJsonAccountFile("coding-challenge-input.json", streamed::add);
+
+        assertEquals(loaded.size(), count);
+        assertEquals(loaded.size(), streamed.size());
+        for (int i = 0; i < loaded.size(); i++) {
+            assertEquals(loaded.get(i).getId(), streamed.get(i).getId());
+            assertEquals(loaded.get(i).getVersion(), streamed.get(i).getVersion());
+            assertEquals(loaded.get(i).getTokens(), streamed.get(i).getTokens());
+        }
+    }
+
+    /**
+     * Each account is handed over before the rest of the array has been parsed
+     */
+    public void testStreamStopsAtCorruptElement() {
+        final String json = "[" + accountJson("id1", 1) + "," + accountJson("id2", 2) + ", {\"id\": ";
+        final List<Account> streamed = new ArrayList<>();
+
+        try {
+            jsonUtils.streamJsonAccounts(new StringReader(json), streamed::add);
+            fail("Expected the truncated array to fail");
+        } catch (Exception expected) {
+            // The accounts decoded before the corrupt element were already processed
+        }
+        assertEquals(2, streamed.size());
+    }
+
+    /**
+     * The tailer picks up lines as they are appended, holds back a partial line until
+     * it is completed and skips corrupt lines
+     */
+    public void testTailNewlineDelimitedFile() throws IOException {
+        final List<Account> tailed = new ArrayList<>();
+        final AccountFileTailer tailer = new AccountFileTailer(ndjsonFile, tailed::add, 10);
+
+        append(accountJson("id1", 1) + "\n" + accountJson("id2", 1) + "\n");
+        assertEquals(2, tailer.readAvailable());
+
+        // A partial line is not decoded until its newline is written
+        final String partial = accountJson("id1", 2);
+        append(partial.substring(0, 10));
+        assertEquals(0, tailer.readAvailable());
+        append(partial.substring(10) + "\n" + "not json\n\n" + accountJson("id3", 7) + "\n");
+        assertEquals(2, tailer.readAvailable());
+
+        assertEquals(4, tailed.size());
+        assertEquals("id1", tailed.get(2).getId());
+        assertEquals(Integer.valueOf(2), tailed.get(2).getVersion());
+        assertEquals(Integer.valueOf(7), tailed.get(3).getVersion());
+    }
+
+    /**
+     * A consumer failure does not stop the tailer thread, and a file replaced by a larger one
+     * is read from its start
+     */
+    public void testTailerSurvivesConsumerFailureAndRotation() throws IOException, InterruptedException {
+        final List<Account> tailed = new CopyOnWriteArrayList<>();
+        final AccountFileTailer tailer = new AccountFileTailer(ndjsonFile, account -> {
+            if ("bad".equals(account.getId())) {
+                throw new IllegalStateException("Consumer failure");
+            }
+            tailed.add(account);
+        }, 5);
+        final Thread thread = new Thread(tailer);
+        thread.start();
+        try {
+            append(accountJson("bad", 1) + "\n" + accountJson("id1", 1) + "\n");
+            waitForAccounts(tailed, 1);
+
+            // Rotate: a new, larger file replaces the one being read
+            final Path rotated = Files.createTempFile(ndjsonFile.getParent(), "rotated", ".ndjson");
+            Files.write(rotated, (accountJson("id2", 1) + "\n" + accountJson("id3", 1) + "\n" + accountJson("id4", 1) + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            Files.move(rotated, ndjsonFile, StandardCopyOption.REPLACE_EXISTING);
+            waitForAccounts(tailed, 4);
+
+            assertTrue(thread.isAlive());
+            assertEquals("id2", tailed.get(1).getId());
+            assertEquals("id4", tailed.get(3).getId());
+            assertEquals(5, tailer.getAccountCount());
+        } finally {
+            tailer.stop();
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private static void waitForAccounts(List<Account> accounts, int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (accounts.size() < count && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertEquals(count, accounts.size());
+    }
+
+    /**
+     * The hand-written type adapters decode the bundled file exactly like the reflective binding
+     */
+    public void testTypeAdaptersMatchReflectiveBinding() {
+        final List<Account> reflective = new Gson().fromJson(
+                new InputStreamReader(getClass().getClassLoader().getResourceAsStream("coding-challenge-input.json"), StandardCharsets.UTF_8),
+                new TypeToken<List<Account>>() {
+                }.getType());
+        final List<Account> adapted = jsonUtils.loadJsonAccountFile("coding-challenge-input.json");
+
+        assertEquals(reflective.size(), adapted.size());
+        for (int i = 0; i < reflective.size(); i++) {
+            assertEquals(reflective.get(i).toString(), adapted.get(i).toString());
+        }
+    }
+
+    /**
+     * Unknown fields are skipped, an unknown account type is null and a corrupt number is a parse error
+     */
+    public void testTypeAdapterEdgeCases() {
+        final Account account = JsonUtils.parseAccount("{\"id\": \"id1\", \"accountType\": \"unknown\", \"extra\": {\"a\": [1, 2]}, " +
+                                                       "\"data\": {\"expiry\": -1, \"currentBid\": 10, \"extra\": true}, \"version\": null}");
+        assertEquals("id1", account.getId());
+        assertNull(account.getAccountType());
+        assertEquals(Integer.valueOf(0), account.getVersion());
+        assertTrue(account.getData().isBidSchema());
+        assertEquals(Integer.valueOf(10), account.getData().getCurrentBid());
+
+        assertEquals(AccountType.AUCTION_DATA, JsonUtils.parseAccount("{\"accountType\": \"auctionData\"}").getAccountType());
+
+        try {
+            JsonUtils.parseAccount("{\"id\": \"id1\", \"tokens\": \"many\"}");
+            fail("Expected a parse error");
+        } catch (JsonParseException expected) {
+        }
+    }
+
+    /**
+     * Writing an account with the shared parser and reading it back gives the same account
+     */
+    public void testTypeAdapterRoundTrip() {
+        final Account account = jsonUtils.loadJsonAccountFile("coding-challenge-input.json").get(0);
+        final Account copy = JsonUtils.parseAccount(JsonUtils.getGson().toJson(account));
+
+        assertEquals(account.toString(), copy.toString());
+    }
+
+    private void append(String text) throws IOException {
+        Files.write(ndjsonFile, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private static String accountJson(String id, int version) {
+        return "{\"id\": \"" + id + "\", \"accountType\": \"mint\", \"tokens\": 10, \"callbackTimeMs\": 100, " +
+                "\"data\": {\"mintId\": \"" + id + "\"}, \"version\": " + version + "}";
+    }
+}
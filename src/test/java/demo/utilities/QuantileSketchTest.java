@@ -0,0 +1,95 @@
+package demo.utilities;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Test class for the mergeable quantile sketch
+ * @author skarmali
+ */
+public class QuantileSketchTest extends TestCase {
+
+    /**
+     * Every value falls in a bucket whose upper bound is within about 1.6% of it
+     */
+    public void testBucketPrecision() {
+        for (int i = 0; i < 100_000; i++) {
+            final int value = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE >>> ThreadLocalRandom.current().nextInt(31));
+            final int index = QuantileSketch.bucketIndex(value);
+            final int upperBound = QuantileSketch.bucketUpperBound(index);
+            assertTrue(value + " > " + upperBound, value <= upperBound);
+            assertTrue(index == 0 || value > QuantileSketch.bucketUpperBound(index - 1));
+            assertTrue(upperBound - value <= value / 64 + 1);
+        }
+        assertEquals(Integer.MAX_VALUE, QuantileSketch.bucketUpperBound(QuantileSketch.bucketIndex(Integer.MAX_VALUE)));
+    }
+
+    /**
+     * The percentiles are within the precision of the exact nearest-rank percentiles
+     */
+    public void testPercentiles() {
+        final QuantileSketch sketch = new QuantileSketch();
+        assertEquals(0, sketch.getValueAtPercentile(50));
+
+        final int[] values = new int[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ThreadLocalRandom.current().nextInt(1_000_000);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, sketch.getCount());
+        for (double percentile : new double[]{1, 50, 95, 99, 100}) {
+            final int exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            final int estimate = sketch.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " < " + exact, estimate >= exact);
+            assertTrue(percentile + ": " + estimate + " > " + exact, estimate - exact <= exact / 64 + 1);
+        }
+    }
+
+    public void testRemove() {
+        final QuantileSketch sketch = new QuantileSketch();
+        sketch.add(10);
+        sketch.add(500);
+        sketch.remove(500);
+        assertEquals(1, sketch.getCount());
+        assertEquals(10, sketch.getValueAtPercentile(100));
+
+        try {
+            sketch.remove(500);
+            fail("A value never added was removed");
+        } catch (IllegalStateException e) {
+            assertEquals(1, sketch.getCount());
+        }
+    }
+
+    /**
+     * Merged sketches are the sketch of all the values, and survive serialization
+     */
+    public void testMergeAndSerialization() {
+        final QuantileSketch first = new QuantileSketch();
+        final QuantileSketch second = new QuantileSketch();
+        final QuantileSketch all = new QuantileSketch();
+        for (int value = 0; value < 5_000; value++) {
+            ((value % 3 == 0) ? first : second).add(value);
+            all.add(value);
+        }
+
+        final QuantileSketch merged = first.copy().merge(second);
+        assertEquals(all.toString(), merged.toString());
+        assertEquals(1_667, first.getCount());
+
+        final ByteBuffer buffer = ByteBuffer.allocate(merged.serializedSize());
+        merged.writeTo(buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        final QuantileSketch read = QuantileSketch.readFrom(buffer);
+        assertEquals(all.getCount(), read.getCount());
+        for (double percentile = 0; percentile <= 100; percentile += 2.5) {
+            assertEquals(all.getValueAtPercentile(percentile), read.getValueAtPercentile(percentile));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package demo.utilities;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the discrete-event simulated clock
+ * @author skarmali
+ */
+public class SimulatedClockTest extends TestCase {
+    private SimulatedClock clock;
+    private TaskTimer timer;
+
+    @Override
+    public void setUp() {
+        clock = new SimulatedClock(1_000);
+        timer = clock.newTimer("test-timer");
+    }
+
+    /**
+     * Tasks run in due order, tasks due at the same time in scheduling order, and the time
+     * seen by a task is its due time
+     */
+    public void testTasksRunInDueOrder() {
+        final List<String> events = new ArrayList<>();
+        timer.newTimeout(() -> events.add("c@" + clock.currentTimeMillis()), 300, TimeUnit.MILLISECONDS);
+        timer.newTimeout(() -> events.add("a@" + clock.currentTimeMillis()), 100, TimeUnit.MILLISECONDS);
+        timer.newTimeout(() -> events.add("b@" + clock.currentTimeMillis()), 100, TimeUnit.MILLISECONDS);
+
+        assertEquals(3, clock.runUntilIdle());
+        assertEquals("[a@1100, b@1100, c@1300]", events.toString());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(300), clock.nanoTime());
+    }
+
+    /**
+     * Advancing only runs the tasks due within the delay, including the ones scheduled by a task
+     */
+    public void testAdvance() {
+        final List<String> events = new ArrayList<>();
+        timer.newTimeout(() -> {
+            events.add("first@" + clock.nanoTime() / 1_000_000);
+            timer.newTimeout(() -> events.add("second@" + clock.nanoTime() / 1_000_000), 50, TimeUnit.MILLISECONDS);
+        }, 100, TimeUnit.MILLISECONDS);
+        timer.newTimeout(() -> events.add("late@" + clock.nanoTime() / 1_000_000), 500, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, clock.advance(200, TimeUnit.MILLISECONDS));
+        assertEquals("[first@100, second@150]", events.toString());
+        assertEquals(200, clock.nanoTime() / 1_000_000);
+        assertEquals(1, timer.pendingTimeouts());
+        assertEquals(1, clock.getPendingEvents());
+    }
+
+    /**
+     * A cancelled task never runs, and stopping a timer returns its pending timeouts in due order
+     */
+    public void testCancelAndStop() {
+        final List<String> events = new ArrayList<>();
+        final TaskTimer.Timeout cancelled = timer.newTimeout(() -> events.add("cancelled"), 100, TimeUnit.MILLISECONDS);
+        final Runnable late = () -> events.add("late");
+        timer.newTimeout(late, 400, TimeUnit.MILLISECONDS);
+        final Runnable early = () -> events.add("early");
+        timer.newTimeout(early, 200, TimeUnit.MILLISECONDS);
+
+        assertTrue(cancelled.cancel());
+        assertTrue(cancelled.isCancelled());
+        assertEquals(2, timer.pendingTimeouts());
+
+        clock.advance(150, TimeUnit.MILLISECONDS);
+        final List<? extends TaskTimer.Timeout> unprocessed = timer.stop();
+        assertEquals(2, unprocessed.size());
+        assertSame(early, unprocessed.get(0).getTask());
+        assertEquals(50, unprocessed.get(0).getRemainingDelay(TimeUnit.MILLISECONDS));
+        assertSame(late, unprocessed.get(1).getTask());
+        assertEquals(0, clock.runUntilIdle());
+        assertTrue(events.isEmpty());
+    }
+
+    /**
+     * Waiting for the pending timeouts of a timer advances the simulation, and gives up when
+     * the timeout has passed in simulated time
+     */
+    public void testAwaitPending() throws InterruptedException {
+        final TaskTimer other = clock.newTimer("other-timer");
+        final List<String> events = new ArrayList<>();
+        timer.newTimeout(() -> events.add("timer"), 2, TimeUnit.SECONDS);
+        other.newTimeout(() -> events.add("other"), 1, TimeUnit.SECONDS);
+        other.newTimeout(() -> events.add("other-late"), 1, TimeUnit.HOURS);
+
+        assertFalse(timer.awaitPending(500, TimeUnit.MILLISECONDS));
+        assertTrue(events.isEmpty());
+
+        final long start = System.nanoTime();
+        assertTrue(timer.awaitPending(10, TimeUnit.SECONDS));
+        assertTrue("Simulated time should not wait for real time", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 1);
+        assertEquals("[other, timer]", events.toString());
+        assertEquals(1, other.pendingTimeouts());
+        assertEquals(2, clock.getExecutedEvents());
+    }
+}